@@ -16,12 +16,14 @@
  */
 package org.apache.rocketmq.streams.db.sink;
 
+import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import com.google.common.collect.Lists;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import org.apache.commons.logging.Log;
@@ -66,8 +68,29 @@ public class DBSink extends AbstractSink {
 
     protected boolean openSqlCache = true;
 
+    protected int poolSize = 4;//连接池大小，多个线程写入时各自使用一个连接
+
+    protected boolean usePreparedStatement = true;//metadata模式使用PreparedStatement批量写入，不再拼接sql
+
+    protected boolean rewriteBatchedValues = false;//PreparedStatement模式下，把一批数据改写成一条多行values的insert
+
     protected transient IMessageCache<String> sqlCache;//cache sql, batch submit sql
 
+    protected transient IMessageCache<Object[]> preparedCache;//PreparedStatement模式下缓存每行的参数，和sqlCache一样在checkpoint或自动刷新时写入
+
+    protected transient volatile JDBCDriver dbDriver;//sink内共享的带连接池的driver
+
+    protected transient String[] preparedFieldNames;//PreparedStatement中?对应的字段
+
+    protected transient String preparedInsertHead;//insert into table(column1,column2) values
+
+    protected transient String preparedInsertTail;//on duplicate key update部分
+
+    /**
+     * mysql一条sql中?占位符的上限，多行values的insert超过时拆成多条
+     */
+    protected static final int MAX_PLACEHOLDER_COUNT = 65535;
+
     boolean isMultiple = false; //是否多表
 
     /**
@@ -131,12 +154,14 @@ public class DBSink extends AbstractSink {
         List<String> insertFields = Lists.newArrayList();
         List<String> insertValues = Lists.newArrayList();
         List<String> duplicateKeys = Lists.newArrayList();
-        fieldList.forEach(field -> {
-            String fieldName = field.getFieldName();
+        String[] fieldNames = new String[fieldList.size()];
+        for (int i = 0; i < fieldList.size(); i++) {
+            String fieldName = fieldList.get(i).getFieldName();
+            fieldNames[i] = fieldName;
             insertFields.add("`" + fieldName + "`");
             insertValues.add("'#{" + fieldName + "}'");
             duplicateKeys.add("`" + fieldName + "`" + " = VALUES(" + "`" + fieldName + "`" + ")");
-        });
+        }
 
         String sql = "insert";
         if (sqlMode == null || SQL_MODE_DEFAULT.equals(sqlMode)) {
@@ -146,60 +171,172 @@ public class DBSink extends AbstractSink {
         } else if (SQL_MODE_REPLACE.equals(sqlMode)) {
             sql = sql + " into ";
         }
-        sql = sql + tableName + "(" + String.join(",", insertFields) + ") values (" + String.join(",", insertValues) + ")  ";
+        String insertHead = sql + tableName + "(" + String.join(",", insertFields) + ") values ";
+        String insertTail = "";
         if (SQL_MODE_REPLACE.equals(sqlMode)) {
-            sql = sql + " on duplicate key update " + String.join(",", duplicateKeys);
+            insertTail = " on duplicate key update " + String.join(",", duplicateKeys);
         }
-        this.insertSQLTemplate = sql;
+        this.insertSQLTemplate = insertHead + "(" + String.join(",", insertValues) + ")  " + insertTail;
+        this.preparedFieldNames = fieldNames;
+        this.preparedInsertHead = insertHead;
+        this.preparedInsertTail = insertTail;
         this.sqlCache = new MessageCache<>(sqls -> {
-            JDBCDriver dataSource = DriverBuilder.createDriver(jdbcDriver, url, userName, password);
             try {
-                dataSource.executSqls(sqls);
+                getOrCreateDriver().executSqls(sqls);
             } catch (Exception e) {
                 e.printStackTrace();
                 throw new RuntimeException(e);
-            } finally {
-                dataSource.destroy();
             }
             return true;
         });
         ((MessageCache<String>) this.sqlCache).setAutoFlushTimeGap(100000);
         ((MessageCache<String>) this.sqlCache).setAutoFlushSize(50);
         this.sqlCache.openAutoFlush();
+        //一条sql对应一批数据，按行缓存时缓存同样多批的数据
+        int cacheRowCount = 50 * (getBatchSize() > 0 ? getBatchSize() : DEFAULT_BATCH_SIZE);
+        this.preparedCache = new MessageCache<>(rows -> {
+            writePreparedRows(getOrCreateDriver(), rows);
+            return true;
+        });
+        ((MessageCache<Object[]>) this.preparedCache).setBatchSize(cacheRowCount);
+        ((MessageCache<Object[]>) this.preparedCache).setAutoFlushTimeGap(100000);
+        ((MessageCache<Object[]>) this.preparedCache).setAutoFlushSize(cacheRowCount);
+        this.preparedCache.openAutoFlush();
         return super.initConfigurable();
     }
 
     @Override protected boolean batchInsert(List<IMessage> messageList) {
-        JDBCDriver dbDataSource = DriverBuilder.createDriver(jdbcDriver, url, userName, password);
-        try {
-            if (messageList == null || messageList.size() == 0) {
-                return true;
-            }
-            List<JSONObject> messages = convertJsonObjectFromMessage(messageList);
-            if (StringUtil.isEmpty(insertSQLTemplate) && metaData != null) {
-                String sql = SQLUtil.createInsertSql(metaData, messages.get(0));
-                sql += SQLUtil.createInsertValuesSQL(metaData, messages.subList(1, messages.size()));
+        if (messageList == null || messageList.size() == 0) {
+            return true;
+        }
+        JDBCDriver dbDataSource = getOrCreateDriver();
+        List<JSONObject> messages = convertJsonObjectFromMessage(messageList);
+        if (usePreparedStatement && preparedFieldNames != null) {
+            executePreparedSQL(dbDataSource, messages);
+            return true;
+        }
+        if (StringUtil.isEmpty(insertSQLTemplate) && metaData != null) {
+            String sql = SQLUtil.createInsertSql(metaData, messages.get(0));
+            sql += SQLUtil.createInsertValuesSQL(metaData, messages.subList(1, messages.size()));
+            executeSQL(dbDataSource, sql);
+            return true;
+        }
+        String insertValueSQL = parseInsertValues(insertSQLTemplate);
+        if (StringUtil.isEmpty(insertValueSQL) || insertSQLTemplate.replace(insertValueSQL, "").contains("#{")) {
+            for (JSONObject message : messages) {
+                String sql = parseSQL(message, insertSQLTemplate);
                 executeSQL(dbDataSource, sql);
-                return true;
             }
-            String insertValueSQL = parseInsertValues(insertSQLTemplate);
-            if (StringUtil.isEmpty(insertValueSQL) || insertSQLTemplate.replace(insertValueSQL, "").contains("#{")) {
-                for (JSONObject message : messages) {
-                    String sql = parseSQL(message, insertSQLTemplate);
-                    executeSQL(dbDataSource, sql);
-                }
-                return true;
-            } else {
-                List<String> subInsert = Lists.newArrayList();
-                for (JSONObject message : messages) {
-                    subInsert.add(parseSQL(message, insertValueSQL));
+            return true;
+        } else {
+            List<String> subInsert = Lists.newArrayList();
+            for (JSONObject message : messages) {
+                subInsert.add(parseSQL(message, insertValueSQL));
+            }
+            String insertSQL = this.insertSQLTemplate.replace(insertValueSQL, String.join(",", subInsert));
+            executeSQL(dbDataSource, insertSQL);
+            return true;
+        }
+    }
+
+    /**
+     * 使用PreparedStatement写入，一批数据通过addBatch/executeBatch提交，或者改写成多行values的sql。openSqlCache时先缓存，checkpoint时写入
+     */
+    protected void executePreparedSQL(JDBCDriver dbDataSource, List<JSONObject> messages) {
+        int fieldCount = preparedFieldNames.length;
+        List<Object[]> rows = new ArrayList<>(messages.size());
+        for (JSONObject message : messages) {
+            Object[] parameters = new Object[fieldCount];
+            for (int i = 0; i < fieldCount; i++) {
+                parameters[i] = getParameterValue(message, preparedFieldNames[i]);
+            }
+            rows.add(parameters);
+        }
+        if (isOpenSqlCache()) {
+            for (Object[] row : rows) {
+                this.preparedCache.addCache(row);
+            }
+        } else {
+            writePreparedRows(dbDataSource, rows);
+        }
+    }
+
+    protected void writePreparedRows(JDBCDriver dbDataSource, List<Object[]> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        if (!rewriteBatchedValues) {
+            dbDataSource.batchUpdate(createPreparedSQL(1), rows);
+            return;
+        }
+        int fieldCount = preparedFieldNames.length;
+        int maxRowCount = Math.max(1, MAX_PLACEHOLDER_COUNT / fieldCount);
+        for (int start = 0; start < rows.size(); start += maxRowCount) {
+            List<Object[]> subRows = rows.subList(start, Math.min(rows.size(), start + maxRowCount));
+            Object[] parameters = new Object[subRows.size() * fieldCount];
+            int index = 0;
+            for (Object[] row : subRows) {
+                System.arraycopy(row, 0, parameters, index, fieldCount);
+                index += fieldCount;
+            }
+            dbDataSource.update(createPreparedSQL(subRows.size()), parameters);
+        }
+    }
+
+    /**
+     * @param rowCount values中的行数
+     * @return insert into table(column1,column2) values (?,?),(?,?)
+     */
+    protected String createPreparedSQL(int rowCount) {
+        StringBuilder values = new StringBuilder("(");
+        for (int i = 0; i < preparedFieldNames.length; i++) {
+            if (i > 0) {
+                values.append(",");
+            }
+            values.append("?");
+        }
+        values.append(")");
+        StringBuilder sql = new StringBuilder(preparedInsertHead);
+        for (int i = 0; i < rowCount; i++) {
+            if (i > 0) {
+                sql.append(",");
+            }
+            sql.append(values);
+        }
+        return sql.append(preparedInsertTail).toString();
+    }
+
+    protected Object getParameterValue(JSONObject message, String fieldName) {
+        Object value = message.get(fieldName);
+        if (value instanceof JSON) {
+            return ((JSON) value).toJSONString();
+        }
+        return value;
+    }
+
+    protected JDBCDriver getOrCreateDriver() {
+        if (dbDriver == null) {
+            synchronized (this) {
+                if (dbDriver == null) {
+                    dbDriver = DriverBuilder.createDriver(jdbcDriver, url, userName, password, poolSize);
                 }
-                String insertSQL = this.insertSQLTemplate.replace(insertValueSQL, String.join(",", subInsert));
-                executeSQL(dbDataSource, insertSQL);
-                return true;
             }
-        } finally {
-            dbDataSource.destroy();
+        }
+        return dbDriver;
+    }
+
+    @Override public void destroy() {
+        super.destroy();
+        //自动刷新会重新创建driver，先关闭
+        if (sqlCache != null) {
+            sqlCache.closeAutoFlush();
+        }
+        if (preparedCache != null) {
+            preparedCache.closeAutoFlush();
+        }
+        if (dbDriver != null) {
+            dbDriver.destroy();
+            dbDriver = null;
         }
     }
 
@@ -207,6 +344,9 @@ public class DBSink extends AbstractSink {
         if (sqlCache != null) {
             sqlCache.flush(splitIds);
         }
+        if (preparedCache != null) {
+            preparedCache.flush(splitIds);
+        }
         return true;
     }
 
@@ -322,6 +462,30 @@ public class DBSink extends AbstractSink {
         this.openSqlCache = openSqlCache;
     }
 
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public boolean isUsePreparedStatement() {
+        return usePreparedStatement;
+    }
+
+    public void setUsePreparedStatement(boolean usePreparedStatement) {
+        this.usePreparedStatement = usePreparedStatement;
+    }
+
+    public boolean isRewriteBatchedValues() {
+        return rewriteBatchedValues;
+    }
+
+    public void setRewriteBatchedValues(boolean rewriteBatchedValues) {
+        this.rewriteBatchedValues = rewriteBatchedValues;
+    }
+
     public boolean isMultiple() {
         return isMultiple;
     }
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.db.sink;
+
+import com.alibaba.fastjson.JSONObject;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import org.apache.rocketmq.streams.common.context.IMessage;
+import org.apache.rocketmq.streams.common.context.Message;
+import org.apache.rocketmq.streams.common.metadata.MetaData;
+import org.apache.rocketmq.streams.db.driver.MockDriver;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 使用db-operator中记录sql和参数的mock驱动，检查metadata模式下PreparedStatement写入的sql和批次
+ */
+public class DBSinkTest {
+    private static final String URL = "jdbc:streams-mock:sink";
+
+    private static MockDriver mockDriver = new MockDriver();
+
+    private DBSink sink;
+
+    @BeforeClass
+    public static void registerDriver() throws SQLException {
+        DriverManager.registerDriver(mockDriver);
+    }
+
+    @AfterClass
+    public static void deregisterDriver() throws SQLException {
+        DriverManager.deregisterDriver(mockDriver);
+    }
+
+    @Before
+    public void reset() {
+        mockDriver.reset();
+    }
+
+    @After
+    public void destroy() {
+        if (sink != null) {
+            sink.destroy();
+        }
+    }
+
+    @Test
+    public void testInsertIgnoreBatch() {
+        sink = createSink(DBSink.SQL_MODE_IGNORE, false, false);
+        sink.batchInsert(createMessages(10));
+
+        assertEquals(1, mockDriver.statements.size());
+        MockDriver.RecordStatement statement = mockDriver.statements.get(0);
+        assertEquals("insert ignore into person(`name`,`age`) values (?,?)", statement.sql);
+        assertEquals(10, statement.rows.size());
+        assertEquals("name_3", statement.rows.get(3).get(0));
+        assertEquals(3, statement.rows.get(3).get(1));
+    }
+
+    @Test
+    public void testDuplicateKeyRewriteValues() {
+        sink = createSink(DBSink.SQL_MODE_REPLACE, true, false);
+        //2个字段，一条sql最多65535/2行
+        int count = 70000;
+        sink.batchInsert(createMessages(count));
+
+        assertEquals(3, mockDriver.statements.size());
+        int rowCount = 0;
+        for (MockDriver.RecordStatement statement : mockDriver.statements) {
+            assertTrue(statement.sql.startsWith("insert into person(`name`,`age`) values (?,?),(?,?)"));
+            assertTrue(statement.sql.endsWith(" on duplicate key update `name` = VALUES(`name`),`age` = VALUES(`age`)"));
+            assertEquals(1, statement.rows.size());
+            int parameterCount = statement.rows.get(0).size();
+            assertTrue(parameterCount <= DBSink.MAX_PLACEHOLDER_COUNT);
+            assertEquals(parameterCount, statement.sql.length() - statement.sql.replace("?", "").length());
+            rowCount += parameterCount / 2;
+        }
+        assertEquals(count, rowCount);
+        assertEquals("name_" + (count - 1), lastValue(mockDriver.statements.get(2), 2));
+    }
+
+    @Test
+    public void testSqlCache() {
+        sink = createSink(DBSink.SQL_MODE_REPLACE, false, true);
+        sink.batchInsert(createMessages(10));
+        sink.batchInsert(createMessages(5));
+        //开启sql cache时，checkpoint前不写入
+        assertEquals(0, mockDriver.statements.size());
+
+        sink.checkpoint(new HashSet<>(Collections.singletonList("0")));
+        assertEquals(1, mockDriver.statements.size());
+        MockDriver.RecordStatement statement = mockDriver.statements.get(0);
+        assertTrue(statement.sql.endsWith(" on duplicate key update `name` = VALUES(`name`),`age` = VALUES(`age`)"));
+        assertEquals(15, statement.rows.size());
+    }
+
+    private DBSink createSink(String sqlMode, boolean rewriteBatchedValues, boolean openSqlCache) {
+        JSONObject msg = new JSONObject(true);
+        msg.put("name", "name");
+        msg.put("age", 1);
+        MetaData metaData = MetaData.createMetaData(msg);
+        metaData.setTableName("person");
+        DBSink sink = new DBSink(URL, "", "", "person", sqlMode, metaData);
+        sink.setJdbcDriver(MockDriver.class.getName());
+        sink.setRewriteBatchedValues(rewriteBatchedValues);
+        sink.setOpenSqlCache(openSqlCache);
+        sink.init();
+        return sink;
+    }
+
+    private List<IMessage> createMessages(int count) {
+        List<IMessage> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            JSONObject msg = new JSONObject();
+            msg.put("name", "name_" + i);
+            msg.put("age", i);
+            messages.add(new Message(msg));
+        }
+        return messages;
+    }
+
+    private Object lastValue(MockDriver.RecordStatement statement, int fromEnd) {
+        List<Object> parameters = statement.rows.get(statement.rows.size() - 1);
+        return parameters.get(parameters.size() - fromEnd);
+    }
+}
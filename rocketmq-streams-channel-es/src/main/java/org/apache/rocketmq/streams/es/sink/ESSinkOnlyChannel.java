@@ -22,6 +22,12 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.http.HttpHost;
@@ -34,6 +40,8 @@ import org.apache.rocketmq.streams.common.channel.sink.AbstractSink;
 import org.apache.rocketmq.streams.common.configurable.annotation.ENVDependence;
 import org.apache.rocketmq.streams.common.context.IMessage;
 import org.apache.rocketmq.streams.common.utils.StringUtil;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.index.IndexRequest;
@@ -41,6 +49,7 @@ import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestClientBuilder;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.rest.RestStatus;
 
 public class ESSinkOnlyChannel extends AbstractSink {
     private static final Log LOG = LogFactory.getLog(ESSinkOnlyChannel.class);
@@ -71,8 +80,29 @@ public class ESSinkOnlyChannel extends AbstractSink {
 
     protected String esMsgId;
 
+    protected int maxInFlightBulks = 4;//同时在发送中的bulk请求数，达到上限时写入线程等待
+
+    protected int maxBulkActions = 1000;//每个bulk请求最多的文档数
+
+    protected long maxBulkBytes = 5 * 1024 * 1024;//每个bulk请求最大的字节数
+
+    protected int maxRetries = 3;//bulk中失败的文档最多重试的次数，只重试被拒绝和服务端错误的文档
+
+    protected long retryBackoffMillis = 200;//第n次重试前等待n*retryBackoffMillis毫秒
+
     private transient RestHighLevelClient client;
 
+    private transient Semaphore inFlightBulks;
+
+    private transient ScheduledExecutorService retryScheduler;
+
+    /**
+     * metric info
+     */
+    private transient AtomicLong successCount = new AtomicLong(0);
+    private transient AtomicLong retryCount = new AtomicLong(0);
+    private transient AtomicLong failedCount = new AtomicLong(0);
+
     public ESSinkOnlyChannel() {
 
     }
@@ -104,6 +134,15 @@ public class ESSinkOnlyChannel extends AbstractSink {
     @Override
     protected boolean initConfigurable() {
         super.initConfigurable();
+        inFlightBulks = new Semaphore(Math.max(1, maxInFlightBulks));
+        retryScheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "es-bulk-retry-" + esIndex);
+            thread.setDaemon(true);
+            return thread;
+        });
+        successCount = new AtomicLong(0);
+        retryCount = new AtomicLong(0);
+        failedCount = new AtomicLong(0);
         System.setProperty("es.set.netty.runtime.available.processors", "false");
         if (client == null) {
             RestClientBuilder builder = RestClient.builder(new HttpHost(host, Integer.parseInt(port), schema));
@@ -168,24 +207,167 @@ public class ESSinkOnlyChannel extends AbstractSink {
         return requests;
     }
 
+    /**
+     * 按文档数和字节数拆分成多个bulk请求异步发送，不等待响应。发送中的请求达到maxInFlightBulks时等待
+     */
     @Override
     public boolean batchInsert(List<IMessage> messages) {
-        BulkRequest bulkRequest = new BulkRequest();
-        BulkResponse response = null;
         List<IndexRequest> requestList = generateRequests(messages);
-        requestList.forEach(bulkRequest::add);
+        BulkRequest bulkRequest = new BulkRequest();
+        long bulkBytes = 0;
+        for (IndexRequest indexRequest : requestList) {
+            long bytes = indexRequest.source() == null ? 0 : indexRequest.source().length();
+            if (bulkRequest.numberOfActions() > 0 && (bulkRequest.numberOfActions() >= maxBulkActions || bulkBytes + bytes > maxBulkBytes)) {
+                submitBulk(bulkRequest);
+                bulkRequest = new BulkRequest();
+                bulkBytes = 0;
+            }
+            bulkRequest.add(indexRequest);
+            bulkBytes += bytes;
+        }
+        if (bulkRequest.numberOfActions() > 0) {
+            submitBulk(bulkRequest);
+        }
+        return true;
+    }
+
+    protected void submitBulk(BulkRequest bulkRequest) {
         try {
-            response = client.bulk(bulkRequest, RequestOptions.DEFAULT);
-        } catch (IOException e) {
-            e.printStackTrace();
-            LOG.error("batch insert message to es exception " + e);
-            return false;
+            inFlightBulks.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted when waiting es bulk request", e);
         }
+        sendBulk(bulkRequest, 0);
+    }
 
-        LOG.info("esChannel sendLogs logSize=" + messages.size() + " response size"
-            + response.getItems().length + " status " + response.status()
-            + " cost=" + response.getTook() + " esIndex=" + esIndex + " host=" + host);
-        return true;
+    /**
+     * 发送bulk请求，请求完成前一直占用一个许可，重试也使用同一个许可
+     *
+     * @param bulkRequest 要发送的请求
+     * @param retryTimes  已经重试的次数
+     */
+    protected void sendBulk(BulkRequest bulkRequest, int retryTimes) {
+        try {
+            client.bulkAsync(bulkRequest, RequestOptions.DEFAULT, new ActionListener<BulkResponse>() {
+                @Override
+                public void onResponse(BulkResponse response) {
+                    BulkRequest retryRequest = null;
+                    BulkItemResponse[] items = response.getItems();
+                    int failed = 0;
+                    for (int i = 0; i < items.length; i++) {
+                        if (!items[i].isFailed()) {
+                            continue;
+                        }
+                        failed++;
+                        if (isRetryable(items[i].status()) && retryTimes < maxRetries) {
+                            if (retryRequest == null) {
+                                retryRequest = new BulkRequest();
+                            }
+                            retryRequest.add(bulkRequest.requests().get(items[i].getItemId()));
+                        } else {
+                            failedCount.incrementAndGet();
+                            LOG.error("insert message to es failed, esIndex=" + esIndex + " status=" + items[i].status() + " msg=" + items[i].getFailureMessage());
+                        }
+                    }
+                    successCount.addAndGet(items.length - failed);
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("esChannel sendLogs logSize=" + bulkRequest.numberOfActions() + " failed=" + failed
+                            + " cost=" + response.getTook() + " esIndex=" + esIndex + " host=" + host);
+                    }
+                    if (retryRequest == null) {
+                        inFlightBulks.release();
+                    } else {
+                        retry(retryRequest, retryTimes + 1);
+                    }
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    if (retryTimes < maxRetries) {
+                        LOG.warn("batch insert message to es exception, retry times " + (retryTimes + 1) + ", esIndex=" + esIndex, e);
+                        retry(bulkRequest, retryTimes + 1);
+                    } else {
+                        failedCount.addAndGet(bulkRequest.numberOfActions());
+                        LOG.error("batch insert message to es exception, esIndex=" + esIndex, e);
+                        inFlightBulks.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlightBulks.release();
+            throw e;
+        }
+    }
+
+    protected void retry(BulkRequest bulkRequest, int retryTimes) {
+        retryCount.addAndGet(bulkRequest.numberOfActions());
+        try {
+            retryScheduler.schedule(() -> sendBulk(bulkRequest, retryTimes), retryBackoffMillis * retryTimes, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            failedCount.addAndGet(bulkRequest.numberOfActions());
+            inFlightBulks.release();
+            LOG.error("schedule es bulk retry error, esIndex=" + esIndex, e);
+        }
+    }
+
+    protected boolean isRetryable(RestStatus status) {
+        return status == RestStatus.TOO_MANY_REQUESTS || status.getStatus() >= 500;
+    }
+
+    /**
+     * 等待所有发送中的请求完成，包括重试
+     */
+    protected void waitInFlightBulks() {
+        int permits = Math.max(1, maxInFlightBulks);
+        try {
+            inFlightBulks.acquire(permits);
+            inFlightBulks.release(permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted when waiting es bulk request", e);
+        }
+    }
+
+    @Override
+    public boolean flush(Set<String> splitIds) {
+        boolean result = super.flush(splitIds);
+        waitInFlightBulks();
+        return result;
+    }
+
+    @Override
+    public boolean flush() {
+        boolean result = super.flush();
+        waitInFlightBulks();
+        return result;
+    }
+
+    @Override
+    public void destroy() {
+        super.destroy();
+        if (retryScheduler != null) {
+            retryScheduler.shutdown();
+        }
+        if (client != null) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                LOG.warn("close es client error", e);
+            }
+        }
+    }
+
+    public long getSuccessCount() {
+        return successCount.get();
+    }
+
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
     }
 
     public String getHost() {
@@ -264,6 +446,46 @@ public class ESSinkOnlyChannel extends AbstractSink {
         this.port = port;
     }
 
+    public int getMaxInFlightBulks() {
+        return maxInFlightBulks;
+    }
+
+    public void setMaxInFlightBulks(int maxInFlightBulks) {
+        this.maxInFlightBulks = maxInFlightBulks;
+    }
+
+    public int getMaxBulkActions() {
+        return maxBulkActions;
+    }
+
+    public void setMaxBulkActions(int maxBulkActions) {
+        this.maxBulkActions = maxBulkActions;
+    }
+
+    public long getMaxBulkBytes() {
+        return maxBulkBytes;
+    }
+
+    public void setMaxBulkBytes(long maxBulkBytes) {
+        this.maxBulkBytes = maxBulkBytes;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public long getRetryBackoffMillis() {
+        return retryBackoffMillis;
+    }
+
+    public void setRetryBackoffMillis(long retryBackoffMillis) {
+        this.retryBackoffMillis = retryBackoffMillis;
+    }
+
     public String getEsMsgId() {
         return esMsgId;
     }
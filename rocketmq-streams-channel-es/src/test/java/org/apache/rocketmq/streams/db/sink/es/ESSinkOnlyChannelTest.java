@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.db.sink.es;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.rocketmq.streams.common.context.IMessage;
+import org.apache.rocketmq.streams.common.context.Message;
+import org.apache.rocketmq.streams.es.sink.ESSinkOnlyChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 使用本地的http服务模拟es的bulk接口，第一次收到某个id时返回429
+ */
+public class ESSinkOnlyChannelTest {
+    private HttpServer server;
+    private Set<String> indexedIds = ConcurrentHashMap.newKeySet();
+    private Set<String> rejectedIds = ConcurrentHashMap.newKeySet();
+    private AtomicInteger requestCount = new AtomicInteger(0);
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/_bulk", exchange -> {
+            requestCount.incrementAndGet();
+            String[] lines = new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8).split("\n");
+            JSONArray items = new JSONArray();
+            boolean errors = false;
+            for (int i = 0; i + 1 < lines.length; i += 2) {
+                String id = JSONObject.parseObject(lines[i]).getJSONObject("index").getString("_id");
+                JSONObject item = new JSONObject();
+                item.put("_index", "test");
+                item.put("_type", "_doc");
+                item.put("_id", id);
+                if (id.endsWith("3") && rejectedIds.add(id)) {
+                    errors = true;
+                    item.put("status", 429);
+                    JSONObject error = new JSONObject();
+                    error.put("type", "es_rejected_execution_exception");
+                    error.put("reason", "rejected execution");
+                    item.put("error", error);
+                } else {
+                    indexedIds.add(id);
+                    item.put("_version", 1);
+                    item.put("result", "created");
+                    item.put("_seq_no", 0);
+                    item.put("_primary_term", 1);
+                    item.put("status", 201);
+                }
+                JSONObject index = new JSONObject();
+                index.put("index", item);
+                items.add(index);
+            }
+            JSONObject response = new JSONObject();
+            response.put("took", 1);
+            response.put("errors", errors);
+            response.put("items", items);
+            byte[] bytes = response.toJSONString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json; charset=UTF-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(bytes);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testAsyncBulkAndRetry() {
+        ESSinkOnlyChannel sink = new ESSinkOnlyChannel();
+        sink.setHost("127.0.0.1");
+        sink.setPort(server.getAddress().getPort() + "");
+        sink.setEsIndex("test");
+        sink.setEsMsgId("id");
+        sink.setMaxBulkActions(4);
+        sink.setMaxInFlightBulks(2);
+        sink.setRetryBackoffMillis(10);
+        sink.init();
+
+        List<IMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            JSONObject msg = new JSONObject();
+            msg.put("id", "id" + i);
+            msg.put("data", "test message " + i);
+            messages.add(new Message(msg));
+        }
+        sink.batchInsert(messages);
+        sink.flush();
+
+        assertEquals(20, indexedIds.size());
+        assertEquals(20, sink.getSuccessCount());
+        //id3和id13被拒绝一次，只重试这两条
+        assertEquals(2, sink.getRetryCount());
+        assertEquals(0, sink.getFailedCount());
+        //5个bulk，id3和id13在不同的bulk中，各重试一次
+        assertEquals(7, requestCount.get());
+        sink.destroy();
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int length;
+        while ((length = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, length);
+        }
+        return outputStream.toByteArray();
+    }
+}
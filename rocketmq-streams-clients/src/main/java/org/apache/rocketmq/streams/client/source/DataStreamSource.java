@@ -44,6 +44,7 @@ import org.apache.rocketmq.streams.common.channel.impl.file.FileSource;
 import org.apache.rocketmq.streams.common.channel.impl.memory.MemoryCache;
 import org.apache.rocketmq.streams.common.channel.impl.memory.MemorySource;
 import org.apache.rocketmq.streams.common.channel.source.ISource;
+import org.apache.rocketmq.streams.common.topology.ChainPipeline;
 import org.apache.rocketmq.streams.common.topology.builder.PipelineBuilder;
 import org.apache.rocketmq.streams.mqtt.source.PahoSource;
 import org.apache.rocketmq.streams.schema.SchemaConfig;
@@ -62,8 +63,22 @@ public class DataStreamSource {
         return new DataStreamSource(namespace, pipelineName);
     }
 
+    /**
+     * 按字段去重，windowSize时间内相同的duplicateKeys只处理一次
+     *
+     * @param duplicateKeys 去重字段
+     * @param windowSize    去重的时间范围，单位秒，为空时默认一天
+     */
     public static DataStreamSource create(String namespace, String pipelineName, String[] duplicateKeys, Long windowSize) {
-        return new DataStreamSource(namespace, pipelineName);
+        DataStreamSource dataStreamSource = new DataStreamSource(namespace, pipelineName);
+        if (duplicateKeys != null && duplicateKeys.length > 0) {
+            ChainPipeline<?> pipeline = dataStreamSource.mainPipelineBuilder.getPipeline();
+            pipeline.setDuplicateFieldNames(String.join(";", duplicateKeys));
+            if (windowSize != null && windowSize > 0) {
+                pipeline.setDuplicateExpirationTime(windowSize * 1000);
+            }
+        }
+        return dataStreamSource;
     }
 
     public DataStream fromArray(Object[] o) {
@@ -30,6 +30,8 @@ import org.apache.rocketmq.remoting.RPCHook;
 import org.apache.rocketmq.streams.client.strategy.LogFingerprintStrategy;
 import org.apache.rocketmq.streams.client.strategy.Strategy;
 import org.apache.rocketmq.streams.client.transform.window.WindowInfo;
+import org.apache.rocketmq.streams.common.cache.dim.FileDimLoader;
+import org.apache.rocketmq.streams.common.cache.dim.IDimLoader;
 import org.apache.rocketmq.streams.common.channel.impl.OutputPrintChannel;
 import org.apache.rocketmq.streams.common.channel.impl.file.FileSink;
 import org.apache.rocketmq.streams.common.channel.sink.AbstractSink;
@@ -61,6 +63,7 @@ import org.apache.rocketmq.streams.common.topology.stages.udf.UDFChainStage;
 import org.apache.rocketmq.streams.common.topology.stages.udf.UDFUnionChainStage;
 import org.apache.rocketmq.streams.common.utils.MapKeyUtil;
 import org.apache.rocketmq.streams.configurable.ConfigurableComponent;
+import org.apache.rocketmq.streams.db.driver.batchloader.JDBCDimLoader;
 import org.apache.rocketmq.streams.db.sink.DBSink;
 import org.apache.rocketmq.streams.db.sink.DynamicMultipleDBSink;
 import org.apache.rocketmq.streams.db.sink.EnhanceDBSink;
@@ -214,6 +217,21 @@ public class DataStream implements Serializable {
                 }
                 return null;
             }
+
+            /**
+             * 函数持有资源时（如维表join），stage销毁时关闭
+             */
+            @Override
+            public void destroy() {
+                if (mapFunction instanceof AutoCloseable) {
+                    try {
+                        ((AutoCloseable) mapFunction).close();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+                super.destroy();
+            }
         };
         ChainStage<?> stage = this.mainPipelineBuilder.createStage(stageBuilder);
         this.mainPipelineBuilder.setTopologyStages(currentChainStage, stage);
@@ -350,6 +368,36 @@ public class DataStream implements Serializable {
         return new JoinStream(window, this.mainPipelineBuilder, this.otherPipelineBuilders, leftWindowStage, joinType);
     }
 
+    /**
+     * 维表join，维表从文件加载，每行一个json
+     *
+     * @param filePath          维表文件
+     * @param pollingTimeSecond 维表重新加载的间隔，单位秒，小于等于0时只加载一次
+     * @return 通过on设置join条件
+     */
+    public DimJoinStream dimJoin(String filePath, long pollingTimeSecond) {
+        return dimJoin(new FileDimLoader(filePath), pollingTimeSecond, JoinStream.JoinType.INNER_JOIN);
+    }
+
+    /**
+     * 维表join，维表通过sql从数据库加载
+     */
+    public DimJoinStream dimJoin(String url, String userName, String password, String sql, long pollingTimeSecond) {
+        return dimJoin(new JDBCDimLoader(url, userName, password, sql), pollingTimeSecond, JoinStream.JoinType.INNER_JOIN);
+    }
+
+    public DimJoinStream leftDimJoin(String filePath, long pollingTimeSecond) {
+        return dimJoin(new FileDimLoader(filePath), pollingTimeSecond, JoinStream.JoinType.LEFT_JOIN);
+    }
+
+    public DimJoinStream leftDimJoin(String url, String userName, String password, String sql, long pollingTimeSecond) {
+        return dimJoin(new JDBCDimLoader(url, userName, password, sql), pollingTimeSecond, JoinStream.JoinType.LEFT_JOIN);
+    }
+
+    public DimJoinStream dimJoin(IDimLoader loader, long pollingTimeSecond, JoinStream.JoinType joinType) {
+        return new DimJoinStream(this, loader, pollingTimeSecond, joinType);
+    }
+
     /**
      * 通过共享对象union，完成两个数据汇聚，左流需要设置isMainStream=true
      *
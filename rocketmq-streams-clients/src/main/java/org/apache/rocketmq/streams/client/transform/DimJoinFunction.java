@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.client.transform;
+
+import com.alibaba.fastjson.JSONObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.rocketmq.streams.common.cache.dim.DimTable;
+import org.apache.rocketmq.streams.common.cache.dim.IDimLoader;
+import org.apache.rocketmq.streams.common.cache.dim.MappedDimTable;
+import org.apache.rocketmq.streams.common.functions.FlatMapFunction;
+
+/**
+ * 维表join，第一条消息到达时加载维表，之后在后台定时重新加载。一条消息匹配多行时输出多条，消息中已有的字段不会被维表覆盖
+ * <p>
+ * 只匹配一行时维表字段直接写入原消息，多行时前面的行使用消息的浅拷贝。stage销毁时关闭维表和后台加载线程
+ */
+public class DimJoinFunction implements FlatMapFunction<JSONObject, JSONObject>, AutoCloseable {
+
+    protected IDimLoader loader;
+    protected String[] leftFieldNames;//消息中的join字段
+    protected String[] rightFieldNames;//维表中的join字段，和leftFieldNames一一对应
+    protected boolean isLeftJoin;
+    protected long pollingTimeSecond;
+
+    protected transient volatile DimTable dimTable;
+
+    public DimJoinFunction(IDimLoader loader, String[] leftFieldNames, String[] rightFieldNames, boolean isLeftJoin,
+        long pollingTimeSecond) {
+        this.loader = loader;
+        this.leftFieldNames = leftFieldNames;
+        this.rightFieldNames = rightFieldNames;
+        this.isLeftJoin = isLeftJoin;
+        this.pollingTimeSecond = pollingTimeSecond;
+    }
+
+    @Override
+    public List<JSONObject> flatMap(JSONObject message) throws Exception {
+        MappedDimTable table = getOrCreateDimTable().getTable();
+        long[] rows = table.findRows(MappedDimTable.createKey(message, leftFieldNames));
+        if (rows.length == 0) {
+            return isLeftJoin ? Collections.singletonList(message) : Collections.emptyList();
+        }
+        if (rows.length == 1) {
+            table.readRow(rows[0], message);
+            return Collections.singletonList(message);
+        }
+        List<JSONObject> result = new ArrayList<>(rows.length);
+        for (int i = 0; i < rows.length; i++) {
+            //最后一行才修改原消息，前面的拷贝都来自没有修改过的消息
+            JSONObject joinMessage = i == rows.length - 1 ? message : (JSONObject) message.clone();
+            table.readRow(rows[i], joinMessage);
+            result.add(joinMessage);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (dimTable != null) {
+            dimTable.close();
+            dimTable = null;
+        }
+    }
+
+    protected DimTable getOrCreateDimTable() {
+        DimTable table = dimTable;
+        if (table == null) {
+            synchronized (this) {
+                table = dimTable;
+                if (table == null) {
+                    table = new DimTable(loader, pollingTimeSecond, rightFieldNames);
+                    table.start();
+                    dimTable = table;
+                }
+            }
+        }
+        return table;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.client.transform;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.rocketmq.streams.common.cache.dim.IDimLoader;
+
+/**
+ * 维表join，维表加载到内存映射文件中，按join字段建hash索引，通过on设置等值条件后返回DataStream
+ */
+public class DimJoinStream {
+
+    protected DataStream dataStream;
+    protected IDimLoader loader;
+    protected long pollingTimeSecond;//维表重新加载的间隔，单位秒
+    protected JoinStream.JoinType joinType;
+
+    public DimJoinStream(DataStream dataStream, IDimLoader loader, long pollingTimeSecond, JoinStream.JoinType joinType) {
+        this.dataStream = dataStream;
+        this.loader = loader;
+        this.pollingTimeSecond = pollingTimeSecond;
+        this.joinType = joinType;
+    }
+
+    /**
+     * 设置join条件，只支持等值条件，左边是消息的字段，右边是维表的字段，如(name,==,dimName)&(age,==,dimAge)
+     *
+     * @param onCondition 条件
+     * @return 关联后的数据流
+     */
+    public DataStream on(String onCondition) {
+        AtomicBoolean hasNoEqualsExpression = new AtomicBoolean(false);
+        Map<String, String> left2Right = JoinStream.createJoinFieldsFromCondition(onCondition, hasNoEqualsExpression);
+        if (hasNoEqualsExpression.get() || left2Right.isEmpty()) {
+            throw new RuntimeException("dim join only support equals condition, the condition is " + onCondition);
+        }
+        String[] leftFieldNames = new String[left2Right.size()];
+        String[] rightFieldNames = new String[left2Right.size()];
+        int i = 0;
+        for (Map.Entry<String, String> entry : left2Right.entrySet()) {
+            leftFieldNames[i] = entry.getKey();
+            rightFieldNames[i] = entry.getValue();
+            i++;
+        }
+        boolean isLeftJoin = JoinStream.JoinType.LEFT_JOIN.equals(joinType);
+        return dataStream.flatMap(new DimJoinFunction(loader, leftFieldNames, rightFieldNames, isLeftJoin, pollingTimeSecond));
+    }
+}
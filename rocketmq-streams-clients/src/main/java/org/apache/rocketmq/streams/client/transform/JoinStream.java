@@ -170,7 +170,7 @@ public class JoinStream {
      * @param onCondition
      * @return
      */
-    public Map<String, String> createJoinFieldsFromCondition(String onCondition, AtomicBoolean hasNoEqualsExpression) {
+    public static Map<String, String> createJoinFieldsFromCondition(String onCondition, AtomicBoolean hasNoEqualsExpression) {
         List<Expression> expressions = new ArrayList<>();
         List<RelationExpression> relationExpressions = new ArrayList<>();
         ExpressionBuilder.createOptimizationExpression("tmp", "tmp", onCondition, expressions, relationExpressions);
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.client;
+
+import com.alibaba.fastjson.JSONObject;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.apache.rocketmq.streams.client.transform.DataStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DimJoinTest {
+
+    private static final Map<String, List<JSONObject>> RESULTS = new ConcurrentHashMap<>();
+
+    @Test
+    public void testInnerAndLeftJoin() throws Exception {
+        File file = File.createTempFile("dim", ".json");
+        file.deleteOnExit();
+        Files.write(file.toPath(), Arrays.asList(
+            "{\"dimUid\":\"1\",\"city\":\"hangzhou\"}",
+            "{\"dimUid\":\"2\",\"city\":\"beijing\"}",
+            "{\"dimUid\":\"2\",\"city\":\"shanghai\"}"), StandardCharsets.UTF_8);
+
+        List<JSONObject> inner = runJoin("inner", file, false);
+        Assert.assertEquals(3, inner.size());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("hangzhou", "beijing", "shanghai")), new HashSet<>(cities(inner)));
+
+        List<JSONObject> left = runJoin("left", file, true);
+        Assert.assertEquals(4, left.size());
+        //没有匹配的消息保留，不带维表字段
+        Assert.assertTrue(cities(left).contains(null));
+        for (JSONObject msg : left) {
+            if ("3".equals(msg.getString("uid"))) {
+                Assert.assertFalse(msg.containsKey("city"));
+            } else {
+                Assert.assertEquals(msg.getString("uid"), msg.getString("dimUid"));
+            }
+        }
+    }
+
+    protected List<JSONObject> runJoin(String name, File file, boolean isLeftJoin) throws InterruptedException {
+        List<JSONObject> result = new CopyOnWriteArrayList<>();
+        RESULTS.put(name, result);
+        JSONObject[] messages = new JSONObject[3];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = new JSONObject();
+            messages[i].put("uid", String.valueOf(i + 1));
+        }
+        String condition = "(uid,==,dimUid)";
+        DataStream dataStream = StreamBuilder.dataStream("test_namespace", "dim_join_" + name).fromCollection(messages);
+        (isLeftJoin ? dataStream.leftDimJoin(file.getAbsolutePath(), 0) : dataStream.dimJoin(file.getAbsolutePath(), 0))
+            .on(condition)
+            .forEach(message -> RESULTS.get(name).add((JSONObject) message))
+            .start(true);
+        int expected = isLeftJoin ? 4 : 3;
+        for (int i = 0; i < 100 && result.size() < expected; i++) {
+            Thread.sleep(100);
+        }
+        return result;
+    }
+
+    protected List<String> cities(List<JSONObject> messages) {
+        List<String> cities = new ArrayList<>();
+        for (JSONObject msg : messages) {
+            cities.add(msg.getString("city"));
+        }
+        return cities;
+    }
+}
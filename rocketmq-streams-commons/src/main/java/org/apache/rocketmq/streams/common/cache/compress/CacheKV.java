@@ -16,11 +16,15 @@
  */
 package org.apache.rocketmq.streams.common.cache.compress;
 
-import org.apache.rocketmq.streams.common.utils.AESUtil;
+import org.apache.rocketmq.streams.common.utils.HashUtil;
 import org.apache.rocketmq.streams.common.utils.NumberUtils;
 
 /**
  * 支持key是string，value是int的场景，支持size不大于10000000.只支持int，long，boolean，string类型
+ * <p>
+ * key不存储原文，只存储key的128位murmur3 hash（见{@link HashUtil}），桶的位置也由这个hash计算。
+ * 冲突处理：两个key落在同一个桶时，后写入的key进入冲突链，查询时按128位hash逐个比较；两个不同的key如果128位hash完全相同，会被当作同一个key，
+ * 这个概率和之前使用md5时同一量级，1000万个key时可以忽略。hash全为0的值用来标识空位，计算结果为0时会改写最后一个字节
  */
 public abstract class CacheKV<T> implements ICacheKV<T> {
     /**
@@ -46,7 +50,7 @@ public abstract class CacheKV<T> implements ICacheKV<T> {
     protected int size = 0;
 
     /**
-     * 每一个元素分24个字节部分(下一个地址4个字节，key的md5值16个字节，int的值4个字节)
+     * 每一个元素分26个字节部分(下一个地址5个字节，key的128位hash值16个字节，value的值5个字节)
      */
     protected byte[] map;
 
@@ -139,8 +143,8 @@ public abstract class CacheKV<T> implements ICacheKV<T> {
      * @return
      */
     public MapElementContext queryMapElementByHashCode(String key) {
-        int offset = getElementIndex(key);
-        byte[] hashCodes = AESUtil.stringToMD5(key);
+        byte[] hashCodes = createKeyHashCode(key);
+        int offset = getElementIndex(hashCodes);
 
         KVAddress address = new KVAddress(offset);//先从map中查找
 
@@ -217,6 +221,23 @@ public abstract class CacheKV<T> implements ICacheKV<T> {
         }
     }
 
+    /**
+     * 计算key的128位hash，全0表示空位，所以结果为0时改写最后一个字节
+     *
+     * @param key
+     * @return 16个字节
+     */
+    protected byte[] createKeyHashCode(String key) {
+        byte[] hashCodes = HashUtil.murmur3_128(key);
+        for (int i = 0; i < hashCodes.length; i++) {
+            if (hashCodes[i] != 0) {
+                return hashCodes;
+            }
+        }
+        hashCodes[hashCodes.length - 1] = 1;
+        return hashCodes;
+    }
+
     /**
      * 获取map的索引，通过hashcode获取
      *
@@ -227,13 +248,18 @@ public abstract class CacheKV<T> implements ICacheKV<T> {
         if (key == null) {
             return 0;
         }
-        int hashCode;
-        int value = (hashCode = key.hashCode()) ^ (hashCode >>> 16);
-        value = String.valueOf(value).hashCode();
-        if (value < 0) {
-            value = -value;
-        }
-        int index = value % capacity;
+        return getElementIndex(createKeyHashCode(key));
+    }
+
+    /**
+     * 获取map的索引，取128位hash的后64位
+     *
+     * @param hashCodes key的128位hash
+     * @return
+     */
+    protected int getElementIndex(byte[] hashCodes) {
+        long value = NumberUtils.toLongLittleEndian(hashCodes, 8);
+        int index = (int) ((value & Long.MAX_VALUE) % capacity);
         return index * elementSize;
     }
 
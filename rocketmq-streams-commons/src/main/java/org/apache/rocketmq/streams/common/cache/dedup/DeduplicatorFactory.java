@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.cache.dedup;
+
+import org.apache.rocketmq.streams.common.utils.ServiceLoadUtil;
+import org.apache.rocketmq.streams.common.utils.StringUtil;
+
+public class DeduplicatorFactory {
+
+    /**
+     * 默认误判率
+     */
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.0001;
+
+    /**
+     * 按名称创建去重实现，bloom是按时间分片的bloom filter，rocksdb是基于rocksdb的精确去重。找不到时使用bloom
+     *
+     * @param mode               实现的名称
+     * @param name               去重的名称
+     * @param expirationTime     过期时间，单位毫秒
+     * @param falsePositiveRate  误判率
+     * @param expectedInsertions 过期时间内预计的不同key数量
+     * @return
+     */
+    public static IDeduplicator create(String mode, String name, long expirationTime, double falsePositiveRate, int expectedInsertions) {
+        IDeduplicatorBuilder builder = null;
+        if (StringUtil.isNotEmpty(mode)) {
+            builder = ServiceLoadUtil.loadService(IDeduplicatorBuilder.class, mode);
+        }
+        if (builder == null) {
+            builder = new BloomDeduplicatorBuilder();
+        }
+        return builder.create(name, expirationTime, falsePositiveRate, expectedInsertions);
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.cache.dedup;
+
+/**
+ * 去重，判断一组key在过期时间内是否出现过
+ */
+public interface IDeduplicator {
+
+    /**
+     * 判断key是否在过期时间内出现过，没有出现过时记录下来
+     *
+     * @param currentTime 当前时间，单位毫秒
+     * @param keys        组成key的字段值
+     * @return 出现过返回true
+     */
+    boolean containsOrPut(long currentTime, String... keys);
+
+    default boolean containsOrPut(String... keys) {
+        return containsOrPut(System.currentTimeMillis(), keys);
+    }
+
+    /**
+     * 释放资源
+     */
+    default void close() {
+
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.cache.dedup;
+
+/**
+ * 创建去重实现，通过ServiceName按名称加载
+ */
+public interface IDeduplicatorBuilder {
+
+    /**
+     * @param name               去重的名称，持久化的实现用来区分不同的去重
+     * @param expirationTime     过期时间，单位毫秒
+     * @param falsePositiveRate  误判为重复的概率，精确实现忽略
+     * @param expectedInsertions 过期时间内预计的不同key数量
+     * @return
+     */
+    IDeduplicator create(String name, long expirationTime, double falsePositiveRate, int expectedInsertions);
+}
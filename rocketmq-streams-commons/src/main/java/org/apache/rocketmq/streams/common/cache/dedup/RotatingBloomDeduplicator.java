@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.cache.dedup;
+
+import java.util.Arrays;
+import org.apache.rocketmq.streams.common.utils.HashUtil;
+import org.apache.rocketmq.streams.common.utils.NumberUtils;
+
+/**
+ * 按时间分片的bloom filter，过期时间分成bucketCount个分片，每个分片一个bloom filter，加上正在写入的分片共bucketCount+1个
+ * <p>
+ * 查询时检查所有未过期的分片，写入只写当前分片，分片过期后整体清空复用，内存固定。
+ * key由字段值的128位murmur3 hash通过double hashing得到k个位置，不拼接字符串也不存储key。
+ * 过期精度是一个分片的时长，不会漏判，误判为重复的概率不超过falsePositiveRate
+ */
+public class RotatingBloomDeduplicator implements IDeduplicator {
+
+    public static final int DEFAULT_BUCKET_COUNT = 4;
+
+    /**
+     * 每个分片的时长，单位毫秒
+     */
+    protected final long bucketTime;
+
+    protected final int bucketCount;
+
+    /**
+     * 每个分片的位数
+     */
+    protected final long bitSize;
+
+    protected final int hashCount;
+
+    /**
+     * 分片的bit数组，按分片序号取模使用
+     */
+    protected final long[][] buckets;
+
+    /**
+     * 每个槽位当前保存的分片序号，-1代表空
+     */
+    protected final long[] bucketIds;
+
+    /**
+     * 见过的最大分片序号，时间回退时仍然写入这个分片
+     */
+    protected long currentBucketId = Long.MIN_VALUE;
+
+    private final byte[] hashBytes = new byte[16];
+
+    public RotatingBloomDeduplicator(int expectedInsertions, double falsePositiveRate, long expirationTime) {
+        this(expectedInsertions, falsePositiveRate, expirationTime, DEFAULT_BUCKET_COUNT);
+    }
+
+    /**
+     * @param expectedInsertions 过期时间内预计的不同key数量
+     * @param falsePositiveRate  误判率
+     * @param expirationTime     过期时间，单位毫秒
+     * @param bucketCount        过期时间分成的分片数
+     */
+    public RotatingBloomDeduplicator(int expectedInsertions, double falsePositiveRate, long expirationTime, int bucketCount) {
+        if (expectedInsertions <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1 || expirationTime <= 0 || bucketCount <= 0) {
+            throw new RuntimeException("illegal deduplicator config, expectedInsertions=" + expectedInsertions + ", falsePositiveRate="
+                + falsePositiveRate + ", expirationTime=" + expirationTime + ", bucketCount=" + bucketCount);
+        }
+        this.bucketCount = bucketCount;
+        this.bucketTime = Math.max(1, expirationTime / bucketCount);
+        //一次查询检查bucketCount+1个分片，每个分片的误判率按分片数均分
+        long bucketInsertions = Math.max(1, expectedInsertions / bucketCount);
+        double bucketFalsePositiveRate = falsePositiveRate / (bucketCount + 1);
+        long bits = (long) Math.ceil(-bucketInsertions * Math.log(bucketFalsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.max(1, (bits + 63) >>> 6);
+        this.bitSize = (long) words << 6;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitSize / bucketInsertions * Math.log(2)));
+        this.buckets = new long[bucketCount + 1][words];
+        this.bucketIds = new long[bucketCount + 1];
+        Arrays.fill(bucketIds, -1);
+    }
+
+    @Override
+    public synchronized boolean containsOrPut(long currentTime, String... keys) {
+        HashUtil.murmur3_128(keys, hashBytes);
+        long h1 = NumberUtils.toLongLittleEndian(hashBytes, 0);
+        long h2 = NumberUtils.toLongLittleEndian(hashBytes, 8);
+
+        long bucketId = Math.max(currentTime / bucketTime, currentBucketId);
+        currentBucketId = bucketId;
+        long[] current = getBucket(bucketId);
+
+        for (int i = 0; i < bucketIds.length; i++) {
+            long id = bucketIds[i];
+            if (id < 0 || id == bucketId || bucketId - id > bucketCount) {
+                continue;
+            }
+            if (mightContain(buckets[i], h1, h2)) {
+                return true;
+            }
+        }
+        //当前分片中出现过则不需要再写
+        return !put(current, h1, h2);
+    }
+
+    /**
+     * @return 所有分片占用的字节数
+     */
+    public long getMemorySize() {
+        return (long) buckets.length * (bitSize >>> 3);
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * 获取分片序号对应的bit数组，槽位上是过期的分片时清空复用
+     */
+    private long[] getBucket(long bucketId) {
+        int index = (int) (bucketId % buckets.length);
+        if (bucketIds[index] != bucketId) {
+            Arrays.fill(buckets[index], 0L);
+            bucketIds[index] = bucketId;
+        }
+        return buckets[index];
+    }
+
+    private boolean mightContain(long[] bits, long h1, long h2) {
+        long combined = h1;
+        for (int i = 0; i < hashCount; i++) {
+            long index = (combined & Long.MAX_VALUE) % bitSize;
+            if ((bits[(int) (index >>> 6)] & (1L << index)) == 0) {
+                return false;
+            }
+            combined += h2;
+        }
+        return true;
+    }
+
+    /**
+     * @return 有新的位被设置时返回true，即key之前不在这个分片中
+     */
+    private boolean put(long[] bits, long h1, long h2) {
+        boolean changed = false;
+        long combined = h1;
+        for (int i = 0; i < hashCount; i++) {
+            long index = (combined & Long.MAX_VALUE) % bitSize;
+            int word = (int) (index >>> 6);
+            long mask = 1L << index;
+            if ((bits[word] & mask) == 0) {
+                bits[word] |= mask;
+                changed = true;
+            }
+            combined += h2;
+        }
+        return changed;
+    }
+}
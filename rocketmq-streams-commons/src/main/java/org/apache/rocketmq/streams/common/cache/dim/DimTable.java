@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.cache.dim;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * 定时全量加载的维表，后台线程加载到新的MappedDimTable，加载完成后整体替换，加载过程中查询使用旧表。加载失败时保留旧表
+ */
+public class DimTable {
+
+    private static final Log LOG = LogFactory.getLog(DimTable.class);
+
+    protected final IDimLoader loader;
+
+    protected final String[] keyFieldNames;
+
+    /**
+     * 重新加载的间隔，单位秒，小于等于0时只加载一次
+     */
+    protected final long pollingTimeSecond;
+
+    protected volatile MappedDimTable table;
+
+    protected ScheduledExecutorService scheduler;
+
+    public DimTable(IDimLoader loader, long pollingTimeSecond, String... keyFieldNames) {
+        this.loader = loader;
+        this.pollingTimeSecond = pollingTimeSecond;
+        this.keyFieldNames = keyFieldNames;
+    }
+
+    /**
+     * 第一次同步加载，之后在后台定时加载
+     */
+    public synchronized void start() {
+        if (table != null) {
+            return;
+        }
+        table = load();
+        if (pollingTimeSecond > 0) {
+            scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread thread = new Thread(r, "dim-table-reload");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::reload, pollingTimeSecond, pollingTimeSecond, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 当前使用的表，findRows和readRow需要在同一个表上调用，重新加载不影响已经取到的表
+     */
+    public MappedDimTable getTable() {
+        return table;
+    }
+
+    public List<Map<String, Object>> lookup(String key) {
+        return table.lookup(key);
+    }
+
+    /**
+     * @param message    消息
+     * @param fieldNames 消息中和维表join字段对应的字段，顺序和keyFieldNames一致
+     * @return 匹配的行
+     */
+    public List<Map<String, Object>> lookup(Map<String, Object> message, String[] fieldNames) {
+        return table.lookup(MappedDimTable.createKey(message, fieldNames));
+    }
+
+    public void reload() {
+        try {
+            MappedDimTable newTable = load();
+            MappedDimTable oldTable = table;
+            table = newTable;
+            if (oldTable != null) {
+                oldTable.close();
+            }
+            LOG.info("reload dim table finished, the row count is " + newTable.getRowCount() + ", the byte size is " + newTable.getByteSize());
+        } catch (Exception e) {
+            LOG.error("reload dim table error, use the old table", e);
+        }
+    }
+
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        if (table != null) {
+            table.close();
+        }
+    }
+
+    public int getRowCount() {
+        return table == null ? 0 : table.getRowCount();
+    }
+
+    protected MappedDimTable load() {
+        MappedDimTable newTable = new MappedDimTable(keyFieldNames);
+        try {
+            loader.load(newTable::addRow);
+            newTable.finishLoad();
+            return newTable;
+        } catch (Exception e) {
+            newTable.close();
+            throw new RuntimeException("load dim table error", e);
+        }
+    }
+}
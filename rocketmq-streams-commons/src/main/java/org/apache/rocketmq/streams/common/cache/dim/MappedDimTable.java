@@ -0,0 +1,491 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.cache.dim;
+
+import com.alibaba.fastjson.JSON;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.rocketmq.streams.common.utils.HashUtil;
+import org.apache.rocketmq.streams.common.utils.MapKeyUtil;
+
+/**
+ * 只读的维表，数据行写入临时文件后按段映射到内存，join字段上建hash索引
+ * <p>
+ * 每行存储为4个字节的长度，加载时生成的join key，再加上按类型编码的字段，一行不会跨段。字段名存在字典中，行里只保存下标。
+ * 索引是两个long数组，开放寻址，保存join key的64位hash和行在文件中的位置，查询时先比较hash，再直接比较映射内存中的key字节，
+ * 不需要解析行。同一个key可以对应多行。映射完成后删除临时文件，内存在映射释放时回收
+ */
+public class MappedDimTable {
+
+    protected static final int SEGMENT_SHIFT = 30;
+    protected static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+
+    protected static final long[] EMPTY_ROWS = new long[0];
+
+    /**
+     * 字段值的类型
+     */
+    protected static final byte TYPE_STRING = 1;
+    protected static final byte TYPE_INT = 2;
+    protected static final byte TYPE_LONG = 3;
+    protected static final byte TYPE_DOUBLE = 4;
+    protected static final byte TYPE_FLOAT = 5;
+    protected static final byte TYPE_SHORT = 6;
+    protected static final byte TYPE_BYTE = 7;
+    protected static final byte TYPE_BOOLEAN = 8;
+    protected static final byte TYPE_BIG_DECIMAL = 9;
+    protected static final byte TYPE_BIG_INTEGER = 10;
+    protected static final byte TYPE_TIMESTAMP = 11;
+    protected static final byte TYPE_SQL_DATE = 12;
+    protected static final byte TYPE_TIME = 13;
+    protected static final byte TYPE_DATE = 14;
+    protected static final byte TYPE_BYTES = 15;
+    protected static final byte TYPE_JSON = 16;
+
+    protected final String[] keyFieldNames;
+
+    protected File file;
+    protected DataOutputStream output;
+    /**
+     * 写入位置，也是文件的长度
+     */
+    protected long position = 0;
+
+    /**
+     * 编码一行的缓冲，加载时复用
+     */
+    protected ByteArrayOutputStream rowBuffer = new ByteArrayOutputStream(256);
+    protected DataOutputStream rowOutput = new DataOutputStream(rowBuffer);
+
+    /**
+     * 字段名字典，行里保存字段名的下标
+     */
+    protected Map<String, Integer> nameIndexes = new HashMap<>();
+    protected String[] names = new String[16];
+
+    /**
+     * 加载过程中每行的hash和位置
+     */
+    protected long[] rowHashes = new long[1024];
+    protected long[] rowOffsets = new long[1024];
+    protected int rowCount = 0;
+
+    /**
+     * 加载完成后的索引，slotOffsets保存位置加1，0表示空
+     */
+    protected long[] slotHashes;
+    protected long[] slotOffsets;
+    protected int mask;
+
+    protected MappedByteBuffer[] segments;
+
+    /**
+     * @param keyFieldNames join字段，多个字段的值按顺序组合成key
+     */
+    public MappedDimTable(String... keyFieldNames) {
+        this.keyFieldNames = keyFieldNames;
+        try {
+            this.file = File.createTempFile("dim_", ".data");
+            this.file.deleteOnExit();
+            this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        } catch (IOException e) {
+            throw new RuntimeException("create dim table file error", e);
+        }
+    }
+
+    /**
+     * 加入一行，join字段为null的行不会被查到，直接丢弃。值为null的字段不保存
+     */
+    public void addRow(Map<String, Object> row) {
+        if (output == null) {
+            throw new RuntimeException("the dim table is loaded, can not add row");
+        }
+        String key = createKey(row);
+        if (key == null) {
+            return;
+        }
+        try {
+            rowBuffer.reset();
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            rowOutput.writeInt(keyBytes.length);
+            rowOutput.write(keyBytes);
+            int fieldCount = 0;
+            for (Object value : row.values()) {
+                if (value != null) {
+                    fieldCount++;
+                }
+            }
+            if (fieldCount > 0xffff) {
+                throw new RuntimeException("the dim row has too many fields, the count is " + fieldCount);
+            }
+            rowOutput.writeShort(fieldCount);
+            for (Map.Entry<String, Object> entry : row.entrySet()) {
+                if (entry.getValue() != null) {
+                    rowOutput.writeShort(getOrCreateNameIndex(entry.getKey()));
+                    writeValue(entry.getValue());
+                }
+            }
+            rowOutput.flush();
+            int rowLength = 4 + rowBuffer.size();
+            if (rowLength > SEGMENT_SIZE) {
+                throw new RuntimeException("the dim row is too large, the length is " + rowBuffer.size());
+            }
+            long remaining = SEGMENT_SIZE - (position & (SEGMENT_SIZE - 1));
+            if (remaining < rowLength) {
+                for (long i = 0; i < remaining; i++) {
+                    output.write(0);
+                }
+                position += remaining;
+            }
+            output.writeInt(rowBuffer.size());
+            rowBuffer.writeTo(output);
+            if (rowCount == rowHashes.length) {
+                rowHashes = Arrays.copyOf(rowHashes, rowCount * 2);
+                rowOffsets = Arrays.copyOf(rowOffsets, rowCount * 2);
+            }
+            rowHashes[rowCount] = HashUtil.hash64(key);
+            rowOffsets[rowCount] = position;
+            rowCount++;
+            position += rowLength;
+        } catch (IOException e) {
+            throw new RuntimeException("write dim table file error", e);
+        }
+    }
+
+    /**
+     * 数据写完后映射文件，建立索引。调用后不能再加入数据
+     */
+    public void finishLoad() {
+        try {
+            output.close();
+            output = null;
+            int segmentCount = (int) ((position + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+            segments = new MappedByteBuffer[segmentCount];
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+                 FileChannel channel = randomAccessFile.getChannel()) {
+                for (int i = 0; i < segmentCount; i++) {
+                    long start = (long) i << SEGMENT_SHIFT;
+                    segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, position - start));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("map dim table file error", e);
+        } finally {
+            //映射后文件可以删除，映射释放时系统回收空间
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+        int capacity = Integer.highestOneBit(Math.max(2, rowCount * 2) - 1) << 1;
+        slotHashes = new long[capacity];
+        slotOffsets = new long[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < rowCount; i++) {
+            int slot = slot(rowHashes[i]);
+            while (slotOffsets[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slotHashes[slot] = rowHashes[i];
+            slotOffsets[slot] = rowOffsets[i] + 1;
+        }
+        rowHashes = null;
+        rowOffsets = null;
+        rowBuffer = null;
+        rowOutput = null;
+        nameIndexes = null;
+    }
+
+    /**
+     * 查找匹配的行，只比较key，不解析行
+     *
+     * @param key 用createKey生成的key
+     * @return 匹配行的位置，通过readRow读取，没有匹配返回空数组
+     */
+    public long[] findRows(String key) {
+        if (key == null || slotOffsets == null) {
+            return EMPTY_ROWS;
+        }
+        long hash = HashUtil.hash64(key);
+        byte[] keyBytes = null;
+        long[] rows = EMPTY_ROWS;
+        int slot = slot(hash);
+        long offset;
+        while ((offset = slotOffsets[slot]) != 0) {
+            if (slotHashes[slot] == hash) {
+                if (keyBytes == null) {
+                    keyBytes = key.getBytes(StandardCharsets.UTF_8);
+                }
+                if (equalsKey(offset - 1, keyBytes)) {
+                    rows = Arrays.copyOf(rows, rows.length + 1);
+                    rows[rows.length - 1] = offset - 1;
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+        return rows;
+    }
+
+    /**
+     * 把一行的字段写入target，target中已有的字段不覆盖
+     *
+     * @param offset findRows返回的位置
+     * @param target 接收字段的map
+     */
+    public void readRow(long offset, Map<String, Object> target) {
+        ByteBuffer buffer = segments[(int) (offset >>> SEGMENT_SHIFT)].duplicate();
+        int position = (int) (offset & (SEGMENT_SIZE - 1)) + 4;
+        buffer.position(position + 4 + buffer.getInt(position));
+        int fieldCount = buffer.getShort() & 0xffff;
+        for (int i = 0; i < fieldCount; i++) {
+            String name = names[buffer.getShort() & 0xffff];
+            Object value = readValue(buffer);
+            if (!target.containsKey(name)) {
+                target.put(name, value);
+            }
+        }
+    }
+
+    /**
+     * @param key 用createKey生成的key
+     * @return 匹配的行，每行一个新的map，没有匹配返回空列表
+     */
+    public List<Map<String, Object>> lookup(String key) {
+        long[] offsets = findRows(key);
+        if (offsets.length == 0) {
+            return Collections.emptyList();
+        }
+        List<Map<String, Object>> rows = new ArrayList<>(offsets.length);
+        for (long offset : offsets) {
+            Map<String, Object> row = new HashMap<>();
+            readRow(offset, row);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * 按join字段的顺序组合key，任何一个字段为null返回null
+     */
+    public String createKey(Map<String, Object> row) {
+        return createKey(row, keyFieldNames);
+    }
+
+    public static String createKey(Map<String, Object> row, String[] fieldNames) {
+        if (fieldNames.length == 1) {
+            Object value = row.get(fieldNames[0]);
+            return value == null ? null : value.toString();
+        }
+        String[] values = new String[fieldNames.length];
+        for (int i = 0; i < fieldNames.length; i++) {
+            Object value = row.get(fieldNames[i]);
+            if (value == null) {
+                return null;
+            }
+            values[i] = value.toString();
+        }
+        return MapKeyUtil.createKey(values);
+    }
+
+    /**
+     * 加载失败时删除临时文件，加载完成后文件已经删除，映射由gc回收，正在查询的线程不受影响
+     */
+    public void close() {
+        if (output != null) {
+            try {
+                output.close();
+            } catch (IOException e) {
+                //ignore
+            }
+            output = null;
+        }
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public long getByteSize() {
+        return position;
+    }
+
+    protected boolean equalsKey(long offset, byte[] keyBytes) {
+        MappedByteBuffer buffer = segments[(int) (offset >>> SEGMENT_SHIFT)];
+        int position = (int) (offset & (SEGMENT_SIZE - 1)) + 4;
+        if (buffer.getInt(position) != keyBytes.length) {
+            return false;
+        }
+        position += 4;
+        for (int i = 0; i < keyBytes.length; i++) {
+            if (buffer.get(position + i) != keyBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected int getOrCreateNameIndex(String name) {
+        Integer index = nameIndexes.get(name);
+        if (index == null) {
+            index = nameIndexes.size();
+            if (index > 0xffff) {
+                throw new RuntimeException("the dim table has too many field names");
+            }
+            nameIndexes.put(name, index);
+            if (index == names.length) {
+                names = Arrays.copyOf(names, index * 2);
+            }
+            names[index] = name;
+        }
+        return index;
+    }
+
+    /**
+     * 按类型编码，读取时还原成相同的类型，不认识的类型按json保存
+     */
+    protected void writeValue(Object value) throws IOException {
+        if (value instanceof String) {
+            rowOutput.writeByte(TYPE_STRING);
+            writeBytes(((String) value).getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof Integer) {
+            rowOutput.writeByte(TYPE_INT);
+            rowOutput.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            rowOutput.writeByte(TYPE_LONG);
+            rowOutput.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            rowOutput.writeByte(TYPE_DOUBLE);
+            rowOutput.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            rowOutput.writeByte(TYPE_FLOAT);
+            rowOutput.writeFloat((Float) value);
+        } else if (value instanceof Short) {
+            rowOutput.writeByte(TYPE_SHORT);
+            rowOutput.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            rowOutput.writeByte(TYPE_BYTE);
+            rowOutput.writeByte((Byte) value);
+        } else if (value instanceof Boolean) {
+            rowOutput.writeByte(TYPE_BOOLEAN);
+            rowOutput.writeBoolean((Boolean) value);
+        } else if (value instanceof BigDecimal) {
+            rowOutput.writeByte(TYPE_BIG_DECIMAL);
+            writeBytes(value.toString().getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof BigInteger) {
+            rowOutput.writeByte(TYPE_BIG_INTEGER);
+            writeBytes(((BigInteger) value).toByteArray());
+        } else if (value instanceof Timestamp) {
+            rowOutput.writeByte(TYPE_TIMESTAMP);
+            rowOutput.writeLong(((Timestamp) value).getTime());
+            rowOutput.writeInt(((Timestamp) value).getNanos());
+        } else if (value instanceof java.sql.Date) {
+            rowOutput.writeByte(TYPE_SQL_DATE);
+            rowOutput.writeLong(((Date) value).getTime());
+        } else if (value instanceof Time) {
+            rowOutput.writeByte(TYPE_TIME);
+            rowOutput.writeLong(((Date) value).getTime());
+        } else if (value instanceof Date) {
+            rowOutput.writeByte(TYPE_DATE);
+            rowOutput.writeLong(((Date) value).getTime());
+        } else if (value instanceof byte[]) {
+            rowOutput.writeByte(TYPE_BYTES);
+            writeBytes((byte[]) value);
+        } else {
+            rowOutput.writeByte(TYPE_JSON);
+            writeBytes(JSON.toJSONString(value).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    protected void writeBytes(byte[] bytes) throws IOException {
+        rowOutput.writeInt(bytes.length);
+        rowOutput.write(bytes);
+    }
+
+    protected Object readValue(ByteBuffer buffer) {
+        byte type = buffer.get();
+        switch (type) {
+            case TYPE_STRING:
+                return new String(readBytes(buffer), StandardCharsets.UTF_8);
+            case TYPE_INT:
+                return buffer.getInt();
+            case TYPE_LONG:
+                return buffer.getLong();
+            case TYPE_DOUBLE:
+                return buffer.getDouble();
+            case TYPE_FLOAT:
+                return buffer.getFloat();
+            case TYPE_SHORT:
+                return buffer.getShort();
+            case TYPE_BYTE:
+                return buffer.get();
+            case TYPE_BOOLEAN:
+                return buffer.get() != 0;
+            case TYPE_BIG_DECIMAL:
+                return new BigDecimal(new String(readBytes(buffer), StandardCharsets.UTF_8));
+            case TYPE_BIG_INTEGER:
+                return new BigInteger(readBytes(buffer));
+            case TYPE_TIMESTAMP:
+                Timestamp timestamp = new Timestamp(buffer.getLong());
+                timestamp.setNanos(buffer.getInt());
+                return timestamp;
+            case TYPE_SQL_DATE:
+                return new java.sql.Date(buffer.getLong());
+            case TYPE_TIME:
+                return new Time(buffer.getLong());
+            case TYPE_DATE:
+                return new Date(buffer.getLong());
+            case TYPE_BYTES:
+                return readBytes(buffer);
+            case TYPE_JSON:
+                return JSON.parse(new String(readBytes(buffer), StandardCharsets.UTF_8));
+            default:
+                throw new RuntimeException("unknown dim value type " + type);
+        }
+    }
+
+    protected byte[] readBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    protected int slot(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -168,4 +168,37 @@ public interface ConfigureFileKey {
 
     String WINDOW_MINIBATCH_SWITCH="window.minibatch.switch";//是否启动minibatch
 
+    /**
+     * rocksdb本地状态
+     */
+    String ROCKSDB_BLOCK_CACHE_SIZE = "dipper.rocksdb.block.cache.size";//进程内所有rocksdb实例共享的LRU block cache大小，单位字节
+    String ROCKSDB_WRITE_BUFFER_MANAGER_SIZE = "dipper.rocksdb.write.buffer.manager.size";//进程内所有memtable的内存上限，计入block cache，单位字节
+    String ROCKSDB_WRITE_BUFFER_SIZE = "dipper.rocksdb.write.buffer.size";//单个memtable的大小，单位字节
+    String ROCKSDB_PREFIX_LENGTH = "dipper.rocksdb.prefix.length";//前缀bloom filter使用的key前缀长度
+    String ROCKSDB_DISABLE_WAL = "dipper.rocksdb.disable.wal";//状态通过checkpoint topic恢复，默认关闭wal
+    String ROCKSDB_TTL_SECOND = "dipper.rocksdb.ttl.second";//数据过期时间，单位秒
+    String ROCKSDB_DIR = "dipper.rocksdb.dir";//每个任务一个rocksdb实例，实例目录的根目录
+    String WINDOW_RESTORE_THREAD_COUNT = "dipper.window.restore.thread.count";//从checkpoint topic并行恢复状态的线程数
+
+    /**
+     * 窗口触发线程池
+     */
+    String WINDOW_FIRE_THREAD_COUNT = "dipper.window.fire.thread.count";//每个窗口的触发线程数
+    String WINDOW_FIRE_MAX_PENDING_COUNT = "dipper.window.fire.max.pending.count";//待触发实例数的上限，超过时对shuffle消费线程反压
+
+    /**
+     * distinct函数的去重配置
+     */
+    String DISTINCT_MODE = "dipper.distinct.mode";//bloom（默认）按时间分片的bloom filter，rocksdb精确去重
+    String DISTINCT_EXPIRATION_TIME = "dipper.distinct.expiration.time";//去重的过期时间，单位毫秒
+    String DISTINCT_FALSE_POSITIVE_RATE = "dipper.distinct.false.positive.rate";//bloom模式的误判率
+    String DISTINCT_EXPECTED_INSERTIONS = "dipper.distinct.expected.insertions";//过期时间内预计的不同key数量，决定bloom filter的内存
+
+    /**
+     * distinct2（基于rocksdb的精确count distinct）的配置
+     */
+    String DISTINCT2_BLOOM_BITS = "dipper.distinct2.bloom.bits";//判断新值的bloom filter的位数，进程内共享
+    String DISTINCT2_WRITE_BATCH_SIZE = "dipper.distinct2.write.batch.size";//新值攒够多少条写一次rocksdb
+    String DISTINCT2_TTL_SECOND = "dipper.distinct2.ttl.second";//去重状态的过期时间，单位秒，需要覆盖窗口大小和延迟时间
+
 }
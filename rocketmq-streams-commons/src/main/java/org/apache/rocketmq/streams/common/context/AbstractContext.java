@@ -21,7 +21,6 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import org.apache.rocketmq.streams.common.cache.compress.BitSetCache;
 import org.apache.rocketmq.streams.common.configurable.IConfigurable;
 import org.apache.rocketmq.streams.common.configurable.IConfigurableService;
 import org.apache.rocketmq.streams.common.interfaces.IBaseStreamOperator;
@@ -29,6 +28,7 @@ import org.apache.rocketmq.streams.common.model.ThreadContext;
 import org.apache.rocketmq.streams.common.monitor.IMonitor;
 import org.apache.rocketmq.streams.common.monitor.MonitorFactory;
 import org.apache.rocketmq.streams.common.optimization.FilterResultCache;
+import org.apache.rocketmq.streams.common.optimization.HomologousResult;
 import org.apache.rocketmq.streams.common.optimization.HomologousVar;
 import org.apache.rocketmq.streams.common.topology.metric.NotFireReason;
 import org.apache.rocketmq.streams.common.utils.MapKeyUtil;
@@ -67,7 +67,7 @@ public abstract class AbstractContext<T extends IMessage> extends HashMap {
 
     protected FilterResultCache quickFilterResult;
 
-    protected Map<String, BitSetCache.BitSet> homologousResult;
+    protected HomologousResult homologousResult;
 
     //未触发规则的表达式
     protected List<String> notFireExpressionMonitor=new ArrayList<>();
@@ -141,11 +141,10 @@ public abstract class AbstractContext<T extends IMessage> extends HashMap {
             return null;
         }
 
-        BitSetCache.BitSet bitSet = this.homologousResult.get(var.getHomologousVarKey());
-        if (bitSet == null) {
+        if (var.getIndex() == null) {
             return null;
         }
-        return bitSet.get(var.getIndex());
+        return this.homologousResult.get(var.getIndex());
     }
 
     public void resetIsContinue() {
@@ -160,6 +159,33 @@ public abstract class AbstractContext<T extends IMessage> extends HashMap {
         this.message = message;
     }
 
+    /**
+     * 恢复成新建时的状态，用于在同一个线程中复用context，避免每条消息创建新的context
+     *
+     * @param message 新的消息
+     */
+    public void reset(T message) {
+        this.message = message;
+        if (!isEmpty()) {
+            clear();
+        }
+        if (!values.isEmpty()) {
+            values = new HashMap<>();
+        }
+        if (!splitMessages.isEmpty()) {
+            splitMessages = new ArrayList<>();
+        }
+        if (!notFireExpressionMonitor.isEmpty()) {
+            notFireExpressionMonitor = new ArrayList<>();
+        }
+        isBreak = false;
+        isContinue = true;
+        isSplitModel = false;
+        monitor = null;
+        quickFilterResult = null;
+        homologousResult = null;
+    }
+
     public List<T> getSplitMessages() {
         return splitMessages;
     }
@@ -441,12 +467,11 @@ public abstract class AbstractContext<T extends IMessage> extends HashMap {
         this.quickFilterResult = quickFilterResult;
     }
 
-    public Map<String, BitSetCache.BitSet> getHomologousResult() {
+    public HomologousResult getHomologousResult() {
         return homologousResult;
     }
 
-    public void setHomologousResult(
-        Map<String, BitSetCache.BitSet> homologousResult) {
+    public void setHomologousResult(HomologousResult homologousResult) {
         this.homologousResult = homologousResult;
     }
 
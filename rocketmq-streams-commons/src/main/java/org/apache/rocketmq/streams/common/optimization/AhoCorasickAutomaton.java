@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.optimization;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * 多关键词匹配的Aho-Corasick自动机，按char匹配，区分大小写，一次扫描找出内容中出现的所有关键词
+ * <p>
+ * 节点的子节点放在一个开放寻址的hash表中，key是节点id和字符，构建完成后只读，可以多线程共享
+ */
+public class AhoCorasickAutomaton {
+
+    protected static final int ROOT = 0;
+
+    protected Map<String, Integer> keyword2Id = new HashMap<>();
+
+    /**
+     * 子节点hash表，key是(节点id<<16)|字符，空槽的key是-1
+     */
+    protected long[] edgeKeys;
+    protected int[] edgeValues;
+    protected int edgeCount = 0;
+
+    protected int nodeCount = 1;
+    protected int[] fail = new int[16];
+    /**
+     * 在当前节点结束的关键词，没有时为-1
+     */
+    protected int[] nodeKeyword = new int[16];
+    /**
+     * 沿失败指针最近的有关键词结束的节点，没有时为-1
+     */
+    protected int[] outputLink = new int[16];
+    /**
+     * 构建时用于广度遍历的子节点链表
+     */
+    protected int[] firstChild = new int[16];
+    protected int[] nextSibling = new int[16];
+    protected char[] nodeChar = new char[16];
+
+    protected boolean hasBuild = false;
+
+    public AhoCorasickAutomaton() {
+        edgeKeys = new long[64];
+        Arrays.fill(edgeKeys, -1L);
+        edgeValues = new int[64];
+        Arrays.fill(nodeKeyword, -1);
+        Arrays.fill(firstChild, -1);
+    }
+
+    /**
+     * 增加关键词，相同的关键词返回相同的id
+     *
+     * @param keyword 不能为空
+     * @return 关键词id，从0开始连续分配
+     */
+    public int addKeyword(String keyword) {
+        if (hasBuild) {
+            throw new RuntimeException("can not add keyword after build");
+        }
+        if (keyword == null || keyword.length() == 0) {
+            throw new RuntimeException("keyword can not be empty");
+        }
+        Integer id = keyword2Id.get(keyword);
+        if (id != null) {
+            return id;
+        }
+        id = keyword2Id.size();
+        keyword2Id.put(keyword, id);
+        int node = ROOT;
+        for (int i = 0; i < keyword.length(); i++) {
+            char c = keyword.charAt(i);
+            int child = getChild(node, c);
+            if (child == -1) {
+                child = createNode(node, c);
+            }
+            node = child;
+        }
+        nodeKeyword[node] = id;
+        return id;
+    }
+
+    /**
+     * 广度遍历计算失败指针和输出链接，构建后不能再增加关键词
+     */
+    public void build() {
+        if (hasBuild) {
+            return;
+        }
+        int[] queue = new int[nodeCount];
+        int head = 0;
+        int tail = 0;
+        outputLink[ROOT] = -1;
+        for (int child = firstChild[ROOT]; child != -1; child = nextSibling[child]) {
+            fail[child] = ROOT;
+            outputLink[child] = -1;
+            queue[tail++] = child;
+        }
+        while (head < tail) {
+            int node = queue[head++];
+            for (int child = firstChild[node]; child != -1; child = nextSibling[child]) {
+                int failNode = next(fail[node], nodeChar[child]);
+                fail[child] = failNode;
+                outputLink[child] = nodeKeyword[failNode] != -1 ? failNode : outputLink[failNode];
+                queue[tail++] = child;
+            }
+        }
+        firstChild = null;
+        nextSibling = null;
+        nodeChar = null;
+        hasBuild = true;
+    }
+
+    /**
+     * 扫描内容，每出现一次关键词回调一次关键词id，同一个关键词可能回调多次
+     *
+     * @param content  内容
+     * @param consumer 接收关键词id
+     */
+    public void scan(String content, IntConsumer consumer) {
+        if (!hasBuild) {
+            throw new RuntimeException("the automaton need build before scan");
+        }
+        int node = ROOT;
+        for (int i = 0; i < content.length(); i++) {
+            node = next(node, content.charAt(i));
+            int output = nodeKeyword[node] != -1 ? node : outputLink[node];
+            while (output != -1) {
+                consumer.accept(nodeKeyword[output]);
+                output = outputLink[output];
+            }
+        }
+    }
+
+    public int getKeywordCount() {
+        return keyword2Id.size();
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * 沿失败指针找到能接收字符c的节点
+     */
+    protected int next(int node, char c) {
+        while (true) {
+            int child = getChild(node, c);
+            if (child != -1) {
+                return child;
+            }
+            if (node == ROOT) {
+                return ROOT;
+            }
+            node = fail[node];
+        }
+    }
+
+    protected int getChild(int node, char c) {
+        long key = ((long) node << 16) | c;
+        int mask = edgeKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (true) {
+            long slotKey = edgeKeys[slot];
+            if (slotKey == key) {
+                return edgeValues[slot];
+            }
+            if (slotKey == -1L) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    protected int createNode(int parent, char c) {
+        int node = nodeCount++;
+        if (node == fail.length) {
+            int newLength = fail.length << 1;
+            fail = Arrays.copyOf(fail, newLength);
+            outputLink = Arrays.copyOf(outputLink, newLength);
+            nodeKeyword = Arrays.copyOf(nodeKeyword, newLength);
+            Arrays.fill(nodeKeyword, node, newLength, -1);
+            firstChild = Arrays.copyOf(firstChild, newLength);
+            Arrays.fill(firstChild, node, newLength, -1);
+            nextSibling = Arrays.copyOf(nextSibling, newLength);
+            nodeChar = Arrays.copyOf(nodeChar, newLength);
+        }
+        nodeChar[node] = c;
+        nextSibling[node] = firstChild[parent];
+        firstChild[parent] = node;
+        putEdge(((long) parent << 16) | c, node);
+        return node;
+    }
+
+    protected void putEdge(long key, int child) {
+        //负载因子不超过0.5
+        if ((edgeCount + 1) << 1 > edgeKeys.length) {
+            long[] oldKeys = edgeKeys;
+            int[] oldValues = edgeValues;
+            edgeKeys = new long[oldKeys.length << 1];
+            Arrays.fill(edgeKeys, -1L);
+            edgeValues = new int[oldKeys.length << 1];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != -1L) {
+                    insertEdge(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+        insertEdge(key, child);
+        edgeCount++;
+    }
+
+    private void insertEdge(long key, int child) {
+        int mask = edgeKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (edgeKeys[slot] != -1L) {
+            slot = (slot + 1) & mask;
+        }
+        edgeKeys[slot] = key;
+        edgeValues[slot] = child;
+    }
+
+    private static int hash(long key) {
+        key *= 0x9e3779b97f4a7c15L;
+        return (int) (key ^ (key >>> 32));
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.optimization;
+
+/**
+ * 一条消息的同源表达式计算结果，按表达式的稠密编号保存，查询是数组访问
+ * <p>
+ * evaluated记录已经计算过的表达式，matched记录结果为true的表达式，没有计算过的表达式返回null，由表达式自己计算
+ */
+public class HomologousResult {
+    protected final long[] evaluated;
+    protected final long[] matched;
+
+    /**
+     * @param expressionCount 去重后的表达式总数
+     */
+    public HomologousResult(int expressionCount) {
+        int words = (Math.max(0, expressionCount) + 63) >>> 6;
+        this.evaluated = new long[words];
+        this.matched = new long[words];
+    }
+
+    /**
+     * 记录表达式的计算结果
+     *
+     * @param index   表达式的编号
+     * @param isMatch 计算结果
+     */
+    public void set(int index, boolean isMatch) {
+        int word = index >>> 6;
+        long mask = 1L << index;
+        evaluated[word] |= mask;
+        if (isMatch) {
+            matched[word] |= mask;
+        } else {
+            matched[word] &= ~mask;
+        }
+    }
+
+    /**
+     * @param index 表达式的编号
+     * @return 计算过返回结果，没有计算过返回null
+     */
+    public Boolean get(int index) {
+        int word = index >>> 6;
+        if (word >= evaluated.length) {
+            return null;
+        }
+        long mask = 1L << index;
+        if ((evaluated[word] & mask) == 0) {
+            return null;
+        }
+        return (matched[word] & mask) != 0;
+    }
+}
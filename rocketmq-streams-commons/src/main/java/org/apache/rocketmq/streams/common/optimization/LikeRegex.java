@@ -18,9 +18,9 @@ package org.apache.rocketmq.streams.common.optimization;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Pattern;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.rocketmq.streams.common.utils.StringUtil;
 
 /**
  * 可以用sql中的like表示正则，系统负责完成转化
@@ -37,20 +37,25 @@ public class LikeRegex {
     protected boolean hasUnderline=false;
     protected List<String> quickMatchWord = new ArrayList<>();
     protected List<Integer> specailWordIndex=new ArrayList<>();
+    /**
+     * 含有"_"时需要走正则，在解析时编译一次
+     */
+    protected Pattern pattern;
 
     public LikeRegex(String likeStr) {
         this.likeStr = likeStr;
         parse();
+        compile();
     }
 
     public void parse() {
         String tmp = likeStr;
-        if(tmp.indexOf("_")!=-1){
-            hasUnderline=true;
-        }
         if (tmp == null) {
             return;
         }
+        if(tmp.indexOf("_")!=-1){
+            hasUnderline=true;
+        }
         if (tmp.startsWith(SPECAIL_WORD)) {
             isStartFlag = false;
             tmp = tmp.substring(1);
@@ -70,13 +75,24 @@ public class LikeRegex {
         }
     }
 
+    /**
+     * 解析完成后编译正则，只在含有"_"时生效
+     */
+    protected void compile() {
+        if (hasUnderline) {
+            pattern = Pattern.compile(createRegex());
+        }
+    }
+
     public boolean match(String content) {
         if (content == null) {
             return false;
         }
         if(hasUnderline){
-            String regex=createRegex();
-            return StringUtil.matchRegex(content,regex);
+            if (pattern == null) {
+                compile();
+            }
+            return pattern.matcher(content).find();
         }
         if (quickMatchWord == null || quickMatchWord.size() == 0) {
             LOG.warn("like may be parse error, words is empty " + likeStr);
@@ -85,17 +101,17 @@ public class LikeRegex {
         for (int i = 0; i < quickMatchWord.size(); i++) {
             String word = quickMatchWord.get(i);
             if (i == 0 && isStartFlag) {
-                if (!startsWith(content.toCharArray(), word, 0)) {
+                if (!content.startsWith(word)) {
                     return false;
                 }
 
             }
             if (i == quickMatchWord.size() - 1 && isEndFlag) {
-                if (!startsWith(content.toCharArray(), word, content.length() - word.length())) {
+                if (!content.endsWith(word)) {
                     return false;
                 }
             }
-            if (!contains(content, word)) {
+            if (!content.contains(word)) {
                 return false;
             }
         }
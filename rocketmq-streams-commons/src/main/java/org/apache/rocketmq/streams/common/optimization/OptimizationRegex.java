@@ -21,6 +21,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.rocketmq.streams.common.utils.MapKeyUtil;
 import org.apache.rocketmq.streams.common.utils.StringUtil;
@@ -35,7 +36,7 @@ public class OptimizationRegex {
     private static String[] regexSpecialWordsForSplit = {"$", "*", "+", ".", "?", "^"};//分割单词的分割符
 
     //正则表达式，对应的关键词优化器
-    public static Map<String, OptimizationRegex> optimizationRegexMap = new HashMap<>();
+    public static Map<String, OptimizationRegex> optimizationRegexMap = new ConcurrentHashMap<>();
 
     protected String regex;//原来的正则表达式
     protected boolean supportOptimizate = false;//是否支持优化
@@ -83,6 +84,21 @@ public class OptimizationRegex {
 
     }
 
+    /**
+     * 同一个正则只解析一次关键词，StringUtil和RegexPrefilter共享
+     */
+    public static OptimizationRegex getOrCreate(String regex) {
+        OptimizationRegex optimizationRegex = optimizationRegexMap.get(regex);
+        if (optimizationRegex == null) {
+            optimizationRegex = new OptimizationRegex(regex);
+            OptimizationRegex previous = optimizationRegexMap.putIfAbsent(regex, optimizationRegex);
+            if (previous != null) {
+                optimizationRegex = previous;
+            }
+        }
+        return optimizationRegex;
+    }
+
     /**
      * 通过关键词快速匹配，但不做正则部分的匹配
      *
@@ -292,4 +308,16 @@ public class OptimizationRegex {
     public boolean isSupportOptimizate() {
         return supportOptimizate;
     }
+
+    public String getRegex() {
+        return regex;
+    }
+
+    public List<String> getAndWords() {
+        return andWords;
+    }
+
+    public List<List<String>> getOrWords() {
+        return orWords;
+    }
 }
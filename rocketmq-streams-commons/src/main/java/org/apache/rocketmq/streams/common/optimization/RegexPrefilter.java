@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.optimization;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 多个正则共享的关键词预过滤，把所有正则的andWords和orWords放入一个Aho-Corasick自动机，扫描一次内容就能找出关键词条件都满足的正则，
+ * 只有这些正则需要真正执行。quickMatch为true的正则一定在候选中
+ * <p>
+ * 每个and词是一个条件，每组or词是一个条件，一个正则的条件全部满足时成为候选。没有抽取到关键词的正则总是候选
+ *
+ * @param <T> 正则关联的信息
+ */
+public class RegexPrefilter<T> {
+
+    protected AtomicBoolean hasCompile = new AtomicBoolean(false);
+
+    protected AhoCorasickAutomaton automaton = new AhoCorasickAutomaton();
+
+    protected List<T> contexts = new ArrayList<>();
+
+    /**
+     * 每个正则的条件数，编译后转成数组
+     */
+    protected List<Integer> requirementCountList = new ArrayList<>();
+    protected int[] requirementCounts;
+
+    /**
+     * 每个条件所属的正则，编译后转成数组
+     */
+    protected List<Integer> requirementRegexList = new ArrayList<>();
+    protected int[] requirementRegexes;
+
+    /**
+     * 构建时每个关键词对应的条件
+     */
+    protected List<List<Integer>> keywordRequirementList = new ArrayList<>();
+
+    /**
+     * 编译后每个关键词对应的条件
+     */
+    protected int[][] keywordRequirements;
+
+    /**
+     * 没有关键词条件，总是需要执行的正则
+     */
+    protected List<T> alwaysCandidates = new ArrayList<>();
+
+    protected ThreadLocal<MatchState> matchState = new ThreadLocal<>();
+
+    public void addRegex(String regex, T context) {
+        addRegex(OptimizationRegex.getOrCreate(regex), context);
+    }
+
+    public void addRegex(OptimizationRegex optimizationRegex, T context) {
+        if (hasCompile.get()) {
+            throw new RuntimeException("can not add regex after compile");
+        }
+        int regexIndex = contexts.size();
+        contexts.add(context);
+        int requirementCount = 0;
+        if (optimizationRegex.isSupportOptimizate()) {
+            for (String word : optimizationRegex.getAndWords()) {
+                if (word.length() > 0) {
+                    addRequirement(regexIndex, word);
+                    requirementCount++;
+                }
+            }
+            for (List<String> orWord : optimizationRegex.getOrWords()) {
+                //or词中有空字符串时条件总是满足
+                if (orWord.isEmpty() || orWord.contains("")) {
+                    continue;
+                }
+                addRequirement(regexIndex, orWord.toArray(new String[0]));
+                requirementCount++;
+            }
+        }
+        requirementCountList.add(requirementCount);
+        if (requirementCount == 0) {
+            alwaysCandidates.add(context);
+        }
+    }
+
+    public void compile() {
+        if (!hasCompile.compareAndSet(false, true)) {
+            return;
+        }
+        automaton.build();
+        keywordRequirements = new int[keywordRequirementList.size()][];
+        for (int i = 0; i < keywordRequirements.length; i++) {
+            keywordRequirements[i] = toArray(keywordRequirementList.get(i));
+        }
+        requirementCounts = toArray(requirementCountList);
+        requirementRegexes = toArray(requirementRegexList);
+        keywordRequirementList = null;
+    }
+
+    /**
+     * 扫描一次内容，返回关键词条件都满足的正则
+     *
+     * @param content 内容
+     * @return 需要执行正则的候选，顺序不固定
+     */
+    public List<T> match(String content) {
+        if (!hasCompile.get()) {
+            compile();
+        }
+        List<T> candidates = new ArrayList<>(alwaysCandidates);
+        if (content == null || keywordRequirements.length == 0) {
+            return candidates;
+        }
+        MatchState state = matchState.get();
+        if (state == null) {
+            state = new MatchState(keywordRequirements.length, requirementRegexes.length, contexts.size());
+            matchState.set(state);
+        }
+        state.nextGeneration();
+        final MatchState currentState = state;
+        automaton.scan(content, keywordId -> {
+            int generation = currentState.generation;
+            if (currentState.keywordStamps[keywordId] == generation) {
+                return;
+            }
+            currentState.keywordStamps[keywordId] = generation;
+            for (int requirement : keywordRequirements[keywordId]) {
+                if (currentState.requirementStamps[requirement] == generation) {
+                    continue;
+                }
+                currentState.requirementStamps[requirement] = generation;
+                int regexIndex = requirementRegexes[requirement];
+                if (currentState.regexStamps[regexIndex] != generation) {
+                    currentState.regexStamps[regexIndex] = generation;
+                    currentState.regexCounts[regexIndex] = 0;
+                }
+                if (++currentState.regexCounts[regexIndex] == requirementCounts[regexIndex]) {
+                    candidates.add(contexts.get(regexIndex));
+                }
+            }
+        });
+        return candidates;
+    }
+
+    public int size() {
+        return contexts.size();
+    }
+
+    public int getKeywordCount() {
+        return automaton.getKeywordCount();
+    }
+
+    /**
+     * 任意一个关键词出现时条件满足
+     */
+    protected void addRequirement(int regexIndex, String... words) {
+        int requirement = requirementRegexList.size();
+        requirementRegexList.add(regexIndex);
+        for (String word : words) {
+            int keywordId = automaton.addKeyword(word);
+            if (keywordId == keywordRequirementList.size()) {
+                keywordRequirementList.add(new ArrayList<>());
+            }
+            List<Integer> requirements = keywordRequirementList.get(keywordId);
+            //同一组or词中重复的词只记录一次
+            if (requirements.isEmpty() || requirements.get(requirements.size() - 1) != requirement) {
+                requirements.add(requirement);
+            }
+        }
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * 每个线程一份的匹配状态，通过代数区分不同的扫描，不需要每次清空
+     */
+    protected static class MatchState {
+        protected int generation = 0;
+        protected final int[] keywordStamps;
+        protected final int[] requirementStamps;
+        protected final int[] regexStamps;
+        protected final int[] regexCounts;
+
+        public MatchState(int keywordCount, int requirementCount, int regexCount) {
+            keywordStamps = new int[keywordCount];
+            requirementStamps = new int[requirementCount];
+            regexStamps = new int[regexCount];
+            regexCounts = new int[regexCount];
+        }
+
+        protected void nextGeneration() {
+            generation++;
+            if (generation == 0) {
+                Arrays.fill(keywordStamps, 0);
+                Arrays.fill(requirementStamps, 0);
+                Arrays.fill(regexStamps, 0);
+                generation = 1;
+            }
+        }
+    }
+}
@@ -20,6 +20,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.rocketmq.streams.common.cache.compress.BitSetCache;
 import org.apache.rocketmq.streams.common.component.ComponentCreator;
 import org.apache.rocketmq.streams.common.context.IMessage;
@@ -31,55 +33,217 @@ import org.apache.rocketmq.streams.common.utils.StringUtil;
  * cache log finger
  * support mutil sence shared
  * can set cache size by sdk or property file
+ * <p>
+ * 缓存分成多个段，新指纹写入最新的段，查询从新到旧。最新的段写满后淘汰最旧的段，只丢弃最冷的一部分，不会整体清空。旧段中命中的指纹会提升到最新的段，热点指纹不会被淘汰
+ * <p>
+ * 设置了namespace预算时，每个namespace使用自己的一组段，段大小按预算计算，达到预算后淘汰这个namespace最旧的段，不影响其他namespace。所有namespace共享总的缓存大小，超过后淘汰指纹最多的namespace最旧的段
  */
 public class FingerprintCache {
     protected static FingerprintCache fingerprintCache;
     protected static int CACHE_SIZE = 5000000;//default cache size，support 3000000 log size
+    protected static int SEGMENT_COUNT = 4;//分段数，每次淘汰1/SEGMENT_COUNT
+    protected static int NAMESPACE_CACHE_SIZE = -1;//每个namespace最多缓存的指纹数，<=0不限制
     public static String FIELD_VALUE_SPLIT_SIGN=";;;;;";
     //key: namespace  value:FingerprintMetric
-    protected Map<String, FingerprintMetric> metricMap = new HashMap<>();
+    protected Map<String, FingerprintMetric> metricMap = new ConcurrentHashMap<>();
 
-    protected BitSetCache bitSetCache;
+    /**
+     * 所有namespace共享的段，只在namespaceCacheSize<=0时使用
+     */
+    protected SegmentGroup sharedSegments;
+
+    /**
+     * key: namespace value: 这个namespace的段，只在namespaceCacheSize>0时使用
+     */
+    protected Map<String, SegmentGroup> namespaceSegments = new ConcurrentHashMap<>();
     protected int cacheSize;
+    protected int segmentCount;
+    protected int namespaceCacheSize;
     protected int reHashCount = 0;
     protected FingerprintMetric rootFingerprintMetric = new FingerprintMetric("root");
     protected Long firstUpdateTime;
     protected double minHitCacheRate = 0.4;
 
+    protected static class Segment {
+        protected final BitSetCache bitSetCache;
+        /**
+         * 每个namespace在这个段中的指纹数，段被淘汰时从namespace的指纹数中扣除
+         */
+        protected final Map<String, AtomicLong> namespaceSizes = new ConcurrentHashMap<>();
+
+        protected Segment(int capacity) {
+            this.bitSetCache = new BitSetCache(capacity);
+        }
+
+        protected long size() {
+            return bitSetCache.size();
+        }
+    }
+
+    /**
+     * 一组段，写满最新的段后淘汰最旧的段
+     */
+    protected static class SegmentGroup {
+        /**
+         * 段所属的namespace，共享的段为null
+         */
+        protected final String namespace;
+        protected final int segmentSize;
+        /**
+         * 从旧到新排列，最后一个是正在写入的段
+         */
+        protected volatile Segment[] segments;
+
+        protected SegmentGroup(String namespace, int segmentCount, int segmentSize) {
+            this.namespace = namespace;
+            this.segmentSize = segmentSize;
+            this.segments = new Segment[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                this.segments[i] = new Segment(segmentSize);
+            }
+        }
+
+        protected long size() {
+            long size = 0;
+            for (Segment segment : this.segments) {
+                size += segment.size();
+            }
+            return size;
+        }
+    }
+
     public FingerprintCache(int cacheSize) {
+        this(cacheSize, SEGMENT_COUNT, NAMESPACE_CACHE_SIZE);
+    }
+
+    public FingerprintCache(int cacheSize, int segmentCount, int namespaceCacheSize) {
+        if (segmentCount < 1) {
+            segmentCount = 1;
+        }
         this.cacheSize = cacheSize;
-        this.bitSetCache = new BitSetCache(this.cacheSize);
+        this.segmentCount = segmentCount;
+        this.namespaceCacheSize = namespaceCacheSize;
+        this.sharedSegments = new SegmentGroup(null, segmentCount, Math.max(1, cacheSize / segmentCount));
     }
 
     public void addLogFingerprint(String namespace, String msgKey, BitSetCache.BitSet bitSet) {
         if (msgKey == null) {
             return;
         }
+        FingerprintMetric fingerprintMetric = getOrCreateMetric(namespace);
+        if (fingerprintMetric.isCloseFingerprint()) {
+            return;
+        }
+        Segment segment = getOrRotateActiveSegment(getOrCreateSegmentGroup(namespace));
+        put(segment, namespace, namespace + "->" + msgKey, bitSet, fingerprintMetric);
+    }
 
-        if (bitSetCache != null) {
-            FingerprintMetric fingerprintMetric = getOrCreateMetric(namespace);
-            fingerprintMetric.addCaceSize();
-            this.rootFingerprintMetric.addCaceSize();
-            if (fingerprintMetric.isCloseFingerprint()) {
-                return;
-            }
-            if (this.bitSetCache.size() > CACHE_SIZE) {
-                synchronized (this) {
-                    if (this.bitSetCache.size() > CACHE_SIZE) {
+    /**
+     * 只有新插入的指纹计数，覆盖已有的指纹不计数
+     */
+    protected void put(Segment segment, String namespace, String key, BitSetCache.BitSet bitSet, FingerprintMetric fingerprintMetric) {
+        boolean exist = segment.bitSetCache.get(key) != null;
+        segment.bitSetCache.put(key, bitSet);
+        if (exist) {
+            return;
+        }
+        AtomicLong namespaceSize = segment.namespaceSizes.get(namespace);
+        if (namespaceSize == null) {
+            namespaceSize = segment.namespaceSizes.computeIfAbsent(namespace, name -> new AtomicLong(0));
+        }
+        namespaceSize.incrementAndGet();
+        fingerprintMetric.addCaceSize();
+        this.rootFingerprintMetric.addCaceSize();
+    }
 
-                        executeCloseStrategy();
-                        for (FingerprintMetric metric : this.metricMap.values()) {
-                            metric.clear();
-                        }
-                        this.bitSetCache = new BitSetCache(this.cacheSize);
-                        reHashCount++;
-                        this.rootFingerprintMetric.clear();
-                        firstUpdateTime = System.currentTimeMillis();
-                    }
+    /**
+     * 最新的段写满后，淘汰最旧的段，其他段整体前移。设置了namespace预算时，总指纹数超过缓存大小，淘汰指纹最多的namespace最旧的段
+     *
+     * @return 正在写入的段
+     */
+    protected Segment getOrRotateActiveSegment(SegmentGroup segmentGroup) {
+        Segment active = segmentGroup.segments[segmentGroup.segments.length - 1];
+        if (active.size() < segmentGroup.segmentSize && !isOverCacheSize()) {
+            return active;
+        }
+        synchronized (this) {
+            active = segmentGroup.segments[segmentGroup.segments.length - 1];
+            if (active.size() >= segmentGroup.segmentSize) {
+                rotate(segmentGroup);
+            }
+            //最旧的段可能是空的，一直淘汰到总数低于缓存大小
+            while (isOverCacheSize()) {
+                SegmentGroup largest = getLargestSegmentGroup();
+                if (largest == null || largest.size() == 0) {
+                    break;
                 }
+                rotate(largest);
+            }
+            return segmentGroup.segments[segmentGroup.segments.length - 1];
+        }
+    }
+
+    /**
+     * 淘汰最旧的段，调用方持有锁
+     */
+    protected void rotate(SegmentGroup segmentGroup) {
+        if (firstUpdateTime == null) {
+            firstUpdateTime = System.currentTimeMillis();
+        }
+        executeCloseStrategy();
+        Segment[] segments = segmentGroup.segments;
+        Segment evicted = segments[0];
+        Segment[] newSegments = new Segment[segments.length];
+        System.arraycopy(segments, 1, newSegments, 0, segments.length - 1);
+        newSegments[segments.length - 1] = new Segment(segmentGroup.segmentSize);
+        segmentGroup.segments = newSegments;
+        for (Map.Entry<String, AtomicLong> entry : evicted.namespaceSizes.entrySet()) {
+            FingerprintMetric metric = getOrCreateMetric(entry.getKey());
+            metric.evict(entry.getValue().get());
+        }
+        this.rootFingerprintMetric.evict(evicted.size());
+        if (segmentGroup.namespace == null) {
+            for (FingerprintMetric metric : this.metricMap.values()) {
+                metric.rotate();
             }
-            this.bitSetCache.put(namespace + "->" + msgKey, bitSet);
+        } else {
+            getOrCreateMetric(segmentGroup.namespace).rotate();
         }
+        this.rootFingerprintMetric.rotate();
+        reHashCount++;
+        firstUpdateTime = System.currentTimeMillis();
+    }
+
+    /**
+     * 只有设置了namespace预算才需要检查总数，共享的段本身不会超过缓存大小
+     */
+    protected boolean isOverCacheSize() {
+        return namespaceCacheSize > 0 && this.rootFingerprintMetric.getCacheSize() >= cacheSize;
+    }
+
+    protected SegmentGroup getLargestSegmentGroup() {
+        SegmentGroup largest = null;
+        long largestSize = -1;
+        for (SegmentGroup segmentGroup : this.namespaceSegments.values()) {
+            long size = segmentGroup.size();
+            if (size > largestSize) {
+                largest = segmentGroup;
+                largestSize = size;
+            }
+        }
+        return largest;
+    }
+
+    protected SegmentGroup getOrCreateSegmentGroup(String namespace) {
+        if (namespaceCacheSize <= 0) {
+            return sharedSegments;
+        }
+        SegmentGroup segmentGroup = namespaceSegments.get(namespace);
+        if (segmentGroup == null) {
+            int segmentSize = Math.max(1, Math.min(namespaceCacheSize, cacheSize) / segmentCount);
+            segmentGroup = namespaceSegments.computeIfAbsent(namespace, name -> new SegmentGroup(name, segmentCount, segmentSize));
+        }
+        return segmentGroup;
     }
 
     protected void executeCloseStrategy() {
@@ -113,12 +277,47 @@ public class FingerprintCache {
         if (firstUpdateTime == null) {
             firstUpdateTime = System.currentTimeMillis();
         }
-        BitSetCache.BitSet bitSet = this.bitSetCache.get(namespace + "->" + msgKey);
+        BitSetCache.BitSet bitSet = null;
+        String key = namespace + "->" + msgKey;
+        SegmentGroup segmentGroup = getOrCreateSegmentGroup(namespace);
+        Segment[] segments = segmentGroup.segments;
+        for (int i = segments.length - 1; i >= 0; i--) {
+            bitSet = segments[i].bitSetCache.get(key);
+            if (bitSet != null) {
+                if (i < segments.length - 1) {
+                    //旧段中命中，提升到正在写入的段，避免热点指纹随旧段被淘汰
+                    Segment active = getOrRotateActiveSegment(segmentGroup);
+                    if (active.bitSetCache.get(key) == null) {
+                        put(active, namespace, key, bitSet, fingerprintMetric);
+                    }
+                }
+                break;
+            }
+        }
         this.rootFingerprintMetric.addMetric(bitSet != null);
         fingerprintMetric.addMetric(bitSet != null);
         return bitSet;
     }
 
+    /**
+     * 所有段中的指纹数，提升到新段的指纹会在旧段中重复计数，直到旧段被淘汰
+     */
+    public long size() {
+        long size = sharedSegments.size();
+        for (SegmentGroup segmentGroup : this.namespaceSegments.values()) {
+            size += segmentGroup.size();
+        }
+        return size;
+    }
+
+    public FingerprintMetric getRootFingerprintMetric() {
+        return rootFingerprintMetric;
+    }
+
+    public Map<String, FingerprintMetric> getMetricMap() {
+        return metricMap;
+    }
+
     public void addLogFingerprint(String namespace, IMessage message, BitSetCache.BitSet bitSet,
         String logFingerprintFieldNames) {
         String msgKey = creatFingerpringKey(message, namespace, logFingerprintFieldNames);
@@ -133,14 +332,7 @@ public class FingerprintCache {
     public FingerprintMetric getOrCreateMetric(String namespace) {
         FingerprintMetric fingerprintMetric = metricMap.get(namespace);
         if (fingerprintMetric == null) {
-            synchronized (this) {
-                fingerprintMetric = metricMap.get(namespace);
-                if (fingerprintMetric == null) {
-                    fingerprintMetric = new FingerprintMetric(namespace);
-                    metricMap.put(namespace, fingerprintMetric);
-                }
-            }
-
+            fingerprintMetric = metricMap.computeIfAbsent(namespace, FingerprintMetric::new);
         }
         return fingerprintMetric;
     }
@@ -161,6 +353,14 @@ public class FingerprintCache {
         if (StringUtil.isNotEmpty(sizeValue)) {
             CACHE_SIZE = Integer.valueOf(sizeValue);
         }
+        String segmentValue = ComponentCreator.getProperties().getProperty("fingerprint.cache.segment.count");
+        if (StringUtil.isNotEmpty(segmentValue)) {
+            SEGMENT_COUNT = Integer.valueOf(segmentValue);
+        }
+        String namespaceSizeValue = ComponentCreator.getProperties().getProperty("fingerprint.cache.namespace.size");
+        if (StringUtil.isNotEmpty(namespaceSizeValue)) {
+            NAMESPACE_CACHE_SIZE = Integer.valueOf(namespaceSizeValue);
+        }
     }
 
     protected static Map<String, List<String>> logFingerprintFieldNameListMap = new HashMap<>();
@@ -20,11 +20,18 @@ import com.alibaba.fastjson.JSONObject;
 import java.util.concurrent.atomic.AtomicLong;
 import org.apache.rocketmq.streams.common.utils.JsonableUtil;
 
+/**
+ * visitCount和hitCacheCount是最近一次淘汰后的计数，每次淘汰后重新统计；totalXXX是累计值
+ */
 public class FingerprintMetric {
     protected String namespace;
     protected AtomicLong visitCount=new AtomicLong(0);
     protected AtomicLong hitCacheCount=new AtomicLong(0);
-    protected AtomicLong cacheSize=new AtomicLong(0);
+    protected AtomicLong totalVisitCount=new AtomicLong(0);
+    protected AtomicLong totalHitCacheCount=new AtomicLong(0);
+    protected AtomicLong cacheSize=new AtomicLong(0);//当前缓存中的指纹数
+    protected AtomicLong evictCount=new AtomicLong(0);//被淘汰的指纹数
+    protected volatile double lastHitCacheRate=0;//上一个淘汰周期的命中率
     protected boolean isCloseFingerprint=false;
 
     public FingerprintMetric(String namespace){
@@ -33,8 +40,10 @@ public class FingerprintMetric {
 
     public void addMetric(boolean isHitCache){
         visitCount.incrementAndGet();
+        totalVisitCount.incrementAndGet();
         if(isHitCache){
             hitCacheCount.incrementAndGet();
+            totalHitCacheCount.incrementAndGet();
         }
     }
 
@@ -43,6 +52,25 @@ public class FingerprintMetric {
         cacheSize.incrementAndGet();
     }
 
+    /**
+     * 缓存段被淘汰
+     *
+     * @param size 段中属于这个namespace的指纹数
+     */
+    public void evict(long size){
+        cacheSize.addAndGet(-size);
+        evictCount.addAndGet(size);
+    }
+
+    /**
+     * 进入新的淘汰周期，保留上个周期的命中率，重新统计
+     */
+    public void rotate(){
+        lastHitCacheRate=getHitCacheRate();
+        visitCount.set(0);
+        hitCacheCount.set(0);
+    }
+
     public Long getVisitCount(){
         return this.visitCount.get();
     }
@@ -57,6 +85,22 @@ public class FingerprintMetric {
         return this.cacheSize.get();
     }
 
+    public Long getEvictCount(){
+        return this.evictCount.get();
+    }
+
+    public double getLastHitCacheRate(){
+        return lastHitCacheRate;
+    }
+
+    public double getTotalHitCacheRate(){
+        double visitCount=totalVisitCount.get();
+        if(visitCount==0){
+            visitCount=1;
+        }
+        return totalHitCacheCount.get()/visitCount;
+    }
+
     public double getHitCacheRate(){
         double visitCount=getVisitCount();
         if(visitCount==0){
@@ -77,7 +121,11 @@ public class FingerprintMetric {
     public void clear() {
         visitCount.set(0);
         hitCacheCount.set(0);
+        totalVisitCount.set(0);
+        totalHitCacheCount.set(0);
         cacheSize.set(0);
+        evictCount.set(0);
+        lastHitCacheRate=0;
     }
 
     public void print() {
@@ -86,6 +134,9 @@ public class FingerprintMetric {
         msg.put("hitCacheCount",hitCacheCount.get());
         msg.put("cacheSize",cacheSize.get());
         msg.put("hitCacheRate",getHitCacheRate());
+        msg.put("lastHitCacheRate",lastHitCacheRate);
+        msg.put("totalHitCacheRate",getTotalHitCacheRate());
+        msg.put("evictCount",evictCount.get());
         msg.put("namespace",namespace);
         msg.put("isClosed",isCloseFingerprint);
         System.out.println(JsonableUtil.formatJson(msg));
@@ -21,7 +21,6 @@ import com.google.common.collect.Lists;
 import java.io.File;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -29,7 +28,8 @@ import java.util.Map;
 import java.util.ServiceLoader;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
-import org.apache.rocketmq.streams.common.cache.compress.impl.LongValueKV;
+import org.apache.rocketmq.streams.common.cache.dedup.DeduplicatorFactory;
+import org.apache.rocketmq.streams.common.cache.dedup.IDeduplicator;
 import org.apache.rocketmq.streams.common.channel.source.ISource;
 import org.apache.rocketmq.streams.common.component.ComponentCreator;
 import org.apache.rocketmq.streams.common.configurable.AbstractConfigurable;
@@ -64,10 +64,19 @@ public class ChainPipeline<T extends IMessage> extends Pipeline<T> implements IA
 
     private static final long serialVersionUID = -5189371682717444347L;
 
-    private final transient int duplicateCacheSize = 1000000;
-    private transient LongValueKV duplicateCache;
-    private transient List<String> duplicateFields;
-    private transient int duplicateCacheExpirationTime;
+    private static final long DEFAULT_DUPLICATE_EXPIRATION_TIME = 86400000;
+    private static final int DEFAULT_DUPLICATE_EXPECTED_INSERTIONS = 1000000;
+
+    /**
+     * 去重的字段，多个用;分割，可以被配置文件中的pipelineName.duplicate.fields.names覆盖
+     */
+    protected String duplicateFieldNames;
+    /**
+     * 去重的过期时间，单位毫秒
+     */
+    protected long duplicateExpirationTime = DEFAULT_DUPLICATE_EXPIRATION_TIME;
+    private transient IDeduplicator duplicator;
+    private transient String[] duplicateFields;
 
     private transient int homologousExpressionCacheSize = 2000000;
     private transient int preFingerprintCacheSize = 2000000;
@@ -194,12 +203,12 @@ public class ChainPipeline<T extends IMessage> extends Pipeline<T> implements IA
         }
     }
 
-    private String createDuplicateKey(IMessage message) {
-        List<String> duplicateValues = Lists.newArrayList();
-        for (String field : duplicateFields) {
-            duplicateValues.add(message.getMessageBody().getString(field));
+    private String[] createDuplicateValues(IMessage message) {
+        String[] duplicateValues = new String[duplicateFields.length];
+        for (int i = 0; i < duplicateFields.length; i++) {
+            duplicateValues[i] = message.getMessageBody().getString(duplicateFields[i]);
         }
-        return StringUtil.createMD5Str(String.join("", duplicateValues));
+        return duplicateValues;
     }
 
     private String createPipelineMonitorName() {
@@ -216,18 +225,10 @@ public class ChainPipeline<T extends IMessage> extends Pipeline<T> implements IA
      */
     @Override
     protected T doMessageInner(T t, AbstractContext context, AbstractStage<?>... replaceStage) {
-        if (this.duplicateCache != null && this.duplicateFields != null && !this.duplicateFields.isEmpty() && !t.getHeader().isSystemMessage()) {
-            String duplicateKey = createDuplicateKey(t);
-            Long cacheTime = this.duplicateCache.get(duplicateKey);
-            Long currentTime = System.currentTimeMillis();
-            if (cacheTime != null && currentTime - cacheTime < this.duplicateCacheExpirationTime) {
+        if (this.duplicator != null && !t.getHeader().isSystemMessage()) {
+            if (this.duplicator.containsOrPut(createDuplicateValues(t))) {
                 context.breakExecute();
                 return t;
-            } else {
-                this.duplicateCache.put(duplicateKey, currentTime);
-                if (this.duplicateCache.getSize() > duplicateCacheSize) {
-                    this.duplicateCache = new LongValueKV(this.duplicateCacheSize);
-                }
             }
         }
         if (!t.getHeader().isSystemMessage()) {
@@ -466,21 +467,45 @@ public class ChainPipeline<T extends IMessage> extends Pipeline<T> implements IA
         }
 
         //增加去重的逻辑
-        String duplicateFieldNameStr = ComponentCreator.getProperties().getProperty(getConfigureName() + ".duplicate.fields.names");
-        if (duplicateFieldNameStr != null && !duplicateFieldNameStr.isEmpty()) {
-            this.duplicateFields = Lists.newArrayList();
-            this.duplicateFields.addAll(Arrays.asList(duplicateFieldNameStr.split(";")));
+        initDuplicator();
+
+    }
+
+    /**
+     * 去重按时间分片，默认使用bloom filter，内存有上限，可以通过pipelineName.duplicate.mode=rocksdb切换成精确去重
+     */
+    protected void initDuplicator() {
+        if (this.duplicator != null) {
+            return;
         }
-        if (this.duplicateCache == null && this.duplicateFields != null) {
-            this.duplicateCache = new LongValueKV(this.duplicateCacheSize);
+        String duplicateFieldNameStr = getDuplicateProperty("fields.names");
+        if (StringUtil.isEmpty(duplicateFieldNameStr)) {
+            duplicateFieldNameStr = this.duplicateFieldNames;
         }
-        String duplicateCacheExpirationStr = ComponentCreator.getProperties().getProperty(getConfigureName() + ".duplicate.expiration.time");
-        if (duplicateCacheExpirationStr != null && !duplicateCacheExpirationStr.isEmpty()) {
-            this.duplicateCacheExpirationTime = Integer.parseInt(duplicateCacheExpirationStr);
-        } else {
-            this.duplicateCacheExpirationTime = 86400000;
+        if (StringUtil.isEmpty(duplicateFieldNameStr)) {
+            return;
+        }
+        this.duplicateFields = duplicateFieldNameStr.split(";");
+        long expirationTime = this.duplicateExpirationTime > 0 ? this.duplicateExpirationTime : DEFAULT_DUPLICATE_EXPIRATION_TIME;
+        String duplicateExpirationStr = getDuplicateProperty("expiration.time");
+        if (StringUtil.isNotEmpty(duplicateExpirationStr)) {
+            expirationTime = Long.parseLong(duplicateExpirationStr);
+        }
+        double falsePositiveRate = DeduplicatorFactory.DEFAULT_FALSE_POSITIVE_RATE;
+        String falsePositiveRateStr = getDuplicateProperty("false.positive.rate");
+        if (StringUtil.isNotEmpty(falsePositiveRateStr)) {
+            falsePositiveRate = Double.parseDouble(falsePositiveRateStr);
+        }
+        int expectedInsertions = DEFAULT_DUPLICATE_EXPECTED_INSERTIONS;
+        String expectedInsertionsStr = getDuplicateProperty("expected.insertions");
+        if (StringUtil.isNotEmpty(expectedInsertionsStr)) {
+            expectedInsertions = Integer.parseInt(expectedInsertionsStr);
         }
+        this.duplicator = DeduplicatorFactory.create(getDuplicateProperty("mode"), MapKeyUtil.createKey(getNameSpace(), getConfigureName()), expirationTime, falsePositiveRate, expectedInsertions);
+    }
 
+    private String getDuplicateProperty(String name) {
+        return ComponentCreator.getProperties().getProperty(getConfigureName() + ".duplicate." + name);
     }
 
     private Map<String, StageGroup> createStageGroupMap() {
@@ -529,6 +554,10 @@ public class ChainPipeline<T extends IMessage> extends Pipeline<T> implements IA
         if (source != null && hasStart.compareAndSet(true, false)) {
             source.destroy();
         }
+        if (duplicator != null) {
+            duplicator.close();
+            duplicator = null;
+        }
         super.destroy();
     }
     public void addStageGroup(StageGroup stageGroup){
@@ -572,6 +601,22 @@ public class ChainPipeline<T extends IMessage> extends Pipeline<T> implements IA
         return rootStageGroups;
     }
 
+    public String getDuplicateFieldNames() {
+        return duplicateFieldNames;
+    }
+
+    public void setDuplicateFieldNames(String duplicateFieldNames) {
+        this.duplicateFieldNames = duplicateFieldNames;
+    }
+
+    public long getDuplicateExpirationTime() {
+        return duplicateExpirationTime;
+    }
+
+    public void setDuplicateExpirationTime(long duplicateExpirationTime) {
+        this.duplicateExpirationTime = duplicateExpirationTime;
+    }
+
     public String getCreateTableSQL() {
         return createTableSQL;
     }
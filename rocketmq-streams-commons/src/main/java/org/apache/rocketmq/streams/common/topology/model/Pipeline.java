@@ -308,6 +308,9 @@ public class Pipeline<T extends IMessage> extends BasedConfigurable implements I
         if (LOG.isInfoEnabled()) {
             LOG.info(getName() + " is destroy, release pipline " + stages.size());
         }
+        for (AbstractStage<?> stage : stages) {
+            stage.destroy();
+        }
         stages.clear();
     }
 
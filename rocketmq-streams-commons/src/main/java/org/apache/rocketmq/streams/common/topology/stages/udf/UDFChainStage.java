@@ -65,6 +65,13 @@ public class UDFChainStage extends AbstractStatelessChainStage implements IAfter
         return message;
     }
 
+    @Override public void destroy() {
+        if (selfChainStage != null) {
+            selfChainStage.destroy();
+        }
+        super.destroy();
+    }
+
     public String getUdfOperatorClassSerializeValue() {
         return udfOperatorClassSerializeValue;
     }
@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.utils;
+
+/**
+ * 非加密的快速hash，实现murmur3 x64 128位算法。用于缓存的key摘要，替代md5，不需要MessageDigest和中间字符串
+ * <p>
+ * 字符串按UTF-16LE的字节计算，直接读取char，不需要getBytes
+ */
+public class HashUtil {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    /**
+     * 计算字符串的128位hash
+     *
+     * @param key 字符串
+     * @return 16个字节，前8个字节是h1，后8个字节是h2，均为小端
+     */
+    public static byte[] murmur3_128(String key) {
+        byte[] bytes = new byte[16];
+        murmur3_128(key, 0, bytes);
+        return bytes;
+    }
+
+    /**
+     * 计算字符串的128位hash，结果写入out
+     *
+     * @param key  字符串
+     * @param seed 种子
+     * @param out  至少16个字节
+     */
+    public static void murmur3_128(String key, long seed, byte[] out) {
+        long h1 = seed;
+        long h2 = seed;
+        int charLength = key.length();
+        int nblocks = charLength >>> 3;
+        for (int i = 0; i < nblocks; i++) {
+            int index = i << 3;
+            long k1 = charsToLong(key, index);
+            long k2 = charsToLong(key, index + 4);
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+        long k1 = 0;
+        long k2 = 0;
+        int tail = nblocks << 3;
+        for (int i = tail; i < charLength; i++) {
+            long c = key.charAt(i);
+            int shift = (i - tail) << 4;
+            if (shift < 64) {
+                k1 ^= c << shift;
+            } else {
+                k2 ^= c << (shift - 64);
+            }
+        }
+        h1 ^= mixK1(k1);
+        h2 ^= mixK2(k2);
+        finish(h1, h2, (long) charLength << 1, out);
+    }
+
+    /**
+     * 计算字节数组的128位hash，和guava的Hashing.murmur3_128结果一致
+     *
+     * @param data   数据
+     * @param offset 起始位置
+     * @param length 长度
+     * @param seed   种子
+     * @param out    至少16个字节
+     */
+    public static void murmur3_128(byte[] data, int offset, int length, long seed, byte[] out) {
+        long h1 = seed;
+        long h2 = seed;
+        int nblocks = length >>> 4;
+        for (int i = 0; i < nblocks; i++) {
+            int index = offset + (i << 4);
+            long k1 = NumberUtils.toLongLittleEndian(data, index);
+            long k2 = NumberUtils.toLongLittleEndian(data, index + 8);
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+        long k1 = 0;
+        long k2 = 0;
+        int tail = offset + (nblocks << 4);
+        int tailLength = length & 15;
+        for (int i = 0; i < tailLength; i++) {
+            long b = data[tail + i] & 0xffL;
+            if (i < 8) {
+                k1 ^= b << (i << 3);
+            } else {
+                k2 ^= b << ((i - 8) << 3);
+            }
+        }
+        h1 ^= mixK1(k1);
+        h2 ^= mixK2(k2);
+        finish(h1, h2, length, out);
+    }
+
+    /**
+     * 计算多个字符串组合的128位hash，不需要拼接字符串。每个字符串用前一个的结果作为种子，顺序和边界不同结果不同
+     *
+     * @param keys 字符串，可以包含null
+     * @param out  至少16个字节
+     */
+    public static void murmur3_128(String[] keys, byte[] out) {
+        long seed = 0;
+        for (String key : keys) {
+            if (key == null) {
+                seed = fmix64(seed ^ 0x9e3779b97f4a7c15L);
+                NumberUtils.putLongLittleEndian(out, 0, seed);
+                NumberUtils.putLongLittleEndian(out, 8, ~seed);
+                continue;
+            }
+            murmur3_128(key, seed, out);
+            seed = NumberUtils.toLongLittleEndian(out, 0) ^ Long.rotateLeft(NumberUtils.toLongLittleEndian(out, 8), 32);
+        }
+        if (keys.length == 0) {
+            murmur3_128("", 0, out);
+        }
+    }
+
+    /**
+     * 计算字符串的64位hash，取128位结果的h1
+     *
+     * @param key 字符串
+     * @return hash值
+     */
+    public static long hash64(String key) {
+        byte[] out = new byte[16];
+        murmur3_128(key, 0, out);
+        return NumberUtils.toLongLittleEndian(out, 0);
+    }
+
+    private static void finish(long h1, long h2, long length, byte[] out) {
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+        NumberUtils.putLongLittleEndian(out, 0, h1);
+        NumberUtils.putLongLittleEndian(out, 8, h2);
+    }
+
+    private static long charsToLong(String key, int index) {
+        return (long) key.charAt(index)
+            | ((long) key.charAt(index + 1) << 16)
+            | ((long) key.charAt(index + 2) << 32)
+            | ((long) key.charAt(index + 3) << 48);
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        return k1;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        return k2;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
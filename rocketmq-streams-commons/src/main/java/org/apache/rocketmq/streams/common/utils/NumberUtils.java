@@ -127,6 +127,37 @@ public class NumberUtils {
         return res;
     }
 
+    /**
+     * 从index开始读取8个字节，index位置是低位
+     *
+     * @param b     字节数组
+     * @param index 起始位置
+     * @return long值
+     */
+    public static long toLongLittleEndian(byte[] b, int index) {
+        return (b[index] & 0xffL)
+            | ((b[index + 1] & 0xffL) << 8)
+            | ((b[index + 2] & 0xffL) << 16)
+            | ((b[index + 3] & 0xffL) << 24)
+            | ((b[index + 4] & 0xffL) << 32)
+            | ((b[index + 5] & 0xffL) << 40)
+            | ((b[index + 6] & 0xffL) << 48)
+            | ((b[index + 7] & 0xffL) << 56);
+    }
+
+    /**
+     * 把long写入字节数组，index位置是低位，不创建新数组
+     *
+     * @param b     字节数组
+     * @param index 起始位置
+     * @param n     long值
+     */
+    public static void putLongLittleEndian(byte[] b, int index, long n) {
+        for (int i = 0; i < 8; i++) {
+            b[index + i] = (byte) (n >>> (i << 3));
+        }
+    }
+
     public static int toInt(byte b) {
         byte[] bytes = new byte[1];
         bytes[0] = b;
@@ -358,6 +389,14 @@ public class NumberUtils {
      * @return
      */
     public static Number stripTrailingZeros(double value) {
+        //int范围内的整数和带小数的值不需要BigDecimal，结果和BigDecimal的计算一致
+        if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            int intValue = (int) value;
+            if (intValue == value) {
+                return intValue;
+            }
+            return value;
+        }
         BigDecimal decimal = new BigDecimal(value);
         BigDecimal result = decimal.stripTrailingZeros();
         int scale = result.scale();
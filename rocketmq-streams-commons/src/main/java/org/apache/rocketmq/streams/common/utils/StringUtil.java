@@ -43,6 +43,13 @@ public final class StringUtil {
         }
     }
 
+    /**
+     * 开关开启时才使用从正则中抽取的关键词做预过滤
+     */
+    public static boolean isRegexFastSwitch() {
+        return regex_fast_switch;
+    }
+
     public static boolean isEmpty(String string) {
         return string == null || "".equals(string.trim());
     }
@@ -217,11 +224,7 @@ public final class StringUtil {
         if (!regex_fast_switch) {
             return true;
         }
-        OptimizationRegex optimizationRegex = OptimizationRegex.optimizationRegexMap.get(patternStr);
-        if (optimizationRegex == null) {
-            optimizationRegex = new OptimizationRegex(patternStr);
-            OptimizationRegex.optimizationRegexMap.put(patternStr, optimizationRegex);
-        }
+        OptimizationRegex optimizationRegex = OptimizationRegex.getOrCreate(patternStr);
         // 当启用优化正则表达式的开关开启后，把前置过滤的词，放入cache中。
 
         return optimizationRegex.quickMatch(content);
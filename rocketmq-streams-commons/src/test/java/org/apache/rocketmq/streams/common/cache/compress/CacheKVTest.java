@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.cache.compress;
+
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.apache.rocketmq.streams.common.cache.compress.impl.IntValueKV;
+import org.apache.rocketmq.streams.common.utils.HashUtil;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CacheKVTest {
+
+    /**
+     * 字节数组的hash和guava的murmur3_128一致，字符串的hash等于UTF-16LE字节的hash
+     */
+    @Test
+    public void testMurmur3() {
+        String[] keys = {"", "a", "name0", "1234567", "12345678", "0123456789abcdef", "中文key-with-tail-0123456789"};
+        for (String key : keys) {
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_16LE);
+            byte[] out = new byte[16];
+            HashUtil.murmur3_128(bytes, 0, bytes.length, 0, out);
+            assertArrayEquals(Hashing.murmur3_128().hashBytes(bytes).asBytes(), out);
+            assertArrayEquals(out, HashUtil.murmur3_128(key));
+        }
+    }
+
+    /**
+     * 桶冲突进入冲突链，所有key都能查到
+     */
+    @Test
+    public void testBucketConflict() {
+        IntValueKV cache = new IntValueKV(16);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("name" + i, i);
+        }
+        assertEquals(1000, cache.getSize());
+        assertTrue(cache.conflictCount > 0);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, cache.get("name" + i).intValue());
+        }
+        assertNull(cache.get("name1000"));
+    }
+
+    /**
+     * 128位hash完全相同的两个key会被当作同一个key
+     */
+    @Test
+    public void testHashConflict() {
+        IntValueKV cache = new IntValueKV(16) {
+            @Override
+            protected byte[] createKeyHashCode(String key) {
+                byte[] hashCodes = new byte[16];
+                Arrays.fill(hashCodes, (byte) key.length());
+                return hashCodes;
+            }
+        };
+        cache.put("ab", 1);
+        cache.put("cd", 2);
+        assertEquals(1, cache.getSize());
+        assertEquals(2, cache.get("ab").intValue());
+        assertFalse(cache.contains("abc"));
+    }
+
+    @Test
+    public void testBitSetCache() {
+        BitSetCache bitSetCache = new BitSetCache(8, 1000);
+        BitSetCache.BitSet bitSet = bitSetCache.createBitSet();
+        bitSet.set(3);
+        bitSetCache.put("fingerprint", bitSet);
+        assertTrue(bitSetCache.get("fingerprint").get(3));
+        assertFalse(bitSetCache.get("fingerprint").get(2));
+        assertNull(bitSetCache.get("other"));
+    }
+
+    /**
+     * 写入和查询性能，默认100万数据。1000万数据的压测通过-Dcachekv.performance.capacity=10000000指定，需要-Xmx2g以上
+     */
+    @Test
+    public void testPerformance() {
+        int capacity = Integer.getInteger("cachekv.performance.capacity", 1000000);
+        IntValueKV cache = new IntValueKV(capacity);
+        String[] keys = new String[capacity];
+        for (int i = 0; i < capacity; i++) {
+            keys[i] = "name" + i;
+        }
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < capacity; i++) {
+            cache.put(keys[i], i);
+        }
+        long putCost = System.currentTimeMillis() - start;
+        start = System.currentTimeMillis();
+        long sum = 0;
+        for (int i = 0; i < capacity; i++) {
+            sum += cache.get(keys[i]);
+        }
+        long getCost = System.currentTimeMillis() - start;
+        assertEquals((long) capacity * (capacity - 1) / 2, sum);
+        System.out.println("insert " + capacity + " cost " + putCost + "ms, lookup cost " + getCost + "ms, memory " + cache.calMemory() + "m, conflict " + cache.conflictCount + ", checksum " + sum);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.cache.dedup;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RotatingBloomDeduplicatorTest {
+
+    @Test
+    public void testDuplicate() {
+        RotatingBloomDeduplicator deduplicator = new RotatingBloomDeduplicator(10000, 0.0001, 60000);
+        long time = 1000000;
+        Assert.assertFalse(deduplicator.containsOrPut(time, "a", "b"));
+        Assert.assertTrue(deduplicator.containsOrPut(time + 1, "a", "b"));
+        //字段边界不同是不同的key
+        Assert.assertFalse(deduplicator.containsOrPut(time, "ab", ""));
+        Assert.assertFalse(deduplicator.containsOrPut(time, "a", null));
+        Assert.assertTrue(deduplicator.containsOrPut(time, "a", null));
+    }
+
+    @Test
+    public void testExpiration() {
+        long expirationTime = 60000;
+        RotatingBloomDeduplicator deduplicator = new RotatingBloomDeduplicator(10000, 0.0001, expirationTime);
+        long time = 1000000;
+        Assert.assertFalse(deduplicator.containsOrPut(time, "key"));
+        //过期时间内不会漏判，即使中间分片已经轮转
+        for (long t = time; t < time + expirationTime; t += 5000) {
+            Assert.assertTrue(deduplicator.containsOrPut(t, "key"));
+        }
+        RotatingBloomDeduplicator other = new RotatingBloomDeduplicator(10000, 0.0001, expirationTime);
+        Assert.assertFalse(other.containsOrPut(time, "key"));
+        //超过过期时间加一个分片后一定过期
+        long bucketTime = expirationTime / RotatingBloomDeduplicator.DEFAULT_BUCKET_COUNT;
+        Assert.assertFalse(other.containsOrPut(time + expirationTime + 2 * bucketTime, "key"));
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        int count = 100000;
+        double falsePositiveRate = 0.001;
+        long expirationTime = 3600000;
+        RotatingBloomDeduplicator deduplicator = new RotatingBloomDeduplicator(count, falsePositiveRate, expirationTime);
+        //key在过期时间内均匀写入
+        long time = 3600000L * 1000;
+        for (int i = 0; i < count; i++) {
+            deduplicator.containsOrPut(time + expirationTime * i / count, "insert_" + i);
+        }
+        //查询也会写入，查询数量不超过一个分片的容量
+        int queryCount = count / RotatingBloomDeduplicator.DEFAULT_BUCKET_COUNT;
+        int falsePositive = 0;
+        long queryTime = time + expirationTime;
+        for (int i = 0; i < queryCount; i++) {
+            if (deduplicator.containsOrPut(queryTime, "query_" + i)) {
+                falsePositive++;
+            }
+        }
+        Assert.assertTrue(falsePositive < queryCount * falsePositiveRate * 2);
+        //内存和key的数量、长度无关
+        Assert.assertTrue(deduplicator.getMemorySize() < 4 * 1024 * 1024);
+    }
+}
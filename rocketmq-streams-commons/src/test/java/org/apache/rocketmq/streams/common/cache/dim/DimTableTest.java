@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.cache.dim;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DimTableTest {
+
+    @Test
+    public void testLookup() {
+        MappedDimTable table = new MappedDimTable("name", "age");
+        int count = 100000;
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("name", "name_" + (i % 50000));
+            row.put("age", i % 50000);
+            row.put("index", i);
+            table.addRow(row);
+        }
+        Map<String, Object> row = new HashMap<>();
+        row.put("age", 1);
+        table.addRow(row);//join字段为空的行不加载
+        table.finishLoad();
+        Assert.assertEquals(count, table.getRowCount());
+
+        Map<String, Object> message = new HashMap<>();
+        message.put("name", "name_123");
+        message.put("age", 123);
+        List<Map<String, Object>> rows = table.lookup(MappedDimTable.createKey(message, new String[] {"name", "age"}));
+        Assert.assertEquals(2, rows.size());
+        Assert.assertEquals(123, rows.get(0).get("index"));
+        Assert.assertEquals(50123, rows.get(1).get("index"));
+
+        message.put("age", 124);
+        Assert.assertTrue(table.lookup(MappedDimTable.createKey(message, new String[] {"name", "age"})).isEmpty());
+        Assert.assertTrue(table.lookup(null).isEmpty());
+        table.close();
+    }
+
+    @Test
+    public void testValueType() {
+        MappedDimTable table = new MappedDimTable("time");
+        Timestamp time = new Timestamp(1600000000123L);
+        time.setNanos(123456789);
+        Map<String, Object> row = new HashMap<>();
+        row.put("time", time);
+        row.put("id", 10000000000L);
+        row.put("price", new BigDecimal("12.3400"));
+        row.put("valid", true);
+        row.put("remark", null);
+        table.addRow(row);
+        table.finishLoad();
+
+        Map<String, Object> message = new HashMap<>();
+        message.put("time", new Timestamp(time.getTime()));
+        Assert.assertTrue(table.lookup(MappedDimTable.createKey(message, new String[] {"time"})).isEmpty());
+        message.put("time", time);
+        List<Map<String, Object>> rows = table.lookup(MappedDimTable.createKey(message, new String[] {"time"}));
+        Assert.assertEquals(1, rows.size());
+        Assert.assertEquals(time, rows.get(0).get("time"));
+        Assert.assertEquals(10000000000L, rows.get(0).get("id"));
+        Assert.assertEquals(new BigDecimal("12.3400"), rows.get(0).get("price"));
+        Assert.assertEquals(Boolean.TRUE, rows.get(0).get("valid"));
+        Assert.assertFalse(rows.get(0).containsKey("remark"));
+
+        //已有字段不被维表覆盖
+        message.put("id", 1);
+        table.readRow(table.findRows(MappedDimTable.createKey(message, new String[] {"time"}))[0], message);
+        Assert.assertEquals(1, message.get("id"));
+        Assert.assertEquals(Boolean.TRUE, message.get("valid"));
+        table.close();
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        File file = File.createTempFile("dim", ".json");
+        file.deleteOnExit();
+        Files.write(file.toPath(), Arrays.asList("{\"id\":\"1\",\"city\":\"hangzhou\"}", "{\"id\":\"2\",\"city\":\"beijing\"}"), StandardCharsets.UTF_8);
+        DimTable dimTable = new DimTable(new FileDimLoader(file.getAbsolutePath()), 0, "id");
+        dimTable.start();
+        Assert.assertEquals(2, dimTable.getRowCount());
+        Assert.assertEquals("hangzhou", dimTable.lookup("1").get(0).get("city"));
+
+        Files.write(file.toPath(), Arrays.asList("{\"id\":\"1\",\"city\":\"shanghai\"}"), StandardCharsets.UTF_8);
+        dimTable.reload();
+        Assert.assertEquals(1, dimTable.getRowCount());
+        Assert.assertEquals("shanghai", dimTable.lookup("1").get(0).get("city"));
+        Assert.assertTrue(dimTable.lookup("2").isEmpty());
+
+        //加载失败时继续使用旧表
+        Files.write(file.toPath(), Arrays.asList("{\"id\":"), StandardCharsets.UTF_8);
+        dimTable.reload();
+        Assert.assertEquals("shanghai", dimTable.lookup("1").get(0).get("city"));
+        dimTable.close();
+    }
+}
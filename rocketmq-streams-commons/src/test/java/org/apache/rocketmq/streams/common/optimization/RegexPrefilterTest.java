@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.optimization;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RegexPrefilterTest {
+
+    @Test
+    public void testAutomaton() {
+        AhoCorasickAutomaton automaton = new AhoCorasickAutomaton();
+        String[] keywords = {"he", "she", "his", "hers"};
+        for (String keyword : keywords) {
+            automaton.addKeyword(keyword);
+        }
+        Assert.assertEquals(1, automaton.addKeyword("she"));
+        automaton.build();
+        Set<String> found = new HashSet<>();
+        automaton.scan("ushers", id -> found.add(keywords[id]));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("he", "she", "hers")), found);
+        found.clear();
+        automaton.scan("hi there", id -> found.add(keywords[id]));
+        Assert.assertEquals(1, found.size());
+        Assert.assertTrue(found.contains("he"));
+    }
+
+    @Test
+    public void testSameAsQuickMatch() {
+        Random random = new Random(7);
+        List<String> regexs = createRegexs(random, 2000, 500);
+        RegexPrefilter<Integer> prefilter = new RegexPrefilter<>();
+        for (int i = 0; i < regexs.size(); i++) {
+            prefilter.addRegex(regexs.get(i), i);
+        }
+        List<String> lines = createLines(random, 500, 500);
+        int matchCount = 0;
+        for (String line : lines) {
+            Set<Integer> expected = new HashSet<>();
+            for (int i = 0; i < regexs.size(); i++) {
+                if (OptimizationRegex.getOrCreate(regexs.get(i)).quickMatch(line)) {
+                    expected.add(i);
+                }
+            }
+            List<Integer> candidates = prefilter.match(line);
+            Assert.assertEquals(expected.size(), candidates.size());
+            Assert.assertEquals(expected, new HashSet<>(candidates));
+            matchCount += candidates.size();
+        }
+        Assert.assertTrue(matchCount > 0);
+    }
+
+    /**
+     * 1k和10k个正则，日志长度的内容，对比逐个quickMatch和一次扫描的耗时
+     */
+    @Test
+    public void testPerformance() {
+        for (int regexCount : new int[] {1000, 10000}) {
+            Random random = new Random(regexCount);
+            List<String> regexs = createRegexs(random, regexCount, 20000);
+            List<String> lines = createLines(random, 500, 20000);
+            List<OptimizationRegex> optimizationRegexs = new ArrayList<>();
+            RegexPrefilter<Integer> prefilter = new RegexPrefilter<>();
+            for (int i = 0; i < regexs.size(); i++) {
+                optimizationRegexs.add(OptimizationRegex.getOrCreate(regexs.get(i)));
+                prefilter.addRegex(regexs.get(i), i);
+            }
+            prefilter.compile();
+
+            long start = System.currentTimeMillis();
+            long quickMatchCount = 0;
+            for (String line : lines) {
+                for (OptimizationRegex optimizationRegex : optimizationRegexs) {
+                    if (optimizationRegex.quickMatch(line)) {
+                        quickMatchCount++;
+                    }
+                }
+            }
+            long quickMatchTime = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            long prefilterCount = 0;
+            for (String line : lines) {
+                prefilterCount += prefilter.match(line).size();
+            }
+            long prefilterTime = System.currentTimeMillis() - start;
+            Assert.assertEquals(quickMatchCount, prefilterCount);
+            System.out.println("regex count is " + regexCount + ", keyword count is " + prefilter.getKeywordCount() + ", candidate count is " + prefilterCount
+                + ", quick match cost " + quickMatchTime + "ms, prefilter cost " + prefilterTime + "ms");
+        }
+    }
+
+    /**
+     * and关键词，or关键词和只有一个关键词的正则
+     */
+    protected List<String> createRegexs(Random random, int count, int wordCount) {
+        List<String> regexs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            switch (i % 3) {
+                case 0:
+                    regexs.add(createWord(random, wordCount) + ".*" + createWord(random, wordCount));
+                    break;
+                case 1:
+                    regexs.add(createWord(random, wordCount) + "|" + createWord(random, wordCount));
+                    break;
+                default:
+                    regexs.add("^" + createWord(random, wordCount) + "\\s+\\d+");
+            }
+        }
+        return regexs;
+    }
+
+    /**
+     * 每行约200个字符
+     */
+    protected List<String> createLines(Random random, int count, int wordCount) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            StringBuilder line = new StringBuilder("2022-01-01 12:00:00 INFO");
+            while (line.length() < 200) {
+                line.append(' ').append(createWord(random, wordCount)).append('=').append(random.nextInt(1000));
+            }
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    protected String createWord(Random random, int wordCount) {
+        return "key" + random.nextInt(wordCount);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.optimization.fingerprint;
+
+import org.apache.rocketmq.streams.common.cache.compress.BitSetCache;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FingerprintCacheTest {
+
+    /**
+     * 写满后只淘汰最旧的段，旧段中被访问的指纹会提升到新段
+     */
+    @Test
+    public void testSegmentEviction() {
+        FingerprintCache cache = new FingerprintCache(400, 4, -1);
+        BitSetCache.BitSet bitSet = new BitSetCache.BitSet(8);
+        for (int i = 0; i < 400; i++) {
+            cache.addLogFingerprint("ns", "key" + i, bitSet);
+        }
+        assertEquals(400, cache.size());
+
+        //最新的段已满，key0从最旧的段提升时触发淘汰，最旧段中的其他指纹被淘汰
+        assertNotNull(cache.getLogFingerprint("ns", "key0"));
+        assertNull(cache.getLogFingerprint("ns", "key1"));
+        assertNotNull(cache.getLogFingerprint("ns", "key0"));
+        assertEquals(301, cache.size());
+        assertNotNull(cache.getLogFingerprint("ns", "key100"));
+        assertNotNull(cache.getLogFingerprint("ns", "key399"));
+
+        FingerprintMetric metric = cache.getOrCreateMetric("ns");
+        assertEquals(100, metric.getEvictCount().longValue());
+        assertEquals(cache.size(), metric.getCacheSize().longValue());
+        assertEquals(0.8, metric.getTotalHitCacheRate(), 0.0001);
+    }
+
+    /**
+     * 每个namespace的指纹数不超过预算，达到预算后淘汰这个namespace最旧的段，继续接收新的指纹，不影响其他namespace
+     */
+    @Test
+    public void testNamespaceBudget() {
+        FingerprintCache cache = new FingerprintCache(1000, 4, 12);
+        //small只写不读，命中率为0，避免被按命中率关闭
+        cache.setMinHitCacheRate(0);
+        BitSetCache.BitSet bitSet = new BitSetCache.BitSet(8);
+        for (int i = 0; i < 100; i++) {
+            cache.addLogFingerprint("big", "key" + i, bitSet);
+            cache.addLogFingerprint("small", "key" + i % 5, bitSet);
+            //热点指纹一直被访问，不会被淘汰
+            assertNotNull(cache.getLogFingerprint("big", "key0"));
+        }
+        FingerprintMetric big = cache.getOrCreateMetric("big");
+        assertTrue(big.getCacheSize() <= 12);
+        assertTrue(big.getEvictCount() >= 80);
+        assertNull(cache.getLogFingerprint("big", "key50"));
+        assertNotNull(cache.getLogFingerprint("big", "key99"));
+        assertNotNull(cache.getLogFingerprint("big", "key0"));
+
+        //达到预算后新的指纹仍然能写入
+        cache.addLogFingerprint("big", "newKey", bitSet);
+        assertNotNull(cache.getLogFingerprint("big", "newKey"));
+        assertTrue(big.getCacheSize() <= 12);
+
+        //small只在自己的段中淘汰重复写入的旧指纹，不受big淘汰的影响
+        FingerprintMetric small = cache.getOrCreateMetric("small");
+        assertTrue(small.getCacheSize() <= 12);
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(cache.getLogFingerprint("small", "key" + i));
+        }
+        assertEquals(cache.size(), cache.getRootFingerprintMetric().getCacheSize().longValue());
+    }
+
+    /**
+     * 所有namespace共享总的缓存大小，超过后淘汰指纹最多的namespace
+     */
+    @Test
+    public void testNamespaceBudgetWithCacheSize() {
+        FingerprintCache cache = new FingerprintCache(20, 4, 16);
+        //small只写不读，命中率为0，避免被按命中率关闭
+        cache.setMinHitCacheRate(0);
+        BitSetCache.BitSet bitSet = new BitSetCache.BitSet(8);
+        for (int i = 0; i < 5; i++) {
+            cache.addLogFingerprint("small", "key" + i, bitSet);
+        }
+        for (int i = 0; i < 100; i++) {
+            cache.addLogFingerprint("big", "key" + i, bitSet);
+            assertTrue(cache.size() <= 20);
+        }
+        assertEquals(0, cache.getOrCreateMetric("small").getEvictCount().longValue());
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(cache.getLogFingerprint("small", "key" + i));
+        }
+        assertNotNull(cache.getLogFingerprint("big", "key99"));
+    }
+}
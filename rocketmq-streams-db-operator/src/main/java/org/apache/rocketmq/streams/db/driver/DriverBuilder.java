@@ -46,11 +46,21 @@ public class DriverBuilder {
      * @return
      */
     public static JDBCDriver createDriver() {
+        return createDriver(0);
+    }
+
+    /**
+     * 使用属性文件配置的jdbc信息创建带连接池的JDBCDriver
+     *
+     * @param poolSize 连接池大小，小于等于0时使用单个连接
+     * @return JDBCDriver
+     */
+    public static JDBCDriver createDriver(int poolSize) {
         String driver = ComponentCreator.getProperties().getProperty(AbstractComponent.JDBC_DRIVER);
         String url = ComponentCreator.getProperties().getProperty(AbstractComponent.JDBC_URL);
         String userName = ComponentCreator.getProperties().getProperty(AbstractComponent.JDBC_USERNAME);
         String password = ComponentCreator.getProperties().getProperty(AbstractComponent.JDBC_PASSWORD);
-        return createDriver(driver, url, userName, password);
+        return createDriver(driver, url, userName, password, poolSize);
     }
 
     /**
@@ -64,6 +74,21 @@ public class DriverBuilder {
      */
     public static JDBCDriver createDriver(String driver, final String url, final String userName,
                                           final String password) {
+        return createDriver(driver, url, userName, password, 0);
+    }
+
+    /**
+     * 根据数据库连接信息创建带连接池的JDBCDriver，使用完需要调用destroy关闭连接
+     *
+     * @param driver   数据库驱动，如果为null，默认为mysql
+     * @param url      数据库连接url
+     * @param userName 用户名
+     * @param password 密码
+     * @param poolSize 连接池大小，小于等于0时使用单个连接
+     * @return JDBCDriver
+     */
+    public static JDBCDriver createDriver(String driver, final String url, final String userName,
+                                          final String password, int poolSize) {
         if (StringUtil.isEmpty(driver)) {
             driver = DEFALUT_JDBC_DRIVER;
         }
@@ -75,6 +100,7 @@ public class DriverBuilder {
                     new Class[] {String.class, String.class, String.class, String.class});
                 JDBCDriver abstractDBDataSource = (JDBCDriver)constructor.newInstance(url, userName, password,
                     driver);
+                abstractDBDataSource.setPoolSize(poolSize);
                 abstractDBDataSource.init();
                 return abstractDBDataSource;
             } catch (Exception e) {
@@ -90,6 +116,7 @@ public class DriverBuilder {
         resource.setUrl(url);
         resource.setUserName(userName);
         resource.setPassword(password);
+        resource.setPoolSize(poolSize);
         resource.init();
         return resource;
     }
@@ -29,9 +29,12 @@ import org.apache.rocketmq.streams.common.configurable.BasedConfigurable;
 import org.apache.rocketmq.streams.common.configurable.annotation.ENVDependence;
 import org.apache.rocketmq.streams.common.dboperator.IDBDriver;
 import org.apache.rocketmq.streams.common.utils.StringUtil;
+import org.apache.rocketmq.streams.db.driver.batchloader.IRowOperator;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.SqlProvider;
 import org.springframework.jdbc.core.StatementCallback;
 import org.springframework.jdbc.datasource.SingleConnectionDataSource;
@@ -53,8 +56,18 @@ public class JDBCDriver extends BasedConfigurable implements IDriverBudiler, IDB
     @ENVDependence
     protected String password;
 
+    /**
+     * 大于0时使用固定大小的连接池，否则所有线程共享一个连接
+     */
+    protected int poolSize = 0;
+    /**
+     * 连接池的连接都被占用时的最长等待时间，单位毫秒
+     */
+    protected long maxWaitMillis = 30000;
+
     protected transient javax.sql.DataSource dataSource;
     private transient IDBDriver dbDriver = null;
+    private transient JdbcTemplate jdbcTemplate;
 
     public JDBCDriver(String url, String userName, String password,
                       String driver) {
@@ -124,8 +137,9 @@ public class JDBCDriver extends BasedConfigurable implements IDriverBudiler, IDB
     @Override
     public IDBDriver createDBDriver() {
         javax.sql.DataSource dataSource = createDBDataSource();
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate = jdbcTemplate;
         return new IDBDriver() {
-            private final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
 
 
             @Override
@@ -216,7 +230,11 @@ public class JDBCDriver extends BasedConfigurable implements IDriverBudiler, IDB
     }
 
     protected javax.sql.DataSource createDBDataSource() {
-
+        if (poolSize > 0) {
+            PooledDataSource dataSource = new PooledDataSource(jdbcDriver, url, userName, password, poolSize, maxWaitMillis);
+            this.dataSource = dataSource;
+            return dataSource;
+        }
         SingleConnectionDataSource dataSource = new SingleConnectionDataSource(url, userName, password, true);
 
         dataSource.setDriverClassName(jdbcDriver);
@@ -244,6 +262,60 @@ public class JDBCDriver extends BasedConfigurable implements IDriverBudiler, IDB
             SingleConnectionDataSource data = (SingleConnectionDataSource)dataSource;
             data.destroy();
         }
+        if (dataSource instanceof PooledDataSource) {
+            ((PooledDataSource)dataSource).destroy();
+        }
+    }
+
+    /**
+     * 使用PreparedStatement执行同一个sql的多组参数，驱动支持时通过addBatch/executeBatch一次提交，sql只解析一次
+     *
+     * @param sql        带?占位符的sql
+     * @param parameters 每行一组参数
+     * @return 每行影响的条数
+     */
+    public int[] batchUpdate(String sql, List<Object[]> parameters) {
+        if (parameters == null || parameters.size() == 0) {
+            return new int[0];
+        }
+        createOrGetDriver();
+        return jdbcTemplate.batchUpdate(sql, parameters);
+    }
+
+    /**
+     * 流式查询，每读到一行回调一次，不在内存中保存整个结果集
+     * <p>
+     * mysql在url中配置了useCursorFetch=true时按fetchSize分批读取，否则驱动会忽略fetchSize把结果集全部读到内存，这时改为Integer.MIN_VALUE逐行读取
+     *
+     * @param sql         查询的sql
+     * @param fetchSize   每次从数据库读取的行数
+     * @param rowOperator 处理一行数据
+     */
+    public void query(String sql, int fetchSize, IRowOperator rowOperator) {
+        createOrGetDriver();
+        JdbcTemplate fetchTemplate = new JdbcTemplate(dataSource);
+        fetchTemplate.setFetchSize(getStreamingFetchSize(fetchSize));
+        ColumnMapRowMapper rowMapper = new ColumnMapRowMapper();
+        fetchTemplate.query(sql, (RowCallbackHandler) resultSet -> rowOperator.doProcess(rowMapper.mapRow(resultSet, resultSet.getRow())));
+    }
+
+    protected int getStreamingFetchSize(int fetchSize) {
+        if (url != null && url.startsWith("jdbc:mysql:") && !url.contains("useCursorFetch=true")) {
+            return Integer.MIN_VALUE;
+        }
+        return fetchSize;
+    }
+
+    /**
+     * 使用PreparedStatement执行带参数的sql
+     *
+     * @param sql        带?占位符的sql
+     * @param parameters 参数
+     * @return 影响的条数
+     */
+    public int update(String sql, Object... parameters) {
+        createOrGetDriver();
+        return jdbcTemplate.update(sql, parameters);
     }
 
     public String getJdbcDriver() {
@@ -254,6 +326,22 @@ public class JDBCDriver extends BasedConfigurable implements IDriverBudiler, IDB
         this.jdbcDriver = jdbcDriver;
     }
 
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
     public String getUrl() {
         return url;
     }
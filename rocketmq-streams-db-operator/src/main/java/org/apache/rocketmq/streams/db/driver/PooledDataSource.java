@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.db.driver;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.rocketmq.streams.common.utils.ReflectUtil;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+/**
+ * 固定大小的连接池，多个sink线程各自使用一个连接，不再共享SingleConnectionDataSource的单个连接
+ * <p>
+ * 连接在第一次使用时创建，close时归还到池中，已经关闭或者不可用的连接归还时丢弃，下次使用时重新创建
+ */
+public class PooledDataSource extends AbstractDataSource {
+
+    private static final Log LOG = LogFactory.getLog(PooledDataSource.class);
+
+    protected static final int VALID_TIMEOUT_SECOND = 3;
+
+    protected final String url;
+    protected final String userName;
+    protected final String password;
+    protected final int poolSize;
+    protected final long maxWaitMillis;
+
+    /**
+     * 空闲的连接
+     */
+    protected final BlockingQueue<Connection> idleConnections;
+
+    /**
+     * 控制借出的连接数不超过poolSize
+     */
+    protected final Semaphore permits;
+
+    protected volatile boolean closed = false;
+
+    /**
+     * @param driverClassName 数据库驱动
+     * @param poolSize        最大连接数
+     * @param maxWaitMillis   连接都被占用时的最长等待时间，单位毫秒
+     */
+    public PooledDataSource(String driverClassName, String url, String userName, String password, int poolSize,
+        long maxWaitMillis) {
+        ReflectUtil.forClass(driverClassName);
+        this.url = url;
+        this.userName = userName;
+        this.password = password;
+        this.poolSize = Math.max(1, poolSize);
+        this.maxWaitMillis = maxWaitMillis;
+        this.idleConnections = new ArrayBlockingQueue<>(this.poolSize);
+        this.permits = new Semaphore(this.poolSize, true);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("the data source is closed, the url is " + url);
+        }
+        try {
+            if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("can not get connection in " + maxWaitMillis + "ms, the pool size is " + poolSize + ", the url is " + url);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted when waiting connection", e);
+        }
+        try {
+            Connection connection = idleConnections.poll();
+            while (connection != null && !isValid(connection)) {
+                closeQuietly(connection);
+                connection = idleConnections.poll();
+            }
+            if (connection == null) {
+                connection = DriverManager.getConnection(url, userName, password);
+            }
+            return createProxy(connection);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 指定用户的连接不放入池中，每次新建，不受poolSize限制，使用方负责关闭
+     */
+    @Override
+    public Connection getConnection(String userName, String password) throws SQLException {
+        return DriverManager.getConnection(url, userName, password);
+    }
+
+    /**
+     * 关闭空闲的连接，借出的连接归还时关闭
+     */
+    public void destroy() {
+        closed = true;
+        Connection connection = idleConnections.poll();
+        while (connection != null) {
+            closeQuietly(connection);
+            connection = idleConnections.poll();
+        }
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public int getIdleCount() {
+        return idleConnections.size();
+    }
+
+    public int getActiveCount() {
+        return poolSize - permits.availablePermits();
+    }
+
+    protected void release(Connection connection) {
+        try {
+            if (closed || connection.isClosed() || !idleConnections.offer(connection)) {
+                closeQuietly(connection);
+            }
+        } catch (SQLException e) {
+            closeQuietly(connection);
+        } finally {
+            permits.release();
+        }
+    }
+
+    protected boolean isValid(Connection connection) {
+        try {
+            return !connection.isClosed() && connection.isValid(VALID_TIMEOUT_SECOND);
+        } catch (SQLException | AbstractMethodError e) {
+            return false;
+        }
+    }
+
+    protected Connection createProxy(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class[] {Connection.class}, new InvocationHandler() {
+            private boolean released = false;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String methodName = method.getName();
+                if ("close".equals(methodName)) {
+                    if (!released) {
+                        released = true;
+                        try {
+                            if (!connection.getAutoCommit()) {
+                                connection.rollback();
+                                connection.setAutoCommit(true);
+                            }
+                        } catch (SQLException e) {
+                            closeQuietly(connection);
+                        } finally {
+                            release(connection);
+                        }
+                    }
+                    return null;
+                }
+                if ("isClosed".equals(methodName)) {
+                    return released || connection.isClosed();
+                }
+                if ("equals".equals(methodName)) {
+                    return proxy == args[0];
+                }
+                if ("hashCode".equals(methodName)) {
+                    return System.identityHashCode(proxy);
+                }
+                if ("unwrap".equals(methodName) && ((Class<?>) args[0]).isInstance(connection)) {
+                    return connection;
+                }
+                if (released) {
+                    throw new SQLException("the connection is returned to pool");
+                }
+                try {
+                    return method.invoke(connection, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getTargetException();
+                }
+            }
+        });
+    }
+
+    protected void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOG.warn("close connection error, the url is " + url, e);
+        }
+    }
+}
@@ -16,7 +16,7 @@
  */
 package org.apache.rocketmq.streams.db.driver.batchloader;
 
-import com.alibaba.fastjson.JSONObject;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
@@ -25,41 +25,54 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.rocketmq.streams.common.cache.compress.impl.IntValueKV;
-import org.apache.rocketmq.streams.common.utils.SQLUtil;
 import org.apache.rocketmq.streams.db.driver.DriverBuilder;
 import org.apache.rocketmq.streams.db.driver.JDBCDriver;
 
 /**
- * 多线程批量加载数据，每加载一批数据后，通过IRowOperator回调接口处理数据 需要有递增的字段，这个字段有索引，不重复，如id字段
+ * 多线程批量加载数据，每加载一行数据后，通过IRowOperator回调接口处理数据 需要有递增的字段，这个字段有索引，不重复，如id字段
+ * <p>
+ * 先按分位数查询id，把id划分成行数接近的区间，id稀疏或者分布不均匀时每个任务的数据量也基本一致。
+ * 每个任务从连接池获取自己的连接，流式读取区间内的数据
  */
 public class BatchRowLoader {
     private static final Log LOG = LogFactory.getLog(BatchRowLoader.class);
-    protected static final int MAX_LINE = 5000;//每个批次最大行数，根据这个值划分并行任务
-    protected static ExecutorService executorService = null;
+    protected static final int MAX_LINE = 5000;//每个任务最少的行数，根据这个值划分并行任务
     protected String idFieldName;//配置字段名称，这个字段的值是数字的，且是递增的
-    protected String sql;//查询的sql语句，类似select * from table where idFieldName>#{idFieldName=0} order by idFieldName.不要加limit，系统会自动添加
-    protected int batchSize = 1000;//每批从数据库加载的数据量
+    protected String sql;//查询的sql语句，类似select * from table where a=1.不要加order by和limit，系统会自动添加
+    protected int batchSize = 1000;//流式读取时每次从数据库读取的行数，mysql未配置useCursorFetch=true时逐行读取
+    protected int threadCount = 20;//并行加载的线程数，也是连接池的大小
     protected IRowOperator dataRowProcessor;//加载的数据由这个回调接口处理
     private JDBCDriver jdbcDriver;
 
     public BatchRowLoader(String idFieldName, String sql, IRowOperator dataRowProcessor) {
+        this(idFieldName, sql, dataRowProcessor, null);
+    }
+
+    /**
+     * @param jdbcDriver 为null时使用属性文件配置的数据库，创建大小为threadCount的连接池。传入的jdbcDriver由调用方销毁
+     */
+    public BatchRowLoader(String idFieldName, String sql, IRowOperator dataRowProcessor, JDBCDriver jdbcDriver) {
         this.idFieldName = idFieldName;
         this.sql = sql;
         this.dataRowProcessor = dataRowProcessor;
-        this.jdbcDriver = DriverBuilder.createDriver();
-        executorService = new ThreadPoolExecutor(20, 20,
-            0L, TimeUnit.MILLISECONDS,
-            new LinkedBlockingQueue<Runnable>(1000));
+        this.jdbcDriver = jdbcDriver;
     }
 
+    /**
+     * 加载全部数据，任何一个任务失败时抛出异常。构造时没有传入jdbcDriver的，加载完成后销毁自己创建的连接池
+     */
     public void startLoadData() {
+        boolean createDriver = jdbcDriver == null;
+        if (createDriver) {
+            jdbcDriver = DriverBuilder.createDriver(threadCount);
+        }
+        ExecutorService executorService = null;
         try {
-            String statisticalSQL = sql;
             int startIndex = sql.toLowerCase().indexOf("from");
-            statisticalSQL = "select count(1) as c, min(" + idFieldName + ") as min, max(" + idFieldName + ") as max "
+            String statisticalSQL = "select count(1) as c, min(" + idFieldName + ") as min, max(" + idFieldName + ") as max "
                 + sql.substring(startIndex);
             List<Map<String, Object>> rows = jdbcDriver.queryForList(statisticalSQL);
             Map<String, Object> row = rows.get(0);
@@ -68,110 +81,129 @@ public class BatchRowLoader {
                 LOG.warn("there is no data during execute sql: " + statisticalSQL);
                 return;
             }
-
-            IntValueKV intValueKV = new IntValueKV(count);
-            //int maxBatch=count/maxSyncCount;//每1w条数据，一个并发。如果数据量比较大，为了提高性能，并行执行
-
             long min = Long.valueOf(row.get("min").toString());
             long max = Long.valueOf(row.get("max").toString());
-            int maxSyncCount = count / MAX_LINE + 1;
-            long step = (max - min + 1) / maxSyncCount;
-            CountDownLatch countDownLatch = new CountDownLatch(maxSyncCount + 1);
+            int taskCount = Math.max(1, Math.min(count / MAX_LINE + 1, threadCount));
+            List<Long> boundaries = createBoundaries(min, max, count, taskCount);
+
+            executorService = new ThreadPoolExecutor(taskCount, taskCount,
+                0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+            CountDownLatch countDownLatch = new CountDownLatch(boundaries.size() - 1);
             AtomicInteger finishedCount = new AtomicInteger(0);
-            String taskSQL = null;
-            if (sql.indexOf(" where ") != -1) {
-                taskSQL = sql + " and " + idFieldName + ">#{startIndex} and " + idFieldName + "<=#{endIndex} order by "
-                    + idFieldName + " limit " + batchSize;
-            } else {
-                taskSQL = sql + " where " + idFieldName + ">#{startIndex} and " + idFieldName
-                    + "<=#{endIndex} order by " + idFieldName + " limit " + batchSize;
+            AtomicReference<RuntimeException> error = new AtomicReference<>();
+            for (int i = 0; i < boundaries.size() - 1; i++) {
+                String sql = createRangeSQL(boundaries.get(i), boundaries.get(i + 1));
+                executorService.execute(new FetchDataTask(sql, countDownLatch, finishedCount, error, count));
             }
-
-            int i = 0;
-            for (; i < maxSyncCount; i++) {
-                FetchDataTask
-                    fetchDataTask = new FetchDataTask(taskSQL, (min - 1) + step * i,
-                    (min - 1) + step * (i + 1), countDownLatch, finishedCount, jdbcDriver, count);
-                executorService.execute(fetchDataTask);
+            countDownLatch.await();
+            if (error.get() != null) {
+                throw error.get();
             }
-            FetchDataTask
-                fetchDataTask = new FetchDataTask(taskSQL, (min - 1) + step * i, (min - 1) + step * (i + 1),
-                countDownLatch, finishedCount, jdbcDriver, count);
-            executorService.execute(fetchDataTask);
+            LOG.info(getClass().getSimpleName() + " load data finish, load data line  size is " + finishedCount.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("load data is interrupted, the sql is " + sql, e);
+        } finally {
+            if (executorService != null) {
+                executorService.shutdown();
+            }
+            if (createDriver) {
+                jdbcDriver.destroy();
+                jdbcDriver = null;
+            }
+        }
+    }
 
-            countDownLatch.await();
+    /**
+     * 每隔count/taskCount行取一个id作为区间的边界，每个边界用limit查询一行，不需要读取全部id
+     *
+     * @return 边界，第i个任务加载(boundaries[i],boundaries[i+1]]区间的数据
+     */
+    protected List<Long> createBoundaries(long min, long max, int count, int taskCount) {
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(min - 1);
+        int step = (count + taskCount - 1) / taskCount;
+        String idSQL = "select " + idFieldName + " " + sql.substring(sql.toLowerCase().indexOf("from")) + " order by " + idFieldName;
+        for (int i = 1; i < taskCount; i++) {
+            List<Map<String, Object>> rows = jdbcDriver.queryForList(idSQL + " limit " + ((long) i * step - 1) + ",1");
+            if (rows.isEmpty()) {
+                //统计之后数据被删除，后面的分位点不存在
+                break;
+            }
+            long id = Long.valueOf(rows.get(0).get(idFieldName).toString());
+            if (id > boundaries.get(boundaries.size() - 1) && id < max) {
+                boundaries.add(id);
+            }
+        }
+        boundaries.add(max);
+        return boundaries;
+    }
 
-            LOG.info(getClass().getSimpleName() + " load data finish, load data line  size is " + count);
-        } catch (Exception e) {
-            LOG.error("failed loading data batch!", e);
-        } finally {
-            jdbcDriver.destroy();
+    /**
+     * 区间查询的sql，用户的sql中可能有%等字符，直接拼接边界，不做格式化
+     */
+    protected String createRangeSQL(long start, long end) {
+        String condition = idFieldName + ">" + start + " and " + idFieldName + "<=" + end + " order by " + idFieldName;
+        if (sql.toLowerCase().indexOf(" where ") != -1) {
+            return sql + " and " + condition;
         }
+        return sql + " where " + condition;
     }
 
     protected class FetchDataTask implements Runnable {
-        long startIndex;
-        long endIndex;
         String sql;
         CountDownLatch countDownLatch;
-        JDBCDriver resource;
         AtomicInteger finishedCount;//完成了多少条
+        AtomicReference<RuntimeException> error;
         int totalSize;//一共有多少条数据
 
-        public FetchDataTask(String sql, long startIndex, long endIndex, CountDownLatch countDownLatch,
-                             AtomicInteger finishedCount, JDBCDriver resource, int totalSize) {
-            this.startIndex = startIndex;
-            this.endIndex = endIndex;
+        public FetchDataTask(String sql, CountDownLatch countDownLatch, AtomicInteger finishedCount,
+                             AtomicReference<RuntimeException> error, int totalSize) {
             this.countDownLatch = countDownLatch;
             this.sql = sql;
             this.finishedCount = finishedCount;
-            this.resource = resource;
+            this.error = error;
             this.totalSize = totalSize;
         }
 
         @Override
         public void run() {
-            long currentIndex = startIndex;
-            JSONObject msg = new JSONObject();
-            msg.put("endIndex", endIndex);
-            while (true) {
-                try {
-
-                    msg.put("startIndex", currentIndex);
-
-                    String sql = SQLUtil.parseIbatisSQL(msg, this.sql);
-                    List<Map<String, Object>> rows = resource.queryForList(sql);
-                    if (rows == null || rows.size() == 0) {
-                        break;
+            try {
+                jdbcDriver.query(sql, batchSize, row -> {
+                    if (error.get() != null) {
+                        //其他任务已经失败，停止读取
+                        throw new RuntimeException("load data is cancelled");
                     }
-                    currentIndex = Long.valueOf(rows.get(rows.size() - 1).get(idFieldName).toString());
-
-                    int size = rows.size();
-                    int count = finishedCount.addAndGet(size);
-                    double progress = (double)count / (double)totalSize;
-                    progress = progress * 100;
-                    System.out.println(" finished count is " + count + " the total count is " + totalSize + ", the progress is " + String.format("%.2f", progress) + "%");
-                    if (size < batchSize) {
-                        if (size > 0) {
-
-                            doProcess(rows);
-                        }
-                        break;
+                    dataRowProcessor.doProcess(row);
+                    int count = finishedCount.incrementAndGet();
+                    if (count % batchSize == 0 && LOG.isInfoEnabled()) {
+                        double progress = (double)count / (double)totalSize;
+                        progress = progress * 100;
+                        LOG.info(" finished count is " + count + " the total count is " + totalSize + ", the progress is " + String.format("%.2f", progress) + "%");
                     }
-                    doProcess(rows);
-                } catch (Exception e) {
-                    throw new RuntimeException("put data error ", e);
-                }
+                });
+            } catch (Exception e) {
+                error.compareAndSet(null, new RuntimeException("put data error, the sql is " + sql, e));
+            } finally {
+                countDownLatch.countDown();
             }
-
-            countDownLatch.countDown();
         }
     }
 
-    private void doProcess(List<Map<String, Object>> rows) {
-        for (Map<String, Object> row : rows) {
-            dataRowProcessor.doProcess(row);
-        }
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
     }
-}
 
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.db.driver.batchloader;
+
+import java.util.Map;
+import java.util.function.Consumer;
+import org.apache.rocketmq.streams.common.cache.dim.IDimLoader;
+import org.apache.rocketmq.streams.db.driver.DriverBuilder;
+import org.apache.rocketmq.streams.db.driver.JDBCDriver;
+
+/**
+ * 通过sql流式加载维表，每次加载创建新的连接，加载完成后关闭
+ */
+public class JDBCDimLoader implements IDimLoader {
+
+    protected String jdbcDriver;
+    protected String url;
+    protected String userName;
+    protected String password;
+    protected String sql;//查询维表的sql，select * from table where a=1
+    protected int fetchSize = 1000;//流式读取时每次从数据库读取的行数，mysql未配置useCursorFetch=true时逐行读取
+
+    public JDBCDimLoader(String url, String userName, String password, String sql) {
+        this(null, url, userName, password, sql);
+    }
+
+    public JDBCDimLoader(String jdbcDriver, String url, String userName, String password, String sql) {
+        this.jdbcDriver = jdbcDriver;
+        this.url = url;
+        this.userName = userName;
+        this.password = password;
+        this.sql = sql;
+    }
+
+    @Override
+    public void load(Consumer<Map<String, Object>> rowConsumer) {
+        JDBCDriver driver = DriverBuilder.createDriver(jdbcDriver, url, userName, password);
+        try {
+            driver.query(sql, fetchSize, rowConsumer::accept);
+        } finally {
+            driver.destroy();
+        }
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.db.driver;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.Driver;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * 内存中的mock驱动，处理jdbc:streams-mock:开头的url。记录连接的创建和关闭，PreparedStatement的sql和每批的参数，查询结果由queryHandler提供
+ * <p>
+ * 通过test-jar共享给依赖db-operator的模块，使用时在BeforeClass中注册，AfterClass中注销
+ */
+public class MockDriver implements Driver {
+    public AtomicInteger connectCount = new AtomicInteger(0);
+    public AtomicInteger closeCount = new AtomicInteger(0);
+    public AtomicInteger prepareCount = new AtomicInteger(0);
+    public AtomicInteger addBatchCount = new AtomicInteger(0);
+    public AtomicInteger executeBatchCount = new AtomicInteger(0);
+    public List<String> queries = Collections.synchronizedList(new ArrayList<>());
+    public List<Integer> fetchSizes = Collections.synchronizedList(new ArrayList<>());
+    public List<RecordStatement> statements = Collections.synchronizedList(new ArrayList<>());
+    public volatile QueryHandler queryHandler = sql -> Collections.emptyList();
+
+    /**
+     * 一次executeBatch/executeUpdate执行的sql和参数
+     */
+    public static class RecordStatement {
+        public String sql;
+        public List<List<Object>> rows = new ArrayList<>();
+    }
+
+    public interface QueryHandler {
+        List<Map<String, Object>> query(String sql) throws SQLException;
+    }
+
+    public void reset() {
+        connectCount.set(0);
+        closeCount.set(0);
+        prepareCount.set(0);
+        addBatchCount.set(0);
+        executeBatchCount.set(0);
+        queries.clear();
+        fetchSizes.clear();
+        statements.clear();
+        queryHandler = sql -> Collections.emptyList();
+    }
+
+    @Override public Connection connect(String url, Properties info) {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        connectCount.incrementAndGet();
+        boolean[] closed = new boolean[1];
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {Connection.class}, (connection, method, args) -> {
+            switch (method.getName()) {
+                case "prepareStatement":
+                    prepareCount.incrementAndGet();
+                    return createStatement((Connection) connection, (String) args[0]);
+                case "createStatement":
+                    return createQueryStatement((Connection) connection);
+                case "getMetaData":
+                    return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {DatabaseMetaData.class},
+                        (metaData, metaMethod, metaArgs) -> metaMethod.getName().equals("supportsBatchUpdates") ? Boolean.TRUE : defaultValue(metaMethod.getReturnType()));
+                case "getAutoCommit":
+                case "isValid":
+                    return true;
+                case "isClosed":
+                    return closed[0];
+                case "close":
+                    if (!closed[0]) {
+                        closeCount.incrementAndGet();
+                    }
+                    closed[0] = true;
+                    return null;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    protected Statement createQueryStatement(Connection connection) {
+        return (Statement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {Statement.class}, (statement, method, args) -> {
+            switch (method.getName()) {
+                case "setFetchSize":
+                    fetchSizes.add((Integer) args[0]);
+                    return null;
+                case "executeQuery":
+                    queries.add((String) args[0]);
+                    return createResultSet(queryHandler.query((String) args[0]));
+                case "getConnection":
+                    return connection;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    protected ResultSet createResultSet(List<Map<String, Object>> rows) {
+        List<String> columns = rows.isEmpty() ? Collections.emptyList() : new ArrayList<>(rows.get(0).keySet());
+        ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {ResultSetMetaData.class}, (meta, method, args) -> {
+            switch (method.getName()) {
+                case "getColumnCount":
+                    return columns.size();
+                case "getColumnLabel":
+                case "getColumnName":
+                    return columns.get((Integer) args[0] - 1);
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+        int[] index = new int[] {-1};
+        return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {ResultSet.class}, (resultSet, method, args) -> {
+            switch (method.getName()) {
+                case "next":
+                    return ++index[0] < rows.size();
+                case "getRow":
+                    return index[0] + 1;
+                case "getObject":
+                    return rows.get(index[0]).get(columns.get((Integer) args[0] - 1));
+                case "getMetaData":
+                    return metaData;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    protected PreparedStatement createStatement(Connection connection, String sql) {
+        List<Object> parameters = new ArrayList<>();
+        List<List<Object>> rows = new ArrayList<>();
+        return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {PreparedStatement.class}, (statement, method, args) -> {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                int index = (Integer) args[0];
+                while (parameters.size() < index) {
+                    parameters.add(null);
+                }
+                parameters.set(index - 1, args[1]);
+                return null;
+            }
+            switch (name) {
+                case "addBatch":
+                    addBatchCount.incrementAndGet();
+                    rows.add(new ArrayList<>(parameters));
+                    parameters.clear();
+                    return null;
+                case "executeBatch":
+                    executeBatchCount.incrementAndGet();
+                    int[] result = new int[rows.size()];
+                    record(sql, rows);
+                    return result;
+                case "executeUpdate":
+                    rows.add(new ArrayList<>(parameters));
+                    parameters.clear();
+                    record(sql, rows);
+                    return 1;
+                case "getConnection":
+                    return connection;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    protected void record(String sql, List<List<Object>> rows) {
+        RecordStatement record = new RecordStatement();
+        record.sql = sql;
+        record.rows.addAll(rows);
+        rows.clear();
+        statements.add(record);
+    }
+
+    protected static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    @Override public boolean acceptsURL(String url) {
+        return url != null && url.startsWith("jdbc:streams-mock:");
+    }
+
+    @Override public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+}
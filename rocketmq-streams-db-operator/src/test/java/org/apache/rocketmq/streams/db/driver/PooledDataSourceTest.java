@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.db.driver;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 使用内存中的mock驱动，检查连接的复用和PreparedStatement的batch调用
+ */
+public class PooledDataSourceTest {
+    private static final String URL = "jdbc:streams-mock:test";
+
+    private static MockDriver mockDriver = new MockDriver();
+
+    @BeforeClass
+    public static void registerDriver() throws SQLException {
+        DriverManager.registerDriver(mockDriver);
+    }
+
+    @AfterClass
+    public static void deregisterDriver() throws SQLException {
+        DriverManager.deregisterDriver(mockDriver);
+    }
+
+    @Test
+    public void testReuseAndBound() throws SQLException {
+        mockDriver.reset();
+        PooledDataSource dataSource = new PooledDataSource(MockDriver.class.getName(), URL, "", "", 2, 100);
+        Connection first = dataSource.getConnection();
+        Connection target = first.unwrap(Connection.class);
+        first.close();
+        Connection second = dataSource.getConnection();
+        assertSame(target, second.unwrap(Connection.class));
+        assertEquals(1, mockDriver.connectCount.get());
+
+        Connection third = dataSource.getConnection();
+        assertEquals(2, dataSource.getActiveCount());
+        try {
+            dataSource.getConnection();
+            fail("the pool is exhausted");
+        } catch (SQLException e) {
+            assertTrue(e.getMessage().contains("can not get connection"));
+        }
+        second.close();
+        third.close();
+        assertEquals(0, dataSource.getActiveCount());
+        assertEquals(2, dataSource.getIdleCount());
+        dataSource.destroy();
+        assertEquals(0, dataSource.getIdleCount());
+    }
+
+    @Test
+    public void testConnectionWithUser() throws SQLException {
+        mockDriver.reset();
+        PooledDataSource dataSource = new PooledDataSource(MockDriver.class.getName(), URL, "", "", 1, 100);
+        Connection pooled = dataSource.getConnection();
+        //指定用户的连接不占用连接池
+        Connection connection = dataSource.getConnection("other", "other");
+        assertEquals(2, mockDriver.connectCount.get());
+        assertEquals(1, dataSource.getActiveCount());
+        connection.close();
+        assertEquals(1, mockDriver.closeCount.get());
+        assertEquals(0, dataSource.getIdleCount());
+        pooled.close();
+        dataSource.destroy();
+    }
+
+    @Test
+    public void testBatchUpdate() {
+        mockDriver.reset();
+        JDBCDriver driver = DriverBuilder.createDriver(MockDriver.class.getName(), URL, "", "", 4);
+        int batchSize = 1000;
+        for (int batch = 0; batch < 10; batch++) {
+            List<Object[]> rows = new ArrayList<>();
+            for (int i = 0; i < batchSize; i++) {
+                rows.add(new Object[] {"name" + i, i});
+            }
+            int[] result = driver.batchUpdate("insert into person(name,age) values (?,?)", rows);
+            assertEquals(batchSize, result.length);
+        }
+        driver.destroy();
+        assertEquals(10 * batchSize, mockDriver.addBatchCount.get());
+        assertEquals(10, mockDriver.executeBatchCount.get());
+        assertEquals(10, mockDriver.prepareCount.get());
+        assertEquals(1, mockDriver.connectCount.get());
+    }
+
+    @Test
+    public void testStreamingFetchSize() {
+        //mysql未开启useCursorFetch时fetchSize不生效，改为逐行读取
+        assertEquals(Integer.MIN_VALUE, new JDBCDriver("jdbc:mysql://localhost:3306/test", "", "", null).getStreamingFetchSize(1000));
+        assertEquals(1000, new JDBCDriver("jdbc:mysql://localhost:3306/test?useCursorFetch=true", "", "", null).getStreamingFetchSize(1000));
+        assertEquals(1000, new JDBCDriver(URL, "", "", MockDriver.class.getName()).getStreamingFetchSize(1000));
+    }
+}
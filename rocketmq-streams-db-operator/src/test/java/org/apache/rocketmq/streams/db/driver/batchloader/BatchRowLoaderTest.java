@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.db.driver.batchloader;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.rocketmq.streams.db.driver.DriverBuilder;
+import org.apache.rocketmq.streams.db.driver.JDBCDriver;
+import org.apache.rocketmq.streams.db.driver.MockDriver;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * mock驱动按sql从内存中的id列表返回数据，检查区间的划分和错误的传递
+ */
+public class BatchRowLoaderTest {
+    private static final String URL = "jdbc:streams-mock:loader";
+
+    private static final String SQL = "select id,name from person where status=1";
+
+    private static final Pattern RANGE_PATTERN = Pattern.compile("id>(-?\\d+) and id<=(-?\\d+)");
+
+    private static final Pattern LIMIT_PATTERN = Pattern.compile("order by id limit (\\d+),1$");
+
+    private static MockDriver mockDriver = new MockDriver();
+
+    private JDBCDriver jdbcDriver;
+
+    /**
+     * 每个区间查询返回的行数
+     */
+    private Map<String, Integer> rangeSizes = new ConcurrentHashMap<>();
+
+    private Set<Long> loadedIds = ConcurrentHashMap.newKeySet();
+
+    @BeforeClass
+    public static void registerDriver() throws SQLException {
+        java.sql.DriverManager.registerDriver(mockDriver);
+    }
+
+    @AfterClass
+    public static void deregisterDriver() throws SQLException {
+        java.sql.DriverManager.deregisterDriver(mockDriver);
+    }
+
+    @Before
+    public void createDriver() {
+        mockDriver.reset();
+        jdbcDriver = DriverBuilder.createDriver(MockDriver.class.getName(), URL, "", "", 4);
+    }
+
+    @After
+    public void destroyDriver() {
+        jdbcDriver.destroy();
+    }
+
+    @Test
+    public void testSkewedIdBoundary() {
+        //一半id连续，一半id稀疏，按id等宽划分时几乎所有数据都在一个区间
+        List<Long> ids = new ArrayList<>();
+        for (long i = 1; i <= 10000; i++) {
+            ids.add(i);
+        }
+        for (long i = 0; i < 10000; i++) {
+            ids.add(1000000000L + i * 1000);
+        }
+        mockDriver.queryHandler = sql -> query(ids, sql);
+        createLoader().startLoadData();
+
+        assertEquals(20000, loadedIds.size());
+        assertEquals(5, rangeSizes.size());
+        for (Integer size : rangeSizes.values()) {
+            assertEquals(4000, size.intValue());
+        }
+        assertTrue(mockDriver.fetchSizes.contains(100));
+        //边界按分位点单独查询，不读取全部id
+        for (String sql : mockDriver.queries) {
+            assertTrue(sql, sql.startsWith("select count(1)") || LIMIT_PATTERN.matcher(sql).find() || RANGE_PATTERN.matcher(sql).find());
+        }
+    }
+
+    @Test
+    public void testPercentInSql() {
+        List<Long> ids = new ArrayList<>();
+        for (long i = 1; i <= 12000; i++) {
+            ids.add(i);
+        }
+        mockDriver.queryHandler = sql -> query(ids, sql);
+        BatchRowLoader loader = new BatchRowLoader("id", "select id,name from person where name like '%a%'", row -> loadedIds.add((Long) row.get("id")), jdbcDriver);
+        loader.startLoadData();
+        assertEquals(12000, loadedIds.size());
+        assertEquals(3, rangeSizes.size());
+        for (String sql : rangeSizes.keySet()) {
+            assertTrue(sql, sql.contains("like '%a%' and id>"));
+        }
+    }
+
+    @Test
+    public void testEmptyRange() {
+        mockDriver.queryHandler = sql -> query(Collections.emptyList(), sql);
+        createLoader().startLoadData();
+        assertEquals(0, loadedIds.size());
+        assertEquals(1, mockDriver.queries.size());
+
+        //统计之后数据被删除，区间查询不到数据
+        List<Long> ids = new ArrayList<>();
+        for (long i = 1; i <= 12000; i++) {
+            ids.add(i);
+        }
+        mockDriver.queryHandler = sql -> {
+            Matcher matcher = RANGE_PATTERN.matcher(sql);
+            if (matcher.find() && Long.parseLong(matcher.group(1)) >= 4000) {
+                return Collections.emptyList();
+            }
+            return query(ids, sql);
+        };
+        createLoader().startLoadData();
+        assertEquals(4000, loadedIds.size());
+    }
+
+    @Test
+    public void testErrorPropagation() {
+        List<Long> ids = new ArrayList<>();
+        for (long i = 1; i <= 20000; i++) {
+            ids.add(i);
+        }
+        mockDriver.queryHandler = sql -> {
+            Matcher matcher = RANGE_PATTERN.matcher(sql);
+            if (matcher.find() && Long.parseLong(matcher.group(1)) >= 8000) {
+                throw new SQLException("mock error");
+            }
+            return query(ids, sql);
+        };
+        try {
+            createLoader().startLoadData();
+            fail("load data should fail");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("put data error"));
+        }
+        //调用方传入的连接池不能被销毁
+        assertEquals(0, mockDriver.closeCount.get());
+        assertEquals(1, jdbcDriver.queryForList("select count(1) as c, min(id) as min, max(id) as max from person").size());
+    }
+
+    private BatchRowLoader createLoader() {
+        BatchRowLoader loader = new BatchRowLoader("id", SQL, row -> loadedIds.add((Long) row.get("id")), jdbcDriver);
+        loader.setBatchSize(100);
+        return loader;
+    }
+
+    private List<Map<String, Object>> query(List<Long> ids, String sql) throws SQLException {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        if (sql.startsWith("select count(1)")) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("c", ids.size());
+            row.put("min", ids.isEmpty() ? null : ids.get(0));
+            row.put("max", ids.isEmpty() ? null : ids.get(ids.size() - 1));
+            rows.add(row);
+            return rows;
+        }
+        Matcher limitMatcher = LIMIT_PATTERN.matcher(sql);
+        if (limitMatcher.find()) {
+            int offset = Integer.parseInt(limitMatcher.group(1));
+            if (offset < ids.size()) {
+                Map<String, Object> row = new LinkedHashMap<>();
+                row.put("id", ids.get(offset));
+                rows.add(row);
+            }
+            return rows;
+        }
+        Matcher matcher = RANGE_PATTERN.matcher(sql);
+        if (matcher.find()) {
+            long start = Long.parseLong(matcher.group(1));
+            long end = Long.parseLong(matcher.group(2));
+            for (Long id : ids) {
+                if (id > start && id <= end) {
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    row.put("id", id);
+                    row.put("name", "name_" + id);
+                    rows.add(row);
+                }
+            }
+            rangeSizes.put(sql, rows.size());
+            return rows;
+        }
+        throw new SQLException("unexpected sql " + sql);
+    }
+}
@@ -40,6 +40,16 @@ public abstract class AbstractExpressionFunction implements ExpressionFunction {
 
     }
 
+    /**
+     * 对表达式的常量值做预解析，结果由表达式缓存，默认不做预解析
+     *
+     * @param value 表达式的值
+     * @return 预解析结果，不支持预解析时返回null
+     */
+    public Object prepareOperand(Object value) {
+        return null;
+    }
+
     @SuppressWarnings("rawtypes")
     protected abstract Boolean doExpressionFunction(IMessage message, AbstractContext context, Expression expression);
 
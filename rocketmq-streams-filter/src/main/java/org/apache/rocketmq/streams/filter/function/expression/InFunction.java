@@ -16,10 +16,9 @@
  */
 package org.apache.rocketmq.streams.filter.function.expression;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
-import org.apache.rocketmq.streams.common.cache.softreference.ICache;
-import org.apache.rocketmq.streams.common.cache.softreference.impl.SoftReferenceCache;
 import org.apache.rocketmq.streams.common.context.AbstractContext;
 import org.apache.rocketmq.streams.common.context.IMessage;
 import org.apache.rocketmq.streams.common.utils.StringUtil;
@@ -33,11 +32,6 @@ import org.apache.rocketmq.streams.script.utils.FunctionUtils;
 @Function
 public class InFunction extends AbstractExpressionFunction {
 
-    /**
-     * in 的字符串形成set，可以最快o（1）来提高效率
-     */
-    private ICache<Object, Set<String>> cache = new SoftReferenceCache();
-
     public static boolean matchFunction(String functionName){
         return "in".equals(functionName)||"~in".equals(functionName);
     }
@@ -51,35 +45,37 @@ public class InFunction extends AbstractExpressionFunction {
         if (var == null) {
             return false;
         }
-        Object varObject = null;
-        Object valueObject = null;
-        varObject = var.doMessage(message,context);
-        valueObject = expression.getValue();
-
-        if (varObject == null || valueObject == null) {
+        Object varObject = var.doMessage(message,context);
+        if (varObject == null) {
             return false;
         }
-        String varString = String.valueOf(varObject).trim();
-        Set<String> valueSet = cache.get(valueObject);
-        if (valueSet != null) {
-            return valueSet.contains(varString);
+        Set<String> valueSet = (Set<String>) expression.getPreparedOperand(this);
+        if (valueSet == null || valueSet.isEmpty()) {
+            return false;
         }
+        return valueSet.contains(String.valueOf(varObject).trim());
+    }
 
-        String valueString = "";
-
-        valueString = String.valueOf(valueObject).trim();
+    /**
+     * in 的字符串在规则加载时形成不可变set，可以o（1）匹配，且不会被gc回收后重复解析
+     *
+     * @param value 表达式的值，逗号分隔
+     * @return 不可变set
+     */
+    @Override
+    public Set<String> prepareOperand(Object value) {
+        if (value == null) {
+            return null;
+        }
+        String valueString = String.valueOf(value).trim();
         if (StringUtil.isEmpty(valueString)) {
-            return false;
+            return Collections.emptySet();
         }
         String[] values = valueString.split(",");
         Set<String> set = new HashSet<>();
-        for (String value : values) {
-            value = FunctionUtils.getConstant(value);
-            set.add(value);
-
+        for (String item : values) {
+            set.add(FunctionUtils.getConstant(item));
         }
-        cache.put(valueObject, set);
-
-        return set.contains(varString);
+        return Collections.unmodifiableSet(set);
     }
 }
@@ -23,7 +23,7 @@ import org.apache.rocketmq.streams.common.context.IMessage;
 import org.apache.rocketmq.streams.common.utils.StringUtil;
 import org.apache.rocketmq.streams.filter.operator.expression.Expression;
 import org.apache.rocketmq.streams.filter.operator.var.Var;
-import org.apache.rocketmq.streams.filter.utils.IPUtil;
+import org.apache.rocketmq.streams.filter.utils.IPRangeSet;
 import org.apache.rocketmq.streams.script.annotation.Function;
 import org.apache.rocketmq.streams.script.annotation.FunctionMethod;
 import org.apache.rocketmq.streams.script.annotation.FunctionMethodAilas;
@@ -33,12 +33,6 @@ public class IpContainsFunction extends AbstractExpressionFunction {
 
     private static final Log LOG = LogFactory.getLog(IpContainsFunction.class);
 
-    private String ip;
-    private long start;
-    private long end;
-    private String startIp;
-    private String endIp;
-
     @SuppressWarnings("rawtypes")
     @Override
     @FunctionMethod("ipContains")
@@ -53,128 +47,36 @@ public class IpContainsFunction extends AbstractExpressionFunction {
             if (var == null) {
                 return false;
             }
-            Object varObject = null;
-            Object valueObject = null;
-            varObject = var.doMessage(message,context );
-            valueObject = expression.getValue();
-
-            if (varObject == null || valueObject == null) {
+            Object varObject = var.doMessage(message, context);
+            if (varObject == null) {
                 return false;
             }
-
-            String varString = "";
-            String regex = "";
-            varString = String.valueOf(varObject).trim();
-            regex = String.valueOf(valueObject).trim();
-
-            if (StringUtil.isEmpty(varString) || StringUtil.isEmpty(regex)) {
+            IPRangeSet ipRangeSet = (IPRangeSet) expression.getPreparedOperand(this);
+            if (ipRangeSet == null || ipRangeSet.isEmpty()) {
+                return false;
+            }
+            String varString = String.valueOf(varObject).trim();
+            if (StringUtil.isEmpty(varString)) {
                 return false;
             }
-            parseRegexIp(regex);
-            return contains(varString);
+            return ipRangeSet.contains(varString);
         } catch (Exception e) {
             LOG.error("IpContainsFunction doExpressionFunction error", e);
             return false;
         }
-
-    }
-
-    private void parseRegexIp(String ip) {
-        if (null == ip || "".equals(ip)) {
-            return;
-        }
-
-        int n = ip.indexOf("/");
-        String preIp = ip;
-        int mask = 32;
-        if (n > 0) {
-            preIp = ip.substring(0, n);
-            mask = Integer.parseInt(ip.substring(n + 1));
-            if (!IPUtil.checkMask(mask)) {
-                return;
-            }
-        }
-
-        if (!IPUtil.checkIpFormat(preIp)) {
-            return;
-        }
-        this.ip = ip;
-        this.start = getStart(preIp, mask);
-        this.end = getEnd(preIp, mask);
-        this.startIp = IPUtil.ipToString(this.start);
-        this.endIp = IPUtil.ipToString(this.end);
-    }
-
-    private long getStart(String ip, int mask) {
-        return IPUtil.ipToInt(ip) & IPUtil.getPrefixIp(mask);
-    }
-
-    private long getEnd(String ip, int mask) {
-        return getStart(ip, mask) | IPUtil.getSuffixIp(mask);
     }
 
-    /*
-     * 判断IP是否包含
+    /**
+     * 规则加载时把ip段解析成不可变的有序区间
+     *
+     * @param value 表达式的值，ip、cidr或逗号分隔的多个段
+     * @return ip段集合
      */
-    private boolean contains(String ip) {
-        // 先判断是否为ip段
-        int n = ip.indexOf("/");
-        if (n <= 0) {
-            if (!IPUtil.checkIpFormat(ip)) {
-                return false;
-            }
-
-            long intIp = IPUtil.ipToInt(ip);
-            return this.start <= intIp && this.end >= intIp;
-        }
-
-        String preIp = ip.substring(0, n);
-        int mask = Integer.parseInt(ip.substring(n + 1));
-        if (!IPUtil.checkMask(mask) || !IPUtil.checkIpFormat(preIp)) {
-            return false;
+    @Override
+    public IPRangeSet prepareOperand(Object value) {
+        if (value == null) {
+            return null;
         }
-
-        return this.start <= this.getStart(preIp, mask) && this.end >= this.getEnd(preIp, mask);
-    }
-
-    public String getIp() {
-        return ip;
-    }
-
-    public void setIp(String ip) {
-        this.ip = ip;
-    }
-
-    public long getStart() {
-        return start;
-    }
-
-    public void setStart(long start) {
-        this.start = start;
-    }
-
-    public long getEnd() {
-        return end;
-    }
-
-    public void setEnd(long end) {
-        this.end = end;
-    }
-
-    public String getStartIp() {
-        return startIp;
-    }
-
-    public void setStartIp(String startIp) {
-        this.startIp = startIp;
-    }
-
-    public String getEndIp() {
-        return endIp;
+        return IPRangeSet.parse(String.valueOf(value).trim());
     }
-
-    public void setEndIp(String endIp) {
-        this.endIp = endIp;
-    }
-
 }
@@ -31,14 +31,30 @@ import org.apache.rocketmq.streams.script.utils.FunctionUtils;
 
 @Function
 public class LikeFunction extends AbstractExpressionFunction {
-    private transient ICache<String, LikeRegex> likeCache = new SoftReferenceCache<>();
-
     private transient ICache<String, LikeCache> cache = new SoftReferenceCache<>();
 
     public static boolean isLikeFunciton(String functionName) {
         return "like".equals(functionName);
     }
 
+    /**
+     * 规则加载时把like语句编译成匹配器，匹配器不可变，多线程共享
+     *
+     * @param value like的语句
+     * @return 匹配器，like语句为空时返回null
+     */
+    @Override
+    public LikeRegex prepareOperand(Object value) {
+        if (value == null) {
+            return null;
+        }
+        String valueString = String.valueOf(value).trim();
+        if (StringUtil.isEmpty(valueString)) {
+            return null;
+        }
+        return new LikeRegex(FunctionUtils.getConstant(valueString));
+    }
+
     private class LikeCache {
         public LikeCache(String containStr, String regexStr, boolean isPrefix) {
             this.containStr = containStr;
@@ -61,32 +77,15 @@ public class LikeFunction extends AbstractExpressionFunction {
         if (var == null) {
             return false;
         }
-        Object varObject = null;
-        Object valueObject = null;
-        varObject = var.doMessage(message,context);
-        valueObject = expression.getValue();
-
-        if (varObject == null || valueObject == null) {
-            return false;
-        }
-
-        String varString = "";
-        String valueString = "";
-        varString = String.valueOf(varObject).trim();
-        valueString = String.valueOf(valueObject).trim();
-        if (StringUtil.isEmpty(valueString)) {
+        Object varObject = var.doMessage(message,context);
+        if (varObject == null) {
             return false;
         }
-        valueString = FunctionUtils.getConstant(valueString);
-
-        LikeRegex likeRegex = likeCache.get(valueString);
+        LikeRegex likeRegex = (LikeRegex) expression.getPreparedOperand(this);
         if (likeRegex == null) {
-            likeRegex = new LikeRegex(valueString);
-            likeCache.put(valueString, likeRegex);
+            return false;
         }
-        boolean likeResult = likeRegex.match(varString);
-        // System.out.println(likeResult);
-        return likeResult;
+        return likeRegex.match(String.valueOf(varObject).trim());
 
         //LikeCache likeCache=sinkcache.get(valueString);
         //if(likeCache==null){
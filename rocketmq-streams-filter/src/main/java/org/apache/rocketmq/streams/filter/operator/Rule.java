@@ -141,6 +141,7 @@ public class Rule extends AbstractRule implements IAfterConfigurableRefreshListe
             } else {
                 Var var = createVar(expression.getVarName());
                 expression.setVar(var);
+                expression.prepareOperand();
             }
         }
         for (Action action : this.actionMap.values()) {
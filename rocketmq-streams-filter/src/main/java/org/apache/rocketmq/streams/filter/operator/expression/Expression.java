@@ -20,6 +20,7 @@ import com.alibaba.fastjson.JSONObject;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.apache.commons.logging.Log;
@@ -30,7 +31,9 @@ import org.apache.rocketmq.streams.common.configurable.IConfigurable;
 import org.apache.rocketmq.streams.common.configurable.IConfigurableService;
 import org.apache.rocketmq.streams.common.configure.ConfigureFileKey;
 import org.apache.rocketmq.streams.common.context.AbstractContext;
+import org.apache.rocketmq.streams.common.context.Context;
 import org.apache.rocketmq.streams.common.context.IMessage;
+import org.apache.rocketmq.streams.common.context.Message;
 import org.apache.rocketmq.streams.common.datatype.DataType;
 import org.apache.rocketmq.streams.common.datatype.ListDataType;
 import org.apache.rocketmq.streams.common.datatype.StringDataType;
@@ -44,6 +47,7 @@ import org.apache.rocketmq.streams.common.utils.DataTypeUtil;
 import org.apache.rocketmq.streams.common.utils.PrintUtil;
 import org.apache.rocketmq.streams.common.utils.StringUtil;
 import org.apache.rocketmq.streams.filter.context.RuleContext;
+import org.apache.rocketmq.streams.filter.function.expression.AbstractExpressionFunction;
 import org.apache.rocketmq.streams.filter.function.expression.ExpressionFunction;
 import org.apache.rocketmq.streams.filter.function.expression.InFunction;
 import org.apache.rocketmq.streams.filter.function.expression.IsNotNull;
@@ -122,14 +126,7 @@ public class Expression<T> extends BasedConfigurable
     @Override
     public Boolean doMessage(IMessage message, AbstractContext context) {
         try {
-            Boolean isMatch = null;
-            if (this.homologousVar != null) {
-                isMatch = context.matchFromHomologousCache(context.getMessage(), this.homologousVar);
-            }
-            if (isMatch != null) {
-                return isMatch;
-            }
-            isMatch = context.matchFromCache(context.getMessage(), this);
+            Boolean isMatch = matchFromCache(context);
             if (isMatch != null) {
                 return isMatch;
             }
@@ -137,10 +134,7 @@ public class Expression<T> extends BasedConfigurable
 
             isMatch = executeFunctionDirectly(message, context);
             long cost = System.currentTimeMillis() - startTime;
-            long timeout = 10;
-            if (ComponentCreator.getProperties().getProperty(ConfigureFileKey.MONITOR_SLOW_TIMEOUT) != null) {
-                timeout = Long.valueOf(ComponentCreator.getProperties().getProperty(ConfigureFileKey.MONITOR_SLOW_TIMEOUT));
-            }
+            long timeout = getSlowTimeout();
             if (cost > timeout) {
                 LOG.warn("SLOW-" + cost + "----" + this.toString() + PrintUtil.LINE + "the var value is " + message.getMessageBody().getString(varName));
             }
@@ -151,13 +145,44 @@ public class Expression<T> extends BasedConfigurable
         }
     }
 
-    private transient LikeRegex likeRegex;
+    /**
+     * 从同源表达式和快速过滤的结果中获取
+     *
+     * @return 缓存中没有返回null
+     */
+    protected Boolean matchFromCache(AbstractContext context) {
+        Boolean isMatch = null;
+        if (this.homologousVar != null) {
+            isMatch = context.matchFromHomologousCache(context.getMessage(), this.homologousVar);
+        }
+        if (isMatch != null) {
+            return isMatch;
+        }
+        return context.matchFromCache(context.getMessage(), this);
+    }
+
+    protected long getSlowTimeout() {
+        String timeout = ComponentCreator.getProperties().getProperty(ConfigureFileKey.MONITOR_SLOW_TIMEOUT);
+        if (timeout != null) {
+            return Long.valueOf(timeout);
+        }
+        return 10;
+    }
+
+    /**
+     * 常量值预解析后的结果，如in的set，ipContains的有序ip段，like的匹配器。规则加载时创建，创建后不可变，多线程共享
+     */
+    private transient volatile PreparedOperand preparedOperand;
+
+    /**
+     * 规则加载时没有消息，用空消息查找函数，函数查找只看参数个数
+     */
+    private static final IMessage PREPARE_MESSAGE = new Message(new JSONObject());
+    private static final AbstractContext PREPARE_CONTEXT = new Context(PREPARE_MESSAGE);
 
     @SuppressWarnings("unchecked")
     protected Boolean executeFunctionDirectly(IMessage message, AbstractContext context) {
-
         ExpressionFunction function = getExpressionFunction(getFunctionName(), message, context, this);
-
         if (function == null) {
             return null;
         }
@@ -182,11 +207,8 @@ public class Expression<T> extends BasedConfigurable
             }
             if (LikeFunction.isLikeFunciton(functionName)) {
                 String varValue = message.getMessageBody().getString(this.varName);
-                String like = (String) this.value;
-                if (this.likeRegex == null) {
-                    this.likeRegex = new LikeRegex(like);
-                }
-                return varValue != null && likeRegex.match(varValue);
+                LikeRegex likeRegex = (LikeRegex) getPreparedOperand(likeFunction);
+                return varValue != null && likeRegex != null && likeRegex.match(varValue);
             }
             if (var == null) {
                 var = new ContextVar();
@@ -227,6 +249,7 @@ public class Expression<T> extends BasedConfigurable
 
         if (FIELD_COMPARE.equals(dataTypestr)) {
             fieldFlag = true;
+            this.preparedOperand = null;
         }
 
         // 如果是String，且不是字段比较，则加密
@@ -297,6 +320,7 @@ public class Expression<T> extends BasedConfigurable
         this.dataTypestr = dataTypestr;
         this.keyword =
             jsonObject.getString("keyword") == null ? "" : jsonObject.getString("keyword").toLowerCase().trim();
+        this.preparedOperand = null;
         setJsonValue(jsonObject);
     }
 
@@ -328,6 +352,7 @@ public class Expression<T> extends BasedConfigurable
 
     public void setFunctionName(String functionName) {
         this.functionName = functionName;
+        this.preparedOperand = null;
     }
 
     public DataType getDataType() {
@@ -344,13 +369,61 @@ public class Expression<T> extends BasedConfigurable
 
     public void setValue(T value) {
         this.value = value;
+        this.preparedOperand = null;
     }
 
     @Override
     public boolean init() {
+        prepareOperand();
         return true;
     }
 
+    /**
+     * 对in，ipContains，like等常量值做预解析，规则加载时调用。按名字查找实际执行的函数，大小写和别名同函数执行时一致。字段比较的表达式值来自消息，不做预解析
+     */
+    public void prepareOperand() {
+        PreparedOperand prepared = null;
+        if (!fieldFlag && functionName != null && value != null) {
+            ExpressionFunction function = getExpressionFunction(functionName, PREPARE_MESSAGE, PREPARE_CONTEXT, this);
+            if (function instanceof AbstractExpressionFunction) {
+                AbstractExpressionFunction expressionFunction = (AbstractExpressionFunction) function;
+                prepared = new PreparedOperand(expressionFunction, expressionFunction.prepareOperand(value));
+            }
+        }
+        this.preparedOperand = prepared;
+    }
+
+    /**
+     * 获取预解析的常量值，没有预解析或预解析时的函数和当前执行的函数不一致时，用当前函数解析value
+     *
+     * @param function 当前执行的函数
+     * @return 预解析结果，不支持预解析的函数返回null
+     */
+    public Object getPreparedOperand(AbstractExpressionFunction function) {
+        if (fieldFlag) {
+            return function.prepareOperand(value);
+        }
+        PreparedOperand prepared = this.preparedOperand;
+        if (prepared == null || prepared.functionClass != function.getClass()) {
+            prepared = new PreparedOperand(function, function.prepareOperand(value));
+            this.preparedOperand = prepared;
+        }
+        return prepared.operand;
+    }
+
+    /**
+     * 预解析结果和解析它的函数类型
+     */
+    private static class PreparedOperand {
+        private final Class<?> functionClass;
+        private final Object operand;
+
+        public PreparedOperand(AbstractExpressionFunction function, Object operand) {
+            this.functionClass = function.getClass();
+            this.operand = operand;
+        }
+    }
+
     /**
      * 是否支持快速匹配，快速匹配的意思是var不需要io
      *
@@ -388,6 +461,7 @@ public class Expression<T> extends BasedConfigurable
         this.dataTypestr = dataTypestr;
         if (FIELD_COMPARE.equals(dataTypestr)) {
             fieldFlag = true;
+            this.preparedOperand = null;
         }
 
         DataType dt = MetaDataField.getDataTypeByStr(dataTypestr);
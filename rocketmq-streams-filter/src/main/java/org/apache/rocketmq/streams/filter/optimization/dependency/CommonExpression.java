@@ -24,6 +24,7 @@ import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.rocketmq.streams.common.optimization.HomologousVar;
 import org.apache.rocketmq.streams.common.utils.CollectionUtil;
+import org.apache.rocketmq.streams.common.utils.HashUtil;
 import org.apache.rocketmq.streams.filter.function.expression.LikeFunction;
 import org.apache.rocketmq.streams.filter.function.expression.RegexFunction;
 import org.apache.rocketmq.streams.filter.operator.expression.Expression;
@@ -38,7 +39,7 @@ public class CommonExpression {
     protected String value;//expression value eg:regex,like string
     protected boolean isRegex;//if regex return true else false
     protected String sourceVarName;//the var name in source
-    protected Integer index;//set by HomologousCompute, is cache result bitset index
+    protected Integer index;//set by HomologousCompute, the dense id of the expression, same fingerprint same id
     protected List<IScriptExpression> scriptExpressions = new ArrayList<>();
 
     protected IScriptExpression scriptExpression;
@@ -199,6 +200,23 @@ public class CommonExpression {
         }
     }
 
+    /**
+     * 表达式的128位指纹，数据源变量、变量、函数、值和依赖的脚本都相同的表达式指纹相同，只需要计算一次
+     *
+     * @param out 至少16个字节
+     */
+    public void createFingerprint(byte[] out) {
+        String[] keys = new String[4 + scriptExpressions.size()];
+        keys[0] = sourceVarName;
+        keys[1] = varName;
+        keys[2] = isRegex ? "regex" : "like";
+        keys[3] = value;
+        for (int i = 0; i < scriptExpressions.size(); i++) {
+            keys[4 + i] = scriptExpressions.get(i).toString();
+        }
+        HashUtil.murmur3_128(keys, out);
+    }
+
     public Integer getIndex() {
         return index;
     }
@@ -16,8 +16,10 @@
  */
 package org.apache.rocketmq.streams.filter.optimization.homologous;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -25,8 +27,10 @@ import java.util.concurrent.atomic.AtomicLong;
 import org.apache.rocketmq.streams.common.cache.compress.BitSetCache;
 import org.apache.rocketmq.streams.common.context.AbstractContext;
 import org.apache.rocketmq.streams.common.context.IMessage;
+import org.apache.rocketmq.streams.common.optimization.HomologousResult;
 import org.apache.rocketmq.streams.common.optimization.LikeRegex;
 import org.apache.rocketmq.streams.common.optimization.RegexEngine;
+import org.apache.rocketmq.streams.common.optimization.RegexPrefilter;
 import org.apache.rocketmq.streams.common.optimization.fingerprint.FingerprintCache;
 import org.apache.rocketmq.streams.common.utils.StringUtil;
 import org.apache.rocketmq.streams.filter.optimization.dependency.CommonExpression;
@@ -70,12 +74,17 @@ public class HomologousCompute {
      */
     protected transient FingerprintCache fingerprintCache;
 
+    /**
+     * number of expressions after deduplicate by fingerprint, the size of per message result
+     */
+    protected transient int expressionCount = 0;
+
     public HomologousCompute(List<CommonExpression> commonExpressions, int cacheSize) {
         this.commonExpressions = commonExpressions;
         Map<String, SameVarExpressionGroup> groupBySourceVarName = groupBySourceVarName(commonExpressions);
         this.groupBySourceVarName = groupBySourceVarName;
-//        registHyperscan(groupBySourceVarName);
         createExpressionIndexAndHomologousVar(groupBySourceVarName);
+//        registHyperscan(groupBySourceVarName);
         fingerprintCache = new FingerprintCache(cacheSize);
     }
 
@@ -89,27 +98,29 @@ public class HomologousCompute {
         if (context != null) {
             context.syncSubContext(functionContext);
         }
-        Map<String, BitSetCache.BitSet> homologousResult = new HashMap<>();
-        for (String sourceName : groupBySourceVarName.keySet()) {
-            SameVarExpressionGroup sameVarExpressionGroup = groupBySourceVarName.get(sourceName);
-            String content = message.getMessageBody().getString(sourceName);
-            String origContent = content;
-            BitSetCache.BitSet bitSet = fingerprintCache.getLogFingerprint(sourceName, origContent);
-            if (bitSet != null) {
+        HomologousResult homologousResult = new HomologousResult(expressionCount);
+        for (Map.Entry<String, SameVarExpressionGroup> entry : groupBySourceVarName.entrySet()) {
+            String sourceName = entry.getKey();
+            SameVarExpressionGroup sameVarExpressionGroup = entry.getValue();
+            if (sameVarExpressionGroup.size() == 0) {
                 continue;
             }
+            String content = message.getMessageBody().getString(sourceName);
+            BitSetCache.BitSet bitSet = fingerprintCache.getLogFingerprint(sourceName, content);
             if (bitSet == null) {
                 bitSet = new BitSetCache.BitSet(sameVarExpressionGroup.size());
+                RegexEngine regexEngine = expressionRegexEngineMap.get(sourceName);
+                if (regexEngine != null) {
+                    executeByHyperscan(message, functionContext, regexEngine, sourceName, content, sameVarExpressionGroup, bitSet);
+                } else if (sameVarExpressionGroup.regexPrefilters != null) {
+                    executeByPrefilter(message, functionContext, sameVarExpressionGroup, bitSet);
+                } else {
+                    executeDirectly(message, functionContext, sameVarExpressionGroup.regexs, 0, bitSet);
+                }
+                executeDirectly(message, functionContext, sameVarExpressionGroup.others, sameVarExpressionGroup.regexs.size(), bitSet);
+                fingerprintCache.addLogFingerprint(sourceName, content, bitSet);
             }
-            RegexEngine regexEngine = expressionRegexEngineMap.get(sourceName);
-            if (regexEngine != null) {
-                executeByHyperscan(message, functionContext, regexEngine, sourceName, content, bitSet);
-            }
-            if (sameVarExpressionGroup.others != null) {
-                executeDirectly(message, functionContext, sameVarExpressionGroup.others, bitSet);
-            }
-            fingerprintCache.addLogFingerprint(sourceName, origContent, bitSet);
-            homologousResult.put(sourceName, bitSet);
+            sameVarExpressionGroup.fillResult(bitSet, homologousResult);
         }
         context.setHomologousResult(homologousResult);
     }
@@ -122,23 +133,52 @@ public class HomologousCompute {
      * @param regexEngine
      * @param sourceVar
      * @param content
+     * @param sameVarExpressionGroup
      * @param bitSet
      */
     protected void executeByHyperscan(IMessage message, FunctionContext functionContext, RegexEngine regexEngine,
-        String sourceVar, String content,
+        String sourceVar, String content, SameVarExpressionGroup sameVarExpressionGroup,
         BitSetCache.BitSet bitSet) {
         if (this.containEliminateSpaces.containsKey(sourceVar)) {
             content = replaceFunction.regexReplace(message, functionContext, sourceVar, "'" + MUTIL_BLINK + "'", "' '");
         }
         Set<CommonExpression> matchResult = regexEngine.matchExpression(content);
         for (CommonExpression commonExpression : matchResult) {
-            bitSet.set(commonExpression.getIndex());
+            bitSet.set(sameVarExpressionGroup.localIndexes.get(commonExpression));
         }
     }
 
+    /**
+     * execute the scripts of all regexs first, then scan the content of each var once by the keyword prefilter, only
+     * the candidate regexs are executed
+     */
+    protected void executeByPrefilter(IMessage message, FunctionContext functionContext,
+        SameVarExpressionGroup sameVarExpressionGroup, BitSetCache.BitSet bitSet) {
+        for (CommonExpression commonExpression : sameVarExpressionGroup.regexs) {
+            for (IScriptExpression scriptExpression : commonExpression.getScriptExpressions()) {
+                scriptExpression.executeExpression(message, functionContext);
+            }
+        }
+        for (Map.Entry<String, RegexPrefilter<Integer>> entry : sameVarExpressionGroup.regexPrefilters.entrySet()) {
+            String content = message.getMessageBody().getString(entry.getKey());
+            if (content == null) {
+                continue;
+            }
+            for (Integer index : entry.getValue().match(content)) {
+                if (StringUtil.matchRegex(content, sameVarExpressionGroup.regexs.get(index).getValue())) {
+                    bitSet.set(index);
+                }
+            }
+        }
+    }
+
+    /**
+     * execute expressions one by one, the result of the i-th expression is set to bitset index offset+i
+     */
     protected void executeDirectly(IMessage message, FunctionContext functionContext,
-        List<CommonExpression> commonExpressionList, BitSetCache.BitSet bitSet) {
-        for (CommonExpression commonExpression : commonExpressionList) {
+        List<CommonExpression> commonExpressionList, int offset, BitSetCache.BitSet bitSet) {
+        for (int i = 0; i < commonExpressionList.size(); i++) {
+            CommonExpression commonExpression = commonExpressionList.get(i);
             for (IScriptExpression scriptExpression : commonExpression.getScriptExpressions()) {
                 scriptExpression.executeExpression(message, functionContext);
             }
@@ -151,7 +191,7 @@ public class HomologousCompute {
             if (commonExpression.isRegex()) {
                 boolean isMatch = StringUtil.matchRegex(content, regex);
                 if (isMatch) {
-                    bitSet.set(commonExpression.getIndex());
+                    bitSet.set(offset + i);
                 }
 
             } else {
@@ -164,7 +204,7 @@ public class HomologousCompute {
 
                 boolean isMatch = likeRegex.match(content);
                 if (isMatch) {
-                    bitSet.set(commonExpression.getIndex());
+                    bitSet.set(offset + i);
                 }
             }
         }
@@ -250,15 +290,18 @@ public class HomologousCompute {
     }
 
     /**
-     * Assign a number to each expression
+     * Assign a dense id to each expression, expressions with the same 128 bit fingerprint share one id and are only
+     * calculated once per message
      *
      * @param groupBySourceVarName
      */
     private void createExpressionIndexAndHomologousVar(Map<String, SameVarExpressionGroup> groupBySourceVarName) {
+        Map<ByteBuffer, Integer> fingerprint2Index = new HashMap<>();
         for (String sourceName : groupBySourceVarName.keySet()) {
             SameVarExpressionGroup sameVarExpressionGroup = groupBySourceVarName.get(sourceName);
-            sameVarExpressionGroup.createIndexAndHomologousVar();
+            sameVarExpressionGroup.createIndexAndHomologousVar(fingerprint2Index);
         }
+        this.expressionCount = fingerprint2Index.size();
     }
 
     /**
@@ -283,28 +326,80 @@ public class HomologousCompute {
     }
 
     protected class SameVarExpressionGroup {
+        protected List<CommonExpression> expressions = new ArrayList<>();
+        /**
+         * expressions after deduplicate, the cached bitset index is regexs first then others
+         */
         protected List<CommonExpression> regexs = new ArrayList<>();
         protected List<CommonExpression> others = new ArrayList<>();
+        /**
+         * key: expression in regexs and others value: index in cached bitset
+         */
+        protected Map<CommonExpression, Integer> localIndexes = new IdentityHashMap<>();
+        /**
+         * the dense id of each cached bitset index
+         */
+        protected int[] indexes = new int[0];
+        /**
+         * key: var name of regexs value: keyword prefilter of the regexs, the context is index in regexs. only created
+         * when regex.fast.switch is open, the same as the keyword check in StringUtil
+         */
+        protected Map<String, RegexPrefilter<Integer>> regexPrefilters;
 
         public void add(CommonExpression commonExpression) {
-            if (commonExpression.isRegex()) {
-                regexs.add(commonExpression);
-            } else {
-                others.add(commonExpression);
-            }
+            expressions.add(commonExpression);
         }
 
-        public void createIndexAndHomologousVar() {
+        public void createIndexAndHomologousVar(Map<ByteBuffer, Integer> fingerprint2Index) {
+            Map<ByteBuffer, CommonExpression> distinctExpressions = new HashMap<>();
+            for (CommonExpression commonExpression : expressions) {
+                byte[] fingerprint = new byte[16];
+                commonExpression.createFingerprint(fingerprint);
+                ByteBuffer key = ByteBuffer.wrap(fingerprint);
+                Integer index = fingerprint2Index.get(key);
+                if (index == null) {
+                    index = fingerprint2Index.size();
+                    fingerprint2Index.put(key, index);
+                }
+                if (!distinctExpressions.containsKey(key)) {
+                    distinctExpressions.put(key, commonExpression);
+                    if (commonExpression.isRegex()) {
+                        regexs.add(commonExpression);
+                    } else {
+                        others.add(commonExpression);
+                    }
+                }
+                commonExpression.setIndex(index);
+                commonExpression.addHomologousVarToExpression();
+            }
+            indexes = new int[size()];
             int i = 0;
             for (CommonExpression commonExpression : regexs) {
-                commonExpression.setIndex(i);
-                commonExpression.addHomologousVarToExpression();
-                i++;
+                localIndexes.put(commonExpression, i);
+                indexes[i++] = commonExpression.getIndex();
             }
             for (CommonExpression commonExpression : others) {
-                commonExpression.setIndex(i);
-                commonExpression.addHomologousVarToExpression();
-                i++;
+                localIndexes.put(commonExpression, i);
+                indexes[i++] = commonExpression.getIndex();
+            }
+            if (StringUtil.isRegexFastSwitch() && regexs.size() > 0) {
+                regexPrefilters = new HashMap<>();
+                for (int j = 0; j < regexs.size(); j++) {
+                    CommonExpression commonExpression = regexs.get(j);
+                    regexPrefilters.computeIfAbsent(commonExpression.getVarName(), varName -> new RegexPrefilter<>()).addRegex(commonExpression.getValue(), j);
+                }
+                for (RegexPrefilter<Integer> regexPrefilter : regexPrefilters.values()) {
+                    regexPrefilter.compile();
+                }
+            }
+        }
+
+        /**
+         * copy the cached bitset to the message result by dense id
+         */
+        public void fillResult(BitSetCache.BitSet bitSet, HomologousResult homologousResult) {
+            for (int i = 0; i < indexes.length; i++) {
+                homologousResult.set(indexes[i], bitSet.get(i));
             }
         }
 
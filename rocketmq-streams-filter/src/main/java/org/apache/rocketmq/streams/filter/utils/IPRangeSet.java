@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.filter.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import org.apache.rocketmq.streams.common.utils.StringUtil;
+
+/**
+ * 不可变的ip段集合，支持单ip和cidr（1.1.1.0/24），多个段用逗号分隔。在规则加载时解析一次，匹配时二分查找，线程安全
+ */
+public class IPRangeSet {
+
+    /**
+     * 合并后的ip段，按起始地址升序，段之间不重叠
+     */
+    private final long[] starts;
+    private final long[] ends;
+
+    protected IPRangeSet(long[] starts, long[] ends) {
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    /**
+     * 解析ip段，不合法的段会被忽略
+     *
+     * @param ipRanges 逗号分隔的ip或cidr
+     * @return ip段集合，不会返回null
+     */
+    public static IPRangeSet parse(String ipRanges) {
+        List<long[]> ranges = new ArrayList<>();
+        if (StringUtil.isNotEmpty(ipRanges)) {
+            for (String ipRange : ipRanges.split(",")) {
+                long[] range = parseRange(ipRange.trim());
+                if (range != null) {
+                    ranges.add(range);
+                }
+            }
+        }
+        ranges.sort(Comparator.comparingLong(range -> range[0]));
+        long[] starts = new long[ranges.size()];
+        long[] ends = new long[ranges.size()];
+        int size = 0;
+        for (long[] range : ranges) {
+            if (size > 0 && range[0] <= ends[size - 1] + 1) {
+                ends[size - 1] = Math.max(ends[size - 1], range[1]);
+                continue;
+            }
+            starts[size] = range[0];
+            ends[size] = range[1];
+            size++;
+        }
+        return new IPRangeSet(Arrays.copyOf(starts, size), Arrays.copyOf(ends, size));
+    }
+
+    /**
+     * 判断ip或ip段是否完全落在集合中
+     *
+     * @param ip 单ip或cidr
+     * @return 是否包含
+     */
+    public boolean contains(String ip) {
+        long[] range = parseRange(ip);
+        if (range == null) {
+            return false;
+        }
+        int index = floor(range[0]);
+        return index >= 0 && ends[index] >= range[1];
+    }
+
+    public boolean contains(long ip) {
+        int index = floor(ip);
+        return index >= 0 && ends[index] >= ip;
+    }
+
+    public boolean isEmpty() {
+        return starts.length == 0;
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * 找到起始地址小于等于ip的最后一个段
+     */
+    private int floor(long ip) {
+        int low = 0;
+        int high = starts.length - 1;
+        int index = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] <= ip) {
+                index = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return {start,end}，格式不合法返回null
+     */
+    private static long[] parseRange(String ip) {
+        if (StringUtil.isEmpty(ip)) {
+            return null;
+        }
+        int n = ip.indexOf("/");
+        String preIp = ip;
+        int mask = 32;
+        if (n > 0) {
+            preIp = ip.substring(0, n);
+            try {
+                mask = Integer.parseInt(ip.substring(n + 1).trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (!IPUtil.checkMask(mask)) {
+                return null;
+            }
+        }
+        if (!IPUtil.checkIpFormat(preIp)) {
+            return null;
+        }
+        long start = IPUtil.ipToInt(preIp) & IPUtil.getPrefixIp(mask);
+        long end = start | IPUtil.getSuffixIp(mask);
+        return new long[] {start, end};
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < starts.length; i++) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append(IPUtil.ipToString(starts[i])).append("-").append(IPUtil.ipToString(ends[i]));
+        }
+        return sb.toString();
+    }
+}
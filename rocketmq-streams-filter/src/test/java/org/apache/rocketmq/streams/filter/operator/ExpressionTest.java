@@ -19,8 +19,10 @@ package org.apache.rocketmq.streams.filter.operator;
 import com.alibaba.fastjson.JSONObject;
 import org.apache.rocketmq.streams.filter.builder.ExpressionBuilder;
 import org.apache.rocketmq.streams.filter.operator.expression.SimpleExpression;
+import org.apache.rocketmq.streams.filter.utils.IPRangeSet;
 import org.junit.Test;
 
+import static junit.framework.TestCase.assertFalse;
 import static junit.framework.TestCase.assertTrue;
 
 public class ExpressionTest {
@@ -44,4 +46,51 @@ public class ExpressionTest {
             ExpressionBuilder.executeExecute("namespace", "(ip,=,1.2.2.3)&((uid,=,1224)|(vmip,=,1.1.11.1))", jsonObject);
         assertTrue(value);
     }
+
+    @Test
+    public void testPreparedOperand() {
+        JSONObject msg = new JSONObject();
+        msg.put("ip", "10.1.2.3");
+        msg.put("name", "rocketmq-streams");
+        assertTrue(ExpressionBuilder.executeExecute(new SimpleExpression("name", "in", "'kafka','rocketmq-streams'"), msg));
+        assertFalse(ExpressionBuilder.executeExecute(new SimpleExpression("name", "in", "kafka,flink"), msg));
+        assertTrue(ExpressionBuilder.executeExecute(new SimpleExpression("ip", "ipContains", "192.168.0.0/16,10.1.0.0/16"), msg));
+        assertFalse(ExpressionBuilder.executeExecute(new SimpleExpression("ip", "ipContains", "10.1.3.0/24"), msg));
+        assertTrue(ExpressionBuilder.executeExecute(new SimpleExpression("name", "like", "rocket%stream_"), msg));
+        assertFalse(ExpressionBuilder.executeExecute(new SimpleExpression("name", "like", "%flink%"), msg));
+    }
+
+    @Test
+    public void testPreparedOperandWithCaseAndAlias() {
+        JSONObject msg = new JSONObject();
+        msg.put("ip", "10.1.2.3");
+        msg.put("name", "rocketmq-streams");
+        assertTrue(ExpressionBuilder.executeExecute(new SimpleExpression("name", "IN", "kafka,rocketmq-streams"), msg));
+        assertFalse(ExpressionBuilder.executeExecute(new SimpleExpression("name", "NOTLIKE", "rocket%"), msg));
+        assertTrue(ExpressionBuilder.executeExecute(new SimpleExpression("ip", "IpContains", "10.1.0.0/16"), msg));
+        assertTrue(ExpressionBuilder.executeExecute(new SimpleExpression("name", "~IN", "rocketmq-streams"), msg));
+        assertFalse(ExpressionBuilder.executeExecute(new SimpleExpression("name", "~!in", "rocketmq-streams"), msg));
+        assertFalse(ExpressionBuilder.executeExecute(new SimpleExpression("name", "!Like", "%streams"), msg));
+
+        //预解析后修改函数名或值，执行时按当前函数重新解析
+        SimpleExpression expression = new SimpleExpression("name", "in", "kafka");
+        expression.prepareOperand();
+        expression.setValue("rocketmq-streams");
+        assertTrue(ExpressionBuilder.executeExecute(expression, msg));
+        expression.setFunctionName("like");
+        expression.setValue("rocket%");
+        assertTrue(ExpressionBuilder.executeExecute(expression, msg));
+    }
+
+    @Test
+    public void testIPRangeSet() {
+        IPRangeSet ipRangeSet = IPRangeSet.parse("10.0.0.0/8,10.1.0.0/16,192.168.1.1,192.168.1.2, 172.16.0.0/12");
+        assertTrue(ipRangeSet.size() == 3);
+        assertTrue(ipRangeSet.contains("10.255.255.255"));
+        assertTrue(ipRangeSet.contains("192.168.1.2"));
+        assertTrue(ipRangeSet.contains("192.168.1.0/31") == false);
+        assertTrue(ipRangeSet.contains("172.20.0.0/16"));
+        assertFalse(ipRangeSet.contains("11.0.0.1"));
+        assertFalse(ipRangeSet.contains("not an ip"));
+    }
 }
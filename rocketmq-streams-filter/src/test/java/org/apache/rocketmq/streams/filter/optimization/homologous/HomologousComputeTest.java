@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.filter.optimization.homologous;
+
+import com.alibaba.fastjson.JSONObject;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.rocketmq.streams.common.context.Context;
+import org.apache.rocketmq.streams.common.context.IMessage;
+import org.apache.rocketmq.streams.common.context.Message;
+import org.apache.rocketmq.streams.filter.operator.expression.SimpleExpression;
+import org.apache.rocketmq.streams.filter.optimization.dependency.CommonExpression;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HomologousComputeTest {
+
+    @Test
+    public void testSameFingerprintShareIndex() {
+        List<CommonExpression> commonExpressions = new ArrayList<>();
+        CommonExpression rule1 = createExpression("name", "regex", "rocket.*");
+        CommonExpression rule2 = createExpression("name", "regex", "rocket.*");
+        CommonExpression like = createExpression("name", "like", "%flink%");
+        CommonExpression other = createExpression("ip", "regex", "rocket.*");
+        commonExpressions.add(rule1);
+        commonExpressions.add(rule2);
+        commonExpressions.add(like);
+        commonExpressions.add(other);
+        HomologousCompute homologousCompute = new HomologousCompute(commonExpressions, 1000);
+
+        assertEquals(rule1.getIndex(), rule2.getIndex());
+        assertNotEquals(rule1.getIndex(), like.getIndex());
+        assertNotEquals(rule1.getIndex(), other.getIndex());
+        assertEquals(3, homologousCompute.expressionCount);
+    }
+
+    @Test
+    public void testCalculate() {
+        SimpleExpression regex = new SimpleExpression("name", "regex", "rocket.*");
+        SimpleExpression like = new SimpleExpression("name", "like", "%flink%");
+        List<CommonExpression> commonExpressions = new ArrayList<>();
+        commonExpressions.add(createExpression(regex));
+        commonExpressions.add(createExpression(like));
+        HomologousCompute homologousCompute = new HomologousCompute(commonExpressions, 1000);
+
+        //第二次是相同内容，结果来自缓存
+        for (int i = 0; i < 2; i++) {
+            JSONObject msg = new JSONObject();
+            msg.put("name", "rocketmq-streams");
+            IMessage message = new Message(msg);
+            Context context = new Context(message);
+            assertNull(context.matchFromHomologousCache(message, regex.getHomologousVar()));
+            homologousCompute.calculate(message, context);
+            assertTrue(context.matchFromHomologousCache(message, regex.getHomologousVar()));
+            assertFalse(context.matchFromHomologousCache(message, like.getHomologousVar()));
+        }
+    }
+
+    protected CommonExpression createExpression(String varName, String functionName, String value) {
+        return createExpression(new SimpleExpression(varName, functionName, value));
+    }
+
+    protected CommonExpression createExpression(SimpleExpression expression) {
+        CommonExpression commonExpression = new CommonExpression(expression);
+        commonExpression.init();
+        return commonExpression;
+    }
+}
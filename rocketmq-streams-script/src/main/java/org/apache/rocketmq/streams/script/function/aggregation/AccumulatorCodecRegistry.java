@@ -0,0 +1,358 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.script.function.aggregation;
+
+import com.alibaba.fastjson.JSONObject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import net.agkn.hll.HLL;
+import org.apache.rocketmq.streams.common.datatype.DataType;
+import org.apache.rocketmq.streams.common.datatype.NotSupportDataType;
+import org.apache.rocketmq.streams.common.utils.DataTypeUtil;
+import org.apache.rocketmq.streams.common.utils.ReflectUtil;
+import org.apache.rocketmq.streams.script.service.IAccumulatorCodec;
+
+/**
+ * accumulator二进制编码的注册中心。每个accumulator编码成一条记录：类型id(short) + 版本(byte) + 长度(int) + 内容
+ * <p>
+ * 1-99留给内置的accumulator，自定义的accumulator用100以上的id注册。类型id为0表示没有注册codec，内容是反射生成的json
+ * <p>
+ * 已经使用的内置id：1-7在这里注册，8是window模块的TopNState
+ */
+public class AccumulatorCodecRegistry {
+
+    public static final int LEGACY_TYPE_ID = 0;
+
+    public static final int MIN_CUSTOM_TYPE_ID = 100;
+
+    protected static final Map<Class, Integer> CLASS_2_TYPE_ID = new ConcurrentHashMap<>();
+
+    protected static final Map<Integer, IAccumulatorCodec> TYPE_ID_2_CODEC = new ConcurrentHashMap<>();
+
+    protected static final Map<Integer, Class> TYPE_ID_2_CLASS = new ConcurrentHashMap<>();
+
+    static {
+        registerInner(1, CountAccumulator.CountAccum.class, new IAccumulatorCodec<CountAccumulator.CountAccum>() {
+            @Override public int getVersion() {
+                return 1;
+            }
+
+            @Override public void encode(CountAccumulator.CountAccum accumulator, DataOutput out) throws IOException {
+                out.writeInt(accumulator.count);
+            }
+
+            @Override public CountAccumulator.CountAccum decode(int version, DataInput in) throws IOException {
+                CountAccumulator.CountAccum accum = new CountAccumulator.CountAccum();
+                accum.count = in.readInt();
+                return accum;
+            }
+        });
+        registerInner(2, SumAccumulator.SumAccum.class, new IAccumulatorCodec<SumAccumulator.SumAccum>() {
+            @Override public int getVersion() {
+                return 1;
+            }
+
+            @Override public void encode(SumAccumulator.SumAccum accumulator, DataOutput out) throws IOException {
+                writeNumber(accumulator.sum, out);
+            }
+
+            @Override public SumAccumulator.SumAccum decode(int version, DataInput in) throws IOException {
+                SumAccumulator.SumAccum accum = new SumAccumulator.SumAccum();
+                accum.sum = readNumber(in);
+                return accum;
+            }
+        });
+        registerInner(3, AverageAccumulator.AverageAccum.class, new IAccumulatorCodec<AverageAccumulator.AverageAccum>() {
+            @Override public int getVersion() {
+                return 1;
+            }
+
+            @Override public void encode(AverageAccumulator.AverageAccum accumulator, DataOutput out) throws IOException {
+                writeNumber(accumulator.sum, out);
+                writeNumber(accumulator.value, out);
+                out.writeInt(accumulator.count);
+            }
+
+            @Override public AverageAccumulator.AverageAccum decode(int version, DataInput in) throws IOException {
+                AverageAccumulator.AverageAccum accum = new AverageAccumulator.AverageAccum();
+                accum.sum = readNumber(in);
+                accum.value = readNumber(in);
+                accum.count = in.readInt();
+                return accum;
+            }
+        });
+        registerInner(4, MinAccumulator.MinAccum.class, new IAccumulatorCodec<MinAccumulator.MinAccum>() {
+            @Override public int getVersion() {
+                return 1;
+            }
+
+            @Override public void encode(MinAccumulator.MinAccum accumulator, DataOutput out) throws IOException {
+                writeString(accumulator.min, out);
+            }
+
+            @Override public MinAccumulator.MinAccum decode(int version, DataInput in) throws IOException {
+                MinAccumulator.MinAccum accum = new MinAccumulator.MinAccum();
+                accum.min = readString(in);
+                return accum;
+            }
+        });
+        registerInner(5, MaxAccumulator.MaxAccum.class, new IAccumulatorCodec<MaxAccumulator.MaxAccum>() {
+            @Override public int getVersion() {
+                return 1;
+            }
+
+            @Override public void encode(MaxAccumulator.MaxAccum accumulator, DataOutput out) throws IOException {
+                writeString(accumulator.max, out);
+            }
+
+            @Override public MaxAccumulator.MaxAccum decode(int version, DataInput in) throws IOException {
+                MaxAccumulator.MaxAccum accum = new MaxAccumulator.MaxAccum();
+                accum.max = readString(in);
+                return accum;
+            }
+        });
+        registerInner(6, CountDistinctAccumulator.CountDistinctAccum.class, new IAccumulatorCodec<CountDistinctAccumulator.CountDistinctAccum>() {
+            @Override public int getVersion() {
+                return 1;
+            }
+
+            @Override public void encode(CountDistinctAccumulator.CountDistinctAccum accumulator, DataOutput out) throws IOException {
+                writeBytes(accumulator.hll.toBytes(), out);
+            }
+
+            @Override public CountDistinctAccumulator.CountDistinctAccum decode(int version, DataInput in) throws IOException {
+                CountDistinctAccumulator.CountDistinctAccum accum = new CountDistinctAccumulator.CountDistinctAccum();
+                accum.hll = HLL.fromBytes(readBytes(in));
+                return accum;
+            }
+        });
+        registerInner(7, DistinctAccumulator2.DistinctAccum2.class, new IAccumulatorCodec<DistinctAccumulator2.DistinctAccum2>() {
+            @Override public int getVersion() {
+                return 1;
+            }
+
+            @Override public void encode(DistinctAccumulator2.DistinctAccum2 accumulator, DataOutput out) throws IOException {
+                writeString(accumulator.windowInstanceId, out);
+                writeString(accumulator.groupByMd5, out);
+                out.writeLong(accumulator.count);
+            }
+
+            @Override public DistinctAccumulator2.DistinctAccum2 decode(int version, DataInput in) throws IOException {
+                DistinctAccumulator2.DistinctAccum2 accum = new DistinctAccumulator2.DistinctAccum2();
+                accum.windowInstanceId = readString(in);
+                accum.groupByMd5 = readString(in);
+                accum.count = in.readLong();
+                accum.legacyMigrated = true;
+                return accum;
+            }
+        });
+    }
+
+    /**
+     * 注册自定义accumulator的codec
+     *
+     * @param typeId           类型id，不小于MIN_CUSTOM_TYPE_ID，写入存储后不能再修改
+     * @param accumulatorClass createAccumulator返回的类
+     * @param codec            编码
+     */
+    public static void register(int typeId, Class accumulatorClass, IAccumulatorCodec codec) {
+        if (typeId < MIN_CUSTOM_TYPE_ID || typeId > Short.MAX_VALUE) {
+            throw new RuntimeException("accumulator codec type id must be between " + MIN_CUSTOM_TYPE_ID + " and " + Short.MAX_VALUE + ", but is " + typeId);
+        }
+        registerInner(typeId, accumulatorClass, codec);
+    }
+
+    /**
+     * 注册其他模块中内置状态的codec，id在这个类的注释中登记，避免冲突
+     *
+     * @param typeId           类型id，在1到MIN_CUSTOM_TYPE_ID-1之间，写入存储后不能再修改
+     * @param accumulatorClass createAccumulator返回的类
+     * @param codec            编码
+     */
+    public static void registerBuiltin(int typeId, Class accumulatorClass, IAccumulatorCodec codec) {
+        if (typeId <= LEGACY_TYPE_ID || typeId >= MIN_CUSTOM_TYPE_ID) {
+            throw new RuntimeException("builtin accumulator codec type id must be between " + (LEGACY_TYPE_ID + 1) + " and " + (MIN_CUSTOM_TYPE_ID - 1) + ", but is " + typeId);
+        }
+        registerInner(typeId, accumulatorClass, codec);
+    }
+
+    protected static synchronized void registerInner(int typeId, Class accumulatorClass, IAccumulatorCodec codec) {
+        if (codec.getVersion() < 0 || codec.getVersion() > 255) {
+            throw new RuntimeException("accumulator codec version must be between 0 and 255, " + accumulatorClass.getName());
+        }
+        Class oldClass = TYPE_ID_2_CLASS.get(typeId);
+        Integer oldTypeId = CLASS_2_TYPE_ID.get(accumulatorClass);
+        if ((oldClass != null && !oldClass.equals(accumulatorClass)) || (oldTypeId != null && oldTypeId != typeId)) {
+            throw new RuntimeException("accumulator codec conflict, type id " + typeId + ", class " + accumulatorClass.getName());
+        }
+        TYPE_ID_2_CODEC.put(typeId, codec);
+        TYPE_ID_2_CLASS.put(typeId, accumulatorClass);
+        CLASS_2_TYPE_ID.put(accumulatorClass, typeId);
+    }
+
+    /**
+     * 写入一个accumulator
+     *
+     * @param accumulator 不能为null
+     * @param out
+     * @throws IOException
+     */
+    public static void write(Object accumulator, DataOutput out) throws IOException {
+        Integer typeId = CLASS_2_TYPE_ID.get(accumulator.getClass());
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        int version = 0;
+        if (typeId == null) {
+            typeId = LEGACY_TYPE_ID;
+            content.write(toLegacyJson(accumulator).getBytes(StandardCharsets.UTF_8));
+        } else {
+            IAccumulatorCodec codec = TYPE_ID_2_CODEC.get(typeId);
+            version = codec.getVersion();
+            codec.encode(accumulator, new DataOutputStream(content));
+        }
+        out.writeShort(typeId);
+        out.writeByte(version);
+        out.writeInt(content.size());
+        out.write(content.toByteArray());
+    }
+
+    /**
+     * 读取write写入的accumulator
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    public static Object read(DataInput in) throws IOException {
+        int typeId = in.readShort();
+        int version = in.readUnsignedByte();
+        byte[] content = new byte[in.readInt()];
+        in.readFully(content);
+        if (typeId == LEGACY_TYPE_ID) {
+            return fromLegacyJson(new String(content, StandardCharsets.UTF_8));
+        }
+        IAccumulatorCodec codec = TYPE_ID_2_CODEC.get(typeId);
+        if (codec == null) {
+            throw new RuntimeException("can not find accumulator codec for type id " + typeId + ", please register it by AccumulatorCodecRegistry.register");
+        }
+        return codec.decode(version, new DataInputStream(new ByteArrayInputStream(content)));
+    }
+
+    /**
+     * 和原来WindowValue中aggColumnResult的json格式一致
+     */
+    protected static String toLegacyJson(Object value) {
+        JSONObject jsonObject = new JSONObject();
+        DataType dataType = DataTypeUtil.getDataTypeFromClass(value.getClass());
+        if (!NotSupportDataType.class.isInstance(dataType)) {
+            jsonObject.put("isBasic", true);
+            jsonObject.put("datatype", dataType.getDataTypeName());
+            jsonObject.put("result", dataType.toDataJson(value));
+        } else {
+            jsonObject.put("isBasic", false);
+            jsonObject.put("result", ReflectUtil.serializeObject(value).toJSONString());
+        }
+        return jsonObject.toJSONString();
+    }
+
+    protected static Object fromLegacyJson(String json) {
+        JSONObject jsonObject = JSONObject.parseObject(json);
+        String jsonValue = jsonObject.getString("result");
+        if (jsonObject.getBooleanValue("isBasic")) {
+            DataType dataType = DataTypeUtil.getDataType(jsonObject.getString("datatype"));
+            return dataType.getData(jsonValue);
+        }
+        return ReflectUtil.deserializeObject(JSONObject.parseObject(jsonValue));
+    }
+
+    public static void writeString(String value, DataOutput out) throws IOException {
+        writeBytes(value == null ? null : value.getBytes(StandardCharsets.UTF_8), out);
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 长度为-1表示null
+     */
+    public static void writeBytes(byte[] value, DataOutput out) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    public static byte[] readBytes(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static final byte NUMBER_NULL = 0;
+    private static final byte NUMBER_INT = 1;
+    private static final byte NUMBER_LONG = 2;
+    private static final byte NUMBER_DOUBLE = 3;
+
+    /**
+     * 保留Integer/Long/Double的类型，计算结果的类型和反序列化前一致
+     */
+    public static void writeNumber(Number value, DataOutput out) throws IOException {
+        if (value == null) {
+            out.writeByte(NUMBER_NULL);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeByte(NUMBER_INT);
+            out.writeInt(value.intValue());
+        } else if (value instanceof Long) {
+            out.writeByte(NUMBER_LONG);
+            out.writeLong(value.longValue());
+        } else {
+            out.writeByte(NUMBER_DOUBLE);
+            out.writeDouble(value.doubleValue());
+        }
+    }
+
+    public static Number readNumber(DataInput in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NUMBER_NULL:
+                return null;
+            case NUMBER_INT:
+                return in.readInt();
+            case NUMBER_LONG:
+                return in.readLong();
+            case NUMBER_DOUBLE:
+                return in.readDouble();
+            default:
+                throw new RuntimeException("unknown number type " + type);
+        }
+    }
+}
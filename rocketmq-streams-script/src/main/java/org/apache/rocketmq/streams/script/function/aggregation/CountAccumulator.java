@@ -17,14 +17,11 @@
 package org.apache.rocketmq.streams.script.function.aggregation;
 
 import java.util.Iterator;
-import java.util.Map;
 import java.util.Set;
 import org.apache.rocketmq.streams.common.utils.CollectionUtil;
-import org.apache.rocketmq.streams.common.utils.MapKeyUtil;
 import org.apache.rocketmq.streams.script.annotation.Function;
 import org.apache.rocketmq.streams.script.annotation.UDAFFunction;
 import org.apache.rocketmq.streams.script.service.IAccumulator;
-import org.apache.rocketmq.streams.state.kv.rocksdb.RocksdbState;
 
 /**
  * @author arthur.liang
@@ -56,18 +53,8 @@ public class CountAccumulator implements IAccumulator<Integer, CountAccumulator.
         }
         if (parameters[0] instanceof DistinctAccumulator2.DistinctAccum2) {
             DistinctAccumulator2.DistinctAccum2 distinctAccum2 = (DistinctAccumulator2.DistinctAccum2) parameters[0];
-            String prefix = MapKeyUtil.createKey(DistinctAccumulator2.DISTINCT_STATE_PREFIX, distinctAccum2.windowInstanceId, distinctAccum2.groupByMd5);
-            RocksdbState state = new RocksdbState();
-            Iterator<Map.Entry<String, String>> iterator = state.entryIterator(prefix);
-            int sum = 0;
-            while (iterator.hasNext()) {
-                Map.Entry<String, String> entry = iterator.next();
-                if (entry == null) {
-                    break;
-                }
-                sum += 1;
-            }
-            accumulator.count = sum;
+            DistinctAccumulator2.migrateLegacyState(distinctAccum2);
+            accumulator.count = (int) distinctAccum2.count;
         } else if (parameters[0] instanceof Set) {
             accumulator.count = ((Set) parameters[0]).size();
         } else {
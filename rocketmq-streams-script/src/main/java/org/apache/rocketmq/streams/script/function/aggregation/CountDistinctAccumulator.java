@@ -67,6 +67,6 @@ public class CountDistinctAccumulator implements IAccumulator<Long, CountDistinc
     }
 
     public static class CountDistinctAccum {
-        private final HLL hll = new HLL(30, 8);
+        protected HLL hll = new HLL(30, 8);
     }
 }
@@ -16,8 +16,12 @@
  */
 package org.apache.rocketmq.streams.script.function.aggregation;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import org.apache.rocketmq.streams.common.utils.CollectionUtil;
+import org.apache.rocketmq.streams.common.utils.HashUtil;
 import org.apache.rocketmq.streams.common.utils.MapKeyUtil;
 import org.apache.rocketmq.streams.common.utils.StringUtil;
 import org.apache.rocketmq.streams.script.annotation.Function;
@@ -27,6 +31,9 @@ import org.apache.rocketmq.streams.state.kv.rocksdb.RocksdbState;
 
 /**
  * distinct operator based rocksdb state
+ * <p>
+ * 值按128位hash写入DistinctValueStore，累加器只保存窗口实例、分组和不同值的数量，count直接读取数量，不需要扫描状态。
+ * 旧版本的累加器没有数量，值按md5存储在kv state中，第一次使用时迁移到DistinctValueStore
  *
  * @author arthur.liang
  */
@@ -34,18 +41,41 @@ import org.apache.rocketmq.streams.state.kv.rocksdb.RocksdbState;
 @UDAFFunction("distinct2")
 public class DistinctAccumulator2 implements IAccumulator<DistinctAccumulator2.DistinctAccum2, DistinctAccumulator2.DistinctAccum2> {
 
+    /**
+     * 旧版本状态的key前缀
+     */
     public static final String DISTINCT_STATE_PREFIX = "__distinct__";
     private static final Integer PARAMETER_SIZE = 3;
-    private static RocksdbState state = new RocksdbState();
 
     public static class DistinctAccum2 {
         public String windowInstanceId;
+        /**
+         * 分组值的md5，和旧版本的字段一致
+         */
         public String groupByMd5;
+        /**
+         * 不同值的数量
+         */
+        public long count;
+        /**
+         * 窗口实例和分组的hash，是状态key的前16个字节
+         */
+        protected transient byte[] keyPrefix;
+        /**
+         * 新创建的累加器记录bloom的代数，从存储恢复或合并得到的累加器不信任bloom
+         */
+        protected transient int bloomGeneration = DistinctValueStore.UNTRUSTED_GENERATION;
+        /**
+         * 是否已经迁移过旧版本的状态，只有按旧版本json恢复的累加器为false
+         */
+        protected transient boolean legacyMigrated = false;
     }
 
     @Override
     public DistinctAccum2 createAccumulator() {
-        return new DistinctAccum2();
+        DistinctAccum2 accumulator = new DistinctAccum2();
+        accumulator.legacyMigrated = true;
+        return accumulator;
     }
 
     @Override
@@ -55,48 +85,101 @@ public class DistinctAccumulator2 implements IAccumulator<DistinctAccumulator2.D
 
     @Override
     public void accumulate(DistinctAccum2 accumulator, Object... parameters) {
-        if (CollectionUtil.isEmpty(parameters) || parameters.length != PARAMETER_SIZE) {
+        if (CollectionUtil.isEmpty(parameters) || parameters.length != PARAMETER_SIZE || parameters[0] == null) {
             return;
         }
-        try {
-            String value = (String) parameters[0];
-            String valueMd5 = StringUtil.createMD5Str(value);
-            String windowInstanceId = (String) parameters[1];
-            if (accumulator.windowInstanceId == null && windowInstanceId != null) {
-                accumulator.windowInstanceId = windowInstanceId;
-            }
-            assert accumulator.windowInstanceId.equalsIgnoreCase(windowInstanceId);
-            String groupByValue = (String) parameters[2];
-            String groupByMd5 = StringUtil.createMD5Str(groupByValue);
-            if (accumulator.groupByMd5 == null && groupByMd5 != null) {
-                accumulator.groupByMd5 = groupByMd5;
+        migrateLegacyState(accumulator);
+        String value = String.valueOf(parameters[0]);
+        String windowInstanceId = (String) parameters[1];
+        String groupBy = (String) parameters[2];
+        if (accumulator.windowInstanceId == null) {
+            accumulator.windowInstanceId = windowInstanceId;
+            accumulator.groupByMd5 = groupBy == null ? null : StringUtil.createMD5Str(groupBy);
+            if (accumulator.count == 0) {
+                accumulator.bloomGeneration = DistinctValueStore.getInstance().getBloomGeneration();
             }
-            assert accumulator.groupByMd5.equalsIgnoreCase(groupByMd5);
-            String storeKey = MapKeyUtil.createKey(DISTINCT_STATE_PREFIX, accumulator.windowInstanceId, accumulator.groupByMd5, valueMd5);
-            state.putIfAbsent(storeKey, value);
-        } catch (Exception e) {
-            e.printStackTrace();
+        }
+        assert accumulator.windowInstanceId.equals(windowInstanceId);
+        assert accumulator.groupByMd5 == null || accumulator.groupByMd5.equals(StringUtil.createMD5Str(groupBy));
+        if (DistinctValueStore.getInstance().addIfAbsent(createKey(accumulator, value), accumulator.bloomGeneration)) {
+            accumulator.count++;
         }
     }
 
     @Override
     public void merge(DistinctAccum2 accumulator, Iterable<DistinctAccum2> its) {
+        migrateLegacyState(accumulator);
         Iterator<DistinctAccum2> it = its.iterator();
         while (it.hasNext()) {
             DistinctAccum2 commonAccumulator = it.next();
             if (commonAccumulator != null) {
+                migrateLegacyState(commonAccumulator);
                 if (accumulator.windowInstanceId == null || accumulator.groupByMd5 == null) {
                     accumulator.windowInstanceId = commonAccumulator.windowInstanceId;
                     accumulator.groupByMd5 = commonAccumulator.groupByMd5;
                 }
-                assert accumulator.windowInstanceId.equalsIgnoreCase(commonAccumulator.windowInstanceId);
-                assert accumulator.groupByMd5.equalsIgnoreCase(commonAccumulator.groupByMd5);
+                assert accumulator.windowInstanceId.equals(commonAccumulator.windowInstanceId);
+                assert accumulator.groupByMd5.equals(commonAccumulator.groupByMd5);
+                //同一个窗口实例和分组共用状态，每个值只会被一个累加器计数
+                accumulator.count += commonAccumulator.count;
             }
         }
+        accumulator.bloomGeneration = DistinctValueStore.UNTRUSTED_GENERATION;
     }
 
     @Override
     public void retract(DistinctAccum2 accumulator, String... parameters) {
     }
 
-}
\ No newline at end of file
+    /**
+     * 把旧版本按md5存储在kv state中的值写入DistinctValueStore并计数，迁移后删除旧的状态。每个累加器只迁移一次
+     *
+     * @param accumulator 累加器
+     */
+    public static void migrateLegacyState(DistinctAccum2 accumulator) {
+        if (accumulator.legacyMigrated) {
+            return;
+        }
+        accumulator.legacyMigrated = true;
+        if (accumulator.windowInstanceId == null || accumulator.groupByMd5 == null) {
+            return;
+        }
+        RocksdbState state = new RocksdbState();
+        String prefix = MapKeyUtil.createKey(DISTINCT_STATE_PREFIX, accumulator.windowInstanceId, accumulator.groupByMd5);
+        Iterator<Map.Entry<String, String>> iterator = state.entryIterator(prefix);
+        List<String> legacyKeys = new ArrayList<>();
+        while (iterator.hasNext()) {
+            Map.Entry<String, String> entry = iterator.next();
+            if (entry == null) {
+                break;
+            }
+            legacyKeys.add(entry.getKey());
+            if (entry.getValue() != null && DistinctValueStore.getInstance().addIfAbsent(createKey(accumulator, entry.getValue()), DistinctValueStore.UNTRUSTED_GENERATION)) {
+                accumulator.count++;
+            }
+        }
+        if (!legacyKeys.isEmpty()) {
+            DistinctValueStore.getInstance().flush();
+            state.removeAll(legacyKeys);
+        }
+    }
+
+    private static byte[] createKey(DistinctAccum2 accumulator, String value) {
+        byte[] key = new byte[DistinctValueStore.KEY_LENGTH];
+        System.arraycopy(getKeyPrefix(accumulator), 0, key, 0, 16);
+        byte[] valueHash = new byte[16];
+        HashUtil.murmur3_128(value, 0, valueHash);
+        System.arraycopy(valueHash, 0, key, 16, 16);
+        return key;
+    }
+
+    private static byte[] getKeyPrefix(DistinctAccum2 accumulator) {
+        if (accumulator.keyPrefix == null) {
+            byte[] keyPrefix = new byte[16];
+            HashUtil.murmur3_128(new String[] {accumulator.windowInstanceId, accumulator.groupByMd5}, keyPrefix);
+            accumulator.keyPrefix = keyPrefix;
+        }
+        return accumulator.keyPrefix;
+    }
+
+}
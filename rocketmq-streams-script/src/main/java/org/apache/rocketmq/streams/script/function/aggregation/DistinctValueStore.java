@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.script.function.aggregation;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.rocketmq.streams.common.component.ComponentCreator;
+import org.apache.rocketmq.streams.common.configure.ConfigureFileKey;
+import org.apache.rocketmq.streams.common.utils.NumberUtils;
+import org.apache.rocketmq.streams.common.utils.StringUtil;
+import org.apache.rocketmq.streams.state.kv.rocksdb.RocksDBOperator;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBatch;
+
+/**
+ * distinct2的去重状态，存储在rocksdb的distinct列族，key是窗口实例和分组的128位hash加上值的128位hash，共32个字节
+ * <p>
+ * 进程内共享一个bloom filter，累加器创建后写入的值都会进入bloom，bloom中不存在的值一定是新值，不需要读rocksdb。
+ * bloom写满后清空，代数加一，之前创建的累加器不再信任bloom，每次都读rocksdb。
+ * 新值先放入内存，攒够一批后通过WriteBatch写入rocksdb，窗口checkpoint、触发和销毁时也会写入。
+ * 列族按dipper.distinct2.ttl.second创建，默认保留两天
+ */
+public class DistinctValueStore {
+
+    public static final String DISTINCT_COLUMN_FAMILY = "distinct";
+
+    public static final int KEY_LENGTH = 32;
+
+    /**
+     * 累加器不信任bloom时使用的代数
+     */
+    public static final int UNTRUSTED_GENERATION = -1;
+
+    protected static final long DEFAULT_BLOOM_BITS = 1L << 23;
+
+    protected static final int DEFAULT_WRITE_BATCH_SIZE = 1000;
+
+    protected static final int BLOOM_HASH_COUNT = 7;
+
+    protected static final int DEFAULT_TTL_SECOND = 2 * 24 * 3600;
+
+    private static final byte[] EMPTY_VALUE = new byte[0];
+
+    private static volatile DistinctValueStore instance;
+
+    protected final RocksDBOperator operator;
+
+    protected final ColumnFamilyHandle columnFamily;
+
+    protected final int writeBatchSize;
+
+    protected final long[] bloom;
+
+    protected final long bloomBits;
+
+    /**
+     * bloom最多写入的值的数量，按每个值10位计算，误判率约1%
+     */
+    protected final long bloomCapacity;
+
+    protected long bloomSize = 0;
+
+    protected volatile int bloomGeneration = 0;
+
+    /**
+     * 还没有写入rocksdb的新值
+     */
+    protected final Set<ByteBuffer> pendingKeys = new HashSet<>();
+
+    protected WriteBatch writeBatch = new WriteBatch();
+
+    /**
+     * metric info
+     */
+    protected long bloomSkipCount = 0;
+    protected long readCount = 0;
+    protected long flushCount = 0;
+
+    public DistinctValueStore(RocksDBOperator operator, long bloomBits, int writeBatchSize) {
+        this(operator, bloomBits, writeBatchSize, DEFAULT_TTL_SECOND);
+    }
+
+    public DistinctValueStore(RocksDBOperator operator, long bloomBits, int writeBatchSize, int ttlSecond) {
+        this.operator = operator;
+        this.columnFamily = operator.getColumnFamily(DISTINCT_COLUMN_FAMILY, ttlSecond);
+        this.writeBatchSize = Math.max(1, writeBatchSize);
+        int words = (int) Math.max(1, (bloomBits + 63) >>> 6);
+        this.bloom = new long[words];
+        this.bloomBits = (long) words << 6;
+        this.bloomCapacity = Math.max(1, this.bloomBits / 10);
+    }
+
+    public static DistinctValueStore getInstance() {
+        if (instance == null) {
+            synchronized (DistinctValueStore.class) {
+                if (instance == null) {
+                    long bloomBits = DEFAULT_BLOOM_BITS;
+                    String value = ComponentCreator.getProperties().getProperty(ConfigureFileKey.DISTINCT2_BLOOM_BITS);
+                    if (StringUtil.isNotEmpty(value)) {
+                        bloomBits = Long.parseLong(value);
+                    }
+                    int writeBatchSize = DEFAULT_WRITE_BATCH_SIZE;
+                    value = ComponentCreator.getProperties().getProperty(ConfigureFileKey.DISTINCT2_WRITE_BATCH_SIZE);
+                    if (StringUtil.isNotEmpty(value)) {
+                        writeBatchSize = Integer.parseInt(value);
+                    }
+                    int ttlSecond = DEFAULT_TTL_SECOND;
+                    value = ComponentCreator.getProperties().getProperty(ConfigureFileKey.DISTINCT2_TTL_SECOND);
+                    if (StringUtil.isNotEmpty(value)) {
+                        ttlSecond = Integer.parseInt(value);
+                    }
+                    instance = new DistinctValueStore(new RocksDBOperator(), bloomBits, writeBatchSize, ttlSecond);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 窗口checkpoint、触发和销毁时调用，没有使用过distinct2时不创建实例
+     */
+    public static void flushIfCreated() {
+        DistinctValueStore store = instance;
+        if (store != null) {
+            store.flush();
+        }
+    }
+
+    /**
+     * 新创建的累加器记录当前的代数，代数不变时bloom包含这个累加器写入的所有值
+     */
+    public int getBloomGeneration() {
+        return bloomGeneration;
+    }
+
+    /**
+     * 值不存在时写入
+     *
+     * @param key        32个字节，写入后不能再修改
+     * @param generation 累加器创建时的代数
+     * @return 新值返回true
+     */
+    public synchronized boolean addIfAbsent(byte[] key, int generation) {
+        long h1 = NumberUtils.toLongLittleEndian(key, 0) ^ NumberUtils.toLongLittleEndian(key, 16);
+        long h2 = NumberUtils.toLongLittleEndian(key, 8) ^ NumberUtils.toLongLittleEndian(key, 24);
+        if (generation != bloomGeneration || mightContain(h1, h2)) {
+            if (pendingKeys.contains(ByteBuffer.wrap(key))) {
+                return false;
+            }
+            readCount++;
+            try {
+                if (operator.getInstance().get(columnFamily, key) != null) {
+                    putBloom(h1, h2);
+                    return false;
+                }
+            } catch (RocksDBException e) {
+                throw new RuntimeException("read distinct state error", e);
+            }
+        } else {
+            bloomSkipCount++;
+        }
+        putBloom(h1, h2);
+        pendingKeys.add(ByteBuffer.wrap(key));
+        try {
+            writeBatch.put(columnFamily, key, EMPTY_VALUE);
+        } catch (RocksDBException e) {
+            throw new RuntimeException("write distinct state error", e);
+        }
+        if (pendingKeys.size() >= writeBatchSize) {
+            flush();
+        }
+        return true;
+    }
+
+    /**
+     * 把内存中的新值写入rocksdb
+     */
+    public synchronized void flush() {
+        if (pendingKeys.isEmpty()) {
+            return;
+        }
+        try {
+            operator.getInstance().write(operator.getWriteOptions(), writeBatch);
+        } catch (RocksDBException e) {
+            throw new RuntimeException("flush distinct state error", e);
+        } finally {
+            writeBatch.close();
+            writeBatch = new WriteBatch();
+            pendingKeys.clear();
+        }
+        flushCount++;
+    }
+
+    public synchronized long getBloomSkipCount() {
+        return bloomSkipCount;
+    }
+
+    public synchronized long getReadCount() {
+        return readCount;
+    }
+
+    public synchronized long getFlushCount() {
+        return flushCount;
+    }
+
+    private boolean mightContain(long h1, long h2) {
+        long combined = h1;
+        for (int i = 0; i < BLOOM_HASH_COUNT; i++) {
+            long index = (combined & Long.MAX_VALUE) % bloomBits;
+            if ((bloom[(int) (index >>> 6)] & (1L << index)) == 0) {
+                return false;
+            }
+            combined += h2;
+        }
+        return true;
+    }
+
+    /**
+     * bloom写满时清空，代数加一
+     */
+    private void putBloom(long h1, long h2) {
+        if (bloomSize >= bloomCapacity) {
+            Arrays.fill(bloom, 0L);
+            bloomSize = 0;
+            bloomGeneration++;
+        }
+        long combined = h1;
+        for (int i = 0; i < BLOOM_HASH_COUNT; i++) {
+            long index = (combined & Long.MAX_VALUE) % bloomBits;
+            bloom[(int) (index >>> 6)] |= 1L << index;
+            combined += h2;
+        }
+        bloomSize++;
+    }
+}
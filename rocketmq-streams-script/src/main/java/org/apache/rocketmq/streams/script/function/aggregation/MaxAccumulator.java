@@ -31,6 +31,26 @@ public class MaxAccumulator implements IAccumulator<String, MaxAccumulator.MaxAc
 
     public static class MaxAccum {
         public String max;
+
+        /**
+         * max是数字时缓存解析后的值，避免每条消息都解析字符串
+         */
+        protected transient String parsedMax;
+        protected transient double parsedValue;
+
+        protected double getNumberMax() {
+            if (max != parsedMax) {
+                parsedValue = Double.parseDouble(max);
+                parsedMax = max;
+            }
+            return parsedValue;
+        }
+
+        protected void setNumberMax(Number value) {
+            max = value.toString();
+            parsedMax = max;
+            parsedValue = value.doubleValue();
+        }
     }
 
     private transient static SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
@@ -53,12 +73,9 @@ public class MaxAccumulator implements IAccumulator<String, MaxAccumulator.MaxAc
         try {
             if (parameters[0] instanceof Number) {
                 Number input = (Number)parameters[0];
-                if (accumulator.max == null) {
-                    accumulator.max = input.toString();
-                    return;
+                if (accumulator.max == null || !(accumulator.getNumberMax() >= input.doubleValue())) {
+                    accumulator.setNumberMax(input);
                 }
-                Number max = Double.parseDouble(accumulator.max);
-                accumulator.max = max.doubleValue() >= input.doubleValue() ? accumulator.max : input.toString();
             } else if (parameters[0] instanceof Date) {
                 try {
                     Date input = (Date)parameters[0];
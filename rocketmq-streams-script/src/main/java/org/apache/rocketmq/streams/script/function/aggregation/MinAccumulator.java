@@ -31,6 +31,26 @@ public class MinAccumulator implements IAccumulator<String, MinAccumulator.MinAc
 
     public static class MinAccum {
         public String min;
+
+        /**
+         * min是数字时缓存解析后的值，避免每条消息都解析字符串
+         */
+        protected transient String parsedMin;
+        protected transient double parsedValue;
+
+        protected double getNumberMin() {
+            if (min != parsedMin) {
+                parsedValue = Double.parseDouble(min);
+                parsedMin = min;
+            }
+            return parsedValue;
+        }
+
+        protected void setNumberMin(Number value) {
+            min = value.toString();
+            parsedMin = min;
+            parsedValue = value.doubleValue();
+        }
     }
 
     private transient static SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
@@ -53,12 +73,9 @@ public class MinAccumulator implements IAccumulator<String, MinAccumulator.MinAc
         try {
             if (parameters[0] instanceof Number) {
                 Number input = (Number)parameters[0];
-                if (accumulator.min == null) {
-                    accumulator.min = input.toString();
-                    return;
+                if (accumulator.min == null || !(accumulator.getNumberMin() <= input.doubleValue())) {
+                    accumulator.setNumberMin(input);
                 }
-                Number min = Double.parseDouble(accumulator.min);
-                accumulator.min = min.doubleValue() <= input.doubleValue() ? accumulator.min : input.toString();
             } else if (parameters[0] instanceof Date) {
                 try {
                     Date input = (Date)parameters[0];
@@ -50,11 +50,11 @@ public class SumAccumulator implements IAccumulator<Number, SumAccumulator.SumAc
         }
         try {
             if (parameters[0] instanceof Number) {
-                Number value = (Number)parameters[0];
-                accumulator.sum = NumberUtils.stripTrailingZeros(accumulator.sum.doubleValue() + value.doubleValue());
+                double value = ((Number)parameters[0]).doubleValue();
+                accumulator.sum = NumberUtils.stripTrailingZeros(accumulator.sum.doubleValue() + value);
             } else if (parameters[0] instanceof String) {
-                Number value = Double.valueOf((String)parameters[0]);
-                accumulator.sum = NumberUtils.stripTrailingZeros(accumulator.sum.doubleValue() + value.doubleValue());
+                double value = Double.parseDouble((String)parameters[0]);
+                accumulator.sum = NumberUtils.stripTrailingZeros(accumulator.sum.doubleValue() + value);
             } else {
                 throw new RuntimeException("type error!");
             }
@@ -16,10 +16,16 @@
  */
 package org.apache.rocketmq.streams.script.function.impl.distinct;
 
-import org.apache.rocketmq.streams.common.cache.compress.impl.KeySet;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.rocketmq.streams.common.cache.dedup.DeduplicatorFactory;
+import org.apache.rocketmq.streams.common.cache.dedup.IDeduplicator;
+import org.apache.rocketmq.streams.common.component.ComponentCreator;
+import org.apache.rocketmq.streams.common.configure.ConfigureFileKey;
 import org.apache.rocketmq.streams.common.context.AbstractContext;
 import org.apache.rocketmq.streams.common.context.IMessage;
 import org.apache.rocketmq.streams.common.utils.MapKeyUtil;
+import org.apache.rocketmq.streams.common.utils.StringUtil;
 import org.apache.rocketmq.streams.script.annotation.Function;
 import org.apache.rocketmq.streams.script.annotation.FunctionMethod;
 import org.apache.rocketmq.streams.script.annotation.FunctionParamter;
@@ -27,32 +33,45 @@ import org.apache.rocketmq.streams.script.annotation.FunctionParamter;
 @Function
 public class DistinctFunction {
     protected static int MAX_SIZE = 2000000;
-    protected KeySet cache;
+    protected static long DEFAULT_EXPIRATION_TIME = 86400000;
+    protected static String DEDUPLICATOR_NAME = "distinct";
+    /**
+     * 每个任务一个去重，函数对象在任务之间共享，按任务名区分，避免不同任务的相同字段值互相去重。可以通过dipper.distinct.*配置
+     */
+    protected final ConcurrentHashMap<String, IDeduplicator> deduplicators = new ConcurrentHashMap<>();
 
     public boolean containsOrPut(String... keys) {
-        if (cache == null) {
-            synchronized (this) {
-                if (cache == null) {
-                    cache = new KeySet(MAX_SIZE);
-                }
-            }
+        return containsOrPut(null, keys);
+    }
+
+    /**
+     * @param pipelineName 任务名，为空时使用所有任务共享的去重
+     */
+    public boolean containsOrPut(String pipelineName, String... keys) {
+        String name = StringUtil.isEmpty(pipelineName) ? DEDUPLICATOR_NAME : MapKeyUtil.createKey(DEDUPLICATOR_NAME, pipelineName);
+        IDeduplicator deduplicator = deduplicators.computeIfAbsent(name, this::createDeduplicator);
+        return deduplicator.containsOrPut(keys);
+    }
+
+    protected IDeduplicator createDeduplicator(String name) {
+        Properties properties = ComponentCreator.getProperties();
+        long expirationTime = DEFAULT_EXPIRATION_TIME;
+        String value = properties.getProperty(ConfigureFileKey.DISTINCT_EXPIRATION_TIME);
+        if (StringUtil.isNotEmpty(value)) {
+            expirationTime = Long.parseLong(value);
+        }
+        double falsePositiveRate = DeduplicatorFactory.DEFAULT_FALSE_POSITIVE_RATE;
+        value = properties.getProperty(ConfigureFileKey.DISTINCT_FALSE_POSITIVE_RATE);
+        if (StringUtil.isNotEmpty(value)) {
+            falsePositiveRate = Double.parseDouble(value);
         }
-        String key = MapKeyUtil.createKey(keys);
-        boolean success = cache.contains(key);
-        if (!success) {
-            cache.add(key);
-            /**
-             * 如果超过最大值，直接归0
-             */
-            if (cache.getSize() > MAX_SIZE) {
-                synchronized (this) {
-                    if (cache.getSize() > MAX_SIZE) {
-                        cache = new KeySet(MAX_SIZE);
-                    }
-                }
-            }
+        int expectedInsertions = MAX_SIZE;
+        value = properties.getProperty(ConfigureFileKey.DISTINCT_EXPECTED_INSERTIONS);
+        if (StringUtil.isNotEmpty(value)) {
+            expectedInsertions = Integer.parseInt(value);
         }
-        return success;
+        String mode = properties.getProperty(ConfigureFileKey.DISTINCT_MODE);
+        return DeduplicatorFactory.create(mode, name, expirationTime, falsePositiveRate, expectedInsertions);
     }
 
     @FunctionMethod(value = "distinct")
@@ -65,7 +84,7 @@ public class DistinctFunction {
             i++;
         }
 
-        boolean isContains = containsOrPut(values);
+        boolean isContains = containsOrPut(message.getHeader().getPipelineName(), values);
         if (isContains) {
             context.breakExecute();
         }
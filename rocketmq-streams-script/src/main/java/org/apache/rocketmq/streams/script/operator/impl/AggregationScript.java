@@ -17,6 +17,7 @@
 package org.apache.rocketmq.streams.script.operator.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -86,6 +87,11 @@ public class AggregationScript implements IStreamOperator<IMessage, List<IMessag
 
     protected Object accumulator;
     protected List accumulators;
+
+    /**
+     * 每个线程复用的参数数组，避免每条消息创建
+     */
+    private final transient ThreadLocal<Object[]> parameterValuesLocal = new ThreadLocal<>();
     /**
      * the way to accumulate: single or multi
      */
@@ -174,8 +180,44 @@ public class AggregationScript implements IStreamOperator<IMessage, List<IMessag
         return messages;
     }
 
+    /**
+     * 用传入的累加器计算一条消息，结果写入消息的columnName字段。脚本本身不保存累加器，多个窗口值可以共用一个脚本，不需要clone
+     *
+     * @param message     消息
+     * @param accumulator 窗口值中这一列的累加器
+     */
+    public void accumulate(IMessage message, Object accumulator) {
+        if (director == null) {
+            director = getAggregationFunction(functionName);
+        }
+        if (director == null) {
+            return;
+        }
+        if (parameterNames != null) {
+            Object[] values = parameterValuesLocal.get();
+            if (values == null || values.length != parameterNames.length) {
+                values = new Object[parameterNames.length];
+                parameterValuesLocal.set(values);
+            }
+            fillValueFromMessage(parameterNames, message, values);
+            try {
+                synchronized (accumulator) {
+                    director.accumulate(accumulator, values);
+                }
+            } finally {
+                Arrays.fill(values, null);
+            }
+        }
+        message.getMessageBody().put(columnName, director.getValue(accumulator));
+    }
+
     private Object[] getValueFromMessage(String[] parameterNames, IMessage message) {
         Object[] parameterValues = new Object[parameterNames.length];
+        fillValueFromMessage(parameterNames, message, parameterValues);
+        return parameterValues;
+    }
+
+    private void fillValueFromMessage(String[] parameterNames, IMessage message, Object[] parameterValues) {
         for (int index = 0; index < parameterNames.length; index++) {
             if (isConstValue(parameterNames[index])) {
                 parameterValues[index] = parameterNames[index];
@@ -184,7 +226,6 @@ public class AggregationScript implements IStreamOperator<IMessage, List<IMessag
                     parameterNames[index]);
             }
         }
-        return parameterValues;
     }
 
     private boolean isConstValue(String parameter) {
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.script.service;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * accumulator的二进制编码，窗口状态持久化时使用。通过AccumulatorCodecRegistry注册，没有注册的accumulator按反射的json格式保存
+ *
+ * @param <ACC> accumulator的类型
+ */
+public interface IAccumulatorCodec<ACC> {
+
+    /**
+     * 编码格式的版本，格式变化时递增。写入时会保存版本，读取时传给decode，新版本的codec需要能读旧版本的数据
+     *
+     * @return 版本号，0-255
+     */
+    int getVersion();
+
+    /**
+     * 把accumulator写入输出
+     *
+     * @param accumulator
+     * @param out
+     * @throws IOException
+     */
+    void encode(ACC accumulator, DataOutput out) throws IOException;
+
+    /**
+     * 从输入还原accumulator
+     *
+     * @param version 写入时的版本
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    ACC decode(int version, DataInput in) throws IOException;
+}
@@ -17,6 +17,8 @@
 package org.apache.rocketmq.streams.script.function.aggregation;
 
 import com.alibaba.fastjson.JSONObject;
+import org.apache.rocketmq.streams.common.context.IMessage;
+import org.apache.rocketmq.streams.common.context.Message;
 import org.apache.rocketmq.streams.common.utils.NumberUtils;
 import org.apache.rocketmq.streams.common.utils.ReflectUtil;
 import org.apache.rocketmq.streams.script.function.aggregation.AverageAccumulator.AverageAccum;
@@ -26,6 +28,7 @@ import org.apache.rocketmq.streams.script.function.aggregation.DistinctAccumulat
 import org.apache.rocketmq.streams.script.function.aggregation.MaxAccumulator.MaxAccum;
 import org.apache.rocketmq.streams.script.function.aggregation.MinAccumulator.MinAccum;
 import org.apache.rocketmq.streams.script.function.aggregation.SumAccumulator.SumAccum;
+import org.apache.rocketmq.streams.script.operator.impl.AggregationScript;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -231,4 +234,36 @@ public class AccumulatorTest {
         Assert.assertEquals(3, distinctAccumulator.getValue(reflectDistinctAccum).size());
     }
 
+    @Test
+    public void testAggregationScriptAccumulate() {
+        AggregationScript script = new AggregationScript("max_value", "max", new String[] {"value"});
+        MaxAccumulator maxAccumulator = new MaxAccumulator();
+        MaxAccum maxAccum = maxAccumulator.createAccumulator();
+        for (int i : new int[] {3, 12, 7}) {
+            JSONObject msg = new JSONObject();
+            msg.put("value", i);
+            IMessage message = new Message(msg);
+            script.accumulate(message, maxAccum);
+            Assert.assertEquals(maxAccum.max, message.getMessageBody().get("max_value"));
+        }
+        Assert.assertEquals("12", maxAccum.max);
+
+        //从存储恢复的累加器没有缓存的数字，重新解析
+        MaxAccum reflectMaxAccum = maxAccumulator.createAccumulator();
+        reflectMaxAccum.max = maxAccum.max;
+        maxAccumulator.accumulate(reflectMaxAccum, 11);
+        Assert.assertEquals("12", reflectMaxAccum.max);
+        maxAccumulator.accumulate(reflectMaxAccum, 12.5);
+        Assert.assertEquals("12.5", reflectMaxAccum.max);
+
+        script = new AggregationScript("sum_value", "sum", new String[] {"value"});
+        SumAccum sumAccum = new SumAccumulator().createAccumulator();
+        for (String value : new String[] {"1", "2.5", "0.5"}) {
+            JSONObject msg = new JSONObject();
+            msg.put("value", value);
+            script.accumulate(new Message(msg), sumAccum);
+        }
+        Assert.assertEquals(4, sumAccum.sum);
+    }
+
 }
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.script.function.aggregation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import org.apache.rocketmq.streams.common.utils.HashUtil;
+import org.apache.rocketmq.streams.common.utils.MapKeyUtil;
+import org.apache.rocketmq.streams.common.utils.StringUtil;
+import org.apache.rocketmq.streams.script.function.aggregation.DistinctAccumulator2.DistinctAccum2;
+import org.apache.rocketmq.streams.state.kv.rocksdb.RocksDBOperator;
+import org.apache.rocketmq.streams.state.kv.rocksdb.RocksdbState;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DistinctAccumulator2Test {
+
+    @Test
+    public void testCountDistinct() throws IOException {
+        DistinctAccumulator2 distinctAccumulator = new DistinctAccumulator2();
+        CountAccumulator countAccumulator = new CountAccumulator();
+        String windowInstanceId = "window_" + System.nanoTime();
+        DistinctAccum2 accum = distinctAccumulator.createAccumulator();
+        for (int i = 0; i < 5000; i++) {
+            distinctAccumulator.accumulate(accum, "value_" + (i % 3000), windowInstanceId, "group");
+        }
+        CountAccumulator.CountAccum countAccum = countAccumulator.createAccumulator();
+        countAccumulator.accumulate(countAccum, distinctAccumulator.getValue(accum));
+        Assert.assertEquals(3000, countAccumulator.getValue(countAccum).intValue());
+
+        //从存储恢复的累加器不信任bloom，继续去重
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AccumulatorCodecRegistry.write(accum, new DataOutputStream(bytes));
+        DistinctAccum2 restored = (DistinctAccum2) AccumulatorCodecRegistry.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        Assert.assertEquals(3000, restored.count);
+        distinctAccumulator.accumulate(restored, "value_1", windowInstanceId, "group");
+        distinctAccumulator.accumulate(restored, "value_new", windowInstanceId, "group");
+        Assert.assertEquals(3001, restored.count);
+
+        //不同分组互不影响
+        DistinctAccum2 other = distinctAccumulator.createAccumulator();
+        distinctAccumulator.accumulate(other, "value_1", windowInstanceId, "other_group");
+        Assert.assertEquals(1, other.count);
+    }
+
+    @Test
+    public void testLegacyState() throws IOException {
+        //旧版本的累加器只有窗口实例和分组的md5，值按md5存储在kv state中
+        String windowInstanceId = "legacy_window_" + System.nanoTime();
+        String groupByMd5 = StringUtil.createMD5Str("group");
+        RocksdbState state = new RocksdbState();
+        for (int i = 0; i < 10; i++) {
+            String value = "value_" + i;
+            state.put(MapKeyUtil.createKey(DistinctAccumulator2.DISTINCT_STATE_PREFIX, windowInstanceId, groupByMd5, StringUtil.createMD5Str(value)), value);
+        }
+        DistinctAccum2 legacy = new DistinctAccum2();
+        legacy.windowInstanceId = windowInstanceId;
+        legacy.groupByMd5 = groupByMd5;
+        DistinctAccum2 restored = (DistinctAccum2) AccumulatorCodecRegistry.fromLegacyJson(AccumulatorCodecRegistry.toLegacyJson(legacy));
+
+        CountAccumulator countAccumulator = new CountAccumulator();
+        CountAccumulator.CountAccum countAccum = countAccumulator.createAccumulator();
+        countAccumulator.accumulate(countAccum, restored);
+        Assert.assertEquals(10, countAccumulator.getValue(countAccum).intValue());
+
+        DistinctAccumulator2 distinctAccumulator = new DistinctAccumulator2();
+        distinctAccumulator.accumulate(restored, "value_1", windowInstanceId, "group");
+        distinctAccumulator.accumulate(restored, "value_new", windowInstanceId, "group");
+        Assert.assertEquals(11, restored.count);
+        Assert.assertFalse(state.entryIterator(MapKeyUtil.createKey(DistinctAccumulator2.DISTINCT_STATE_PREFIX, windowInstanceId, groupByMd5)).hasNext());
+    }
+
+    @Test
+    public void testBloomRotation() {
+        DistinctValueStore store = new DistinctValueStore(new RocksDBOperator(), 640, 10);
+        String prefix = "rotation_" + System.nanoTime();
+        int generation = store.getBloomGeneration();
+        int count = 0;
+        for (int i = 0; i < 500; i++) {
+            if (store.addIfAbsent(createKey(prefix, "value_" + (i % 200)), generation)) {
+                count++;
+            }
+        }
+        //bloom写满后换代，旧的代数读rocksdb，结果仍然精确
+        Assert.assertTrue(store.getBloomGeneration() > generation);
+        Assert.assertEquals(200, count);
+        Assert.assertTrue(store.getBloomSkipCount() > 0);
+        Assert.assertTrue(store.getFlushCount() > 0);
+    }
+
+    @Test
+    public void testBloomSkipRead() {
+        DistinctValueStore store = new DistinctValueStore(new RocksDBOperator(), 1 << 20, 1000);
+        String prefix = "skip_" + System.nanoTime();
+        int generation = store.getBloomGeneration();
+        int size = 50000;
+        for (int i = 0; i < size; i++) {
+            Assert.assertTrue(store.addIfAbsent(createKey(prefix, "value_" + i), generation));
+        }
+        for (int i = 0; i < size; i++) {
+            Assert.assertFalse(store.addIfAbsent(createKey(prefix, "value_" + i), generation));
+        }
+        //新值基本都不需要读rocksdb
+        Assert.assertTrue(store.getBloomSkipCount() > size * 0.95);
+    }
+
+    private byte[] createKey(String prefix, String value) {
+        byte[] key = new byte[DistinctValueStore.KEY_LENGTH];
+        byte[] hash = new byte[16];
+        HashUtil.murmur3_128(prefix, 0, hash);
+        System.arraycopy(hash, 0, key, 0, 16);
+        HashUtil.murmur3_128(value, 0, hash);
+        System.arraycopy(hash, 0, key, 16, 16);
+        return key;
+    }
+}
@@ -20,27 +20,73 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
 
 /**
- * lru && o(1)
+ * 并发的W-TinyLFU缓存，记录每个值的命中次数
+ * <p>
+ * 按hash分成多个分片，每个分片一把锁。分片内分成window（1%）和main，main又分成probation和protected（80%），都是O(1)的双向链表。
+ * 新值先进入window，被挤出window时和probation的队尾比较访问频率，频率高的留下。频率用4位的count-min sketch统计，定期减半。
+ * 读不加锁，访问记录只在拿到分片锁时更新，拿不到时丢弃。容量可以按条数，也可以按weigher计算的权重
  *
  * @author arthur.liang
  */
 public final class LruState<T> {
 
-    private int max_size;
+    /**
+     * 每个分片至少的容量，容量小时只有一个分片，淘汰顺序是精确的
+     */
+    private static final int MIN_SHARD_CAPACITY = 256;
+
+    private static final int MAX_SHARD_COUNT = 64;
 
     private final T FLAG_VALUE;
 
-    private ConcurrentHashMap<T, Element<T>> elementMap;
+    private final long maxWeight;
+
+    private final ToIntFunction<T> weigher;
 
-    private LinkedList<T> elementList;
+    private final ConcurrentHashMap<T, Node<T>> elementMap;
+
+    private final Shard<T>[] shards;
+
+    private final int shardMask;
+
+    /**
+     * metric info
+     */
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
 
     public LruState(int the_size, T flag) {
-        max_size = the_size;
-        FLAG_VALUE = flag;
-        elementMap = new ConcurrentHashMap<>(max_size);
-        elementList = new LinkedList<>(FLAG_VALUE);
+        this(the_size, flag, null);
+    }
+
+    /**
+     * @param maxWeight 所有值的权重之和的上限，weigher为空时是条数
+     * @param flag      不能加入的值
+     * @param weigher   计算值的权重，为空时每个值的权重是1
+     */
+    @SuppressWarnings("unchecked")
+    public LruState(long maxWeight, T flag, ToIntFunction<T> weigher) {
+        this.maxWeight = maxWeight;
+        this.FLAG_VALUE = flag;
+        this.weigher = weigher;
+        int shardCount = 1;
+        int maxShardCount = Math.min(MAX_SHARD_COUNT, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2));
+        while (shardCount < maxShardCount && maxWeight / (shardCount * 2L) >= MIN_SHARD_CAPACITY) {
+            shardCount <<= 1;
+        }
+        this.shardMask = shardCount - 1;
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            long shardWeight = maxWeight / shardCount + (i < maxWeight % shardCount ? 1 : 0);
+            shards[i] = new Shard<>(this, shardWeight);
+        }
+        this.elementMap = new ConcurrentHashMap<>((int) Math.min(weigher == null ? maxWeight : 16, 1 << 20));
     }
 
     /**
@@ -49,22 +95,28 @@ public final class LruState<T> {
      * @param value
      * @return
      */
-    public synchronized boolean add(T value) {
+    public boolean add(T value) {
         if (FLAG_VALUE.equals(value)) {
             return false;
         }
-        Element<T> newElement = new Element<T>(value);
-        if (elementMap.containsKey(value)) {
-            Element<T> oldElement = elementMap.get(value);
-            elementList.median = oldElement.next;
-            elementList.removeElement(oldElement);
-            newElement.increase(oldElement.getCounter());
-        } else if (elementMap.size() >= max_size) {
-            Element<T> deletedElement = elementList.removeElement();
-            elementMap.remove(deletedElement.getValue());
+        int hash = spread(value.hashCode());
+        Shard<T> shard = shards[hash & shardMask];
+        shard.lock.lock();
+        try {
+            Node<T> node = elementMap.get(value);
+            if (node != null) {
+                node.counter++;
+                shard.sketch.increment(hash);
+                shard.onAccess(node);
+                return true;
+            }
+            node = new Node<>(value, hash, weigher == null ? 1 : Math.max(0, weigher.applyAsInt(value)));
+            elementMap.put(value, node);
+            shard.sketch.increment(hash);
+            shard.onAdd(node);
+        } finally {
+            shard.lock.unlock();
         }
-        elementList.addElement(newElement);
-        elementMap.put(value, newElement);
         return true;
     }
 
@@ -74,62 +126,68 @@ public final class LruState<T> {
      * @param value
      * @return
      */
-    public synchronized boolean remove(T value) {
-        if (!elementMap.containsKey(value)) {
+    public boolean remove(T value) {
+        if (value == null) {
             return false;
         }
-        Element<T> theElement = elementMap.get(value);
-        elementList.removeElement(theElement);
-        elementMap.remove(value);
-        return true;
+        Shard<T> shard = shards[spread(value.hashCode()) & shardMask];
+        shard.lock.lock();
+        try {
+            Node<T> node = elementMap.remove(value);
+            if (node == null) {
+                return false;
+            }
+            shard.unlink(node);
+            return true;
+        } finally {
+            shard.lock.unlock();
+        }
     }
 
     /**
-     * search
+     * search，不加锁
      *
      * @param value
      * @return if contains return the hit counts else return 0
      */
-    public synchronized int search(T value) {
-        if (elementMap.containsKey(value)) {
-            return elementMap.get(value).getCounter();
-        } else {
+    public int search(T value) {
+        Node<T> node = value == null ? null : elementMap.get(value);
+        if (node == null) {
+            missCount.increment();
             return 0;
         }
+        hitCount.increment();
+        Shard<T> shard = shards[node.hash & shardMask];
+        if (shard.lock.tryLock()) {
+            try {
+                if (node.queue != Node.REMOVED) {
+                    shard.sketch.increment(node.hash);
+                    shard.onAccess(node);
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return node.counter;
     }
 
     /**
-     * iterator
+     * iterator，按命中次数从高到低
      *
      * @return
      */
-    public synchronized List<T> getAll() {
-        ArrayList<T> iteratorList = new ArrayList<T>();
-        Element<T> pointElement = elementList.head.next;
-        while (pointElement.next != null) {
-            iteratorList.add(pointElement.getValue());
-            pointElement = pointElement.next;
+    public List<T> getAll() {
+        List<Node<T>> nodes = new ArrayList<>(elementMap.values());
+        nodes.sort((o1, o2) -> Integer.compare(o2.counter, o1.counter));
+        List<T> iteratorList = new ArrayList<>(nodes.size());
+        for (Node<T> node : nodes) {
+            iteratorList.add(node.value);
         }
         return iteratorList;
     }
 
-    public synchronized Iterator<T> iterator() {
-        return new LruIterator();
-    }
-
-    public class LruIterator implements Iterator<T> {
-
-        private Element<T> current = elementList.head.next;
-
-        @Override public boolean hasNext() {
-            return current != null && !current.equals(elementList.tail);
-        }
-
-        @Override public T next() {
-            T value = current.getValue();
-            current = current.next;
-            return value;
-        }
+    public Iterator<T> iterator() {
+        return getAll().iterator();
     }
 
     /**
@@ -137,128 +195,291 @@ public final class LruState<T> {
      *
      * @return
      */
-    public synchronized int count() {
+    public int count() {
         return elementMap.size();
     }
 
-}
-
-class Element<T> {
-
-    private T value;
+    public long getMaxWeight() {
+        return maxWeight;
+    }
 
-    private volatile int counter;
+    /**
+     * @return 当前所有值的权重之和
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (Shard<T> shard : shards) {
+            weight += shard.getWeight();
+        }
+        return weight;
+    }
 
-    Element<T> next;
+    public long getHitCount() {
+        return hitCount.sum();
+    }
 
-    Element<T> pre;
+    public long getMissCount() {
+        return missCount.sum();
+    }
 
-    public Element(T element) {
-        this.value = element;
-        counter = 1;
+    public long getEvictionCount() {
+        return evictionCount.sum();
     }
 
-    public T getValue() {
-        return this.value;
+    public double getHitRate() {
+        long hit = hitCount.sum();
+        long total = hit + missCount.sum();
+        return total == 0 ? 1.0 : (double) hit / total;
     }
 
-    public void increase(int number) {
-        counter += number;
+    private void onEvict(Node<T> node) {
+        elementMap.remove(node.value, node);
+        evictionCount.increment();
     }
 
-    public int getCounter() {
-        return counter;
+    private static int spread(int hashCode) {
+        int h = hashCode * 0x9E3779B9;
+        return h ^ (h >>> 16);
     }
 
-}
+    private static final class Node<T> {
+
+        static final int WINDOW = 0;
+        static final int PROBATION = 1;
+        static final int PROTECTED = 2;
+        static final int REMOVED = 3;
+
+        final T value;
+
+        final int hash;
 
-class LinkedList<T> {
+        final int weight;
 
-    volatile int current_size = 0;
+        volatile int counter = 1;
 
-    Element<T> head;
+        int queue = WINDOW;
 
-    Element<T> tail;
+        Node<T> pre;
 
-    Element<T> median;
+        Node<T> next;
 
-    public LinkedList(T flag) {
-        head = new Element<T>(flag);
-        tail = new Element<T>(flag);
-        head.pre = null;
-        tail.next = null;
+        Node(T value, int hash, int weight) {
+            this.value = value;
+            this.hash = hash;
+            this.weight = weight;
+        }
     }
 
     /**
-     * add one element
-     *
-     * @param theOne
-     * @return isSuccess
+     * 双向链表，头部是最近访问的
      */
-    public boolean addElement(Element<T> theOne) {
-        if (theOne == null) {
-            return false;
+    private static final class NodeList<T> {
+
+        Node<T> head;
+
+        Node<T> tail;
+
+        long weight;
+
+        void addFirst(Node<T> node) {
+            node.pre = null;
+            node.next = head;
+            if (head == null) {
+                tail = node;
+            } else {
+                head.pre = node;
+            }
+            head = node;
+            weight += node.weight;
         }
-        if (current_size == 0) {
-            head.next = theOne;
-            theOne.pre = head;
-            theOne.next = tail;
-            tail.pre = theOne;
-        } else {
-            Element<T> current;
-            if (median != null && theOne.getCounter() > median.getCounter()) {
-                current = median.pre;
+
+        void remove(Node<T> node) {
+            if (node.pre == null) {
+                head = node.next;
             } else {
-                current = tail.pre;
+                node.pre.next = node.next;
             }
-            while (current != null && current != head) {
-                if (theOne.getCounter() <= current.getCounter()) {
-                    break;
-                } else {
-                    current = current.pre;
-                }
+            if (node.next == null) {
+                tail = node.pre;
+            } else {
+                node.next.pre = node.pre;
+            }
+            node.pre = node.next = null;
+            weight -= node.weight;
+        }
+
+        void moveToFirst(Node<T> node) {
+            if (head != node) {
+                remove(node);
+                addFirst(node);
             }
-            current.next.pre = theOne;
-            theOne.next = current.next;
-            current.next = theOne;
-            theOne.pre = current;
         }
-        current_size++;
-        median = theOne;
-        return true;
     }
 
-    /**
-     * remove the element at the end of list
-     *
-     * @return isSuccess
-     */
-    public Element<T> removeElement() {
-        Element<T> theElement = tail.pre;
-        if (theElement == null || theElement == head) {
-            return null;
+    private static final class Shard<T> {
+
+        final ReentrantLock lock = new ReentrantLock();
+
+        final LruState<T> owner;
+
+        final long maxWeight;
+
+        final long windowMaxWeight;
+
+        final long protectedMaxWeight;
+
+        final NodeList<T> window = new NodeList<>();
+
+        final NodeList<T> probation = new NodeList<>();
+
+        final NodeList<T> protectedList = new NodeList<>();
+
+        final FrequencySketch sketch;
+
+        Shard(LruState<T> owner, long maxWeight) {
+            this.owner = owner;
+            this.maxWeight = maxWeight;
+            this.windowMaxWeight = Math.max(1, maxWeight / 100);
+            this.protectedMaxWeight = (maxWeight - windowMaxWeight) * 4 / 5;
+            this.sketch = new FrequencySketch(owner.weigher == null ? maxWeight : Math.min(maxWeight, 1 << 16));
+        }
+
+        long getWeight() {
+            lock.lock();
+            try {
+                return window.weight + probation.weight + protectedList.weight;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void onAdd(Node<T> node) {
+            node.queue = Node.WINDOW;
+            window.addFirst(node);
+            evict();
+        }
+
+        void onAccess(Node<T> node) {
+            if (node.queue == Node.WINDOW) {
+                window.moveToFirst(node);
+            } else if (node.queue == Node.PROBATION) {
+                probation.remove(node);
+                node.queue = Node.PROTECTED;
+                protectedList.addFirst(node);
+                while (protectedList.weight > protectedMaxWeight && protectedList.tail != null) {
+                    Node<T> demoted = protectedList.tail;
+                    protectedList.remove(demoted);
+                    demoted.queue = Node.PROBATION;
+                    probation.addFirst(demoted);
+                }
+            } else if (node.queue == Node.PROTECTED) {
+                protectedList.moveToFirst(node);
+            }
+        }
+
+        void unlink(Node<T> node) {
+            if (node.queue == Node.WINDOW) {
+                window.remove(node);
+            } else if (node.queue == Node.PROBATION) {
+                probation.remove(node);
+            } else if (node.queue == Node.PROTECTED) {
+                protectedList.remove(node);
+            }
+            node.queue = Node.REMOVED;
+        }
+
+        /**
+         * window超出时把队尾移到main，main超出时候选者和probation的队尾比较频率，淘汰频率低的
+         */
+        void evict() {
+            long mainMaxWeight = maxWeight - windowMaxWeight;
+            while (window.weight > windowMaxWeight && window.tail != null) {
+                Node<T> candidate = window.tail;
+                window.remove(candidate);
+                candidate.queue = Node.PROBATION;
+                probation.addFirst(candidate);
+                while (probation.weight + protectedList.weight > mainMaxWeight && candidate.queue == Node.PROBATION) {
+                    Node<T> victim = probation.tail != candidate ? probation.tail : protectedList.tail;
+                    if (victim == null || sketch.frequency(candidate.hash) <= sketch.frequency(victim.hash)) {
+                        victim = candidate;
+                    }
+                    unlink(victim);
+                    owner.onEvict(victim);
+                }
+            }
+            //单个值超过window的权重时，可能只剩window中的值
+            while (window.weight + probation.weight + protectedList.weight > maxWeight && window.tail != null) {
+                Node<T> victim = window.tail;
+                unlink(victim);
+                owner.onEvict(victim);
+            }
         }
-        removeElement(theElement);
-        return theElement;
     }
 
     /**
-     * remove the special element
-     *
-     * @param oneElement
-     * @return
+     * 4位的count-min sketch，每个值对应4个计数器，写入次数达到容量的10倍时所有计数减半
      */
-    public boolean removeElement(Element<T> oneElement) {
-        if (current_size == 0) {
-            return false;
+    private static final class FrequencySketch {
+
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+
+        private final int tableMask;
+
+        private final int sampleSize;
+
+        private int size;
+
+        FrequencySketch(long maximum) {
+            int capacity = (int) Math.max(8, Math.min(maximum, 1 << 26));
+            int length = Integer.highestOneBit(capacity - 1) << 1;
+            this.table = new long[length];
+            this.tableMask = length - 1;
+            this.sampleSize = 10 * capacity;
         }
-        oneElement.next.pre = oneElement.pre;
-        oneElement.pre.next = oneElement.next;
-        if (median != null && median.equals(oneElement)) {
-            median = null;
+
+        int frequency(int hash) {
+            int start = (hash & 3) << 2;
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        void increment(int hash) {
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int offset = (start + i) << 2;
+                long mask = 0xfL << offset;
+                if ((table[index] & mask) != mask) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++size >= sampleSize) {
+                reset();
+            }
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return ((int) h) & tableMask;
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            size = size >>> 1;
         }
-        oneElement.next = oneElement.pre = null;
-        current_size--;
-        return true;
     }
-}
\ No newline at end of file
+}
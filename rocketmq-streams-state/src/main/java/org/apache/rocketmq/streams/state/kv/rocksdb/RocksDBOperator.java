@@ -17,113 +17,434 @@
 package org.apache.rocketmq.streams.state.kv.rocksdb;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.rocketmq.streams.common.component.ComponentCreator;
+import org.apache.rocketmq.streams.common.configure.ConfigureFileKey;
 import org.apache.rocketmq.streams.common.utils.FileUtil;
+import org.apache.rocketmq.streams.common.utils.HashUtil;
 import org.apache.rocketmq.streams.common.utils.RuntimeUtil;
 import org.apache.rocketmq.streams.common.utils.StringUtil;
 import org.rocksdb.BlockBasedTableConfig;
 import org.rocksdb.BloomFilter;
-import org.rocksdb.Cache;
-import org.rocksdb.CompactionStyle;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ColumnFamilyOptions;
 import org.rocksdb.CompressionType;
-import org.rocksdb.Filter;
+import org.rocksdb.DBOptions;
 import org.rocksdb.LRUCache;
 import org.rocksdb.Options;
-import org.rocksdb.RateLimiter;
 import org.rocksdb.ReadOptions;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
-import org.rocksdb.Statistics;
 import org.rocksdb.TtlDB;
+import org.rocksdb.WriteBufferManager;
 import org.rocksdb.WriteOptions;
 import org.rocksdb.util.SizeUnit;
 
+/**
+ * rocksdb实例，每个目录一个实例，每种状态一个列族
+ * <p>
+ * 默认构造函数使用进程内共享的实例，createJobOperator为每个任务创建单独的实例，任务之间的compaction和write stall互不影响，
+ * 任务的状态可以通过drop整体删除。同一个目录的实例按operator计数引用，最后一个operator关闭时才关闭实例。
+ * 所有实例共享一个LRU block cache，memtable通过WriteBufferManager计入同一个cache，内存总量由block cache大小控制。
+ * 每个列族按key的前缀（最长prefixLength个字节）建bloom filter，按前缀扫描时可以跳过不包含该前缀的文件。
+ * 列族的过期时间记录在目录下的COLUMN_FAMILY_TTL_FILE中，重新打开实例时按创建时的过期时间打开。
+ * 状态可以从checkpoint topic恢复，写入默认关闭wal
+ */
 public class RocksDBOperator {
 
     protected static String DB_PATH = "/tmp/rocksdb";
 
     protected static String UTF8 = "UTF8";
 
-    protected static AtomicBoolean hasCreate = new AtomicBoolean(false);
+    /**
+     * kv state使用的列族
+     */
+    public static final String KV_STATE_COLUMN_FAMILY = "kvState";
+
+    protected static final long DEFAULT_BLOCK_CACHE_SIZE = 256 * SizeUnit.MB;
+
+    protected static final long DEFAULT_WRITE_BUFFER_MANAGER_SIZE = 128 * SizeUnit.MB;
+
+    protected static final long DEFAULT_WRITE_BUFFER_SIZE = 16 * SizeUnit.MB;
+
+    protected static final int DEFAULT_PREFIX_LENGTH = 32;
+
+    protected static final int DEFAULT_TTL_SECOND = 10800;
+
+    /**
+     * 记录列族过期时间的文件，key是列族名，value是过期时间，单位秒
+     */
+    protected static final String COLUMN_FAMILY_TTL_FILE = "column_family_ttl.properties";
+
+    /**
+     * 目录到实例的映射
+     */
+    protected static final ConcurrentHashMap<String, DBInstance> instances = new ConcurrentHashMap<>();
+
+    protected static WriteOptions writeOptions;
+
+    protected static DBOptions dbOptions;
+
+    protected static ColumnFamilyOptions columnFamilyOptions;
+
+    protected static int prefixLength = DEFAULT_PREFIX_LENGTH;
 
-    protected static RocksDB rocksDB;
+    protected static int ttlSecond = DEFAULT_TTL_SECOND;
 
-    protected WriteOptions writeOptions = new WriteOptions();
+    protected final DBInstance dbInstance;
+
+    /**
+     * 这个operator持有的引用是否已经释放
+     */
+    protected final AtomicBoolean released = new AtomicBoolean(false);
 
     static {
         RocksDB.loadLibrary();
     }
 
     public RocksDBOperator() {
-        this(FileUtil.concatFilePath( DB_PATH + File.separator + RuntimeUtil.getDipperInstanceId(), "rocksdb"));
+        this(FileUtil.concatFilePath(DB_PATH + File.separator + RuntimeUtil.getDipperInstanceId(), "rocksdb"));
     }
 
     public RocksDBOperator(String rocksdbFilePath) {
-        if (hasCreate.compareAndSet(false, true)) {
-            synchronized (RocksDBOperator.class) {
-                if (RocksDBOperator.rocksDB == null) {
-                    synchronized (RocksDBOperator.class) {
-                        if (RocksDBOperator.rocksDB == null) {
-                            try (final Options options = new Options().setCreateIfMissing(true)) {
-
-                                try {
-                                    File dir = new File(rocksdbFilePath);
-                                    if (dir.exists()) {
-                                        dir.delete();
-                                    }
-                                    dir.mkdirs();
- //                                   final Filter bloomFilter = new BloomFilter(10);
-//                                    final ReadOptions readOptions = new ReadOptions().setFillCache(false);
-//                                    final Statistics stats = new Statistics();
-//                                    final RateLimiter rateLimiter = new RateLimiter(10000000, 10000, 10);
-//
-//                                    options.setCreateIfMissing(true)
-//                                      //  .setStatistics(stats)
-//                                        .setWriteBufferSize(64*1024 * SizeUnit.KB)
-//                                        .setMaxWriteBufferNumber(3);
-//                                        .setMaxBackgroundJobs(10)
-//                                        .setCompressionType(CompressionType.SNAPPY_COMPRESSION)
-//                                        .setCompactionStyle(CompactionStyle.UNIVERSAL);
-//
-//                                  final BlockBasedTableConfig table_options = new BlockBasedTableConfig();
-//                                   Cache cache = new LRUCache(10 * 1024, 6);
-//                                    table_options.setBlockCache(cache)
-//                                        .setFilterPolicy(bloomFilter);
-//                                        .setBlockSizeDeviation(5)
-//                                        .setBlockRestartInterval(10)
-//                                        .setCacheIndexAndFilterBlocks(true);
-//                                    //    .setBlockCacheCompressed(new LRUCache(64 * 1000, 10));
-//                                   options.setTableFormatConfig(table_options);
-//
-//                                    options.setRateLimiter(rateLimiter);
-                                    final TtlDB db = TtlDB.open(options, rocksdbFilePath, 10800, false);
-                                    RocksDBOperator.rocksDB = db;
-                                    writeOptions.setSync(false);
-                                } catch (RocksDBException e) {
-                                    throw new RuntimeException("create rocksdb error " + e.getMessage());
-                                }
-                            }
-                        }
-                    }
+        synchronized (RocksDBOperator.class) {
+            DBInstance instance = instances.get(rocksdbFilePath);
+            if (instance == null) {
+                try {
+                    instance = open(rocksdbFilePath);
+                } catch (RocksDBException e) {
+                    throw new RuntimeException("create rocksdb error " + e.getMessage(), e);
                 }
+                instances.put(rocksdbFilePath, instance);
             }
+            instance.refCount++;
+            this.dbInstance = instance;
+        }
+    }
+
+    /**
+     * 为任务创建单独的rocksdb实例，目录在dipper.rocksdb.dir下，同一个任务多次调用共享同一个实例，每次调用持有一个引用，使用完需要close
+     *
+     * @param jobName 任务名，作为实例的目录名
+     * @return
+     */
+    public static RocksDBOperator createJobOperator(String jobName) {
+        return new RocksDBOperator(getJobPath(jobName));
+    }
+
+    /**
+     * 任务名中的特殊字符替换成下划线，再拼接原任务名hash的前8位，避免a.b和a_b这样替换后相同的任务共用一个目录
+     */
+    public static String getJobPath(String jobName) {
+        String rootDir = ComponentCreator.getProperties().getProperty(ConfigureFileKey.ROCKSDB_DIR);
+        if (StringUtil.isEmpty(rootDir)) {
+            rootDir = DB_PATH + File.separator + RuntimeUtil.getDipperInstanceId();
         }
+        byte[] hash = HashUtil.murmur3_128(jobName);
+        String suffix = String.format("%02x%02x%02x%02x", hash[0], hash[1], hash[2], hash[3]);
+        return FileUtil.concatFilePath(rootDir, jobName.replaceAll("[^a-zA-Z0-9_\\-]", "_") + "_" + suffix);
+    }
+
+    private static DBInstance open(String rocksdbFilePath) throws RocksDBException {
+        initOptions();
+        File dir = new File(rocksdbFilePath);
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+
+        //已经存在的列族必须在打开时全部指定
+        List<byte[]> familyNames;
+        try (Options options = new Options()) {
+            familyNames = RocksDB.listColumnFamilies(options, rocksdbFilePath);
+        }
+        if (familyNames.isEmpty()) {
+            familyNames = new ArrayList<>();
+            familyNames.add(RocksDB.DEFAULT_COLUMN_FAMILY);
+        }
+        Properties columnTtls = loadColumnTtls(rocksdbFilePath);
+        List<ColumnFamilyDescriptor> descriptors = new ArrayList<>();
+        List<Integer> ttls = new ArrayList<>();
+        for (byte[] familyName : familyNames) {
+            descriptors.add(new ColumnFamilyDescriptor(familyName, columnFamilyOptions));
+            String columnTtl = columnTtls.getProperty(new String(familyName, StandardCharsets.UTF_8));
+            ttls.add(StringUtil.isEmpty(columnTtl) ? ttlSecond : Integer.valueOf(columnTtl));
+        }
+        List<ColumnFamilyHandle> handles = new ArrayList<>();
+        TtlDB db = TtlDB.open(dbOptions, rocksdbFilePath, descriptors, handles, ttls, false);
+        DBInstance instance = new DBInstance(rocksdbFilePath, db, columnTtls);
+        for (int i = 0; i < familyNames.size(); i++) {
+            if (Arrays.equals(familyNames.get(i), RocksDB.DEFAULT_COLUMN_FAMILY)) {
+                instance.defaultColumnFamily = handles.get(i);
+                continue;
+            }
+            instance.columnFamilies.put(new String(familyNames.get(i), StandardCharsets.UTF_8), handles.get(i));
+        }
+        return instance;
+    }
+
+    private static Properties loadColumnTtls(String rocksdbFilePath) {
+        Properties columnTtls = new Properties();
+        File file = new File(rocksdbFilePath, COLUMN_FAMILY_TTL_FILE);
+        if (!file.exists()) {
+            return columnTtls;
+        }
+        try (InputStream inputStream = new FileInputStream(file)) {
+            columnTtls.load(inputStream);
+        } catch (IOException e) {
+            throw new RuntimeException("load rocksdb column family ttl error " + file.getAbsolutePath(), e);
+        }
+        return columnTtls;
+    }
+
+    /**
+     * 先写临时文件再替换，避免进程退出时留下不完整的文件
+     */
+    private static void saveColumnTtls(String rocksdbFilePath, Properties columnTtls) {
+        File file = new File(rocksdbFilePath, COLUMN_FAMILY_TTL_FILE);
+        File tmpFile = new File(rocksdbFilePath, COLUMN_FAMILY_TTL_FILE + ".tmp");
+        try {
+            try (OutputStream outputStream = new FileOutputStream(tmpFile)) {
+                columnTtls.store(outputStream, null);
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("save rocksdb column family ttl error " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * 所有实例共享的配置，第一次打开实例时创建
+     */
+    private static void initOptions() {
+        if (dbOptions != null) {
+            return;
+        }
+        prefixLength = getIntProperty(ConfigureFileKey.ROCKSDB_PREFIX_LENGTH, DEFAULT_PREFIX_LENGTH);
+        ttlSecond = getIntProperty(ConfigureFileKey.ROCKSDB_TTL_SECOND, DEFAULT_TTL_SECOND);
+        long blockCacheSize = getLongProperty(ConfigureFileKey.ROCKSDB_BLOCK_CACHE_SIZE, DEFAULT_BLOCK_CACHE_SIZE);
+        long writeBufferManagerSize = getLongProperty(ConfigureFileKey.ROCKSDB_WRITE_BUFFER_MANAGER_SIZE, DEFAULT_WRITE_BUFFER_MANAGER_SIZE);
+        long writeBufferSize = getLongProperty(ConfigureFileKey.ROCKSDB_WRITE_BUFFER_SIZE, DEFAULT_WRITE_BUFFER_SIZE);
+
+        LRUCache blockCache = new LRUCache(blockCacheSize);
+        WriteBufferManager writeBufferManager = new WriteBufferManager(writeBufferManagerSize, blockCache);
+
+        BlockBasedTableConfig tableConfig = new BlockBasedTableConfig()
+            .setBlockCache(blockCache)
+            .setFilterPolicy(new BloomFilter(10, false))
+            .setWholeKeyFiltering(true)
+            .setCacheIndexAndFilterBlocks(true)
+            .setPinL0FilterAndIndexBlocksInCache(true);
+        columnFamilyOptions = new ColumnFamilyOptions()
+            .useCappedPrefixExtractor(prefixLength)
+            .setMemtablePrefixBloomSizeRatio(0.1)
+            .setWriteBufferSize(writeBufferSize)
+            .setMaxWriteBufferNumber(3)
+            .setCompressionType(CompressionType.LZ4_COMPRESSION)
+            .setTableFormatConfig(tableConfig);
+
+        writeOptions = new WriteOptions();
+        writeOptions.setSync(false);
+        String disableWal = ComponentCreator.getProperties().getProperty(ConfigureFileKey.ROCKSDB_DISABLE_WAL);
+        writeOptions.setDisableWAL(StringUtil.isEmpty(disableWal) || Boolean.parseBoolean(disableWal));
+
+        dbOptions = new DBOptions()
+            .setCreateIfMissing(true)
+            .setCreateMissingColumnFamilies(true)
+            .setWriteBufferManager(writeBufferManager)
+            .setMaxBackgroundJobs(Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
     }
 
     public RocksDB getInstance() {
-        if (rocksDB == null) {
-            synchronized (RocksDBOperator.class) {
-                if (rocksDB == null) {
-                    RocksDBOperator operator = new RocksDBOperator();
-                    if (rocksDB != null) {
-                        return rocksDB;
-                    } else {
-                        throw new RuntimeException("failed in creating rocksdb!");
-                    }
+        if (released.get() || dbInstance.closed) {
+            throw new RuntimeException("rocksdb has been closed, " + dbInstance.path);
+        }
+        return dbInstance.rocksDB;
+    }
+
+    public String getPath() {
+        return dbInstance.path;
+    }
+
+    /**
+     * 获取一种状态的列族，不存在时创建
+     *
+     * @param stateType 状态类型，作为列族名
+     * @return
+     */
+    public ColumnFamilyHandle getColumnFamily(String stateType) {
+        return getColumnFamily(stateType, ttlSecond);
+    }
+
+    /**
+     * 获取一种状态的列族，不存在时按指定的过期时间创建并记录。列族已经存在时沿用创建时的过期时间，重新打开实例后也一样
+     *
+     * @param stateType       状态类型，作为列族名
+     * @param columnTtlSecond 过期时间，单位秒
+     * @return
+     */
+    public ColumnFamilyHandle getColumnFamily(String stateType, int columnTtlSecond) {
+        ColumnFamilyHandle handle = dbInstance.columnFamilies.get(stateType);
+        if (handle != null) {
+            return handle;
+        }
+        RocksDB db = getInstance();
+        synchronized (dbInstance) {
+            handle = dbInstance.columnFamilies.get(stateType);
+            if (handle == null) {
+                //先记录过期时间，创建失败时多出的记录不影响其他列族
+                dbInstance.columnTtls.setProperty(stateType, String.valueOf(columnTtlSecond));
+                saveColumnTtls(dbInstance.path, dbInstance.columnTtls);
+                try {
+                    ColumnFamilyDescriptor descriptor = new ColumnFamilyDescriptor(stateType.getBytes(StandardCharsets.UTF_8), columnFamilyOptions);
+                    handle = ((TtlDB) db).createColumnFamilyWithTtl(descriptor, columnTtlSecond);
+                } catch (RocksDBException e) {
+                    throw new RuntimeException("create rocksdb column family error " + stateType, e);
                 }
+                dbInstance.columnFamilies.put(stateType, handle);
+            }
+        }
+        return handle;
+    }
+
+    /**
+     * 所有状态共享的写配置，不sync，默认关闭wal
+     *
+     * @return
+     */
+    public WriteOptions getWriteOptions() {
+        return writeOptions;
+    }
+
+    /**
+     * 按前缀扫描的读配置。前缀不短于prefixLength时只在同前缀内迭代，可以用上前缀bloom filter；否则用全序迭代，保证结果正确
+     *
+     * @param seekPrefix 扫描的前缀
+     * @return 使用后需要close
+     */
+    public ReadOptions createReadOptions(byte[] seekPrefix) {
+        ReadOptions readOptions = new ReadOptions();
+        if (seekPrefix != null && seekPrefix.length >= prefixLength) {
+            readOptions.setPrefixSameAsStart(true);
+        } else {
+            readOptions.setTotalOrderSeek(true);
+        }
+        return readOptions;
+    }
+
+    /**
+     * 释放这个operator对实例的引用，最后一个引用释放时关闭实例，之后同一个目录会重新打开。重复调用只释放一次
+     */
+    public void close() {
+        release(false);
+    }
+
+    /**
+     * 释放引用，最后一个引用释放时关闭实例并删除目录，整体删除这个实例的所有状态
+     */
+    public void drop() {
+        release(true);
+    }
+
+    public int getRefCount() {
+        synchronized (RocksDBOperator.class) {
+            return dbInstance.refCount;
+        }
+    }
+
+    private void release(boolean drop) {
+        synchronized (RocksDBOperator.class) {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            if (drop) {
+                dbInstance.dropOnClose = true;
+            }
+            if (--dbInstance.refCount > 0 || dbInstance.closed) {
+                return;
             }
+            instances.remove(dbInstance.path, dbInstance);
+            synchronized (dbInstance) {
+                dbInstance.closed = true;
+                for (ColumnFamilyHandle handle : dbInstance.columnFamilies.values()) {
+                    handle.close();
+                }
+                dbInstance.columnFamilies.clear();
+                if (dbInstance.defaultColumnFamily != null) {
+                    dbInstance.defaultColumnFamily.close();
+                }
+                dbInstance.rocksDB.close();
+            }
+            if (dbInstance.dropOnClose) {
+                FileUtil.deleteFile(dbInstance.path);
+            }
+        }
+    }
+
+    private static int getIntProperty(String key, int defaultValue) {
+        String value = ComponentCreator.getProperties().getProperty(key);
+        if (StringUtil.isEmpty(value)) {
+            return defaultValue;
+        }
+        return Integer.valueOf(value);
+    }
+
+    private static long getLongProperty(String key, long defaultValue) {
+        String value = ComponentCreator.getProperties().getProperty(key);
+        if (StringUtil.isEmpty(value)) {
+            return defaultValue;
+        }
+        return Long.valueOf(value);
+    }
+
+    /**
+     * 一个目录对应的rocksdb和它的列族
+     */
+    protected static class DBInstance {
+
+        protected final String path;
+
+        protected final RocksDB rocksDB;
+
+        protected final ConcurrentHashMap<String, ColumnFamilyHandle> columnFamilies = new ConcurrentHashMap<>();
+
+        protected ColumnFamilyHandle defaultColumnFamily;
+
+        /**
+         * 列族的过期时间，在实例锁内修改
+         */
+        protected final Properties columnTtls;
+
+        protected volatile boolean closed = false;
+
+        /**
+         * 持有这个实例的operator数，在RocksDBOperator.class锁内修改
+         */
+        protected int refCount = 0;
+
+        /**
+         * 有operator调用了drop，最后一个引用释放时删除目录
+         */
+        protected boolean dropOnClose = false;
+
+        protected DBInstance(String path, RocksDB rocksDB, Properties columnTtls) {
+            this.path = path;
+            this.rocksDB = rocksDB;
+            this.columnTtls = columnTtls;
         }
-        return rocksDB;
     }
 
 }
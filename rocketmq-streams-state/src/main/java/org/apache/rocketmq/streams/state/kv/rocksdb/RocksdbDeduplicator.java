@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.state.kv.rocksdb;
+
+import org.apache.rocketmq.streams.common.cache.dedup.IDeduplicator;
+import org.apache.rocketmq.streams.common.utils.HashUtil;
+import org.apache.rocketmq.streams.common.utils.NumberUtils;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+
+/**
+ * 基于rocksdb的精确去重，不受内存限制，适合不能接受误判的场景
+ * <p>
+ * key是去重名称的64位hash加上字段值的128位hash，value是最近一次出现的时间。
+ * 列族按过期时间创建，过期的数据在compaction时删除
+ */
+public class RocksdbDeduplicator implements IDeduplicator {
+
+    public static final String DEDUP_COLUMN_FAMILY = "dedup";
+
+    protected final RocksDBOperator operator;
+
+    protected final long expirationTime;
+
+    protected final long nameHash;
+
+    protected final ColumnFamilyHandle columnFamily;
+
+    /**
+     * operator是否由这个去重创建，创建的operator在close时释放，外部传入的由调用方释放
+     */
+    protected final boolean ownOperator;
+
+    private final byte[] hashBytes = new byte[16];
+
+    public RocksdbDeduplicator(String name, long expirationTime) {
+        this(new RocksDBOperator(), name, expirationTime, true);
+    }
+
+    public RocksdbDeduplicator(RocksDBOperator operator, String name, long expirationTime) {
+        this(operator, name, expirationTime, false);
+    }
+
+    protected RocksdbDeduplicator(RocksDBOperator operator, String name, long expirationTime, boolean ownOperator) {
+        if (expirationTime <= 0) {
+            throw new RuntimeException("illegal deduplicator expirationTime " + expirationTime);
+        }
+        this.operator = operator;
+        this.ownOperator = ownOperator;
+        this.expirationTime = expirationTime;
+        this.nameHash = HashUtil.hash64(name);
+        //列族的过期时间至少覆盖去重的过期时间，多保留一倍避免compaction提前删除
+        int ttlSecond = (int) Math.min(Integer.MAX_VALUE, expirationTime * 2 / 1000 + 1);
+        this.columnFamily = operator.getColumnFamily(DEDUP_COLUMN_FAMILY, ttlSecond);
+    }
+
+    @Override
+    public synchronized boolean containsOrPut(long currentTime, String... keys) {
+        HashUtil.murmur3_128(keys, hashBytes);
+        byte[] key = new byte[24];
+        NumberUtils.putLongLittleEndian(key, 0, nameHash);
+        System.arraycopy(hashBytes, 0, key, 8, 16);
+        RocksDB db = operator.getInstance();
+        try {
+            byte[] value = db.get(columnFamily, key);
+            if (value != null && currentTime - NumberUtils.toLongLittleEndian(value, 0) < expirationTime) {
+                return true;
+            }
+            byte[] time = new byte[8];
+            NumberUtils.putLongLittleEndian(time, 0, currentTime);
+            db.put(columnFamily, operator.getWriteOptions(), key, time);
+            return false;
+        } catch (RocksDBException e) {
+            throw new RuntimeException("rocksdb deduplicate error", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (ownOperator) {
+            operator.close();
+        }
+    }
+}
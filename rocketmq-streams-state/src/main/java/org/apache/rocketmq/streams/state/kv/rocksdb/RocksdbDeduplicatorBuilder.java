@@ -0,0 +1,34 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.state.kv.rocksdb;
+
+import com.google.auto.service.AutoService;
+import org.apache.rocketmq.streams.common.cache.dedup.IDeduplicator;
+import org.apache.rocketmq.streams.common.cache.dedup.IDeduplicatorBuilder;
+import org.apache.rocketmq.streams.common.model.ServiceName;
+
+@AutoService(IDeduplicatorBuilder.class)
+@ServiceName(value = RocksdbDeduplicatorBuilder.TYPE)
+public class RocksdbDeduplicatorBuilder implements IDeduplicatorBuilder {
+
+    public static final String TYPE = "rocksdb";
+
+    @Override
+    public IDeduplicator create(String name, long expirationTime, double falsePositiveRate, int expectedInsertions) {
+        return new RocksdbDeduplicator(name, expirationTime);
+    }
+}
@@ -18,6 +18,7 @@ package org.apache.rocketmq.streams.state.kv.rocksdb;
 
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -28,11 +29,11 @@ import org.apache.rocketmq.streams.common.utils.CollectionUtil;
 import org.apache.rocketmq.streams.common.utils.StringUtil;
 import org.apache.rocketmq.streams.state.LruState;
 import org.apache.rocketmq.streams.state.kv.IKvState;
+import org.rocksdb.ColumnFamilyHandle;
 import org.rocksdb.ReadOptions;
 import org.rocksdb.RocksDBException;
 import org.rocksdb.RocksIterator;
 import org.rocksdb.WriteBatch;
-import org.rocksdb.WriteOptions;
 
 import static org.apache.rocketmq.streams.state.kv.rocksdb.RocksDBOperator.UTF8;
 
@@ -51,7 +52,7 @@ public class RocksdbState implements IKvState<String, String> {
 
     @Override public String get(String key) {
         try {
-            return getValueFromByte(operator.getInstance().get(getKeyBytes(key)));
+            return getValueFromByte(operator.getInstance().get(getColumnFamily(), getKeyBytes(key)));
         } catch (Exception e) {
             return null;
         }
@@ -69,13 +70,12 @@ public class RocksdbState implements IKvState<String, String> {
         }
         try {
             Map<String, String> resultMap = new HashMap<>(keys.size());
-            Map<byte[], byte[]> map = operator.getInstance().multiGet(keyByteList);
-            Iterator<Map.Entry<byte[], byte[]>> it = map.entrySet().iterator();
-            while (it.hasNext()) {
-                Map.Entry<byte[], byte[]> entry = it.next();
-                String key = getValueFromByte(entry.getKey());
-                String value = getValueFromByte(entry.getValue());
-                resultMap.put(key, value);
+            List<ColumnFamilyHandle> handles = Collections.nCopies(keyByteList.size(), getColumnFamily());
+            List<byte[]> values = operator.getInstance().multiGetAsList(handles, keyByteList);
+            for (int i = 0; i < values.size(); i++) {
+                if (values.get(i) != null) {
+                    resultMap.put(keyStrList.get(i), getValueFromByte(values.get(i)));
+                }
             }
             return resultMap;
         } catch (RocksDBException e) {
@@ -106,20 +106,17 @@ public class RocksdbState implements IKvState<String, String> {
         }
         try {
             WriteBatch writeBatch = new WriteBatch();
+            ColumnFamilyHandle handle = getColumnFamily();
             Iterator<? extends Map.Entry<? extends String, ? extends String>> it = map.entrySet().iterator();
             while (it.hasNext()) {
                 Map.Entry<? extends String, ? extends String> entry = it.next();
                 String key = entry.getKey();
                 String value = entry.getValue();
-                writeBatch.put(key.getBytes(UTF8), value.getBytes(UTF8));
+                writeBatch.put(handle, key.getBytes(UTF8), value.getBytes(UTF8));
             }
 
-            WriteOptions writeOptions = new WriteOptions();
-            writeOptions.setSync(false);
-            writeOptions.setDisableWAL(true);
-            operator.getInstance().write(writeOptions, writeBatch);
+            operator.getInstance().write(operator.getWriteOptions(), writeBatch);
             writeBatch.close();
-            writeOptions.close();
         } catch (Exception e) {
             throw new RuntimeException("failed in putting all into rocksdb!", e);
         }
@@ -127,7 +124,7 @@ public class RocksdbState implements IKvState<String, String> {
 
     @Override public String remove(String key) {
         try {
-            operator.getInstance().delete(getKeyBytes(key));
+            operator.getInstance().delete(getColumnFamily(), operator.getWriteOptions(), getKeyBytes(key));
         } catch (RocksDBException e) {
             throw new RuntimeException("failed in removing all from rocksdb! " + key, e);
         }
@@ -137,7 +134,7 @@ public class RocksdbState implements IKvState<String, String> {
     @Override public void removeAll(List<String> keys) {
         for (String key : keys) {
             try {
-                operator.getInstance().delete(getKeyBytes(key));
+                operator.getInstance().delete(getColumnFamily(), operator.getWriteOptions(), getKeyBytes(key));
             } catch (RocksDBException e) {
                 throw new RuntimeException("failed in removing all from rocksdb! " + key, e);
             }
@@ -159,6 +156,10 @@ public class RocksdbState implements IKvState<String, String> {
         return new RocksDBIterator(prefix);
     }
 
+    protected static ColumnFamilyHandle getColumnFamily() {
+        return operator.getColumnFamily(RocksDBOperator.KV_STATE_COLUMN_FAMILY);
+    }
+
     /**
      * 把key转化成byte
      *
@@ -194,15 +195,15 @@ public class RocksdbState implements IKvState<String, String> {
 
         protected AtomicBoolean hasInit = new AtomicBoolean(false);
 
-        private ReadOptions readOptions = new ReadOptions();
+        private ReadOptions readOptions;
 
         private RocksIterator iter;
 
         protected String keyPrefix;
 
         public RocksDBIterator(String keyPrefix) {
-            readOptions.setPrefixSameAsStart(true).setTotalOrderSeek(true);
-            iter = operator.getInstance().newIterator(readOptions);
+            readOptions = operator.createReadOptions(keyPrefix.getBytes());
+            iter = operator.getInstance().newIterator(getColumnFamily(), readOptions);
             this.keyPrefix = keyPrefix;
         }
 
@@ -0,0 +1,237 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.state.kv;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import org.apache.rocketmq.streams.state.kv.rocksdb.RocksDBOperator;
+import org.apache.rocketmq.streams.state.kv.rocksdb.RocksdbDeduplicator;
+import org.junit.Assert;
+import org.junit.Test;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+
+public class RocksDBOperatorTest {
+
+    private RocksDBOperator operator = new RocksDBOperator();
+
+    @Test
+    public void testColumnFamilyIsolation() throws RocksDBException {
+        RocksDB rocksDB = operator.getInstance();
+        ColumnFamilyHandle first = operator.getColumnFamily("test_first");
+        ColumnFamilyHandle second = operator.getColumnFamily("test_second");
+        Assert.assertSame(first, operator.getColumnFamily("test_first"));
+
+        byte[] key = "isolation_key".getBytes(StandardCharsets.UTF_8);
+        rocksDB.put(first, operator.getWriteOptions(), key, "first".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals("first", new String(rocksDB.get(first, key), StandardCharsets.UTF_8));
+        Assert.assertNull(rocksDB.get(second, key));
+    }
+
+    @Test
+    public void testRocksdbDeduplicator() {
+        RocksdbDeduplicator deduplicator = new RocksdbDeduplicator(operator, "test_dedup_" + System.nanoTime(), 60000);
+        long time = System.currentTimeMillis();
+        Assert.assertFalse(deduplicator.containsOrPut(time, "a", "b"));
+        Assert.assertTrue(deduplicator.containsOrPut(time + 1, "a", "b"));
+        Assert.assertFalse(deduplicator.containsOrPut(time, "ab", ""));
+        //超过过期时间后重新计数
+        Assert.assertFalse(deduplicator.containsOrPut(time + 60000, "a", "b"));
+        Assert.assertTrue(deduplicator.containsOrPut(time + 60001, "a", "b"));
+    }
+
+    @Test
+    public void testJobInstanceDrop() throws RocksDBException {
+        RocksDBOperator jobOperator = RocksDBOperator.createJobOperator("test.namespace;test_job");
+        Assert.assertNotSame(operator.getInstance(), jobOperator.getInstance());
+        RocksDBOperator other = RocksDBOperator.createJobOperator("test.namespace;test_job");
+        Assert.assertSame(jobOperator.getInstance(), other.getInstance());
+        other.close();
+
+        byte[] key = "job_key".getBytes(StandardCharsets.UTF_8);
+        ColumnFamilyHandle handle = jobOperator.getColumnFamily("test_job_state");
+        jobOperator.getInstance().put(handle, jobOperator.getWriteOptions(), key, "job".getBytes(StandardCharsets.UTF_8));
+        jobOperator.close();
+
+        //关闭后重新打开，状态保留
+        RocksDBOperator reopen = RocksDBOperator.createJobOperator("test.namespace;test_job");
+        Assert.assertEquals("job", new String(reopen.getInstance().get(reopen.getColumnFamily("test_job_state"), key), StandardCharsets.UTF_8));
+
+        reopen.drop();
+        Assert.assertFalse(new File(reopen.getPath()).exists());
+        RocksDBOperator created = RocksDBOperator.createJobOperator("test.namespace;test_job");
+        Assert.assertNull(created.getInstance().get(created.getColumnFamily("test_job_state"), key));
+        created.drop();
+    }
+
+    @Test
+    public void testJobPath() {
+        //替换特殊字符后相同的任务名使用不同的目录
+        Assert.assertNotEquals(RocksDBOperator.getJobPath("a.b"), RocksDBOperator.getJobPath("a_b"));
+        Assert.assertEquals(RocksDBOperator.getJobPath("a.b"), RocksDBOperator.getJobPath("a.b"));
+        Assert.assertTrue(new File(RocksDBOperator.getJobPath("a.b")).getName().startsWith("a_b_"));
+    }
+
+    @Test
+    public void testJobInstanceRefCount() throws RocksDBException {
+        RocksDBOperator first = RocksDBOperator.createJobOperator("test.namespace;test_ref_job");
+        RocksDBOperator second = RocksDBOperator.createJobOperator("test.namespace;test_ref_job");
+        Assert.assertEquals(2, first.getRefCount());
+        RocksDB rocksDB = second.getInstance();
+        byte[] key = "ref_key".getBytes(StandardCharsets.UTF_8);
+        ColumnFamilyHandle handle = second.getColumnFamily("test_ref_state");
+
+        //其他operator关闭或drop时，实例仍然可用，重复关闭只释放一次
+        first.close();
+        first.close();
+        first.drop();
+        Assert.assertEquals(1, second.getRefCount());
+        rocksDB.put(handle, second.getWriteOptions(), key, "ref".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals("ref", new String(rocksDB.get(handle, key), StandardCharsets.UTF_8));
+        try {
+            first.getInstance();
+            Assert.fail();
+        } catch (RuntimeException e) {
+            //已经释放的operator不能再使用
+        }
+
+        //最后一个引用释放时关闭实例
+        second.drop();
+        Assert.assertEquals(0, second.getRefCount());
+        Assert.assertFalse(new File(second.getPath()).exists());
+        RocksDBOperator reopen = RocksDBOperator.createJobOperator("test.namespace;test_ref_job");
+        Assert.assertNotSame(rocksDB, reopen.getInstance());
+        reopen.drop();
+    }
+
+    @Test
+    public void testColumnFamilyTtlAfterReopen() throws RocksDBException, InterruptedException {
+        RocksDBOperator jobOperator = RocksDBOperator.createJobOperator("test.namespace;test_ttl_job");
+        jobOperator.getColumnFamily("test_ttl_state", 1);
+        jobOperator.close();
+
+        //重新打开后不指定过期时间，仍然按创建时的1秒过期
+        RocksDBOperator reopen = RocksDBOperator.createJobOperator("test.namespace;test_ttl_job");
+        RocksDB rocksDB = reopen.getInstance();
+        ColumnFamilyHandle handle = reopen.getColumnFamily("test_ttl_state");
+        byte[] key = "ttl_key".getBytes(StandardCharsets.UTF_8);
+        rocksDB.put(handle, reopen.getWriteOptions(), key, "ttl".getBytes(StandardCharsets.UTF_8));
+        Thread.sleep(2100);
+        rocksDB.compactRange(handle);
+        Assert.assertNull(rocksDB.get(handle, key));
+        reopen.drop();
+    }
+
+    @Test
+    public void testRocksdbDeduplicatorClose() {
+        RocksDBOperator jobOperator = RocksDBOperator.createJobOperator("test.namespace;test_dedup_job");
+        RocksdbDeduplicator deduplicator = new RocksdbDeduplicator(jobOperator, "test_dedup_close", 60000);
+        Assert.assertFalse(deduplicator.containsOrPut("a"));
+        //外部传入的operator由调用方释放
+        deduplicator.close();
+        Assert.assertEquals(1, jobOperator.getRefCount());
+        jobOperator.drop();
+    }
+
+    @Test
+    public void testShortPrefixScan() throws RocksDBException {
+        ColumnFamilyHandle handle = operator.getColumnFamily("test_short_prefix");
+        put(handle, "short_prefix_a", 10);
+        put(handle, "short_prefix_b", 10);
+        //比前缀bloom filter的长度短，需要全序迭代才能跨越不同的前缀
+        Assert.assertEquals(20, count(handle, "short_"));
+        Assert.assertEquals(10, count(handle, "short_prefix_a"));
+    }
+
+    /**
+     * 本地rocksdb上按前缀扫描的耗时，每个前缀1000条，共200个前缀
+     * <p>
+     * 前缀达到prefixLength时只在同前缀内迭代并使用前缀bloom filter，和全序迭代对比
+     */
+    @Test
+    public void testPrefixScanBenchmark() throws RocksDBException {
+        ColumnFamilyHandle handle = operator.getColumnFamily("test_benchmark");
+        int prefixCount = 200;
+        int keyCount = 1000;
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < prefixCount; i++) {
+            put(handle, createPrefix(i), keyCount);
+        }
+        System.out.println("write " + prefixCount * keyCount + " cost is " + (System.currentTimeMillis() - start));
+
+        start = System.currentTimeMillis();
+        long total = 0;
+        for (int i = 0; i < prefixCount; i++) {
+            total += count(handle, createPrefix(i));
+        }
+        Assert.assertEquals(prefixCount * keyCount, total);
+        System.out.println("prefix seek cost is " + (System.currentTimeMillis() - start));
+
+        start = System.currentTimeMillis();
+        total = 0;
+        for (int i = 0; i < prefixCount; i++) {
+            try (ReadOptions readOptions = new ReadOptions().setTotalOrderSeek(true)) {
+                total += count(handle, createPrefix(i), readOptions);
+            }
+        }
+        Assert.assertEquals(prefixCount * keyCount, total);
+        System.out.println("total order seek cost is " + (System.currentTimeMillis() - start));
+
+        start = System.currentTimeMillis();
+        RocksDB rocksDB = operator.getInstance();
+        for (int i = 0; i < prefixCount; i++) {
+            Assert.assertNull(rocksDB.get(handle, (createPrefix(i) + "_absent").getBytes(StandardCharsets.UTF_8)));
+        }
+        System.out.println("absent get cost is " + (System.currentTimeMillis() - start));
+    }
+
+    private String createPrefix(int index) {
+        return "windowBaseValue;shuffle_queue_" + index + ";window_instance_id;NORMAL_WINDOW";
+    }
+
+    private void put(ColumnFamilyHandle handle, String prefix, int count) throws RocksDBException {
+        try (WriteBatch writeBatch = new WriteBatch()) {
+            for (int i = 0; i < count; i++) {
+                writeBatch.put(handle, (prefix + ";" + i).getBytes(StandardCharsets.UTF_8), ("value_" + i).getBytes(StandardCharsets.UTF_8));
+            }
+            operator.getInstance().write(operator.getWriteOptions(), writeBatch);
+        }
+    }
+
+    private int count(ColumnFamilyHandle handle, String prefix) {
+        try (ReadOptions readOptions = operator.createReadOptions(prefix.getBytes(StandardCharsets.UTF_8))) {
+            return count(handle, prefix, readOptions);
+        }
+    }
+
+    private int count(ColumnFamilyHandle handle, String prefix, ReadOptions readOptions) {
+        int count = 0;
+        try (RocksIterator iterator = operator.getInstance().newIterator(handle, readOptions)) {
+            for (iterator.seek(prefix.getBytes(StandardCharsets.UTF_8)); iterator.isValid(); iterator.next()) {
+                if (!new String(iterator.key(), StandardCharsets.UTF_8).startsWith(prefix)) {
+                    break;
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -20,6 +20,7 @@ import java.util.Iterator;
 import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import org.apache.rocketmq.streams.state.LruState;
 import org.junit.Assert;
 import org.junit.Test;
@@ -73,6 +74,61 @@ public class TestLruState {
         }
         Assert.assertEquals(10, lruState.count());
     }
-}
 
+    @Test
+    public void testFrequencyAdmission() {
+        final LruState<String> lruState = new LruState<>(1000, "");
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 500; i++) {
+                lruState.add("hot_" + i);
+            }
+        }
+        //只访问一次的值不会把高频的值挤出去
+        for (int i = 0; i < 100000; i++) {
+            lruState.add("scan_" + i);
+        }
+        int hot = 0;
+        for (int i = 0; i < 500; i++) {
+            if (lruState.search("hot_" + i) > 0) {
+                hot++;
+            }
+        }
+        Assert.assertTrue(hot > 450);
+        Assert.assertTrue(lruState.count() <= 1000);
+        Assert.assertTrue(lruState.getEvictionCount() > 0);
+        Assert.assertEquals(hot, lruState.getHitCount());
+    }
+
+    @Test
+    public void testWeight() {
+        final LruState<String> lruState = new LruState<>(100, "", String::length);
+        for (int i = 0; i < 100; i++) {
+            lruState.add("value_" + i);
+        }
+        Assert.assertTrue(lruState.getWeight() <= 100);
+        Assert.assertTrue(lruState.count() < 20);
+    }
 
+    @Test
+    public void testConcurrentBound() throws InterruptedException {
+        final LruState<Integer> lruState = new LruState<>(10000, -1);
+        ExecutorService poolService = Executors.newFixedThreadPool(8);
+        long start = System.currentTimeMillis();
+        for (int t = 0; t < 8; t++) {
+            poolService.execute(() -> {
+                Random random = new Random();
+                for (int i = 0; i < 200000; i++) {
+                    int value = random.nextInt(50000);
+                    if (lruState.search(value) == 0) {
+                        lruState.add(value);
+                    }
+                }
+            });
+        }
+        poolService.shutdown();
+        Assert.assertTrue(poolService.awaitTermination(60, TimeUnit.SECONDS));
+        System.out.println("1600000 operations cost " + (System.currentTimeMillis() - start) + " ms, hit rate " + lruState.getHitRate());
+        Assert.assertTrue(lruState.count() <= 10000);
+        Assert.assertEquals(lruState.count(), lruState.getWeight());
+    }
+}
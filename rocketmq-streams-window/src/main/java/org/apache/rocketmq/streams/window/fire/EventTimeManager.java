@@ -16,21 +16,62 @@
  */
 package org.apache.rocketmq.streams.window.fire;
 
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.rocketmq.streams.common.channel.source.ISource;
 import org.apache.rocketmq.streams.common.context.IMessage;
 import org.apache.rocketmq.streams.common.topology.model.IWindow;
+import org.apache.rocketmq.streams.common.utils.StringUtil;
+import org.apache.rocketmq.streams.window.model.WindowCache;
+import org.apache.rocketmq.streams.window.model.WindowInstance;
 import org.apache.rocketmq.streams.window.operator.AbstractWindow;
 
+/**
+ * 窗口的watermark管理。按上游分片（消息中的ORIGIN_QUEUE_ID）记录最大事件时间，watermark为活跃分片最大事件时间的最小值减去允许的乱序时间
+ * <p>
+ * 超过idleSplitTimeoutMs没有消息的分片认为空闲，不参与计算，避免一个空闲分片拖住所有窗口；所有分片都空闲时取最大值。
+ * watermark只增不减，前进时通知监听者；只有发现新的上游分片时会回退到包含这个分片的值
+ */
 public class EventTimeManager {
-    private Map<String, SplitEventTimeManager> eventTimeManagerMap = new HashMap<>();
+    private Map<String, SplitEventTimeManager> eventTimeManagerMap = new ConcurrentHashMap<>();
     protected ISource source;
 
+    /**
+     * 上游分片的最大事件时间
+     */
+    private final Map<String/*oriQueueId*/, SplitEventTime> splitEventTimes = new ConcurrentHashMap<>();
+
+    /**
+     * 允许的乱序时间ms
+     */
+    private final long maxOutOfOrdernessMs;
+
+    /**
+     * 分片空闲的判断时间ms
+     */
+    private final long idleSplitTimeoutMs;
+
+    /**
+     * 当前的watermark，没有收到消息前为null
+     */
+    private volatile Long watermark;
+
+    private final List<Runnable> watermarkListeners = new CopyOnWriteArrayList<>();
+
     private Map<String/*queueId*/, Pair<Long/*eventTime*/, Long/*update Time*/>> eventTimeIncreasementMap = new ConcurrentHashMap<>();
 
+    public EventTimeManager() {
+        this(0, 60 * 1000L);
+    }
+
+    public EventTimeManager(long maxOutOfOrdernessMs, long idleSplitTimeoutMs) {
+        this.maxOutOfOrdernessMs = maxOutOfOrdernessMs;
+        this.idleSplitTimeoutMs = idleSplitTimeoutMs;
+    }
+
     public void updateEventTime(IMessage message, AbstractWindow window) {
         String queueId = message.getHeader().getQueueId();
         SplitEventTimeManager splitEventTimeManager = eventTimeManagerMap.get(queueId);
@@ -43,20 +84,108 @@ public class EventTimeManager {
                 }
             }
         }
-        splitEventTimeManager.updateEventTime(message, window);
+        String oriQueueId = message.getMessageBody().getString(WindowCache.ORIGIN_QUEUE_ID);
+        if (StringUtil.isEmpty(oriQueueId)) {
+            return;
+        }
+        Long occurTime = WindowInstance.getOccurTime(window, message);
+        if (occurTime == null) {
+            return;
+        }
+        SplitEventTime splitEventTime = splitEventTimes.get(oriQueueId);
+        if (splitEventTime == null) {
+            splitEventTime = new SplitEventTime();
+            SplitEventTime exist = splitEventTimes.putIfAbsent(oriQueueId, splitEventTime);
+            if (exist == null) {
+                //新发现的分片可能比当前watermark小，重新计算
+                splitEventTime.update(occurTime);
+                refreshWatermark(true);
+                return;
+            }
+            splitEventTime = exist;
+        }
+        long oldMaxEventTime = splitEventTime.maxEventTime;
+        splitEventTime.update(occurTime);
+        //只有原来拖住watermark的分片前进，watermark才可能前进
+        Long currentWatermark = this.watermark;
+        boolean mayAdvance = currentWatermark == null || oldMaxEventTime <= currentWatermark + maxOutOfOrdernessMs;
+        if (mayAdvance && splitEventTime.maxEventTime > oldMaxEventTime) {
+            refreshWatermark();
+        }
+    }
+
+    /**
+     * 重新计算watermark，空闲分片的判断依赖这个方法被定期调用
+     *
+     * @return watermark是否前进
+     */
+    public boolean refreshWatermark() {
+        return refreshWatermark(false);
+    }
+
+    /**
+     * @param reset 为true时不保证单调，用于发现新分片时回退watermark，此时不通知监听者
+     * @return watermark是否前进
+     */
+    protected boolean refreshWatermark(boolean reset) {
+        if (splitEventTimes.isEmpty()) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        long minActive = Long.MAX_VALUE;
+        long maxAll = Long.MIN_VALUE;
+        for (SplitEventTime splitEventTime : splitEventTimes.values()) {
+            long maxEventTime = splitEventTime.maxEventTime;
+            if (maxEventTime > maxAll) {
+                maxAll = maxEventTime;
+            }
+            if (now - splitEventTime.lastUpdateTime <= idleSplitTimeoutMs && maxEventTime < minActive) {
+                minActive = maxEventTime;
+            }
+        }
+        long newWatermark = (minActive == Long.MAX_VALUE ? maxAll : minActive) - maxOutOfOrdernessMs;
+        boolean advanced = false;
+        synchronized (this) {
+            if (watermark == null || newWatermark > watermark) {
+                watermark = newWatermark;
+                advanced = true;
+            } else if (reset) {
+                watermark = newWatermark;
+            }
+        }
+        if (advanced) {
+            for (Runnable listener : watermarkListeners) {
+                listener.run();
+            }
+        }
+        return advanced;
     }
 
     /**
-     *从splitEventTimeManager中获取当前最大event time，
-     * 如果eventTimeIncreasementMap中有这个最大值，返回 maxEventTime + 当前时间与放入最大值时间差；
-     * 如果没有，放入这个最大值和当前时间戳；并返回这个 maxEventTime
+     * watermark前进时回调，在更新事件时间的线程中执行，回调需要很快返回
+     *
+     * @param listener
+     */
+    public void addWatermarkListener(Runnable listener) {
+        watermarkListeners.add(listener);
+    }
+
+    public Long getWatermark() {
+        return watermark;
+    }
+
+    /**
+     * 获取当前分片的watermark，所有上游分片就绪前返回null
+     * 如果eventTimeIncreasementMap中有这个值，且超过一定时间没有变化，返回 watermark + 当前时间与放入时的时间差；
+     * 如果没有，放入这个值和当前时间戳；并返回这个 watermark
      */
     public Long getMaxEventTime(String queueId) {
         SplitEventTimeManager splitEventTimeManager = eventTimeManagerMap.get(queueId);
         if (splitEventTimeManager != null) {
-
-            //这个currentMaxEventTime是所有分片中最小的值，基本不会变
-            Long currentMaxEventTime = splitEventTimeManager.getMaxEventTime();
+            if (!splitEventTimeManager.isSplitsReceiver(splitEventTimes.size())) {
+                return null;
+            }
+            Long currentMaxEventTime = this.watermark;
             if (currentMaxEventTime == null) {
                 return null;
             }
@@ -91,4 +220,19 @@ public class EventTimeManager {
         }
 
     }
+
+    /**
+     * 一个上游分片的最大事件时间和最后收到消息的时间
+     */
+    private static class SplitEventTime {
+        private volatile long maxEventTime = Long.MIN_VALUE;
+        private volatile long lastUpdateTime;
+
+        private synchronized void update(long occurTime) {
+            if (occurTime > maxEventTime) {
+                maxEventTime = occurTime;
+            }
+            lastUpdateTime = System.currentTimeMillis();
+        }
+    }
 }
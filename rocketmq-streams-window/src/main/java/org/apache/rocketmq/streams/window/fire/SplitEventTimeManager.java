@@ -16,27 +16,19 @@
  */
 package org.apache.rocketmq.streams.window.fire;
 
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.rocketmq.streams.common.channel.source.AbstractSource;
 import org.apache.rocketmq.streams.common.channel.source.ISource;
 import org.apache.rocketmq.streams.common.channel.split.ISplit;
-import org.apache.rocketmq.streams.common.context.IMessage;
-import org.apache.rocketmq.streams.common.utils.StringUtil;
-import org.apache.rocketmq.streams.window.model.WindowCache;
-import org.apache.rocketmq.streams.window.model.WindowInstance;
-import org.apache.rocketmq.streams.window.operator.AbstractWindow;
 
+/**
+ * 一个shuffle分片的上游分片就绪状态，上游分片都收到消息后才开始计算watermark
+ */
 public class SplitEventTimeManager {
     protected static final Log LOG = LogFactory.getLog(SplitEventTimeManager.class);
-    protected static final Map<String, Long> messageSplitId2MaxTime = new HashMap<>();
-    private AtomicInteger queueIdCount = new AtomicInteger(0);
     protected Long lastUpdateTime;
 
     protected volatile Integer allSplitSize;
@@ -65,51 +57,13 @@ public class SplitEventTimeManager {
         }
     }
 
-    public void updateEventTime(IMessage message, AbstractWindow window) {
-        String oriQueueId = message.getMessageBody().getString(WindowCache.ORIGIN_QUEUE_ID);
-        if (StringUtil.isEmpty(oriQueueId)) {
-            return;
-        }
-        Long occurTime = WindowInstance.getOccurTime(window, message);
-        Long oldTime = messageSplitId2MaxTime.get(oriQueueId);
-        if (oldTime == null) {
-            queueIdCount.incrementAndGet();
-            messageSplitId2MaxTime.put(oriQueueId, occurTime);
-        } else {
-            if (occurTime > oldTime) {
-                messageSplitId2MaxTime.put(oriQueueId, occurTime);
-            }
-        }
-    }
-
-    public Long getMaxEventTime() {
-
-        if (!isSplitsReceiver()) {
-            return null;
-        }
-        Long min = null;
-
-        synchronized (messageSplitId2MaxTime) {
-            Set<Long> eventTimes = new HashSet<>(messageSplitId2MaxTime.values());
-            for (Long eventTime : eventTimes) {
-                if (eventTime == null) {
-                    return null;
-                }
-                if (min == null) {
-                    min = eventTime;
-                } else {
-                    if (eventTime < min) {
-                        min = eventTime;
-                    }
-                }
-            }
-        }
-
-        return min;
-
-    }
-
-    protected boolean isSplitsReceiver() {
+    /**
+     * 上游分片是否都已经收到消息，超过1分钟不再等待
+     *
+     * @param receivedSplitCount 已经收到消息的上游分片数
+     * @return
+     */
+    protected boolean isSplitsReceiver(int receivedSplitCount) {
         if (isAllSplitReceived) {
             return true;
         }
@@ -147,7 +101,7 @@ public class SplitEventTimeManager {
             }
         }
 
-        if (workingSplitSize == messageSplitId2MaxTime.size()) {
+        if (workingSplitSize == receivedSplitCount) {
             this.isAllSplitReceived = true;
             return true;
         }
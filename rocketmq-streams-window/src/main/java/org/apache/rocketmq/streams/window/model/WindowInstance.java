@@ -25,15 +25,20 @@ import org.apache.rocketmq.streams.common.utils.CollectionUtil;
 import org.apache.rocketmq.streams.common.utils.DateUtil;
 import org.apache.rocketmq.streams.common.utils.MapKeyUtil;
 import org.apache.rocketmq.streams.common.utils.StringUtil;
+import org.apache.rocketmq.streams.script.function.aggregation.AccumulatorCodecRegistry;
 import org.apache.rocketmq.streams.window.operator.AbstractWindow;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 /**
  * 具体的窗口实例
@@ -45,20 +50,32 @@ public class WindowInstance extends Entity implements Serializable {
     private static final long serialVersionUID = 6893491128670330569L;
 
     /**
-     * 窗口实例的开始时间
+     * 时间没有设置时的值
+     */
+    public static final long TIME_NOT_SET = Long.MIN_VALUE;
+
+    /**
+     * 窗口实例的开始时间，格式化后的字符串，只在输出时按需从startTimeMs生成。旧的javaBean格式按字段顺序保存了这个字段，字段不能调整
      */
     protected String startTime;
 
     /**
-     * 窗口实例的结束时间
+     * 窗口实例的结束时间，同startTime
      */
     protected String endTime;
 
     /**
-     * fire!
+     * fire!，同startTime
      */
     protected String fireTime;
 
+    /**
+     * 窗口计算，key和触发排序都用毫秒时间，不再解析和格式化字符串
+     */
+    protected transient long startTimeMs = TIME_NOT_SET;
+    protected transient long endTimeMs = TIME_NOT_SET;
+    protected transient long fireTimeMs = TIME_NOT_SET;
+
     /**
      * 使用configName
      */
@@ -93,16 +110,27 @@ public class WindowInstance extends Entity implements Serializable {
 
     private static SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 
+    private static final String DATE_PATTERN = "yyyy-MM-dd";
+
     protected transient Long lastMaxUpdateTime;//last max update time for session window
 
+    private static final byte BINARY_VERSION = 1;
+
+    static {
+        WindowInstanceDataType.register();
+    }
+
     public WindowInstance copy() {
         WindowInstance windowInstance = new WindowInstance();
         windowInstance.setCanClearResource(this.canClearResource);
-        windowInstance.setFireTime(this.fireTime);
+        windowInstance.fireTime = this.fireTime;
+        windowInstance.fireTimeMs = this.fireTimeMs;
         windowInstance.setNewWindowInstance(isNewWindowInstance);
         windowInstance.setLastMaxUpdateTime(this.lastMaxUpdateTime);
-        windowInstance.setEndTime(this.endTime);
-        windowInstance.setStartTime(this.startTime);
+        windowInstance.endTime = this.endTime;
+        windowInstance.endTimeMs = this.endTimeMs;
+        windowInstance.startTime = this.startTime;
+        windowInstance.startTimeMs = this.startTimeMs;
         windowInstance.setSplitId(this.splitId);
         windowInstance.setWindowInstanceSplitName(this.windowInstanceSplitName);
         windowInstance.setGmtModified(new Date());
@@ -116,12 +144,115 @@ public class WindowInstance extends Entity implements Serializable {
         return windowInstance;
     }
 
+    /**
+     * 序列化成字节数组，时间只保存毫秒数，lastMaxUpdateTime和isNewWindowInstance不保存
+     *
+     * @return
+     */
+    public byte[] toBytes() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(BINARY_VERSION);
+            writeNullableLong(id, out);
+            writeNullableLong(gmtCreate == null ? null : gmtCreate.getTime(), out);
+            writeNullableLong(gmtModified == null ? null : gmtModified.getTime(), out);
+            out.writeLong(getStartTimeMs());
+            out.writeLong(getEndTimeMs());
+            out.writeLong(getFireTimeMs());
+            AccumulatorCodecRegistry.writeString(windowName, out);
+            AccumulatorCodecRegistry.writeString(splitId, out);
+            out.writeBoolean(canClearResource);
+            AccumulatorCodecRegistry.writeString(windowNameSpace, out);
+            AccumulatorCodecRegistry.writeString(windowInstanceName, out);
+            AccumulatorCodecRegistry.writeString(windowInstanceSplitName, out);
+            AccumulatorCodecRegistry.writeString(windowInstanceId, out);
+            out.writeInt(status);
+            writeNullableLong(version == null ? null : version.longValue(), out);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("serialize window instance error " + windowInstanceId, e);
+        }
+    }
+
+    public static WindowInstance fromBytes(byte[] bytes, int offset, int length) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, offset, length));
+            byte version = in.readByte();
+            if (version != BINARY_VERSION) {
+                throw new RuntimeException("unknown window instance version " + version);
+            }
+            WindowInstance windowInstance = new WindowInstance();
+            windowInstance.id = readNullableLong(in);
+            Long time = readNullableLong(in);
+            windowInstance.gmtCreate = time == null ? null : new Date(time);
+            time = readNullableLong(in);
+            windowInstance.gmtModified = time == null ? null : new Date(time);
+            windowInstance.startTimeMs = in.readLong();
+            windowInstance.endTimeMs = in.readLong();
+            windowInstance.fireTimeMs = in.readLong();
+            windowInstance.windowName = AccumulatorCodecRegistry.readString(in);
+            windowInstance.splitId = AccumulatorCodecRegistry.readString(in);
+            windowInstance.canClearResource = in.readBoolean();
+            windowInstance.windowNameSpace = AccumulatorCodecRegistry.readString(in);
+            windowInstance.windowInstanceName = AccumulatorCodecRegistry.readString(in);
+            windowInstance.windowInstanceSplitName = AccumulatorCodecRegistry.readString(in);
+            windowInstance.windowInstanceId = AccumulatorCodecRegistry.readString(in);
+            windowInstance.status = in.readInt();
+            Long instanceVersion = readNullableLong(in);
+            windowInstance.version = instanceVersion == null ? null : instanceVersion.intValue();
+            return windowInstance;
+        } catch (IOException e) {
+            throw new RuntimeException("deserialize window instance error", e);
+        }
+    }
+
+    private static void writeNullableLong(Long value, DataOutputStream out) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value);
+        }
+    }
+
+    private static Long readNullableLong(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+
+    /**
+     * 时间部分用毫秒数拼接。已经持久化的实例会带着原来的windowInstanceId加载，存储的状态仍然按原来的id读取
+     */
     public String createWindowInstanceId() {
-        return MapKeyUtil.createKey(splitId, windowNameSpace, windowName, windowInstanceName, startTime, endTime);
+        return MapKeyUtil.createKey(splitId, windowNameSpace, windowName, windowInstanceName, String.valueOf(getStartTimeMs()), String.valueOf(getEndTimeMs()));
     }
 
     public String createWindowInstanceTriggerId() {
-        return MapKeyUtil.createKey(splitId, windowNameSpace, windowName, windowInstanceName, startTime, endTime, fireTime);
+        return MapKeyUtil.createKey(splitId, windowNameSpace, windowName, windowInstanceName, String.valueOf(getStartTimeMs()), String.valueOf(getEndTimeMs()), String.valueOf(getFireTimeMs()));
+    }
+
+    /**
+     * 兼容原来的字符串时间，支持yyyy-MM-dd HH:mm:ss和yyyy-MM-dd两种格式
+     *
+     * @param time 格式化的时间
+     * @return 毫秒时间，为空时返回TIME_NOT_SET
+     */
+    public static long parseTime(String time) {
+        if (StringUtil.isEmpty(time)) {
+            return TIME_NOT_SET;
+        }
+        String pattern = time.length() == DATE_PATTERN.length() ? DATE_PATTERN : DateUtil.DEFAULT_FORMAT;
+        try {
+            return DateUtil.getDateFormat(pattern).parse(time).getTime();
+        } catch (ParseException e) {
+            throw new RuntimeException("can not parse the window instance time " + time, e);
+        }
+    }
+
+    protected static String formatTime(long time) {
+        if (time == TIME_NOT_SET) {
+            return null;
+        }
+        return DateUtil.format(new Date(time));
     }
 
 
@@ -186,37 +317,34 @@ public class WindowInstance extends Entity implements Serializable {
         }
 
         int waterMarkMs = window.getWaterMarkMs();
-
-        List<Date> windowBeginTimeList = DateUtil.getWindowBeginTime(occurTime,
-                (long) windowSlideInterval * timeUnitAdjust * 1000,
-                (long) windowSizeInterval * timeUnitAdjust * 1000);
+        long slideMs = (long) windowSlideInterval * timeUnitAdjust * 1000;
+        long sizeMs = (long) windowSizeInterval * timeUnitAdjust * 1000;
+        if (occurTime == null || occurTime == Long.MIN_VALUE) {
+            throw new RuntimeException("illegal event time! " + occurTime);
+        }
 
         List<WindowInstance> instanceList = new ArrayList<>();
-        List<Pair<String, String>> lostWindowTimeList = new ArrayList<>();
-        List<String> lostFireList = new ArrayList<>();
+        List<long[]> lostWindowTimeList = new ArrayList<>();
 
         Long maxEventTime = window.getMaxEventTime(queueId);
-        for (Date begin : windowBeginTimeList) {
-            Date end = DateUtil.addDate(TimeUnit.SECONDS, begin, windowSizeInterval * timeUnitAdjust);
-            Date fire = null;
+        long lastBegin = DateUtil.getWindowStartWithOffset(occurTime, 0, slideMs);
+        for (long begin = lastBegin; begin > occurTime - sizeMs; begin -= slideMs) {
+            long end = begin + sizeMs;
+            long fire = TIME_NOT_SET;
             /**
              * if 这段代码可以忽略，全部用模式0和emit组合实现
              */
             if (window.getFireMode() != 0) {
                 //非正常触发模式
-                if (maxEventTime == null || maxEventTime - end.getTime() < 0) {
+                if (maxEventTime == null || maxEventTime - end < 0) {
                     fire = end;
                 } else {
-                    List<Date> currentWindowList = DateUtil.getWindowBeginTime(maxEventTime,
-                            (long) windowSlideInterval * timeUnitAdjust * 1000,
-                            (long) windowSizeInterval * timeUnitAdjust * 1000);
-
-                    if (!CollectionUtil.isEmpty(currentWindowList)) {
-                        Date soonBegin = currentWindowList.get(currentWindowList.size() - 1);
-                        fire = DateUtil.addDate(TimeUnit.SECONDS, soonBegin, windowSizeInterval * timeUnitAdjust);
-                    }
+                    //包含maxEventTime的最早的窗口，即DateUtil.getWindowBeginTime返回的最后一个
+                    long soonBegin = DateUtil.getWindowStartWithOffset(maxEventTime, 0, slideMs);
+                    soonBegin -= (soonBegin - (maxEventTime - sizeMs) - 1) / slideMs * slideMs;
+                    fire = soonBegin + sizeMs;
 
-                    if (fire.getTime() - end.getTime() - (long) waterMarkMs * timeUnitAdjust > 0) {
+                    if (fire - end - (long) waterMarkMs * timeUnitAdjust > 0) {
                         //超过最大watermark，消息需要丢弃
                         break;
                     }
@@ -225,9 +353,9 @@ public class WindowInstance extends Entity implements Serializable {
                  * mode 2 clear window instance in first create window instance
                  * 已经不再使用，这段代码可以忽略
                  */
-                if (window.getFireMode() == 2 && fire.getTime() == end.getTime() && waterMarkMs > 0) {
-                    Date clearWindowInstanceFireTime = DateUtil.addDate(TimeUnit.SECONDS, end, (waterMarkMs / 1000) * timeUnitAdjust);
-                    WindowInstance lastWindowInstance = window.createWindowInstance(DateUtil.format(begin), DateUtil.format(end), DateUtil.format(clearWindowInstanceFireTime), queueId);
+                if (window.getFireMode() == 2 && fire == end && waterMarkMs > 0) {
+                    long clearWindowInstanceFireTime = end + (long) (waterMarkMs / 1000) * timeUnitAdjust * 1000;
+                    WindowInstance lastWindowInstance = window.createWindowInstance(begin, end, clearWindowInstanceFireTime, queueId);
                     lastWindowInstance.setCanClearResource(true);
 
                     //保存windowInstance
@@ -237,34 +365,32 @@ public class WindowInstance extends Entity implements Serializable {
                 }
 
             } else {
-                fire = DateUtil.addDate(TimeUnit.SECONDS, end, (waterMarkMs / 1000) * timeUnitAdjust);
+                fire = end + (long) (waterMarkMs / 1000) * timeUnitAdjust * 1000;
                 if (window.getEmitAfterValue() != null && window.getEmitAfterValue() > 0 && window.getMaxDelay() != null && window.getMaxDelay() > 0) {
-                    fire = DateUtil.addDate(TimeUnit.SECONDS, fire, window.getMaxDelay().intValue());
+                    fire = fire + window.getMaxDelay().intValue() * 1000L;
                 }
-                if (maxEventTime != null && maxEventTime - fire.getTime() > 0) {
-                    LOG.warn("*********************the message is discard, because the fire time is exceed****************** " + DateUtil.format(begin) + "-" + DateUtil.format(end) + "---" + DateUtil.format(fire));
+                if (maxEventTime != null && maxEventTime - fire > 0) {
+                    LOG.warn("*********************the message is discard, because the fire time is exceed****************** " + formatTime(begin) + "-" + formatTime(end) + "---" + formatTime(fire));
                     break;
                 }
             }
 
-            String startTime = DateUtil.format(begin);
-            String endTime = DateUtil.format(end);
-            String fireTime = DateUtil.format(fire);
-
             //todo 这里不是都创建出来WindowInstance了吗
-            String windowInstanceTriggerId = window.createWindowInstance(startTime, endTime, fireTime, queueId).createWindowInstanceTriggerId();
+            String windowInstanceTriggerId = window.createWindowInstance(begin, end, fire, queueId).createWindowInstanceTriggerId();
             WindowInstance windowInstance = window.searchWindowInstance(windowInstanceTriggerId);
             if (windowInstance == null) {
-                lostWindowTimeList.add(Pair.of(startTime, endTime));
-                lostFireList.add(fireTime);
+                lostWindowTimeList.add(new long[] {begin, end, fire});
             } else {
-                windowInstance.setFireTime(fireTime);
+                windowInstance.setFireTimeMs(fire);
                 instanceList.add(windowInstance);
             }
         }
         List<WindowInstance> lostInstanceList = null;
         //todo 这里针对lost的都创建一次
-        lostInstanceList = WindowInstance.createWindowInstances(window, lostWindowTimeList, lostFireList, queueId);
+        lostInstanceList = new ArrayList<>(lostWindowTimeList.size());
+        for (long[] times : lostWindowTimeList) {
+            lostInstanceList.add(window.createWindowInstance(times[0], times[1], times[2], queueId));
+        }
         instanceList.addAll(lostInstanceList);
         if (CollectionUtil.isNotEmpty(lostInstanceList) && !isCreateOnly) {
             for (WindowInstance windowInstance : instanceList) {
@@ -309,15 +435,15 @@ public class WindowInstance extends Entity implements Serializable {
             return null;
         }
         List<WindowInstance> windowInstances = new ArrayList<>();
-        Date startDate = DateUtil.parse(windowInstance.getStartTime());
-        Date fireTime = DateUtil.parse(windowInstance.getFireTime());
-        Date emitFireTime = DateUtil.addDate(TimeUnit.SECONDS, startDate, window.getEmitBeforeValue().intValue());
-        while (emitFireTime.getTime() < fireTime.getTime()) {
+        long emitInterval = window.getEmitBeforeValue() * 1000L;
+        long fireTime = windowInstance.getFireTimeMs();
+        long emitFireTime = windowInstance.getStartTimeMs() + emitInterval;
+        while (emitFireTime < fireTime) {
             WindowInstance emitWindowInstance = windowInstance.copy();
-            emitWindowInstance.setFireTime(DateUtil.format(emitFireTime));
+            emitWindowInstance.setFireTimeMs(emitFireTime);
             emitWindowInstance.setCanClearResource(false);
             windowInstances.add(emitWindowInstance);
-            emitFireTime = DateUtil.addDate(TimeUnit.SECONDS, emitFireTime, window.getEmitBeforeValue().intValue());
+            emitFireTime = emitFireTime + emitInterval;
         }
         return windowInstances;
     }
@@ -331,43 +457,100 @@ public class WindowInstance extends Entity implements Serializable {
             return null;
         }
         List<WindowInstance> windowInstances = new ArrayList<>();
-        Date endDate = DateUtil.parse(windowInstance.getEndTime());
-        Date fireTime = DateUtil.parse(windowInstance.getFireTime());
-        Date emitFireTime = DateUtil.addDate(TimeUnit.SECONDS, endDate, (window.getWaterMarkMs() /1000) * window.getTimeUnitAdjust());
-        while (emitFireTime.getTime() < fireTime.getTime()) {
+        long emitInterval = window.getEmitAfterValue() * 1000L;
+        long fireTime = windowInstance.getFireTimeMs();
+        long emitFireTime = windowInstance.getEndTimeMs() + (long) (window.getWaterMarkMs() / 1000) * window.getTimeUnitAdjust() * 1000;
+        while (emitFireTime < fireTime) {
             WindowInstance firstWindowInstance = windowInstance.copy();
-            firstWindowInstance.setFireTime(DateUtil.format(emitFireTime));
+            firstWindowInstance.setFireTimeMs(emitFireTime);
             firstWindowInstance.setCanClearResource(false);
             windowInstances.add(firstWindowInstance);
-            emitFireTime = DateUtil.addDate(TimeUnit.SECONDS, emitFireTime, window.getEmitAfterValue().intValue());
+            emitFireTime = emitFireTime + emitInterval;
         }
         return windowInstances;
     }
 
     public String getStartTime() {
+        if (startTime == null) {
+            startTime = formatTime(startTimeMs);
+        }
         return startTime;
     }
 
+    /**
+     * 兼容字符串格式的时间，持久化的实例通过这个方法加载
+     */
     public void setStartTime(String startTime) {
+        this.startTimeMs = parseTime(startTime);
         this.startTime = startTime;
     }
 
     public String getEndTime() {
+        if (endTime == null) {
+            endTime = formatTime(endTimeMs);
+        }
         return endTime;
     }
 
     public void setEndTime(String endTime) {
+        this.endTimeMs = parseTime(endTime);
         this.endTime = endTime;
     }
 
     public String getFireTime() {
+        if (fireTime == null) {
+            fireTime = formatTime(fireTimeMs);
+        }
         return fireTime;
     }
 
     public void setFireTime(String fireTime) {
+        this.fireTimeMs = parseTime(fireTime);
         this.fireTime = fireTime;
     }
 
+    public long getStartTimeMs() {
+        if (startTimeMs == TIME_NOT_SET && startTime != null) {
+            startTimeMs = parseTime(startTime);
+        }
+        return startTimeMs;
+    }
+
+    public void setStartTimeMs(long startTimeMs) {
+        if (getStartTimeMs() != startTimeMs) {
+            this.startTimeMs = startTimeMs;
+            this.startTime = null;
+        }
+    }
+
+    public long getEndTimeMs() {
+        if (endTimeMs == TIME_NOT_SET && endTime != null) {
+            endTimeMs = parseTime(endTime);
+        }
+        return endTimeMs;
+    }
+
+    public void setEndTimeMs(long endTimeMs) {
+        if (getEndTimeMs() != endTimeMs) {
+            this.endTimeMs = endTimeMs;
+            this.endTime = null;
+        }
+    }
+
+    public long getFireTimeMs() {
+        if (fireTimeMs == TIME_NOT_SET && fireTime != null) {
+            fireTimeMs = parseTime(fireTime);
+        }
+        return fireTimeMs;
+    }
+
+    public void setFireTimeMs(long fireTimeMs) {
+        if (getFireTimeMs() != fireTimeMs) {
+            this.fireTimeMs = fireTimeMs;
+            this.fireTime = null;
+        }
+    }
+
     public String getWindowName() {
         return windowName;
     }
@@ -413,7 +596,7 @@ public class WindowInstance extends Entity implements Serializable {
         if (windowInstanceId != null) {
             return windowInstanceId;
         }
-        windowInstanceId = MapKeyUtil.createKey(splitId, windowNameSpace, windowName, windowInstanceName, startTime, endTime);
+        windowInstanceId = createWindowInstanceId();
 
         return windowInstanceId;
     }
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.window.model;
+
+import com.alibaba.fastjson.JSONObject;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.rocketmq.streams.common.datatype.BaseDataType;
+import org.apache.rocketmq.streams.common.datatype.DataType;
+import org.apache.rocketmq.streams.common.utils.Base64Utils;
+import org.apache.rocketmq.streams.common.utils.DataTypeUtil;
+import org.apache.rocketmq.streams.common.utils.StringUtil;
+
+/**
+ * WindowInstance的二进制序列化，时间保存为毫秒数
+ * <p>
+ * 注册前写入的javaBean格式仍然由JavaBeanDataType读取，字符串时间在第一次使用时解析成毫秒数
+ */
+public class WindowInstanceDataType extends BaseDataType<WindowInstance> {
+
+    public static final String TYPE_NAME = "windowInstance";
+
+    private static final AtomicBoolean REGISTERED = new AtomicBoolean(false);
+
+    public WindowInstanceDataType() {
+        setDataClazz(WindowInstance.class);
+    }
+
+    /**
+     * 注册到DataTypeUtil，可以重复调用
+     */
+    public static void register() {
+        if (REGISTERED.compareAndSet(false, true)) {
+            DataTypeUtil.register(new WindowInstanceDataType());
+        }
+    }
+
+    @Override
+    protected void setFieldValueToJson(JSONObject jsonObject) {
+
+    }
+
+    @Override
+    protected void setFieldValueFromJson(JSONObject jsonObject) {
+
+    }
+
+    @Override
+    public DataType create() {
+        return this;
+    }
+
+    @Override
+    public String getDataTypeName() {
+        return TYPE_NAME;
+    }
+
+    @Override
+    public boolean matchClass(Class clazz) {
+        return WindowInstance.class.equals(clazz);
+    }
+
+    @Override
+    public String toDataJson(WindowInstance value) {
+        if (value == null) {
+            return null;
+        }
+        return Base64Utils.encode(value.toBytes());
+    }
+
+    @Override
+    public WindowInstance getData(String jsonValue) {
+        if (StringUtil.isEmpty(jsonValue)) {
+            return null;
+        }
+        byte[] bytes = Base64Utils.decode(jsonValue);
+        return WindowInstance.fromBytes(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public byte[] toBytes(WindowInstance value, boolean isCompress) {
+        if (value == null) {
+            return null;
+        }
+        byte[] result = value.toBytes();
+        byte[] bytes = new byte[result.length + 4];
+        byte[] lenBytes = createByteArrayFromNumber(result.length, 4);
+        System.arraycopy(lenBytes, 0, bytes, 0, 4);
+        System.arraycopy(result, 0, bytes, 4, result.length);
+        return bytes;
+    }
+
+    @Override
+    public WindowInstance byteToValue(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        return byteToValue(bytes, new AtomicInteger(0));
+    }
+
+    @Override
+    public WindowInstance byteToValue(byte[] bytes, AtomicInteger offset) {
+        int index = offset.get();
+        int len = createNumberValue(bytes, index, 4).intValue();
+        offset.set(index + len + 4);
+        return WindowInstance.fromBytes(bytes, index + 4, len);
+    }
+
+    @Override
+    protected Class[] getSupportClass() {
+        return new Class[] {WindowInstance.class};
+    }
+}
@@ -20,6 +20,7 @@ import org.apache.rocketmq.streams.common.channel.source.ISource;
 import org.apache.rocketmq.streams.common.context.AbstractContext;
 import org.apache.rocketmq.streams.common.context.IMessage;
 import org.apache.rocketmq.streams.common.utils.MapKeyUtil;
+import org.apache.rocketmq.streams.script.function.aggregation.DistinctValueStore;
 import org.apache.rocketmq.streams.window.model.WindowInstance;
 import org.apache.rocketmq.streams.window.shuffle.ShuffleChannel;
 import org.apache.rocketmq.streams.window.storage.rocketmq.DefaultStorage;
@@ -30,6 +31,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 public abstract class AbstractShuffleWindow extends AbstractWindow {
     private static final String PREFIX = "windowStates";
@@ -50,7 +52,8 @@ public abstract class AbstractShuffleWindow extends AbstractWindow {
     }
 
     private void initStorage() {
-        RocksdbStorage rocksdbStorage = new RocksdbStorage();
+        //每个窗口任务一个rocksdb实例
+        RocksdbStorage rocksdbStorage = new RocksdbStorage(MapKeyUtil.createKey(this.getNameSpace(), this.getConfigureName()));
 
         if (isLocalStorageOnly) {
             this.storage = new DefaultStorage(isLocalStorageOnly, rocksdbStorage);
@@ -89,13 +92,38 @@ public abstract class AbstractShuffleWindow extends AbstractWindow {
         return super.doMessage(message, context);
     }
 
+    @Override
+    public void destroy() {
+        super.destroy();
+        //先停止shuffle消费，再停止触发检查并等待正在执行的触发完成，之后才能释放存储
+        if (this.shuffleChannel != null) {
+            this.shuffleChannel.destroy();
+        }
+        if (this.windowFireSource != null) {
+            this.windowFireSource.destroy();
+        }
+        DistinctValueStore.flushIfCreated();
+        if (this.storage instanceof DefaultStorage) {
+            //本地状态可以从checkpoint topic恢复时，直接删除rocksdb实例
+            ((DefaultStorage) this.storage).destroy(!isLocalStorageOnly);
+        }
+    }
+
     @Override
     public int fireWindowInstance(WindowInstance windowInstance) {
         Set<String> splitIds = new HashSet<>();
         splitIds.add(windowInstance.getSplitId());
         shuffleChannel.flush(splitIds);
-
-        return doFireWindowInstance(windowInstance);
+        DistinctValueStore.flushIfCreated();
+
+        //flush之后再加锁，触发期间同一分片的shuffle计算等待
+        ReentrantLock splitLock = windowFireSource.getFireExecutor().getSplitLock(windowInstance.getSplitId());
+        splitLock.lock();
+        try {
+            return doFireWindowInstance(windowInstance);
+        } finally {
+            splitLock.unlock();
+        }
     }
 
     /**
@@ -93,6 +93,16 @@ public abstract class AbstractWindow extends BasedConfigurable implements IAfter
      */
     protected int waterMarkMs = 0;
 
+    /**
+     * 事件时间允许的乱序时间ms，watermark为各上游分片最大事件时间的最小值减去这个值
+     */
+    protected long maxOutOfOrdernessMs = 0;
+
+    /**
+     * 上游分片超过这个时间ms没有消息，认为空闲，不参与watermark的计算
+     */
+    protected long idleSplitTimeoutMs = 60 * 1000L;
+
     /**
      * size or step of window, unit: minute
      */
@@ -213,7 +223,7 @@ public abstract class AbstractWindow extends BasedConfigurable implements IAfter
             byte[] bytes = Base64Utils.decode(this.mapFunctionSerializeValue);
             this.mapFunction = InstantiationUtil.deserializeObject(bytes);
         }
-        eventTimeManager = new EventTimeManager();
+        eventTimeManager = new EventTimeManager(maxOutOfOrdernessMs, idleSplitTimeoutMs);
 
 
         return success;
@@ -261,10 +271,25 @@ public abstract class AbstractWindow extends BasedConfigurable implements IAfter
         windowInstance.setFireTime(fireTime);
         windowInstance.setStartTime(startTime);
         windowInstance.setEndTime(endTime);
+        return initWindowInstance(windowInstance, splitId);
+    }
+
+    /**
+     * 按毫秒时间创建窗口实例，时间字符串在输出时才格式化
+     */
+    public WindowInstance createWindowInstance(long startTime, long endTime, long fireTime, String splitId) {
+        WindowInstance windowInstance = new WindowInstance();
+        windowInstance.setFireTimeMs(fireTime);
+        windowInstance.setStartTimeMs(startTime);
+        windowInstance.setEndTimeMs(endTime);
+        return initWindowInstance(windowInstance, splitId);
+    }
+
+    protected WindowInstance initWindowInstance(WindowInstance windowInstance, String splitId) {
         windowInstance.setSplitId(splitId);
         windowInstance.setGmtCreate(new Date());
         windowInstance.setGmtModified(new Date());
-        windowInstance.setWindowInstanceName(createWindowInstanceName(startTime, endTime, fireTime));
+        windowInstance.setWindowInstanceName(createWindowInstanceName(windowInstance));
         windowInstance.setWindowName(getConfigureName());
         windowInstance.setWindowNameSpace(getNameSpace());
         windowInstance.setWindowInstanceId(windowInstance.getWindowInstanceId());
@@ -281,13 +306,11 @@ public abstract class AbstractWindow extends BasedConfigurable implements IAfter
     /**
      * 创建window instance name
      *
-     * @param startTime
-     * @param endTime
-     * @param fireTime
+     * @param windowInstance
      * @return
      */
-    public String createWindowInstanceName(String startTime, String endTime, String fireTime) {
-        return (fireMode == 0 || fireMode == 2) ? getConfigureName() : fireTime;
+    public String createWindowInstanceName(WindowInstance windowInstance) {
+        return (fireMode == 0 || fireMode == 2) ? getConfigureName() : windowInstance.getFireTime();
     }
 
     /**
@@ -610,6 +633,22 @@ public abstract class AbstractWindow extends BasedConfigurable implements IAfter
         this.waterMarkMs = waterMarkMs;
     }
 
+    public long getMaxOutOfOrdernessMs() {
+        return maxOutOfOrdernessMs;
+    }
+
+    public void setMaxOutOfOrdernessMs(long maxOutOfOrdernessMs) {
+        this.maxOutOfOrdernessMs = maxOutOfOrdernessMs;
+    }
+
+    public long getIdleSplitTimeoutMs() {
+        return idleSplitTimeoutMs;
+    }
+
+    public void setIdleSplitTimeoutMs(long idleSplitTimeoutMs) {
+        this.idleSplitTimeoutMs = idleSplitTimeoutMs;
+    }
+
     public int getSizeInterval() {
         return sizeInterval;
     }
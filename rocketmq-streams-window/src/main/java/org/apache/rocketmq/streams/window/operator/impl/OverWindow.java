@@ -19,27 +19,40 @@ package org.apache.rocketmq.streams.window.operator.impl;
 import java.util.Date;
 import java.util.List;
 
-import org.apache.rocketmq.streams.common.cache.compress.impl.IntValueKV;
 import org.apache.rocketmq.streams.common.context.AbstractContext;
 import org.apache.rocketmq.streams.common.context.IMessage;
 import org.apache.rocketmq.streams.common.utils.DateUtil;
+import org.apache.rocketmq.streams.common.utils.MapKeyUtil;
+import org.apache.rocketmq.streams.state.kv.rocksdb.RocksDBOperator;
 import org.apache.rocketmq.streams.window.model.WindowInstance;
 import org.apache.rocketmq.streams.window.operator.AbstractWindow;
+import org.apache.rocketmq.streams.window.state.impl.RowNumberState;
 import org.apache.rocketmq.streams.window.storage.WindowType;
 
 /**
- * 只支持 时间去重的场景，日志是按系统时间顺序，所以不落盘。需要设置groupByFieldName和rowNumerName字段
+ * 只支持 时间去重的场景，日志是按系统时间顺序。需要设置groupByFieldName和rowNumerName字段
+ * <p>
+ * 每个分组的行号在内存中最多保存maxPartitionCacheSize个，超出或空闲的分组逐个淘汰到本地rocksdb，再次出现时恢复
  */
 public class OverWindow extends AbstractWindow {
 
     private static int MAX_SIZE = 1000000;
-    protected transient IntValueKV intValueKV;
-    protected transient WindowInstance windowInstance;
+    private static int DEFAULT_PARTITION_IDLE_TIME_SECOND = 600;
+    protected transient RowNumberState rowNumberState;
+    protected transient volatile WindowInstance windowInstance;
     /**
      * 需要把生成的序列号返回设置到message，这个是序列号对应的名字
      */
     protected String rowNumerName;
     protected boolean isReservedOne=false;
+    /**
+     * 内存中最多保存的分组数
+     */
+    protected int maxPartitionCacheSize = MAX_SIZE;
+    /**
+     * 分组空闲多久后淘汰到本地存储，单位秒
+     */
+    protected int partitionIdleTimeSecond = DEFAULT_PARTITION_IDLE_TIME_SECOND;
 
     /**
      * 针对这个窗口实例完成计算，实际上是写入了缓存，在flush时完成真正的计算。写入缓存时把上下文（header，windowinstance，window）保存在消息中
@@ -51,17 +64,7 @@ public class OverWindow extends AbstractWindow {
     public AbstractContext<IMessage> doMessage(IMessage message, AbstractContext context) {
         String key = generateShuffleKey(message);
         createWindowInstanceByDate(new Date());
-        Integer value = intValueKV.get(key);
-        if (value == null) {
-            synchronized (this) {
-                value = intValueKV.get(key);
-                if (value == null) {
-                    value = 1;
-                    intValueKV.put(key, value);
-                }
-            }
-
-        }
+        int value = rowNumberState.incrementAndGet(key, System.currentTimeMillis());
         if(isReservedOne){
             if(value>1){
                 context.breakExecute();
@@ -71,17 +74,6 @@ public class OverWindow extends AbstractWindow {
         if(rowNumerName!=null){
             message.getMessageBody().put(rowNumerName, value);
         }
-
-        /**
-         * 如果超过最大值，直接归0
-         */
-        if (intValueKV.getSize() > MAX_SIZE) {
-            synchronized (this) {
-                if (intValueKV.getSize() > MAX_SIZE) {
-                    intValueKV = new IntValueKV(MAX_SIZE);
-                }
-            }
-        }
         return context;
     }
 
@@ -95,19 +87,24 @@ public class OverWindow extends AbstractWindow {
         if (windowInstance == null) {
             synchronized (this) {
                 if (windowInstance == null) {
-                    windowInstance = createWindowInstance(date);
-                    intValueKV = new IntValueKV(MAX_SIZE);
+                    WindowInstance instance = createWindowInstance(date);
+                    rowNumberState = createRowNumberState(instance);
+                    rowNumberState.reset(instance.getStartTimeMs());
+                    windowInstance = instance;
                     return;
                 }
             }
         }
-        String dateStr = DateUtil.format(date);
-        if (dateStr.compareTo(windowInstance.getStartTime()) >= 0 && dateStr.compareTo(windowInstance.getEndTime()) <= 0) {
+        long time = date.getTime() / 1000 * 1000;
+        if (time >= windowInstance.getStartTimeMs() && time <= windowInstance.getEndTimeMs()) {
             return;
         } else {
             synchronized (this) {
+                if (time >= windowInstance.getStartTimeMs() && time <= windowInstance.getEndTimeMs()) {
+                    return;
+                }
                 windowInstance = createWindowInstance(date);
-                intValueKV = new IntValueKV(MAX_SIZE);
+                rowNumberState.reset(windowInstance.getStartTimeMs());
             }
         }
     }
@@ -122,12 +119,22 @@ public class OverWindow extends AbstractWindow {
         List<Date> instanceStartTimes = DateUtil.getWindowBeginTime(date.getTime(), slideInterval, sizeInterval);
         Date instanceStartTime = instanceStartTimes.get(0);
         WindowInstance windowInstance = new WindowInstance();
-        windowInstance.setStartTime(DateUtil.format(instanceStartTime));
+        windowInstance.setStartTimeMs(instanceStartTime.getTime());
         Date endDate = DateUtil.addMinute(instanceStartTime, sizeInterval);
-        windowInstance.setEndTime(DateUtil.format(endDate));
+        windowInstance.setEndTimeMs(endDate.getTime());
         return windowInstance;
     }
 
+    /**
+     * 淘汰到rocksdb的数据至少保留两个窗口实例的时间
+     */
+    protected RowNumberState createRowNumberState(WindowInstance windowInstance) {
+        long windowSecond = (windowInstance.getEndTimeMs() - windowInstance.getStartTimeMs()) / 1000;
+        int ttlSecond = (int) Math.min(Integer.MAX_VALUE, Math.max(3600, windowSecond * 2));
+        String jobName = MapKeyUtil.createKey(getNameSpace(), getConfigureName());
+        return new RowNumberState(maxPartitionCacheSize, partitionIdleTimeSecond * 1000L, ttlSecond, () -> RocksDBOperator.createJobOperator(jobName));
+    }
+
     @Override
     public boolean isSynchronous() {
         return true;
@@ -143,6 +150,24 @@ public class OverWindow extends AbstractWindow {
         return super.initConfigurable();
     }
 
+    /**
+     * 释放行号状态持有的任务rocksdb引用，最后一个引用释放时关闭实例，rowNumber列族的ttl重新打开时保留
+     */
+    @Override
+    public void destroy() {
+        try {
+            super.destroy();
+        } finally {
+            synchronized (this) {
+                if (rowNumberState != null) {
+                    rowNumberState.close();
+                    rowNumberState = null;
+                }
+                windowInstance = null;
+            }
+        }
+    }
+
     @Override
     public int fireWindowInstance(WindowInstance windowInstance) {
         return 0;
@@ -161,6 +186,22 @@ public class OverWindow extends AbstractWindow {
         isReservedOne = reservedOne;
     }
 
+    public int getMaxPartitionCacheSize() {
+        return maxPartitionCacheSize;
+    }
+
+    public void setMaxPartitionCacheSize(int maxPartitionCacheSize) {
+        this.maxPartitionCacheSize = maxPartitionCacheSize;
+    }
+
+    public int getPartitionIdleTimeSecond() {
+        return partitionIdleTimeSecond;
+    }
+
+    public void setPartitionIdleTimeSecond(int partitionIdleTimeSecond) {
+        this.partitionIdleTimeSecond = partitionIdleTimeSecond;
+    }
+
     public String getRowNumerName() {
         return rowNumerName;
     }
@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.window.operator.impl;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import org.apache.rocketmq.streams.common.utils.DateUtil;
+import org.apache.rocketmq.streams.window.model.WindowInstance;
+import org.apache.rocketmq.streams.window.state.impl.WindowValue;
+
+/**
+ * 一个分组下的会话窗口，按开始时间排序的区间索引。查找消息所在的会话和合并相邻会话都是O(log n)
+ * <p>
+ * 会话之间不重叠，开始时间唯一。后一个会话的开始时间不晚于前一个会话的触发时间时，两个会话合并，被合并会话的accumulator通过combiner合并到保留的会话
+ */
+class SessionIndex {
+
+    private static final String SESSION_DATETIME_PATTERN = "yyyy-MM-dd HH:mm:ss";
+
+    /**
+     * 触发时间相对结束时间的延迟，即watermark，单位毫秒
+     */
+    private final long fireDelayMs;
+
+    /**
+     * 合并accumulator，第一个参数是保留的会话，第二个参数是被合并的会话
+     */
+    private final BiConsumer<WindowValue, WindowValue> combiner;
+
+    private final TreeMap<Long, Session> start2Session = new TreeMap<>();
+
+    SessionIndex(long fireDelayMs, BiConsumer<WindowValue, WindowValue> combiner) {
+        this.fireDelayMs = fireDelayMs;
+        this.combiner = combiner;
+    }
+
+    /**
+     * 加入已经存储的会话，开始时间相同的会话直接合并
+     *
+     * @param value
+     */
+    void load(WindowValue value) {
+        Session session = new Session(value);
+        Session exist = start2Session.get(session.start);
+        if (exist != null) {
+            absorb(exist, session);
+            return;
+        }
+        start2Session.put(session.start, session);
+    }
+
+    /**
+     * 找到消息所在的会话，不存在时创建，并合并因此重叠的相邻会话
+     *
+     * @param msgStart 消息的事件时间
+     * @param msgEnd   事件时间加上会话超时时间
+     * @param creator  创建新会话的WindowValue
+     * @return 消息需要累加到的会话
+     */
+    WindowValue assign(long msgStart, long msgEnd, Supplier<WindowValue> creator) {
+        Session target;
+        Map.Entry<Long, Session> floor = start2Session.floorEntry(msgStart);
+        if (floor != null && msgStart < floor.getValue().end) {
+            target = floor.getValue();
+            if (msgEnd > target.end) {
+                target.end = msgEnd;
+                target.fire = msgEnd + fireDelayMs;
+                target.changed = true;
+            }
+        } else {
+            Map.Entry<Long, Session> ceiling = start2Session.ceilingEntry(msgStart);
+            if (ceiling != null && msgEnd > ceiling.getKey()) {
+                target = ceiling.getValue();
+                start2Session.remove(target.start);
+                target.start = msgStart;
+                target.changed = true;
+                start2Session.put(target.start, target);
+            } else {
+                target = new Session(creator.get());
+                start2Session.put(target.start, target);
+            }
+        }
+        target = mergeNeighbours(target);
+        target.flush();
+        return target.value;
+    }
+
+    /**
+     * @return 按开始时间排序的会话
+     */
+    List<WindowValue> values() {
+        List<WindowValue> values = new ArrayList<>(start2Session.size());
+        for (Session session : start2Session.values()) {
+            session.flush();
+            values.add(session.value);
+        }
+        return values;
+    }
+
+    int size() {
+        return start2Session.size();
+    }
+
+    private Session mergeNeighbours(Session target) {
+        Map.Entry<Long, Session> lower = start2Session.lowerEntry(target.start);
+        while (lower != null && target.start <= lower.getValue().fire) {
+            Session survivor = lower.getValue();
+            start2Session.remove(target.start);
+            absorb(survivor, target);
+            target = survivor;
+            lower = start2Session.lowerEntry(target.start);
+        }
+        Map.Entry<Long, Session> higher = start2Session.higherEntry(target.start);
+        while (higher != null && higher.getKey() <= target.fire) {
+            start2Session.remove(higher.getKey());
+            absorb(target, higher.getValue());
+            higher = start2Session.higherEntry(target.start);
+        }
+        return target;
+    }
+
+    private void absorb(Session survivor, Session absorbed) {
+        survivor.end = Math.max(survivor.end, absorbed.end);
+        survivor.fire = Math.max(survivor.fire, absorbed.fire);
+        survivor.changed = true;
+        combiner.accept(survivor.value, absorbed.value);
+    }
+
+    /**
+     * 会话的毫秒时间，修改后flush回WindowValue的字符串时间
+     */
+    private static class Session {
+
+        private final WindowValue value;
+
+        private long start;
+
+        private long end;
+
+        private long fire;
+
+        private boolean changed;
+
+        private Session(WindowValue value) {
+            this.value = value;
+            this.start = WindowInstance.parseTime(value.getStartTime());
+            this.end = WindowInstance.parseTime(value.getEndTime());
+            this.fire = WindowInstance.parseTime(value.getFireTime());
+        }
+
+        private void flush() {
+            if (!changed) {
+                return;
+            }
+            value.setStartTime(DateUtil.format(new Date(start), SESSION_DATETIME_PATTERN));
+            value.setEndTime(DateUtil.format(new Date(end), SESSION_DATETIME_PATTERN));
+            value.setFireTime(DateUtil.format(new Date(fire), SESSION_DATETIME_PATTERN));
+            changed = false;
+        }
+    }
+}
@@ -17,12 +17,10 @@
 package org.apache.rocketmq.streams.window.operator.impl;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -59,6 +57,8 @@ public class SessionOperator extends WindowOperator {
 
     public static final String SESSION_WINDOW_END_TIME = "9999-01-01";
 
+    public static final long SESSION_WINDOW_BEGIN_TIME_MS = WindowInstance.parseTime(SESSION_WINDOW_BEGIN_TIME);
+
     private static final String SESSION_DATETIME_PATTERN = "yyyy-MM-dd HH:mm:ss";
 
     /**
@@ -107,7 +107,7 @@ public class SessionOperator extends WindowOperator {
                 LOG.warn("message is discarded as out of date! fire time: " + fireDate.getTime() + " max event time: " + maxEventTime);
                 return new ArrayList<>();
             }
-            instance.setFireTime(DateUtil.format(fireDate, SESSION_DATETIME_PATTERN));
+            instance.setFireTimeMs(fireDate.getTime());
             registerWindowInstance(instance);
         }
         return new ArrayList<WindowInstance>() {{
@@ -134,58 +134,23 @@ public class SessionOperator extends WindowOperator {
             List<String> groupSortedByOffset = new ArrayList<>();
             Map<String, List<IMessage>> groupBy = groupByGroupName(messages, groupSortedByOffset);
             int groupSize = groupSortedByOffset.size();
-            //
-            Map<String, String> value2StoreMap = new HashMap<>(groupSize);
+            long fireDelayMs = (waterMarkMs / 1000) * timeUnitAdjust * 1000L;
+            Map<String, List<WindowValue>> resultMap = new HashMap<>(groupSize);
             for (String groupValue : groupSortedByOffset) {
                 String storeKey = createStoreKey(queueId, groupValue, instance);
-                value2StoreMap.put(groupValue, storeKey);
-            }
-
-            List<WindowBaseValue> windowBaseValue = new ArrayList<>();
-
-            RocksdbIterator<List<WindowBaseValue>> rocksdbIterator = storage.getWindowBaseValueList(instance.getSplitId(),
-                    instance.getWindowInstanceId(), WindowType.SESSION_WINDOW, null);
-            while (rocksdbIterator.hasNext()) {
-                IteratorWrap<List<WindowBaseValue>> next = rocksdbIterator.next();
-                windowBaseValue.addAll(next.getData());
-            }
-
-            //1、按照storeKey过滤
-            //2、将WindowBaseValue转化成WindowValue
-            List<String> storeKeys = new ArrayList<>();
-            for (String groupValue : groupBy.keySet()) {
-                String storeKey = createStoreKey(queueId, groupValue, instance);
-                storeKeys.add(storeKey);
-            }
-
-            Map<String, List<WindowValue>> storeValueMap = windowBaseValue.stream()
-                    .map((value) -> (WindowValue) value)
-                    .filter((value) -> {
-                        for (String storeKey : storeKeys) {
-                            if (storeKey.equalsIgnoreCase(value.getMsgKey())) {
-                                return true;
-                            }
-                        }
-                        return false;
-                    }).collect(Collectors.groupingBy(WindowValue::getMsgKey));
-
-
-            Iterator<Map.Entry<String, List<IMessage>>> iterator = groupBy.entrySet().iterator();
-            Map<String, List<WindowValue>> resultMap = new HashMap<>(groupSize);
-            while (iterator.hasNext()) {
-                Map.Entry<String, List<IMessage>> entry = iterator.next();
-                String groupValue = entry.getKey();
-                String storeKey = value2StoreMap.get(groupValue);
-                List<IMessage> groupMessageList = entry.getValue();
-                Map<Long, WindowValue> id2ValueMap = new HashMap<>(groupMessageList.size());
-                List<WindowValue> valueList = storeValueMap.getOrDefault(storeKey, new ArrayList<>());
-                for (WindowValue value : valueList) {
-                    id2ValueMap.put(value.getPartitionNum(), value);
+                //只读取当前分组的会话，按开始时间建立区间索引
+                SessionIndex sessionIndex = new SessionIndex(fireDelayMs, this::combineWindowValue);
+                List<WindowBaseValue> storeValues = storage.getWindowBaseValueByMsgKey(instance.getSplitId(),
+                    instance.getWindowInstanceId(), WindowType.SESSION_WINDOW, null, storeKey);
+                for (WindowBaseValue storeValue : storeValues) {
+                    sessionIndex.load((WindowValue) storeValue);
                 }
 
-                //对消息挨条处理找到windowValue
-                for (IMessage message : groupMessageList) {
-                    WindowValue windowValue = queryOrCreateWindowValue(instance, queueId, groupValue, message, valueList, storeKey);
+                //对消息挨条处理找到windowValue，重叠的会话在assign中合并
+                for (IMessage message : groupBy.get(groupValue)) {
+                    Pair<Date, Date> startEndPair = getSessionTime(message);
+                    WindowValue windowValue = sessionIndex.assign(startEndPair.getLeft().getTime(), startEndPair.getRight().getTime(),
+                        () -> createWindowValue(queueId, groupValue, instance, message, storeKey));
                     windowValue.calculate(this, message);
                     //region trace
                     String traceId = message.getMessageBody().getString("SHUFFLE_TRACE_ID");
@@ -198,11 +163,9 @@ public class SessionOperator extends WindowOperator {
                         }
                     }
                     //endregion
-                    id2ValueMap.put(windowValue.getPartitionNum(), windowValue);
                 }
-                //merge values,
-                List<WindowValue> groupValueList = mergeWindowValue(new ArrayList<>(id2ValueMap.values()), instance);
-                resultMap.put(storeKey, groupValueList);
+                //被合并的会话不在结果中，存储时按storeKey整体覆盖
+                resultMap.put(storeKey, sessionIndex.values());
             }
             //
             store(resultMap, instance, queueId);
@@ -210,124 +173,19 @@ public class SessionOperator extends WindowOperator {
 
     }
 
-    //创建windowValue，如果已经存储的valueList中有WindowValue窗口已经包含新来message，那么merge下
-    private WindowValue queryOrCreateWindowValue(WindowInstance windowInstance, String queueId, String groupByValue,
-                                                 IMessage message, List<WindowValue> valueList, String storeKey) {
-        //
-        if (CollectionUtil.isEmpty(valueList)) {
-            return createWindowValue(queueId, groupByValue, windowInstance, message, storeKey);
-        }
-        //put keys to be deleted here and delete them at last
-        List<String> deletePrefixKeyList = new ArrayList<>();
-        //
-        for (WindowValue value : valueList) {
-            Date sessionBegin = DateUtil.parseTime(value.getStartTime());
-            Date sessionEnd = DateUtil.parseTime(value.getEndTime());
-            Pair<Date, Date> startEndPair = getSessionTime(message);
-            Date messageBegin = startEndPair.getLeft();
-            Date messageEnd = startEndPair.getRight();
-            if (messageBegin.compareTo(sessionBegin) >= 0 && messageBegin.compareTo(sessionEnd) < 0) {
-                //已经存储WindowValue窗口包含了新来message，合并窗口
-                sessionEnd = messageEnd;
-                Date sessionFire = DateUtil.addDate(TimeUnit.SECONDS, sessionEnd, (waterMarkMs / 1000) * timeUnitAdjust);
-                value.setEndTime(DateUtil.format(sessionEnd, SESSION_DATETIME_PATTERN));
-                //clean order storage as sort field 'fireTime' changed
-                //deleteMergeWindow(windowInstance.getWindowInstanceId(), value.getPartition(), value.getFireTime(), value.getPartitionNum(), value.getGroupBy());
-                //
-                value.setFireTime(DateUtil.format(sessionFire, SESSION_DATETIME_PATTERN));
-                return value;
-            } else if (messageBegin.compareTo(sessionBegin) < 0 && messageEnd.compareTo(sessionBegin) > 0) {
-                sessionBegin = messageBegin;
-                value.setStartTime(DateUtil.format(sessionBegin, SESSION_DATETIME_PATTERN));
-                return value;
-            }
-        }
-        //
-        WindowValue newValue = createWindowValue(queueId, groupByValue, windowInstance, message, storeKey);
-        valueList.add(newValue);
-        return newValue;
-    }
-
-    private List<WindowValue> mergeWindowValue(List<WindowValue> allValueList, WindowInstance windowInstance) {
-        if (allValueList.size() <= 1) {
-            return allValueList;
-        }
-
-        //合并后需要删除的WindowValue
-        Map<Integer/*被合并的索引*/, Integer/*合并key的索引*/> deleteValueMap = new HashMap<>(allValueList.size());
-
-        //
-        Map<Integer, List<Integer>> mergeValueMap = new HashMap<>(allValueList.size());
-        Collections.sort(allValueList, Comparator.comparing(WindowValue::getStartTime));
-
-
-        for (int outIndex = 0; outIndex < allValueList.size(); outIndex++) {
-            if (deleteValueMap.containsKey(outIndex)) {
-                continue;
-            }
-            int finalOutIndex = outIndex;
-            mergeValueMap.put(outIndex, new ArrayList<Integer>() {{
-                add(finalOutIndex);
-            }});
-            WindowValue outValue = allValueList.get(outIndex);
-            for (int inIndex = outIndex + 1; inIndex < allValueList.size(); inIndex++) {
-                WindowValue inValue = allValueList.get(inIndex);
-
-                //新来message的点落在 上一个窗口内,合并这两个点，形成一个窗口
-                if (0 <= inValue.getStartTime().compareTo(outValue.getStartTime()) && inValue.getStartTime().compareTo(outValue.getFireTime()) <= 0) {
-                    deleteValueMap.put(inIndex, outIndex);
-                    outValue.setEndTime(outValue.getEndTime().compareTo(inValue.getEndTime()) <= 0 ? inValue.getEndTime() : outValue.getEndTime());
-                    outValue.setFireTime(outValue.getFireTime().compareTo(inValue.getFireTime()) <= 0 ? inValue.getFireTime() : outValue.getFireTime());
-                    mergeValueMap.get(outIndex).add(inIndex);
-                } else {
-                    break;
-                }
-            }
-        }
-        Iterator<Map.Entry<Integer, List<Integer>>> iterator = mergeValueMap.entrySet().iterator();
-        List<WindowValue> resultList = new ArrayList<>();
-        while (iterator.hasNext()) {
-            Map.Entry<Integer, List<Integer>> entry = iterator.next();
-            WindowValue theValue = allValueList.get(entry.getKey());
-            List<Integer> indexList = entry.getValue();
-            WindowValue tempValue = WindowValue.mergeWindowValue(this, indexList.stream().map(index -> allValueList.get(index)).collect(Collectors.toList()));
-            theValue.setComputedColumnResult(tempValue.getComputedColumnResult());
-            theValue.setAggColumnResult(tempValue.getAggColumnResult());
-            resultList.add(theValue);
-        }
-
-        deleteValueMap.keySet().forEach(key -> {
-            WindowValue windowValue = allValueList.get(key);
-            deleteMergeWindow(windowInstance.getWindowInstanceId(), windowValue.getPartition(),
-                    windowValue.getFireTime(), windowValue.getPartitionNum(), windowValue.getGroupBy());
-        });
-        return resultList;
-    }
-
-
-    private void deleteMergeWindow(String windowInstanceId, String queueId, String fireTime, long partitionNum, String groupBy) {
-        RocksdbIterator<List<WindowBaseValue>> windowBaseValueWrap = storage.getWindowBaseValueList(queueId, windowInstanceId, WindowType.SESSION_WINDOW, null);
-
-        ArrayList<WindowValue> deleteList = new ArrayList<>();
-
-        while (windowBaseValueWrap.hasNext()) {
-            IteratorWrap<List<WindowBaseValue>> wrap = windowBaseValueWrap.next();
-            List<WindowBaseValue> windowValue = wrap.getData();
-
-            for (WindowBaseValue item : windowValue) {
-                WindowValue temp = (WindowValue) item;
-                if (temp.getPartition().equals(queueId) && temp.getPartitionNum() == partitionNum
-                        && temp.getGroupBy().equals(groupBy) && temp.getFireTime().equals(fireTime)) {
-                    deleteList.add(temp);
-                }
-            }
-        }
-
-        //删除
-        for (WindowValue windowValue : deleteList) {
-            storage.deleteWindowBaseValue(windowValue.getPartition(), windowValue.getWindowInstanceId(), WindowType.SESSION_WINDOW, null, windowValue.getMsgKey());
-        }
-
+    /**
+     * 两个会话合并时，把被合并会话的计算结果合并到保留的会话，只合并这两个会话的accumulator
+     *
+     * @param survivor 保留的会话
+     * @param absorbed 被合并的会话
+     */
+    private void combineWindowValue(WindowValue survivor, WindowValue absorbed) {
+        List<WindowValue> pair = new ArrayList<>(2);
+        pair.add(survivor);
+        pair.add(absorbed);
+        WindowValue mergedValue = WindowValue.mergeWindowValue(this, pair);
+        survivor.setComputedColumnResult(mergedValue.getComputedColumnResult());
+        survivor.setAggColumnResult(mergedValue.getAggColumnResult());
     }
 
     private Pair<Date, Date> getSessionTime(IMessage message) {
@@ -17,55 +17,97 @@
 package org.apache.rocketmq.streams.window.operator.impl;
 
 import com.alibaba.fastjson.JSONObject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.rocketmq.streams.common.context.MessageHeader;
 import org.apache.rocketmq.streams.common.datatype.DataType;
 import org.apache.rocketmq.streams.common.datatype.IJsonable;
-import org.apache.rocketmq.streams.common.datatype.IntDataType;
 import org.apache.rocketmq.streams.common.datatype.ListDataType;
 import org.apache.rocketmq.streams.common.datatype.MapDataType;
 import org.apache.rocketmq.streams.common.datatype.StringDataType;
+import org.apache.rocketmq.streams.common.utils.Base64Utils;
 import org.apache.rocketmq.streams.common.utils.DataTypeUtil;
+import org.apache.rocketmq.streams.script.function.aggregation.AccumulatorCodecRegistry;
+import org.apache.rocketmq.streams.script.service.IAccumulatorCodec;
 import org.apache.rocketmq.streams.window.model.WindowCache;
 import org.apache.rocketmq.streams.window.model.WindowInstance;
 import org.apache.rocketmq.streams.window.operator.AbstractWindow;
 import org.apache.rocketmq.streams.window.shuffle.ShuffleChannel;
 
+/**
+ * 保存排序后的前topN条消息。排序字段按类型保存（数字是Double，其他是字符串），放在有序的TreeMap中，插入和淘汰都是O(log N)
+ * <p>
+ * 已经满了的时候，比第N条差的消息直接丢弃，不会序列化消息。相同排序值的消息只保留最新的一条
+ */
 public class TopNState implements IJsonable {
-    private static final String SIGN ="#@#%@" ;
-    private static final String NULL ="<NULL>" ;
-    protected List<String> sortValues=new ArrayList<>();
-    protected Map<String,String> orderByValue2Msgs=new HashMap<>();
-    protected int topN=100;
-    protected boolean isChanged=false;
-    protected transient ListDataType listDataType;
-    protected transient MapDataType mapDataType;
-    public TopNState(int topN){
+
+    /**
+     * 在AccumulatorCodecRegistry中注册的内置类型id
+     */
+    public static final int CODEC_TYPE_ID = 8;
+
+    private static final int CODEC_VERSION = 1;
+
+    private static final byte VALUE_NULL = 0;
+    private static final byte VALUE_NUMBER = 1;
+    private static final byte VALUE_STRING = 2;
+
+    private static final AtomicBoolean CODEC_REGISTERED = new AtomicBoolean(false);
+
+    protected int topN = 100;
+    protected boolean isChanged = false;
+    /**
+     * 每个排序字段是否升序，第一次加入消息时根据orderBy生成
+     */
+    protected boolean[] ascs;
+    /**
+     * 排序值到消息json的映射，按排序值从好到差排列，lastKey是第N条
+     */
+    protected transient TreeMap<Object[], String> sortValue2Msgs;
+    /**
+     * 旧版本保存的状态，只有排好序的消息，排序值在下次加入消息时根据orderBy重新生成
+     */
+    protected transient List<String> legacyMsgs;
+
+    public TopNState(int topN) {
         this();
-        this.topN=topN;
+        this.topN = topN;
     }
-    public TopNState(){
-        listDataType=new ListDataType();
-        listDataType.setParadigmType(new StringDataType());
-        mapDataType=new MapDataType();
-        mapDataType.setKeyParadigmType(new StringDataType());
-        mapDataType.setValueParadigmType(new StringDataType());
+
+    public TopNState() {
+
     }
+
+    /**
+     * 注册到AccumulatorCodecRegistry，WindowValue保存时使用二进制格式，可以重复调用
+     */
+    public static void registerCodec() {
+        if (CODEC_REGISTERED.compareAndSet(false, true)) {
+            AccumulatorCodecRegistry.registerBuiltin(CODEC_TYPE_ID, TopNState.class, new TopNStateCodec());
+        }
+    }
+
     /**
-     *
      * @return msg order by orderbyFields
      */
-    public List<JSONObject> getOrderMsgs(String rowNumerName, Set<String> fieldNames){
-        List<JSONObject> msgs=new ArrayList<>();
-        for(int i=0;i<sortValues.size();i++){
-            JSONObject jsonObject=JSONObject.parseObject(orderByValue2Msgs.get(sortValues.get(i)));
-            JSONObject msg=new JSONObject(jsonObject);
+    public List<JSONObject> getOrderMsgs(String rowNumerName, Set<String> fieldNames) {
+        List<JSONObject> msgs = new ArrayList<>();
+        Iterable<String> orderMsgs = legacyMsgs != null ? legacyMsgs : (sortValue2Msgs == null ? new ArrayList<>() : sortValue2Msgs.values());
+        int i = 0;
+        for (String orderMsg : orderMsgs) {
+            JSONObject msg = JSONObject.parseObject(orderMsg);
             msg.remove(WindowCache.ORIGIN_QUEUE_ID);
             msg.remove(WindowCache.SHUFFLE_KEY);
             msg.remove(WindowCache.ORIGIN_OFFSET);
@@ -80,7 +122,7 @@ public class TopNState implements IJsonable {
             msg.remove(ShuffleChannel.SHUFFLE_OFFSET);
             msg.remove(AbstractWindow.WINDOW_START);
             msg.remove(AbstractWindow.WINDOW_END);
-            msg.put(rowNumerName,i+1);
+            msg.put(rowNumerName, ++i);
             msgs.add(msg);
         }
         return msgs;
@@ -88,135 +130,124 @@ public class TopNState implements IJsonable {
 
     /**
      * add msg and sort
+     *
      * @param message
      * @param orderByList
-     * @return
+     * @return 消息是否进入了topN
      */
-    public boolean addAndSortMsg(JSONObject message,List<OrderBy> orderByList){
-        String orderByValue=createOrderByValue(message,orderByList);
-
-        if(sortValues.size()<topN){
-            this.orderByValue2Msgs.put(orderByValue,message.toJSONString());
-            this.sortValues.add(orderByValue);
-        }else {
-            String lastValue=sortValues.get(sortValues.size()-1);
-            if(compareElement(orderByValue,lastValue,orderByList)<0){
-                sortValues.add(orderByValue);
-                this.orderByValue2Msgs.put(orderByValue,message.toJSONString());
-            }else {
+    public boolean addAndSortMsg(JSONObject message, List<OrderBy> orderByList) {
+        prepare(orderByList);
+        Object[] sortValue = createSortValue(message, orderByList);
+        if (sortValue2Msgs.size() >= topN && !sortValue2Msgs.containsKey(sortValue)) {
+            Object[] lastValue = sortValue2Msgs.lastKey();
+            if (sortValue2Msgs.comparator().compare(sortValue, lastValue) >= 0) {
                 return false;
             }
+            sortValue2Msgs.pollLastEntry();
         }
-        isChanged=true;
-        Collections.sort(sortValues, new Comparator<String>() {
-            @Override public int compare(String o1, String o2) {
-                return compareElement(o1,o2,orderByList);
-            }
-        });
-        while (sortValues.size()>topN){
-            String sortValue=sortValues.remove(sortValues.size()-1);
-            this.orderByValue2Msgs.remove(sortValue);
-        }
+        sortValue2Msgs.put(sortValue, message.toJSONString());
+        isChanged = true;
         return true;
     }
 
-    private int compareElement(String left, String right,List<OrderBy> orderByList) {
-        if(left.equals(right)){
-            return 0;
+    /**
+     * 第一次加入消息或者从旧版本状态恢复后，根据orderBy生成排序结构
+     */
+    protected void prepare(List<OrderBy> orderByList) {
+        if (!isSameOrder(orderByList)) {
+            boolean[] newAscs = new boolean[orderByList.size()];
+            for (int i = 0; i < newAscs.length; i++) {
+                newAscs[i] = orderByList.get(i).isAsc();
+            }
+            //排序方式变化，按新的排序值重建
+            if (sortValue2Msgs != null && legacyMsgs == null) {
+                legacyMsgs = new ArrayList<>(sortValue2Msgs.values());
+            }
+            ascs = newAscs;
+            sortValue2Msgs = null;
         }
-        String[] leftValues=left.split(SIGN);
-        String[] rigthValues=right.split(SIGN);
-        int len=leftValues.length>right.length()?right.length():left.length();
-        for(int i=0;i<len;i++){
-            String leftElement=leftValues[i];
-            String rigthElement=rigthValues[i];
-            if(leftElement.equals(rigthElement)){
-                continue;
+        if (sortValue2Msgs == null) {
+            sortValue2Msgs = new TreeMap<>(createComparator(ascs));
+        }
+        if (legacyMsgs != null) {
+            List<String> msgs = legacyMsgs;
+            legacyMsgs = null;
+            for (String msg : msgs) {
+                JSONObject message = JSONObject.parseObject(msg);
+                sortValue2Msgs.put(createSortValue(message, orderByList), msg);
             }
-            OrderBy orderBy=orderByList.get(i);
-            DataType dataType=orderBy.getDataType();
-            boolean isAsc=orderBy.isAsc;
-            if(DataTypeUtil.isNumber(dataType)){
-                Double leftDouble=Double.valueOf(leftElement);
-                Double rigthDoubel=Double.valueOf(rigthElement);
-                if(isAsc){
-                    return leftDouble-rigthDoubel<0?-1:1;
-                }else {
-                    return rigthDoubel-leftDouble>0?1:-1;
-                }
-            }else {
-                if(isAsc){
-                    return leftElement.compareTo(rigthElement);
-                }else {
-                    return rigthElement.compareTo(leftElement);
-                }
+            while (sortValue2Msgs.size() > topN) {
+                sortValue2Msgs.pollLastEntry();
             }
         }
-        return 0;
-
     }
 
-    public static void main(String[] args) {
-        List<OrderBy> orders=new ArrayList<>();
-        OrderBy orderBy=new OrderBy("name",false);
-        orderBy.setDataType(new StringDataType());
-        orders.add(orderBy);
-        orderBy=new OrderBy("age",false);
-        orderBy.setDataType(new IntDataType());
-        orders.add(orderBy);
-        TopNState topNState=new TopNState(3);
-        JSONObject msg1=new JSONObject();
-        msg1.put("name","chris2");
-        msg1.put("age",18);
-        topNState.addAndSortMsg(msg1,orders);
-        JSONObject msg2=new JSONObject();
-        msg2.put("name","chris2");
-        msg2.put("age",19);
-        topNState.addAndSortMsg(msg2,orders);
-        JSONObject msg3=new JSONObject();
-        msg3.put("name","chris1");
-        msg3.put("age",18);
-        topNState.addAndSortMsg(msg3,orders);
-
-        JSONObject msg4=new JSONObject();
-        msg4.put("name","chris1");
-        msg4.put("age",19);
-        topNState.addAndSortMsg(msg4,orders);
-        System.out.println(topNState.sortValues.size());
+    protected boolean isSameOrder(List<OrderBy> orderByList) {
+        if (ascs == null || ascs.length != orderByList.size()) {
+            return false;
+        }
+        for (int i = 0; i < ascs.length; i++) {
+            if (ascs[i] != orderByList.get(i).isAsc()) {
+                return false;
+            }
+        }
+        return true;
     }
 
+    /**
+     * 数字按大小比较，其他按字符串比较，null排在最后
+     */
+    protected static Comparator<Object[]> createComparator(boolean[] ascs) {
+        return new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] left, Object[] right) {
+                for (int i = 0; i < ascs.length; i++) {
+                    Object leftElement = left[i];
+                    Object rightElement = right[i];
+                    if (leftElement == rightElement) {
+                        continue;
+                    }
+                    if (leftElement == null) {
+                        return 1;
+                    }
+                    if (rightElement == null) {
+                        return -1;
+                    }
+                    int value;
+                    if (leftElement instanceof Double && rightElement instanceof Double) {
+                        value = Double.compare((Double) leftElement, (Double) rightElement);
+                    } else {
+                        value = leftElement.toString().compareTo(rightElement.toString());
+                    }
+                    if (value != 0) {
+                        return ascs[i] ? value : -value;
+                    }
+                }
+                return 0;
+            }
+        };
+    }
 
-    protected String createOrderByValue(JSONObject message, List<OrderBy> list) {
-        StringBuilder stringBuilder=new StringBuilder();
-        boolean isFirst=true;
-        for(OrderBy orderBy:list){
-            Object  object=message.get(orderBy.getFieldName());
-            DataType dataType=orderBy.getDataType();
-            if(dataType==null&&object!=null){
-                dataType= DataTypeUtil.getDataTypeFromClass(object.getClass());
-                orderBy.setDataType(dataType);
+    protected Object[] createSortValue(JSONObject message, List<OrderBy> list) {
+        Object[] values = new Object[list.size()];
+        for (int i = 0; i < values.length; i++) {
+            OrderBy orderBy = list.get(i);
+            Object object = message.get(orderBy.getFieldName());
+            if (object == null) {
+                continue;
             }
-            String value="<null>";
-            if(object!=null){
-                value=dataType.toDataJson(object);
+            DataType dataType = orderBy.getDataType();
+            if (dataType == null) {
+                dataType = DataTypeUtil.getDataTypeFromClass(object.getClass());
+                orderBy.setDataType(dataType);
             }
-            if(isFirst){
-                stringBuilder.append(value);
-                isFirst=false;
-            }else {
-                stringBuilder.append(SIGN);
-                stringBuilder.append(value);
+            if (DataTypeUtil.isNumber(dataType)) {
+                values[i] = object instanceof Number ? ((Number) object).doubleValue() : Double.valueOf(object.toString());
+            } else {
+                values[i] = dataType.toDataJson(object);
             }
         }
-        return stringBuilder.toString();
-    }
-
-    public List<String> getSortValues() {
-        return sortValues;
-    }
-
-    public void setSortValues(List<String> sortValues) {
-        this.sortValues = sortValues;
+        return values;
     }
 
     public int getTopN() {
@@ -227,12 +258,11 @@ public class TopNState implements IJsonable {
         this.topN = topN;
     }
 
-    public Map<String, String> getOrderByValue2Msgs() {
-        return orderByValue2Msgs;
-    }
-
-    public void setOrderByValue2Msgs(Map<String, String> orderByValue2Msgs) {
-        this.orderByValue2Msgs = orderByValue2Msgs;
+    public int size() {
+        if (legacyMsgs != null) {
+            return legacyMsgs.size();
+        }
+        return sortValue2Msgs == null ? 0 : sortValue2Msgs.size();
     }
 
     public boolean isChanged() {
@@ -243,20 +273,145 @@ public class TopNState implements IJsonable {
         isChanged = changed;
     }
 
-    @Override public String toJson() {
-        JSONObject jsonObject=new JSONObject();
-        jsonObject.put("sortValues",listDataType.toDataJson(this.sortValues));
-        jsonObject.put("topN",this.topN);
-        jsonObject.put("changed",this.isChanged?1:0);
-        jsonObject.put("orderByValue2Msgs",mapDataType.toDataJson(this.orderByValue2Msgs));
-        return jsonObject.toJSONString();
+    @Override
+    public String toJson() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            TopNStateCodec.write(this, new DataOutputStream(bytes));
+            JSONObject jsonObject = new JSONObject();
+            jsonObject.put("version", CODEC_VERSION);
+            jsonObject.put("state", Base64Utils.encode(bytes.toByteArray()));
+            return jsonObject.toJSONString();
+        } catch (IOException e) {
+            throw new RuntimeException("serialize topN state error", e);
+        }
+    }
+
+    /**
+     * 兼容旧版本的格式：sortValues是排好序的排序值字符串，orderByValue2Msgs是排序值到消息的映射
+     */
+    @Override
+    public void toObject(String jsonString) {
+        JSONObject jsonObject = JSONObject.parseObject(jsonString);
+        if (jsonObject.containsKey("state")) {
+            try {
+                byte[] bytes = Base64Utils.decode(jsonObject.getString("state"));
+                TopNStateCodec.read(this, new DataInputStream(new ByteArrayInputStream(bytes)));
+            } catch (IOException e) {
+                throw new RuntimeException("deserialize topN state error", e);
+            }
+            return;
+        }
+        ListDataType listDataType = new ListDataType();
+        listDataType.setParadigmType(new StringDataType());
+        MapDataType mapDataType = new MapDataType();
+        mapDataType.setKeyParadigmType(new StringDataType());
+        mapDataType.setValueParadigmType(new StringDataType());
+        this.topN = jsonObject.getInteger("topN");
+        this.isChanged = jsonObject.getInteger("changed") == 1;
+        List<String> sortValues = listDataType.getData(jsonObject.getString("sortValues"));
+        Map<String, String> orderByValue2Msgs = mapDataType.getData(jsonObject.getString("orderByValue2Msgs"));
+        this.legacyMsgs = new ArrayList<>();
+        if (sortValues != null && orderByValue2Msgs != null) {
+            for (String sortValue : sortValues) {
+                String msg = orderByValue2Msgs.get(sortValue);
+                if (msg != null) {
+                    legacyMsgs.add(msg);
+                }
+            }
+        }
+        this.ascs = null;
+        this.sortValue2Msgs = null;
     }
 
-    @Override public void toObject(String jsonString) {
-        JSONObject jsonObject=JSONObject.parseObject(jsonString);
-        this.topN=jsonObject.getInteger("topN");
-        this.isChanged=jsonObject.getInteger("changed")==1?true:false;
-        this.sortValues=listDataType.getData(jsonObject.getString("sortValues"));
-        this.orderByValue2Msgs=mapDataType.getData(jsonObject.getString("orderByValue2Msgs"));
+    /**
+     * 二进制格式：topN，changed，每个字段的升降序，然后按顺序保存每条消息的排序值和消息
+     */
+    protected static class TopNStateCodec implements IAccumulatorCodec<TopNState> {
+
+        @Override
+        public int getVersion() {
+            return CODEC_VERSION;
+        }
+
+        @Override
+        public void encode(TopNState state, DataOutput out) throws IOException {
+            write(state, out);
+        }
+
+        @Override
+        public TopNState decode(int version, DataInput in) throws IOException {
+            TopNState state = new TopNState();
+            read(state, in);
+            return state;
+        }
+
+        protected static void write(TopNState state, DataOutput out) throws IOException {
+            out.writeInt(state.topN);
+            out.writeBoolean(state.isChanged);
+            if (state.legacyMsgs != null || state.ascs == null) {
+                out.writeInt(-1);
+                List<String> msgs = state.legacyMsgs == null ? new ArrayList<>() : state.legacyMsgs;
+                out.writeInt(msgs.size());
+                for (String msg : msgs) {
+                    AccumulatorCodecRegistry.writeString(msg, out);
+                }
+                return;
+            }
+            out.writeInt(state.ascs.length);
+            for (boolean asc : state.ascs) {
+                out.writeBoolean(asc);
+            }
+            out.writeInt(state.sortValue2Msgs.size());
+            for (Map.Entry<Object[], String> entry : state.sortValue2Msgs.entrySet()) {
+                for (Object value : entry.getKey()) {
+                    if (value == null) {
+                        out.writeByte(VALUE_NULL);
+                    } else if (value instanceof Double) {
+                        out.writeByte(VALUE_NUMBER);
+                        out.writeDouble((Double) value);
+                    } else {
+                        out.writeByte(VALUE_STRING);
+                        AccumulatorCodecRegistry.writeString(value.toString(), out);
+                    }
+                }
+                AccumulatorCodecRegistry.writeString(entry.getValue(), out);
+            }
+        }
+
+        protected static void read(TopNState state, DataInput in) throws IOException {
+            state.topN = in.readInt();
+            state.isChanged = in.readBoolean();
+            int columnCount = in.readInt();
+            if (columnCount < 0) {
+                int size = in.readInt();
+                state.ascs = null;
+                state.sortValue2Msgs = null;
+                state.legacyMsgs = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    state.legacyMsgs.add(AccumulatorCodecRegistry.readString(in));
+                }
+                return;
+            }
+            state.ascs = new boolean[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                state.ascs[i] = in.readBoolean();
+            }
+            int size = in.readInt();
+            state.legacyMsgs = null;
+            state.sortValue2Msgs = new TreeMap<>(createComparator(state.ascs));
+            for (int i = 0; i < size; i++) {
+                Object[] values = new Object[columnCount];
+                for (int j = 0; j < columnCount; j++) {
+                    byte type = in.readByte();
+                    if (type == VALUE_NUMBER) {
+                        values[j] = in.readDouble();
+                    } else if (type == VALUE_STRING) {
+                        values[j] = AccumulatorCodecRegistry.readString(in);
+                    }
+                }
+                state.sortValue2Msgs.put(values, AccumulatorCodecRegistry.readString(in));
+            }
+        }
     }
 }
@@ -31,7 +31,6 @@ import org.apache.rocketmq.streams.window.storage.RocksdbIterator;
 import org.apache.rocketmq.streams.window.storage.WindowType;
 
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -43,51 +42,46 @@ public class WindowOperator extends AbstractShuffleWindow {
         super();
     }
 
+    /**
+     * 按存储的key顺序流式读取windowValue，每攒够batchSize个发送一次，内存中最多保留一批
+     */
     @Override
     public int doFireWindowInstance(WindowInstance instance) {
         String windowInstanceId = instance.getWindowInstanceId();
         String queueId = instance.getSplitId();
 
-        RocksdbIterator<WindowBaseValue> rocksdbIterator = storage.getWindowBaseValue(queueId, windowInstanceId, WindowType.NORMAL_WINDOW, null);
+        RocksdbIterator<List<WindowBaseValue>> rocksdbIterator = storage.getWindowBaseValueList(queueId, windowInstanceId, WindowType.NORMAL_WINDOW, null);
 
-        ArrayList<WindowValue> windowValues = new ArrayList<>();
+        int batchSize = Math.max(1, windowCache.getBatchSize());
+        List<WindowValue> batch = new ArrayList<>(batchSize);
+        int fireCount = 0;
         while (rocksdbIterator.hasNext()) {
-            IteratorWrap<WindowBaseValue> next = rocksdbIterator.next();
-            WindowValue data = (WindowValue)next.getData();
-            windowValues.add(data);
+            IteratorWrap<List<WindowBaseValue>> next = rocksdbIterator.next();
+            List<WindowBaseValue> data = next.getData();
+            if (data == null) {
+                continue;
+            }
+            for (WindowBaseValue value : data) {
+                batch.add((WindowValue) value);
+                if (batch.size() >= batchSize) {
+                    fireCount += sendBatch(batch, queueId);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
         }
-
-        windowValues.sort(Comparator.comparingLong(WindowBaseValue::getPartitionNum));
-
-        int fireCount = sendBatch(windowValues, queueId, 0);
+        fireCount += sendBatch(batch, queueId);
 
         clearFire(instance);
 
         return fireCount;
     }
 
-
-    private int sendBatch(List<WindowValue> windowValues, String queueId, int fireCount) {
-        if (windowValues == null || windowValues.size() == 0) {
-            return fireCount;
-        }
-
-        if (windowValues.size() <= windowCache.getBatchSize()) {
-            sendFireMessage(windowValues, queueId);
-
-            fireCount += windowValues.size();
-
-            return fireCount;
-        } else {
-            ArrayList<WindowValue> temp = new ArrayList<>();
-            for (int i = 0; i < windowCache.getBatchSize(); i++) {
-                temp.add(windowValues.remove(i));
-            }
-
-            sendFireMessage(temp, queueId);
-
-            return sendBatch(windowValues, queueId, fireCount + windowCache.getBatchSize());
+    private int sendBatch(List<WindowValue> batch, String queueId) {
+        if (batch.isEmpty()) {
+            return 0;
         }
+        sendFireMessage(batch, queueId);
+        return batch.size();
     }
 
 
@@ -25,7 +25,6 @@ import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.rocketmq.streams.common.component.ComponentCreator;
@@ -411,12 +410,11 @@ public class JoinWindow extends AbstractShuffleWindow {
     public synchronized void clearFireWindowInstance(WindowInstance windowInstance) {
         List<WindowInstance> removeInstances = new ArrayList<>();
 
-        Date clearTime = DateUtil.addSecond(DateUtil.parse(windowInstance.getStartTime()), -sizeInterval * (retainWindowCount - 1) * 60);
+        long clearTime = windowInstance.getStartTimeMs() - sizeInterval * (retainWindowCount - 1) * 60 * 1000L;
         Iterator<String> iterable = this.windowInstanceMap.keySet().iterator();
         while (iterable.hasNext()) {
             WindowInstance instance = this.windowInstanceMap.get(iterable.next());
-            Date startTime = DateUtil.parse(instance.getStartTime());
-            if (DateUtil.dateDiff(clearTime, startTime) >= 0) {
+            if (instance.getStartTimeMs() <= clearTime) {
                 removeInstances.add(instance);
                 iterable.remove();
             }
@@ -443,7 +441,7 @@ public class JoinWindow extends AbstractShuffleWindow {
             IteratorWrap<WindowBaseValue> next = joinStates.next();
 
             JoinState joinState = (JoinState) next.getData();
-            Date start = addTime(instance.getStartTime(), TimeUnit.MINUTES, -retainWindowCount * sizeInterval);
+            long start = instance.getStartTimeMs() - retainWindowCount * sizeInterval * 60 * 1000L;
 
             if (canDelete(instance, joinState, start)) {
                 storage.deleteWindowBaseValue(instance.getSplitId(), instance.getWindowInstanceId(), WindowType.JOIN_WINDOW, windowJoinType);
@@ -451,15 +449,10 @@ public class JoinWindow extends AbstractShuffleWindow {
         }
     }
 
-    private boolean canDelete(WindowInstance instance, JoinState joinState, Date start) {
+    private boolean canDelete(WindowInstance instance, JoinState joinState, long start) {
         return instance.getWindowNameSpace().equals(joinState.getWindowNameSpace())
                 && instance.getWindowName().equals(joinState.getWindowName())
-                && instance.getGmtCreate().getTime() < start.getTime();
-    }
-
-    private Date addTime(String time, TimeUnit unit, int value) {
-        Date date = DateUtil.parseTime(time);
-        return DateUtil.addDate(unit, date, value);
+                && instance.getGmtCreate().getTime() < start;
     }
 
     protected List<Map<String, Object>> matchRows(JSONObject msg, List<Map<String, Object>> rows) {
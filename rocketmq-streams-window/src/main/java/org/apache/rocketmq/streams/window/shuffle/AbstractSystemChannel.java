@@ -65,6 +65,15 @@ public abstract class AbstractSystemChannel implements IConfigurableIdentificati
         consumer.start(this);
     }
 
+    /**
+     * 停止消费，不再接收新的消息
+     */
+    public void destroy() {
+        if (consumer != null) {
+            consumer.destroy();
+        }
+    }
+
     /**
      * 如果用户未配置shuffle channel，根据pipeline数据源动态创建
      *
@@ -23,6 +23,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.rocketmq.streams.common.channel.sink.AbstractSink;
 import org.apache.rocketmq.streams.common.context.IMessage;
@@ -73,11 +74,18 @@ public class ShuffleCache extends AbstractSink {
 
             stateMustLoad(queueId);
 
-            window.shuffleCalculate(messages, windowInstance, queueId);
-
-            //保存处理进度
-            saveSplitProgress(queueId, messages);
-            window.saveMsgContext(queueId,windowInstance,messages);
+            //和同一分片的窗口触发互斥
+            ReentrantLock splitLock = window.getWindowFireSource().getFireExecutor().getSplitLock(queueId);
+            splitLock.lock();
+            try {
+                window.shuffleCalculate(messages, windowInstance, queueId);
+
+                //保存处理进度
+                saveSplitProgress(queueId, messages);
+                window.saveMsgContext(queueId,windowInstance,messages);
+            } finally {
+                splitLock.unlock();
+            }
         }
             return true;
     }
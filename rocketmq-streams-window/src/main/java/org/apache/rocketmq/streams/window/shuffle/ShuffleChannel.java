@@ -50,6 +50,7 @@ import org.apache.rocketmq.streams.common.topology.ChainPipeline;
 import org.apache.rocketmq.streams.common.topology.model.Pipeline;
 import org.apache.rocketmq.streams.common.utils.CompressUtil;
 import org.apache.rocketmq.streams.common.utils.MapKeyUtil;
+import org.apache.rocketmq.streams.script.function.aggregation.DistinctValueStore;
 import org.apache.rocketmq.streams.window.debug.DebugWriter;
 import org.apache.rocketmq.streams.window.model.WindowCache;
 import org.apache.rocketmq.streams.window.model.WindowInstance;
@@ -117,6 +118,15 @@ public class ShuffleChannel extends AbstractSystemChannel {
         }
     }
 
+    /**
+     * 停止消费和shuffle cache的自动刷新，之后不会再有shuffle计算写入存储
+     */
+    @Override
+    public void destroy() {
+        super.destroy();
+        shuffleCache.closeAutoFlush();
+    }
+
     /**
      * init shuffle channel
      */
@@ -173,6 +183,8 @@ public class ShuffleChannel extends AbstractSystemChannel {
         if (isFilter) {
             return null;
         }
+        //待触发的窗口实例太多时暂停消费，等待触发线程追上
+        window.getWindowFireSource().getFireExecutor().waitIfBackPressure();
         String queueId = oriMessage.getHeader().getQueueId();
         JSONArray messages = oriMessage.getMessageBody().getJSONArray(SHUFFLE_MESSAGES);
         if (messages == null) {
@@ -255,6 +267,7 @@ public class ShuffleChannel extends AbstractSystemChannel {
         if (message.getHeader().isNeedFlush()) {
             this.flush(message.getHeader().getCheckpointQueueIds());
             window.getStorage().flush(new ArrayList<>(message.getHeader().getCheckpointQueueIds()));
+            DistinctValueStore.flushIfCreated();
         }
         CheckPointState checkPointState = new CheckPointState();
         checkPointState.setQueueIdAndOffset(this.shuffleCache.getFinishedQueueIdAndOffsets(checkPointMessage));
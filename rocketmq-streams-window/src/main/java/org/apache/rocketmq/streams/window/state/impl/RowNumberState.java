@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.window.state.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import org.apache.rocketmq.streams.common.utils.HashUtil;
+import org.apache.rocketmq.streams.common.utils.NumberUtils;
+import org.apache.rocketmq.streams.state.kv.rocksdb.RocksDBOperator;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBatch;
+
+/**
+ * over window中每个分组的行号计数
+ * <p>
+ * 内存中按访问顺序保存最近的分组，超过条数上限或者空闲超过idleTime的分组逐个淘汰，淘汰时写入rocksdb，再次出现时从rocksdb恢复。
+ * rocksdb的key是窗口实例的开始时间加上分组的128位hash，新的窗口实例只清空内存，旧实例的数据由rocksdb的ttl删除
+ */
+public class RowNumberState {
+
+    public static final String ROW_NUMBER_COLUMN_FAMILY = "rowNumber";
+
+    protected final int maxSize;
+
+    protected final long idleTime;
+
+    protected final int ttlSecond;
+
+    /**
+     * 第一次淘汰时才创建rocksdb实例，分组少时不需要本地存储
+     */
+    protected final Supplier<RocksDBOperator> operatorSupplier;
+
+    protected RocksDBOperator operator;
+
+    protected ColumnFamilyHandle columnFamily;
+
+    protected final LinkedHashMap<String, Counter> counters = new LinkedHashMap<>(16, 0.75f, true);
+
+    protected long instanceStartTime;
+
+    /**
+     * 当前窗口实例淘汰到rocksdb的分组数，为0时不需要读rocksdb
+     */
+    protected long instanceSpillCount = 0;
+
+    /**
+     * metric info
+     */
+    protected long spillCount = 0;
+    protected long restoreCount = 0;
+
+    private final byte[] hashBytes = new byte[16];
+
+    /**
+     * @param maxSize          内存中最多保存的分组数
+     * @param idleTime         分组空闲多久后淘汰，单位毫秒，小于等于0时不按时间淘汰
+     * @param ttlSecond        淘汰到rocksdb的数据保留时间，至少覆盖一个窗口实例
+     * @param operatorSupplier 创建rocksdb实例
+     */
+    public RowNumberState(int maxSize, long idleTime, int ttlSecond, Supplier<RocksDBOperator> operatorSupplier) {
+        this.maxSize = Math.max(1, maxSize);
+        this.idleTime = idleTime;
+        this.ttlSecond = ttlSecond;
+        this.operatorSupplier = operatorSupplier;
+    }
+
+    /**
+     * 分组的行号加一
+     *
+     * @param key         分组
+     * @param currentTime 当前时间，单位毫秒
+     * @return 加一后的行号，从1开始
+     */
+    public synchronized int incrementAndGet(String key, long currentTime) {
+        Counter counter = counters.get(key);
+        if (counter == null) {
+            counter = new Counter();
+            if (instanceSpillCount > 0) {
+                counter.value = restore(key);
+            }
+            counters.put(key, counter);
+        }
+        counter.value++;
+        counter.lastAccessTime = currentTime;
+        evict(currentTime);
+        return counter.value;
+    }
+
+    /**
+     * 开始新的窗口实例，之前的计数不再使用
+     *
+     * @param instanceStartTime 窗口实例的开始时间
+     */
+    public synchronized void reset(long instanceStartTime) {
+        this.instanceStartTime = instanceStartTime;
+        this.instanceSpillCount = 0;
+        this.counters.clear();
+    }
+
+    /**
+     * 释放rocksdb实例的引用，计数全部清空
+     */
+    public synchronized void close() {
+        counters.clear();
+        instanceSpillCount = 0;
+        if (operator != null) {
+            operator.close();
+            operator = null;
+            columnFamily = null;
+        }
+    }
+
+    public synchronized int size() {
+        return counters.size();
+    }
+
+    public synchronized long getSpillCount() {
+        return spillCount;
+    }
+
+    public synchronized long getRestoreCount() {
+        return restoreCount;
+    }
+
+    /**
+     * 从最久没有访问的分组开始，淘汰超出条数上限和空闲超时的分组，一次写入rocksdb
+     */
+    protected void evict(long currentTime) {
+        WriteBatch writeBatch = null;
+        try {
+            Iterator<Map.Entry<String, Counter>> iterator = counters.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Counter> eldest = iterator.next();
+                boolean isIdle = idleTime > 0 && currentTime - eldest.getValue().lastAccessTime > idleTime;
+                if (counters.size() <= maxSize && !isIdle) {
+                    break;
+                }
+                //先打开rocksdb，加载native库后才能创建WriteBatch
+                ColumnFamilyHandle handle = getColumnFamily();
+                if (writeBatch == null) {
+                    writeBatch = new WriteBatch();
+                }
+                byte[] value = new byte[8];
+                NumberUtils.putLongLittleEndian(value, 0, eldest.getValue().value);
+                writeBatch.put(handle, createStoreKey(eldest.getKey()), value);
+                iterator.remove();
+                instanceSpillCount++;
+                spillCount++;
+            }
+            if (writeBatch != null) {
+                operator.getInstance().write(operator.getWriteOptions(), writeBatch);
+            }
+        } catch (RocksDBException e) {
+            throw new RuntimeException("spill row number state error", e);
+        } finally {
+            if (writeBatch != null) {
+                writeBatch.close();
+            }
+        }
+    }
+
+    protected int restore(String key) {
+        try {
+            ColumnFamilyHandle handle = getColumnFamily();
+            byte[] value = operator.getInstance().get(handle, createStoreKey(key));
+            if (value == null) {
+                return 0;
+            }
+            restoreCount++;
+            return (int) NumberUtils.toLongLittleEndian(value, 0);
+        } catch (RocksDBException e) {
+            throw new RuntimeException("restore row number state error", e);
+        }
+    }
+
+    protected ColumnFamilyHandle getColumnFamily() {
+        if (columnFamily == null) {
+            operator = operatorSupplier.get();
+            columnFamily = operator.getColumnFamily(ROW_NUMBER_COLUMN_FAMILY, ttlSecond);
+        }
+        return columnFamily;
+    }
+
+    protected byte[] createStoreKey(String key) {
+        byte[] storeKey = new byte[24];
+        NumberUtils.putLongLittleEndian(storeKey, 0, instanceStartTime);
+        HashUtil.murmur3_128(key, 0, hashBytes);
+        System.arraycopy(hashBytes, 0, storeKey, 8, 16);
+        return storeKey;
+    }
+
+    protected static class Counter {
+        int value;
+        long lastAccessTime;
+    }
+}
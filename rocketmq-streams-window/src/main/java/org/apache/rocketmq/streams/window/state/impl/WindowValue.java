@@ -18,9 +18,16 @@ package org.apache.rocketmq.streams.window.state.impl;
 
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -35,7 +42,6 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.rocketmq.streams.common.context.IMessage;
 import org.apache.rocketmq.streams.common.context.Message;
 import org.apache.rocketmq.streams.common.datatype.DataType;
-import org.apache.rocketmq.streams.common.datatype.NotSupportDataType;
 import org.apache.rocketmq.streams.common.interfaces.ISerialize;
 import org.apache.rocketmq.streams.common.interfaces.IStreamOperator;
 import org.apache.rocketmq.streams.common.utils.Base64Utils;
@@ -46,12 +52,14 @@ import org.apache.rocketmq.streams.common.utils.SerializeUtil;
 import org.apache.rocketmq.streams.common.utils.StringUtil;
 import org.apache.rocketmq.streams.common.utils.TraceUtil;
 import org.apache.rocketmq.streams.script.context.FunctionContext;
+import org.apache.rocketmq.streams.script.function.aggregation.AccumulatorCodecRegistry;
 import org.apache.rocketmq.streams.script.operator.impl.AggregationScript;
 import org.apache.rocketmq.streams.script.operator.impl.FunctionScript;
 import org.apache.rocketmq.streams.script.service.IAccumulator;
 import org.apache.rocketmq.streams.window.model.FunctionExecutor;
 import org.apache.rocketmq.streams.window.model.WindowInstance;
 import org.apache.rocketmq.streams.window.operator.AbstractWindow;
+import org.apache.rocketmq.streams.window.operator.impl.TopNState;
 import org.apache.rocketmq.streams.window.state.WindowBaseValue;
 import org.nustaq.serialization.FSTConfiguration;
 
@@ -83,6 +91,21 @@ public class WindowValue extends WindowBaseValue implements Serializable ,ISeria
 
     protected transient Long lastUpdateTime;//used in session window，set last update time
 
+    /**
+     * aggColumnResult二进制格式的第一个字节，原来的json格式以'['开头
+     */
+    private static final byte AGG_COLUMN_BINARY_FORMAT = 1;
+
+    /**
+     * toBytes格式的版本
+     */
+    private static final byte BINARY_VERSION = 1;
+
+    static {
+        WindowValueDataType.register();
+        TopNState.registerCodec();
+    }
+
     public WindowValue() {
         setGmtCreate(DateUtil.getCurrentTime());
         setGmtModified(DateUtil.getCurrentTime());
@@ -96,52 +119,72 @@ public class WindowValue extends WindowBaseValue implements Serializable ,ISeria
     }
 
     /**
-     * 计算结果序列化成json
+     * 计算结果序列化成二进制，base64编码
      *
      * @return
      */
     public String getAggColumnResult() {
-        JSONArray jsonArray = new JSONArray();
-
-        Iterator<Entry<String, Object>> it = aggColumnResult.entrySet().iterator();
-        while (it.hasNext()) {
-            JSONObject jsonObject = new JSONObject();
-            Entry<String, Object> entry = it.next();
-            String functionName = entry.getKey();
-            Object value = entry.getValue();
-            jsonObject.put("function", functionName);
-            if (value == null) {
-                continue;
-            }
-            DataType dataType = DataTypeUtil.getDataTypeFromClass(value.getClass());
-            boolean isBasicType = false;
-            String jsonValue = null;
-            if (!NotSupportDataType.class.isInstance(dataType)) {
-                isBasicType = true;
-                jsonValue = dataType.toDataJson(value);
-                jsonObject.put("datatype", dataType.getDataTypeName());
-            } else {
-                isBasicType = false;
-                jsonValue = ReflectUtil.serializeObject(value).toJSONString();
-            }
-
-            jsonObject.put("isBasic", isBasicType);
-            jsonObject.put("result", jsonValue);
-            jsonArray.add(jsonObject);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            writeAggColumnResult(new DataOutputStream(bytes));
+            return Base64Utils.encode(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new RuntimeException("encode agg column result error", e);
         }
-        return encodeSQLContent(jsonArray.toJSONString());
     }
 
     /**
-     * 还原计算结果
+     * 还原计算结果，兼容原来的json格式
      *
-     * @param jsonArrayStr
+     * @param aggColumnResult
      */
-    public void setAggColumnResult(String jsonArrayStr) {
-        jsonArrayStr = decodeSQLContent(jsonArrayStr);
-        if (jsonArrayStr == null) {
+    public void setAggColumnResult(String aggColumnResult) {
+        if (StringUtil.isEmpty(aggColumnResult)) {
+            return;
+        }
+        byte[] bytes = Base64Utils.decode(aggColumnResult);
+        if (bytes.length == 0) {
             return;
         }
+        if (bytes[0] != AGG_COLUMN_BINARY_FORMAT) {
+            setAggColumnResultFromJson(new String(bytes, StandardCharsets.UTF_8));
+            return;
+        }
+        try {
+            readAggColumnResult(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            throw new RuntimeException("decode agg column result error", e);
+        }
+    }
+
+    protected void writeAggColumnResult(DataOutputStream out) throws IOException {
+        out.writeByte(AGG_COLUMN_BINARY_FORMAT);
+        List<Entry<String, Object>> entries = new ArrayList<>(aggColumnResult.entrySet());
+        out.writeInt(entries.size());
+        for (Entry<String, Object> entry : entries) {
+            AccumulatorCodecRegistry.writeString(entry.getKey(), out);
+            AccumulatorCodecRegistry.write(entry.getValue(), out);
+        }
+    }
+
+    protected void readAggColumnResult(DataInputStream in) throws IOException {
+        byte format = in.readByte();
+        if (format != AGG_COLUMN_BINARY_FORMAT) {
+            throw new RuntimeException("unknown agg column result format " + format);
+        }
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            String functionName = AccumulatorCodecRegistry.readString(in);
+            aggColumnResult.put(functionName, AccumulatorCodecRegistry.read(in));
+        }
+    }
+
+    /**
+     * 原来的json格式
+     *
+     * @param jsonArrayStr
+     */
+    protected void setAggColumnResultFromJson(String jsonArrayStr) {
         JSONArray functionResultJson = JSONArray.parseArray(jsonArrayStr);
         for (int i = 0; i < functionResultJson.size(); i++) {
             JSONObject jsonObject = functionResultJson.getJSONObject(i);
@@ -161,6 +204,89 @@ public class WindowValue extends WindowBaseValue implements Serializable ,ISeria
         }
     }
 
+    /**
+     * 整个WindowValue序列化成一个字节数组，lastUpdateTime不保存
+     *
+     * @return
+     */
+    public byte[] toBytes() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(BINARY_VERSION);
+            writeNullableLong(id, out);
+            writeNullableLong(gmtCreate == null ? null : gmtCreate.getTime(), out);
+            writeNullableLong(gmtModified == null ? null : gmtModified.getTime(), out);
+            AccumulatorCodecRegistry.writeString(msgKey, out);
+            AccumulatorCodecRegistry.writeString(windowInstanceId, out);
+            AccumulatorCodecRegistry.writeString(partition, out);
+            out.writeLong(partitionNum);
+            AccumulatorCodecRegistry.writeString(startTime, out);
+            AccumulatorCodecRegistry.writeString(endTime, out);
+            AccumulatorCodecRegistry.writeString(fireTime, out);
+            out.writeLong(getUpdateVersion());
+            AccumulatorCodecRegistry.writeString(groupBy, out);
+            List<Entry<String, String>> offsets = new ArrayList<>(maxOffset.entrySet());
+            out.writeInt(offsets.size());
+            for (Entry<String, String> entry : offsets) {
+                AccumulatorCodecRegistry.writeString(entry.getKey(), out);
+                AccumulatorCodecRegistry.writeString(entry.getValue(), out);
+            }
+            writeAggColumnResult(out);
+            JSONObject computed = JSONObject.class.isInstance(computedColumnResult) ? (JSONObject) computedColumnResult : new JSONObject(computedColumnResult);
+            AccumulatorCodecRegistry.writeString(computed.toJSONString(), out);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("serialize window value error " + msgKey, e);
+        }
+    }
+
+    public static WindowValue fromBytes(byte[] bytes, int offset, int length) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, offset, length));
+            byte version = in.readByte();
+            if (version != BINARY_VERSION) {
+                throw new RuntimeException("unknown window value version " + version);
+            }
+            WindowValue windowValue = new WindowValue();
+            windowValue.id = readNullableLong(in);
+            Long time = readNullableLong(in);
+            windowValue.gmtCreate = time == null ? null : new Date(time);
+            time = readNullableLong(in);
+            windowValue.gmtModified = time == null ? null : new Date(time);
+            windowValue.msgKey = AccumulatorCodecRegistry.readString(in);
+            windowValue.windowInstanceId = AccumulatorCodecRegistry.readString(in);
+            windowValue.partition = AccumulatorCodecRegistry.readString(in);
+            windowValue.partitionNum = in.readLong();
+            windowValue.startTime = AccumulatorCodecRegistry.readString(in);
+            windowValue.endTime = AccumulatorCodecRegistry.readString(in);
+            windowValue.fireTime = AccumulatorCodecRegistry.readString(in);
+            windowValue.setUpdateVersion(in.readLong());
+            windowValue.groupBy = AccumulatorCodecRegistry.readString(in);
+            int offsetSize = in.readInt();
+            for (int i = 0; i < offsetSize; i++) {
+                windowValue.maxOffset.put(AccumulatorCodecRegistry.readString(in), AccumulatorCodecRegistry.readString(in));
+            }
+            windowValue.readAggColumnResult(in);
+            windowValue.computedColumnResult = Message.parseObject(AccumulatorCodecRegistry.readString(in));
+            return windowValue;
+        } catch (IOException e) {
+            throw new RuntimeException("deserialize window value error", e);
+        }
+    }
+
+    private static void writeNullableLong(Long value, DataOutputStream out) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value);
+        }
+    }
+
+    private static Long readNullableLong(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+
     public void setAggColumnMap(Map<String, Object> aggColumnResult) {
         this.aggColumnResult = aggColumnResult;
     }
@@ -276,6 +402,11 @@ public class WindowValue extends WindowBaseValue implements Serializable ,ISeria
 
     protected static AtomicInteger SUM=new AtomicInteger(0);
 
+    /**
+     * 每个线程复用一个context，计算完清空，避免持有消息
+     */
+    private static final ThreadLocal<FunctionContext> FUNCTION_CONTEXT = ThreadLocal.withInitial(() -> new FunctionContext(null));
+
     protected void calFunctionColumn(AbstractWindow window, IMessage message) {
         String introduction = (String)message.getMessageBody().getOrDefault(AggregationScript.INNER_AGGREGATION_COMPUTE_KEY, "");
         boolean isMultiAccumulate = AggregationScript.INNER_AGGREGATION_COMPUTE_MULTI.equals(introduction);
@@ -294,6 +425,10 @@ public class WindowValue extends WindowBaseValue implements Serializable ,ISeria
             this.aggColumnResult.putAll(mergerWindowValue.aggColumnResult);
             return;
         }
+        if (StringUtil.isNotEmpty(introduction)) {
+            message.getMessageBody().remove(AggregationScript.INNER_AGGREGATION_COMPUTE_KEY);
+        }
+        FunctionContext context = FUNCTION_CONTEXT.get();
         for (Entry<String, List<FunctionExecutor>> entry : window.getColumnExecuteMap().entrySet()) {
             String computedColumn = entry.getKey();
             List<FunctionExecutor> fifoQueue = entry.getValue();
@@ -301,32 +436,26 @@ public class WindowValue extends WindowBaseValue implements Serializable ,ISeria
                 String executorName = operator.getColumn();
                 IStreamOperator<IMessage, List<IMessage>> executor = operator.getExecutor();
                 if (executor instanceof AggregationScript) {
-                    AggregationScript originAccScript = (AggregationScript) executor;
-                    AggregationScript windowAccScript = originAccScript.clone();
-                    Object accumulator = null;
-                    if (aggColumnResult.containsKey(executorName)) {
-                        accumulator = aggColumnResult.get(executorName);
-                    } else {
-                        IAccumulator director = AggregationScript.getAggregationFunction(
-                            windowAccScript.getFunctionName());
+                    AggregationScript accScript = (AggregationScript) executor;
+                    Object accumulator = aggColumnResult.get(executorName);
+                    if (accumulator == null) {
+                        IAccumulator director = accScript.getDirector();
+                        if (director == null) {
+                            director = AggregationScript.getAggregationFunction(accScript.getFunctionName());
+                        }
                         accumulator = director.createAccumulator();
                         aggColumnResult.put(executorName, accumulator);
                     }
-                    windowAccScript.setAccumulator(accumulator);
-                    if(!isMultiAccumulate){
-                        message.getMessageBody().put(AggregationScript.INNER_AGGREGATION_COMPUTE_KEY,
-                            AggregationScript.INNER_AGGREGATION_COMPUTE_SINGLE);
-                    }
-                    FunctionContext context = new FunctionContext(message);
-                    windowAccScript.doMessage(message, context);
+                    accScript.accumulate(message, accumulator);
                 } else if (executor instanceof FunctionScript) {
-                    FunctionContext context = new FunctionContext(message);
+                    context.reset(message);
                     ((FunctionScript) executor).doMessage(message, context);
                 }
             }
             //
             computedColumnResult.put(computedColumn, message.getMessageBody().get(computedColumn));
         }
+        context.reset(null);
         calProjectColumn(window, message);
     }
 
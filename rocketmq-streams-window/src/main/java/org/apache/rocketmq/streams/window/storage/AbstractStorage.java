@@ -17,7 +17,9 @@ package org.apache.rocketmq.streams.window.storage;
  */
 
 import org.apache.rocketmq.streams.window.model.WindowInstance;
+import org.apache.rocketmq.streams.window.model.WindowInstanceDataType;
 import org.apache.rocketmq.streams.window.state.WindowBaseValue;
+import org.apache.rocketmq.streams.window.state.impl.WindowValueDataType;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -30,6 +32,12 @@ import java.util.concurrent.TimeoutException;
 
 public abstract class AbstractStorage implements IStorage {
 
+    static {
+        //读取存储中的WindowValue和WindowInstance前，对应的类可能还没有加载
+        WindowValueDataType.register();
+        WindowInstanceDataType.register();
+    }
+
     @Override
     public Future<?> load(Set<String> shuffleIds) {
         return new NullFuture();
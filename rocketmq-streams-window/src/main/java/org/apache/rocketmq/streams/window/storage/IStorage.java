@@ -53,6 +53,9 @@ public interface IStorage {
 
     RocksdbIterator<List<WindowBaseValue>> getWindowBaseValueList(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType);
 
+    //按照msgKey查询，msgKey相同的WindowBaseValue保存在一起，不存在时返回空list
+    List<WindowBaseValue> getWindowBaseValueByMsgKey(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, String msgKey);
+
 
     //用windowInstanceId删除所有WindowBaseValue【包括WindowValue、JoinState】
     void deleteWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType);
@@ -16,31 +16,67 @@ package org.apache.rocketmq.streams.window.storage;
  * limitations under the License.
  */
 
+import java.nio.charset.StandardCharsets;
+import org.apache.rocketmq.streams.common.utils.SerializeUtil;
+
+/**
+ * 迭代出的一条数据，key和值保存原始字节，第一次get时才解码
+ */
 public class IteratorWrap<T> {
     private String key;
+    private byte[] keyBytes;
     private T data;
+    private boolean decoded;
     private byte[] raw;
 
     public IteratorWrap(String key, T data, byte[] raw) {
         this.key = key;
         this.data = data;
+        this.decoded = true;
+        this.raw = raw;
+    }
+
+    /**
+     * 延迟解码
+     *
+     * @param keyBytes key的原始字节
+     * @param raw      值的原始字节
+     */
+    public IteratorWrap(byte[] keyBytes, byte[] raw) {
+        this.keyBytes = keyBytes;
         this.raw = raw;
     }
 
     public String getKey() {
+        if (key == null && keyBytes != null) {
+            key = new String(keyBytes, StandardCharsets.UTF_8);
+        }
         return key;
     }
 
     public void setKey(String key) {
         this.key = key;
+        this.keyBytes = null;
+    }
+
+    public byte[] getKeyBytes() {
+        if (keyBytes == null && key != null) {
+            keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        }
+        return keyBytes;
     }
 
     public T getData() {
+        if (!decoded) {
+            data = SerializeUtil.deserialize(raw);
+            decoded = true;
+        }
         return data;
     }
 
     public void setData(T data) {
         this.data = data;
+        this.decoded = true;
     }
 
     public byte[] getRaw() {
@@ -16,50 +16,129 @@ package org.apache.rocketmq.streams.window.storage;
  * limitations under the License.
  */
 
-import org.apache.rocketmq.streams.common.utils.SerializeUtil;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.rocksdb.ColumnFamilyHandle;
 import org.rocksdb.ReadOptions;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksIterator;
+import org.rocksdb.Slice;
 
-import java.nio.charset.StandardCharsets;
-import java.util.Iterator;
-
+/**
+ * 按前缀迭代rocksdb
+ * <p>
+ * 迭代范围通过iterate_upper_bound限制在[prefix, prefix+1)内，迭代器在前缀之外直接失效，不需要逐条比较前缀；
+ * 每条数据只取一次key和值的字节，字符串key和反序列化的值在第一次使用时才生成。迭代结束时释放native资源
+ */
 public class RocksdbIterator<T> implements Iterator<IteratorWrap<T>> {
-    private String keyPrefix;
-    private ReadOptions readOptions = new ReadOptions();
+    private byte[] prefix;
+    private ReadOptions readOptions;
+    private Slice upperBound;
     private RocksIterator rocksIterator;
 
-
     public RocksdbIterator() {
     }
 
     public RocksdbIterator(String keyPrefix, RocksDB rocksDB) {
-        this.keyPrefix = keyPrefix;
-        this.rocksIterator = rocksDB.newIterator(readOptions);
-        this.rocksIterator.seek(keyPrefix.getBytes(StandardCharsets.UTF_8));
+        this(keyPrefix, rocksDB, rocksDB.getDefaultColumnFamily(), new ReadOptions().setTotalOrderSeek(true));
+    }
+
+    /**
+     * 在列族内按前缀迭代
+     *
+     * @param keyPrefix    前缀
+     * @param rocksDB
+     * @param columnFamily 列族
+     * @param readOptions  读配置，前缀足够长时只在同前缀内迭代，迭代结束时close
+     */
+    public RocksdbIterator(String keyPrefix, RocksDB rocksDB, ColumnFamilyHandle columnFamily, ReadOptions readOptions) {
+        this.prefix = keyPrefix.getBytes(StandardCharsets.UTF_8);
+        this.readOptions = readOptions;
+        byte[] upperBoundBytes = createUpperBound(prefix);
+        if (upperBoundBytes != null) {
+            this.upperBound = new Slice(upperBoundBytes);
+            this.readOptions.setIterateUpperBound(upperBound);
+        }
+        this.rocksIterator = rocksDB.newIterator(columnFamily, readOptions);
+        this.rocksIterator.seek(prefix);
     }
 
     @Override
     public boolean hasNext() {
-        boolean hasNext = rocksIterator.isValid();
-        String key = new String(rocksIterator.key());
-
-        if (!key.startsWith(keyPrefix)) {
-            hasNext = false;
+        if (rocksIterator == null) {
+            return false;
         }
-        return hasNext;
+        if (rocksIterator.isValid()) {
+            if (upperBound != null) {
+                return true;
+            }
+            //前缀全是0xFF时没有上界，需要比较前缀
+            if (startsWith(rocksIterator.key(), prefix)) {
+                return true;
+            }
+        }
+        close();
+        return false;
     }
 
     @Override
     public IteratorWrap<T> next() {
-        String key = new String(rocksIterator.key());
-
-        T data = SerializeUtil.deserialize(rocksIterator.value());
-        IteratorWrap<T> result = new IteratorWrap<>(key, data, rocksIterator.value());
-
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        IteratorWrap<T> result = new IteratorWrap<>(rocksIterator.key(), rocksIterator.value());
         rocksIterator.next();
         return result;
     }
-}
 
+    /**
+     * 释放native资源，迭代到结尾时自动调用，提前结束迭代时需要调用
+     */
+    public void close() {
+        if (rocksIterator != null) {
+            rocksIterator.close();
+            rocksIterator = null;
+        }
+        if (readOptions != null) {
+            readOptions.close();
+            readOptions = null;
+        }
+        if (upperBound != null) {
+            upperBound.close();
+            upperBound = null;
+        }
+    }
+
+    /**
+     * 比前缀大的最小的不以前缀开头的key：去掉末尾的0xFF后最后一个字节加1
+     *
+     * @param prefix
+     * @return 前缀全是0xFF时返回null
+     */
+    protected static byte[] createUpperBound(byte[] prefix) {
+        int end = prefix.length;
+        while (end > 0 && prefix[end - 1] == (byte) 0xFF) {
+            end--;
+        }
+        if (end == 0) {
+            return null;
+        }
+        byte[] upperBound = Arrays.copyOf(prefix, end);
+        upperBound[end - 1]++;
+        return upperBound;
+    }
 
+    private static boolean startsWith(byte[] key, byte[] prefix) {
+        if (key.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (key[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
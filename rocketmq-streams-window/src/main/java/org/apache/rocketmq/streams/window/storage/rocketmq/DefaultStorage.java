@@ -21,8 +21,12 @@ import org.apache.rocketmq.client.producer.DefaultMQProducer;
 import org.apache.rocketmq.common.message.Message;
 import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.common.message.MessageQueue;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.rocketmq.streams.common.component.ComponentCreator;
+import org.apache.rocketmq.streams.common.configure.ConfigureFileKey;
 import org.apache.rocketmq.streams.common.utils.CreateTopicUtil;
 import org.apache.rocketmq.streams.common.utils.SerializeUtil;
+import org.apache.rocketmq.streams.common.utils.StringUtil;
 import org.apache.rocketmq.streams.window.model.WindowInstance;
 import org.apache.rocketmq.streams.window.state.WindowBaseValue;
 import org.apache.rocketmq.streams.window.state.impl.WindowValue;
@@ -41,9 +45,13 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static org.apache.rocketmq.streams.window.storage.DataType.WINDOW_INSTANCE;
@@ -64,6 +72,10 @@ public class DefaultStorage extends AbstractStorage {
     private static final long pollTimeoutMillis = 50L;
     private Map<Integer, MessageQueue> queueId2MQ = new HashMap<>();
     private ExecutorService checkpointExecutor;
+    /**
+     * 恢复状态时不同queue的消息并行写入rocksdb，同一个queue的消息由一个线程处理
+     */
+    private ExecutorService restoreExecutor;
 
     public DefaultStorage(boolean isLocalStorageOnly, RocksdbStorage rocksdbStorage) {
         this.isLocalStorageOnly = isLocalStorageOnly;
@@ -79,6 +91,9 @@ public class DefaultStorage extends AbstractStorage {
             this.groupId = groupId;
 
             this.checkpointExecutor = Executors.newSingleThreadExecutor();
+            int restoreThreadCount = getRestoreThreadCount();
+            this.restoreExecutor = new ThreadPoolExecutor(restoreThreadCount, restoreThreadCount, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), new BasicThreadFactory.Builder().namingPattern("window-state-restore-%d").daemon(true).build());
             this.namesrv = namesrv;
             try {
                 this.producer = new DefaultMQProducer(groupId);
@@ -136,13 +151,35 @@ public class DefaultStorage extends AbstractStorage {
         }
     }
 
-    private void replayState(List<MessageExt> msgs) {
+    /**
+     * 按queue分组并行回放，等待这一批全部写入后再poll下一批，保证同一个queue的状态按顺序覆盖
+     *
+     * @param msgs
+     */
+    private void replayState(List<MessageExt> msgs) throws ExecutionException, InterruptedException {
         if (msgs == null || msgs.size() == 0) {
             return;
         }
 
+        Map<Integer, List<MessageExt>> queueId2Msgs = msgs.stream().collect(Collectors.groupingBy(MessageExt::getQueueId));
+        if (queueId2Msgs.size() == 1) {
+            replayQueueState(msgs);
+            return;
+        }
+
+        List<Future<?>> futures = new ArrayList<>(queueId2Msgs.size());
+        for (List<MessageExt> queueMsgs : queueId2Msgs.values()) {
+            futures.add(restoreExecutor.submit(() -> replayQueueState(queueMsgs)));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+
+    private void replayQueueState(List<MessageExt> msgs) {
+
         //按照key进行分组；
-        Map<String, List<MessageExt>> collect = msgs.stream().parallel().collect(Collectors.groupingBy(MessageExt::getKeys));
+        Map<String, List<MessageExt>> collect = msgs.stream().collect(Collectors.groupingBy(MessageExt::getKeys));
 
 
         //对每组key的所有msg的时间戳进行比较，过滤出最大时间戳的值,即为最后的状态
@@ -177,7 +214,8 @@ public class DefaultStorage extends AbstractStorage {
     }
 
 
-    private synchronized void updateState(String key, MessageExt newState) {
+    //key中包含shuffleId，不同queue的key不会重复，不需要加锁
+    private void updateState(String key, MessageExt newState) {
         byte[] body = newState.getBody();
         Object newValue = SerializeUtil.deserialize(body);
         if (body == null || newValue == null) {
@@ -239,6 +277,11 @@ public class DefaultStorage extends AbstractStorage {
         return rocksdbStorage.getWindowBaseValueList(shuffleId, windowInstanceId, windowType, joinType);
     }
 
+    @Override
+    public List<WindowBaseValue> getWindowBaseValueByMsgKey(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, String msgKey) {
+        return rocksdbStorage.getWindowBaseValueByMsgKey(shuffleId, windowInstanceId, windowType, joinType, msgKey);
+    }
+
     //按照put key的前缀删除，没有唯一键，删除一批
     @Override
     public void deleteWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType) {
@@ -353,6 +396,44 @@ public class DefaultStorage extends AbstractStorage {
         }
     }
 
+    /**
+     * 停止checkpoint的生产消费
+     *
+     * @param dropLocalState 是否删除本地的rocksdb实例，状态可以从checkpoint topic恢复时才删除
+     */
+    public void destroy(boolean dropLocalState) {
+        if (!isLocalStorageOnly) {
+            this.checkpointExecutor.shutdown();
+            this.restoreExecutor.shutdown();
+            //checkpoint和恢复任务会读写rocksdb，等它们结束后再释放实例
+            awaitTermination(this.checkpointExecutor);
+            awaitTermination(this.restoreExecutor);
+            this.producer.shutdown();
+            this.checkpointConsumer.shutdown();
+        }
+        if (dropLocalState) {
+            rocksdbStorage.drop();
+        } else {
+            rocksdbStorage.close();
+        }
+    }
+
+    private void awaitTermination(ExecutorService executorService) {
+        try {
+            executorService.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int getRestoreThreadCount() {
+        String value = ComponentCreator.getProperties().getProperty(ConfigureFileKey.WINDOW_RESTORE_THREAD_COUNT);
+        if (StringUtil.isNotEmpty(value)) {
+            return Integer.parseInt(value);
+        }
+        return Math.min(8, Runtime.getRuntime().availableProcessors());
+    }
+
     //状态topic的MQ数量与shuffle topic的MQ数量需要相同,broker;
     private MessageQueue getMessageQueue(String shuffleId) {
         //最后四位为queueId
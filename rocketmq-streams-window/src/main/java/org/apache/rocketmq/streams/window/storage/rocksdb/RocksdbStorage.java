@@ -28,25 +28,47 @@ import org.apache.rocketmq.streams.window.storage.IteratorWrap;
 import org.apache.rocketmq.streams.window.storage.RocksdbIterator;
 import org.apache.rocketmq.streams.window.storage.WindowJoinType;
 import org.apache.rocketmq.streams.window.storage.WindowType;
+import org.rocksdb.ColumnFamilyHandle;
 import org.rocksdb.RocksDB;
 import org.rocksdb.WriteOptions;
 
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
+/**
+ * 每种DataType保存在单独的列族，key以DataType的值开头，按key前缀找到所在的列族
+ */
 public class RocksdbStorage extends AbstractStorage {
+    private RocksDBOperator operator;
     private RocksDB rocksDB;
     private WriteOptions writeOptions;
+    private Map<DataType, ColumnFamilyHandle> columnFamilies = new EnumMap<>(DataType.class);
 
     public RocksdbStorage() {
-        rocksDB = new RocksDBOperator().getInstance();
-        writeOptions = new WriteOptions();
-        writeOptions.setSync(false);
-        writeOptions.setDisableWAL(true);
+        this(new RocksDBOperator());
+    }
+
+    /**
+     * 使用任务单独的rocksdb实例
+     *
+     * @param jobName 任务名
+     */
+    public RocksdbStorage(String jobName) {
+        this(RocksDBOperator.createJobOperator(jobName));
+    }
+
+    public RocksdbStorage(RocksDBOperator operator) {
+        this.operator = operator;
+        rocksDB = operator.getInstance();
+        writeOptions = operator.getWriteOptions();
+        for (DataType type : DataType.values()) {
+            columnFamilies.put(type, operator.getColumnFamily(type.getValue()));
+        }
     }
 
 
@@ -65,7 +87,7 @@ public class RocksdbStorage extends AbstractStorage {
         byte[] valueBytes = SerializeUtil.serialize(windowInstance);
 
         try {
-            rocksDB.put(writeOptions, keyBytes, valueBytes);
+            rocksDB.put(getColumnFamily(key), writeOptions, keyBytes, valueBytes);
         } catch (Exception e) {
             throw new RuntimeException("putWindowInstance to rocksdb error", e);
         }
@@ -75,7 +97,7 @@ public class RocksdbStorage extends AbstractStorage {
     public <T> RocksdbIterator<T> getWindowInstance(String shuffleId, String windowNamespace, String windowConfigureName) {
         String keyPrefix = super.merge(DataType.WINDOW_INSTANCE.getValue(), shuffleId, windowNamespace, windowConfigureName);
 
-        return new RocksdbIterator<>(keyPrefix, rocksDB);
+        return newIterator(keyPrefix);
     }
 
     @Override
@@ -88,7 +110,7 @@ public class RocksdbStorage extends AbstractStorage {
 
         try {
             byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
-            rocksDB.delete(writeOptions, bytes);
+            rocksDB.delete(getColumnFamily(key), writeOptions, bytes);
         } catch (Exception e) {
             throw new RuntimeException("deleteWindowInstance from rocksdb error", e);
         }
@@ -134,7 +156,7 @@ public class RocksdbStorage extends AbstractStorage {
 
                 byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
                 valueBytes = SerializeUtil.serialize(temp);
-                rocksDB.put(writeOptions, keyBytes, valueBytes);
+                rocksDB.put(getColumnFamily(key), writeOptions, keyBytes, valueBytes);
             } catch (Throwable t) {
                 throw new RuntimeException("put data to rocksdb error", t);
             }
@@ -166,7 +188,7 @@ public class RocksdbStorage extends AbstractStorage {
 
             byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
             valueBytes = SerializeUtil.serialize(baseValue);
-            rocksDB.put(writeOptions, keyBytes, valueBytes);
+            rocksDB.put(getColumnFamily(key), writeOptions, keyBytes, valueBytes);
         } catch (Throwable t) {
             throw new RuntimeException("put data to rocksdb error", t);
         }
@@ -214,58 +236,53 @@ public class RocksdbStorage extends AbstractStorage {
 
         String keyPrefix = createKey(shuffleId, windowInstanceId, windowType, joinType, null);
 
-        return new RocksdbIterator<>(keyPrefix, rocksDB);
+        return newIterator(keyPrefix);
     }
 
     @Override
     public void deleteWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType) {
         try {
             String keyPrefix = createKey(shuffleId, windowInstanceId, windowType, joinType, null);
-
-            //查询msgKey
-            RocksdbIterator<List<WindowBaseValue>> rocksdbIterator = new RocksdbIterator<>(keyPrefix, rocksDB);
-
-            ArrayList<String> msgKeys = new ArrayList<>();
-            while (rocksdbIterator.hasNext()) {
-                IteratorWrap<List<WindowBaseValue>> baseValue = rocksdbIterator.next();
-                List<WindowBaseValue> data = baseValue.getData();
-                if (data == null) {
-                    continue;
-                }
-
-                for (WindowBaseValue value : data) {
-                    msgKeys.add(value.getMsgKey());
-                }
-            }
-
-            //组合成真正的key后，在挨个删除
-            for (String msgKey : msgKeys) {
-                String key = super.merge(keyPrefix, msgKey);
-                byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
-                rocksDB.delete(writeOptions, bytes);
-            }
-
+            deleteByKeyPrefix(keyPrefix);
         } catch (Exception e) {
             throw new RuntimeException("deleteWindowBaseValue from rocksdb error", e);
         }
     }
 
-    public void deleteWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, String msgKey) {
-        String key;
-        if (joinType != null) {
-            key = super.merge(DataType.WINDOW_BASE_VALUE.getValue(), shuffleId, windowInstanceId, windowType.name(), joinType.name(), msgKey);
-        } else {
-            key = super.merge(DataType.WINDOW_BASE_VALUE.getValue(), shuffleId, windowInstanceId, windowType.name(), msgKey);
+    @Override
+    public List<WindowBaseValue> getWindowBaseValueByMsgKey(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, String msgKey) {
+        String key = createMsgKey(shuffleId, windowInstanceId, windowType, joinType, msgKey);
+        try {
+            byte[] valueBytes = rocksDB.get(getColumnFamily(key), key.getBytes(StandardCharsets.UTF_8));
+            if (valueBytes == null) {
+                return new ArrayList<>();
+            }
+            List<WindowBaseValue> result = SerializeUtil.deserialize(valueBytes);
+            return result == null ? new ArrayList<>() : result;
+        } catch (Throwable t) {
+            throw new RuntimeException("get data from rocksdb error, key is " + key, t);
         }
+    }
+
+    @Override
+    public void deleteWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, String msgKey) {
+        String key = createMsgKey(shuffleId, windowInstanceId, windowType, joinType, msgKey);
 
         try {
             byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
-            rocksDB.delete(writeOptions, keyBytes);
+            rocksDB.delete(getColumnFamily(key), writeOptions, keyBytes);
         } catch (Throwable t) {
             throw new RuntimeException("deleteWindowBaseValue from rocksdb error", t);
         }
     }
 
+    private String createMsgKey(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, String msgKey) {
+        if (joinType != null) {
+            return super.merge(DataType.WINDOW_BASE_VALUE.getValue(), shuffleId, windowInstanceId, windowType.name(), joinType.name(), msgKey);
+        }
+        return super.merge(DataType.WINDOW_BASE_VALUE.getValue(), shuffleId, windowInstanceId, windowType.name(), msgKey);
+    }
+
     private String createKey(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, WindowBaseValue baseValue) {
         String result;
         switch (windowType) {
@@ -300,7 +317,7 @@ public class RocksdbStorage extends AbstractStorage {
         String key = super.merge(DataType.MAX_OFFSET.getValue(), shuffleId, windowConfigureName, oriQueueId);
 
         try {
-            byte[] bytes = rocksDB.get(key.getBytes(StandardCharsets.UTF_8));
+            byte[] bytes = rocksDB.get(getColumnFamily(key), key.getBytes(StandardCharsets.UTF_8));
             if (bytes == null) {
                 return null;
             }
@@ -324,7 +341,7 @@ public class RocksdbStorage extends AbstractStorage {
 
             String mergeOffset = super.merge(getCurrentTimestamp(), offset);
             byte[] offsetBytes = mergeOffset.getBytes(StandardCharsets.UTF_8);
-            rocksDB.put(writeOptions, keyBytes, offsetBytes);
+            rocksDB.put(getColumnFamily(key), writeOptions, keyBytes, offsetBytes);
         } catch (Exception e) {
             throw new RuntimeException("put data to rocksdb error", e);
         }
@@ -336,7 +353,7 @@ public class RocksdbStorage extends AbstractStorage {
 
         try {
             byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
-            rocksDB.delete(writeOptions, keyBytes);
+            rocksDB.delete(getColumnFamily(key), writeOptions, keyBytes);
         } catch (Exception e) {
             throw new RuntimeException("deleteMaxOffset from rocksdb error", e);
         }
@@ -352,7 +369,7 @@ public class RocksdbStorage extends AbstractStorage {
             String mergeMaxPartitionNum = super.merge(getCurrentTimestamp(), String.valueOf(maxPartitionNum));
 
             byte[] bytes = mergeMaxPartitionNum.getBytes(StandardCharsets.UTF_8);
-            rocksDB.put(writeOptions, keyBytes, bytes);
+            rocksDB.put(getColumnFamily(key), writeOptions, keyBytes, bytes);
         } catch (Exception e) {
             throw new RuntimeException("put data to rocksdb error", e);
         }
@@ -364,7 +381,7 @@ public class RocksdbStorage extends AbstractStorage {
 
         try {
             byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
-            byte[] bytes = rocksDB.get(keyBytes);
+            byte[] bytes = rocksDB.get(getColumnFamily(key), keyBytes);
             if (bytes == null || bytes.length == 0) {
                 return null;
             }
@@ -384,7 +401,7 @@ public class RocksdbStorage extends AbstractStorage {
 
         try {
             byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
-            rocksDB.delete(writeOptions, keyBytes);
+            rocksDB.delete(getColumnFamily(key), writeOptions, keyBytes);
         } catch (Exception e) {
             throw new RuntimeException("deleteMaxPartitionNum from rocksdb error", e);
         }
@@ -397,7 +414,7 @@ public class RocksdbStorage extends AbstractStorage {
 
         try {
             byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
-            rocksDB.delete(writeOptions, bytes);
+            rocksDB.delete(getColumnFamily(key), writeOptions, bytes);
         } catch (Exception e) {
             throw new RuntimeException();
         }
@@ -410,7 +427,7 @@ public class RocksdbStorage extends AbstractStorage {
 
         try {
             byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
-            return rocksDB.get(bytes);
+            return rocksDB.get(getColumnFamily(key), bytes);
         } catch (Exception e) {
             throw new RuntimeException();
         }
@@ -423,7 +440,7 @@ public class RocksdbStorage extends AbstractStorage {
 
         byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
         try {
-            rocksDB.put(writeOptions, keyBytes, value);
+            rocksDB.put(getColumnFamily(key), writeOptions, keyBytes, value);
         } catch (Exception e) {
             throw new RuntimeException();
         }
@@ -440,16 +457,17 @@ public class RocksdbStorage extends AbstractStorage {
         }
     }
 
+    //直接按迭代出的key字节删除，不需要解码key和值
     private void deleteByKeyPrefix(String keyPrefix) {
-        RocksdbIterator<Object> data = new RocksdbIterator<>(keyPrefix, rocksDB);
+        RocksdbIterator<Object> data = newIterator(keyPrefix);
+        ColumnFamilyHandle columnFamily = getColumnFamily(keyPrefix);
 
         while (data.hasNext()) {
             IteratorWrap<Object> iteratorWrap = data.next();
-            String key = iteratorWrap.getKey();
             try {
-                rocksDB.delete(writeOptions, key.getBytes(StandardCharsets.UTF_8));
+                rocksDB.delete(columnFamily, writeOptions, iteratorWrap.getKeyBytes());
             } catch (Throwable t) {
-                throw new RuntimeException();
+                throw new RuntimeException("delete data from rocksdb error, key prefix is " + keyPrefix, t);
             }
         }
     }
@@ -457,8 +475,35 @@ public class RocksdbStorage extends AbstractStorage {
     public <T> RocksdbIterator<T> getData(String queueId, DataType type) {
         String keyPrefix = super.merge(type.getValue(), queueId);
 
-        return new RocksdbIterator<>(keyPrefix, rocksDB);
+        return newIterator(keyPrefix);
     }
 
+    /**
+     * 关闭rocksdb实例，本地状态保留
+     */
+    public void close() {
+        operator.close();
+    }
+
+    /**
+     * 关闭rocksdb实例并删除所有本地状态
+     */
+    public void drop() {
+        operator.drop();
+    }
+
+    private <T> RocksdbIterator<T> newIterator(String keyPrefix) {
+        return new RocksdbIterator<>(keyPrefix, rocksDB, getColumnFamily(keyPrefix),
+            operator.createReadOptions(keyPrefix.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private ColumnFamilyHandle getColumnFamily(String key) {
+        for (Map.Entry<DataType, ColumnFamilyHandle> entry : columnFamilies.entrySet()) {
+            if (key.startsWith(entry.getKey().getValue())) {
+                return entry.getValue();
+            }
+        }
+        return rocksDB.getDefaultColumnFamily();
+    }
 
 }
@@ -0,0 +1,302 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.window.trigger;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+
+/**
+ * 窗口触发的线程池，和shuffle的消费线程分开。不同分片的窗口实例并行触发，同一个分片的窗口实例按提交顺序串行触发
+ * <p>
+ * 每个分片有一把锁，触发和shuffle计算都在锁内执行，保证同一分片的触发和之后的更新不会交叉。
+ * 待触发的实例数超过上限时，shuffle消费线程调用waitIfBackPressure阻塞，直到降到上限的一半
+ */
+public class WindowFireExecutor {
+
+    /**
+     * 一个分片每次调度最多连续触发的实例数，避免一个分片长期占用线程
+     */
+    private static final int MAX_FIRE_COUNT_PER_SCHEDULE = 16;
+
+    private static final long BACK_PRESSURE_WAIT_MS = 100;
+
+    private final ExecutorService executorService;
+
+    private final int maxPendingFireCount;
+
+    private final ConcurrentHashMap<String, SplitFireQueue> splitFireQueues = new ConcurrentHashMap<>();
+
+    private final AtomicInteger pendingFireCount = new AtomicInteger(0);
+
+    private final Object backPressureLock = new Object();
+
+    private volatile boolean shutdown = false;
+
+    /**
+     * metric info
+     */
+    private final AtomicLong fireCount = new AtomicLong(0);
+    private final AtomicLong sumFireCostTime = new AtomicLong(0);
+    private final AtomicLong sumFireWaitTime = new AtomicLong(0);
+    private final AtomicLong backPressureCount = new AtomicLong(0);
+    private volatile long maxFireCostTime;
+    private volatile long maxFireWaitTime;
+
+    /**
+     * @param name                线程名前缀
+     * @param threadCount         触发线程数
+     * @param maxPendingFireCount 待触发实例数的上限，超过时对shuffle消费线程反压
+     */
+    public WindowFireExecutor(String name, int threadCount, int maxPendingFireCount) {
+        this.maxPendingFireCount = maxPendingFireCount;
+        this.executorService = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(), new BasicThreadFactory.Builder().namingPattern(name + "-window-fire-%d").daemon(true).build());
+    }
+
+    /**
+     * 提交一个分片的触发任务，同一个分片的任务按提交顺序执行
+     *
+     * @param splitId  分片
+     * @param fireTask 触发逻辑
+     * @return 可以等待触发完成
+     */
+    public Future<?> submit(String splitId, Runnable fireTask) {
+        FireTask task = new FireTask(fireTask);
+        if (shutdown) {
+            task.cancel(false);
+            return task;
+        }
+        pendingFireCount.incrementAndGet();
+        getSplitFireQueue(splitId).offer(task);
+        return task;
+    }
+
+    /**
+     * 分片的锁，触发和shuffle计算都需要在锁内执行
+     *
+     * @param splitId
+     * @return
+     */
+    public ReentrantLock getSplitLock(String splitId) {
+        return getSplitFireQueue(splitId).lock;
+    }
+
+    /**
+     * @return 待触发的实例数是否已经达到上限
+     */
+    public boolean isBackPressure() {
+        return pendingFireCount.get() >= maxPendingFireCount;
+    }
+
+    /**
+     * 待触发的实例数达到上限时阻塞调用线程，直到降到上限的一半。由shuffle消费线程调用，调用时不能持有分片锁
+     */
+    public void waitIfBackPressure() {
+        if (!isBackPressure()) {
+            return;
+        }
+        backPressureCount.incrementAndGet();
+        int lowWaterMark = maxPendingFireCount / 2;
+        synchronized (backPressureLock) {
+            while (!shutdown && pendingFireCount.get() > lowWaterMark) {
+                try {
+                    backPressureLock.wait(BACK_PRESSURE_WAIT_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 不再接收新的触发，已经提交的触发继续执行完成
+     */
+    public void shutdown() {
+        shutdown = true;
+        executorService.shutdown();
+        synchronized (backPressureLock) {
+            backPressureLock.notifyAll();
+        }
+    }
+
+    /**
+     * 等待已提交的触发执行完成，需要先调用shutdown
+     *
+     * @return 是否在超时前全部完成
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!executorService.awaitTermination(timeout, unit)) {
+            return false;
+        }
+        //分片队列每次调度最多执行一批，线程池关闭后剩余的任务不能再调度，由调用线程执行完
+        for (SplitFireQueue splitFireQueue : splitFireQueues.values()) {
+            splitFireQueue.drain();
+        }
+        return true;
+    }
+
+    public int getPendingFireCount() {
+        return pendingFireCount.get();
+    }
+
+    public long getFireCount() {
+        return fireCount.get();
+    }
+
+    /**
+     * @return 平均触发耗时，单位毫秒
+     */
+    public long getAvgFireCostTime() {
+        long count = fireCount.get();
+        return count == 0 ? 0 : sumFireCostTime.get() / count;
+    }
+
+    public long getMaxFireCostTime() {
+        return maxFireCostTime;
+    }
+
+    /**
+     * @return 从提交到开始触发的平均等待时间，单位毫秒
+     */
+    public long getAvgFireWaitTime() {
+        long count = fireCount.get();
+        return count == 0 ? 0 : sumFireWaitTime.get() / count;
+    }
+
+    public long getMaxFireWaitTime() {
+        return maxFireWaitTime;
+    }
+
+    public long getBackPressureCount() {
+        return backPressureCount.get();
+    }
+
+    private SplitFireQueue getSplitFireQueue(String splitId) {
+        SplitFireQueue splitFireQueue = splitFireQueues.get(splitId);
+        if (splitFireQueue == null) {
+            splitFireQueue = new SplitFireQueue();
+            SplitFireQueue exist = splitFireQueues.putIfAbsent(splitId, splitFireQueue);
+            if (exist != null) {
+                splitFireQueue = exist;
+            }
+        }
+        return splitFireQueue;
+    }
+
+    private void fireFinished(long waitTime, long costTime) {
+        fireCount.incrementAndGet();
+        sumFireWaitTime.addAndGet(waitTime);
+        sumFireCostTime.addAndGet(costTime);
+        if (waitTime > maxFireWaitTime) {
+            maxFireWaitTime = waitTime;
+        }
+        if (costTime > maxFireCostTime) {
+            maxFireCostTime = costTime;
+        }
+        int pending = pendingFireCount.decrementAndGet();
+        if (pending <= maxPendingFireCount / 2) {
+            synchronized (backPressureLock) {
+                backPressureLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 一个分片的触发队列，同一时刻最多一个线程在执行
+     */
+    private class SplitFireQueue implements Runnable {
+
+        private final ConcurrentLinkedQueue<FireTask> tasks = new ConcurrentLinkedQueue<>();
+
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private void offer(FireTask task) {
+            tasks.offer(task);
+            schedule();
+        }
+
+        private void schedule() {
+            if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+                try {
+                    executorService.execute(this);
+                } catch (RejectedExecutionException e) {
+                    //线程池已经关闭，剩余的任务由awaitTermination的调用线程执行
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        /**
+         * 线程池终止后，在调用线程中执行剩余的任务
+         */
+        private void drain() {
+            FireTask task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                int count = 0;
+                FireTask task;
+                while (count < MAX_FIRE_COUNT_PER_SCHEDULE && (task = tasks.poll()) != null) {
+                    task.run();
+                    count++;
+                }
+            } finally {
+                scheduled.set(false);
+                schedule();
+            }
+        }
+    }
+
+    private class FireTask extends FutureTask<Object> {
+
+        private final long submitTime = System.currentTimeMillis();
+
+        private FireTask(Runnable runnable) {
+            super(runnable, null);
+        }
+
+        @Override
+        public void run() {
+            long startTime = System.currentTimeMillis();
+            try {
+                super.run();
+            } finally {
+                fireFinished(startTime - submitTime, System.currentTimeMillis() - startTime);
+            }
+        }
+    }
+}
@@ -19,50 +19,71 @@ package org.apache.rocketmq.streams.window.trigger;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Date;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.rocketmq.streams.common.channel.sinkcache.IMessageFlushCallBack;
-import org.apache.rocketmq.streams.common.channel.sinkcache.impl.AbstractMultiSplitMessageCache;
-import org.apache.rocketmq.streams.common.channel.sinkcache.impl.MessageCache;
 import org.apache.rocketmq.streams.common.channel.source.AbstractSupportShuffleSource;
 import org.apache.rocketmq.streams.common.component.ComponentCreator;
+import org.apache.rocketmq.streams.common.configure.ConfigureFileKey;
 import org.apache.rocketmq.streams.common.context.AbstractContext;
 import org.apache.rocketmq.streams.common.context.IMessage;
 import org.apache.rocketmq.streams.common.interfaces.IStreamOperator;
-import org.apache.rocketmq.streams.common.utils.DateUtil;
+import org.apache.rocketmq.streams.common.topology.model.IWindow;
+import org.apache.rocketmq.streams.common.utils.StringUtil;
 import org.apache.rocketmq.streams.window.debug.DebugWriter;
+import org.apache.rocketmq.streams.window.fire.EventTimeManager;
 import org.apache.rocketmq.streams.window.model.WindowInstance;
 import org.apache.rocketmq.streams.window.operator.AbstractWindow;
-import org.apache.rocketmq.streams.window.operator.impl.SessionOperator;
 
 public class WindowTrigger extends AbstractSupportShuffleSource implements IStreamOperator {
     protected static final Log LOG = LogFactory.getLog(WindowTrigger.class);
-    private AbstractWindow window;
-    //这个时间是在于数据很离散，无法触发窗口的时候做的补位
-    protected transient Long eventTimeLastUpdateTime;
-    protected transient ScheduledExecutorService fireCheckScheduler;//检查窗口实例是否可以触发
-    protected transient ConcurrentHashMap<String, WindowInstance> windowInstances = new ConcurrentHashMap();//保存所有注册的窗口实例，多个相同实例注册，只保留一个
-    //所有注册的窗口实例，按触发顺序排序，如果触发时间相同，按开始时间排序
-    protected transient PriorityQueue<WindowInstance> orderWindowInstancs = new PriorityQueue(new Comparator<WindowInstance>() {
+    /**
+     * 按触发时间排序，如果触发时间相同，开始时间晚的在前，直接比较毫秒时间
+     */
+    protected static final Comparator<WindowInstance> FIRE_ORDER_COMPARATOR = new Comparator<WindowInstance>() {
         @Override
         public int compare(WindowInstance o1, WindowInstance o2) {
-            int value = o1.getFireTime().compareTo(o2.getFireTime());
+            int value = Long.compare(o1.getFireTimeMs(), o2.getFireTimeMs());
             if (value != 0) {
                 return value;
             }
-            return o2.getStartTime().compareTo(o1.getStartTime());
+            return Long.compare(o2.getStartTimeMs(), o1.getStartTimeMs());
         }
-    });
+    };
+    /**
+     * 默认触发线程数，可以通过dipper.window.fire.thread.count配置
+     */
+    protected static final int DEFAULT_FIRE_THREAD_COUNT = 10;
+    /**
+     * 默认待触发实例数的上限，可以通过dipper.window.fire.max.pending.count配置
+     */
+    protected static final int DEFAULT_MAX_PENDING_FIRE_COUNT = 1000;
+    /**
+     * 销毁时等待正在执行的触发完成的时间
+     */
+    protected static final long DESTROY_WAIT_SECOND = 30;
+    private AbstractWindow window;
+    //这个时间是在于数据很离散，无法触发窗口的时候做的补位
+    protected transient Long eventTimeLastUpdateTime;
+    protected transient ScheduledExecutorService fireCheckScheduler;//检查窗口实例是否可以触发
+    protected transient AtomicBoolean fireCheckRequested = new AtomicBoolean(false);
+    protected transient volatile long lastFireCheckTime;
+    protected transient ConcurrentHashMap<String, WindowInstance> windowInstances = new ConcurrentHashMap();//保存所有注册的窗口实例，多个相同实例注册，只保留一个
+    //所有注册的窗口实例，按触发顺序排序，如果触发时间相同，按开始时间排序
+    protected transient PriorityQueue<WindowInstance> orderWindowInstancs = new PriorityQueue(FIRE_ORDER_COMPARATOR);
 
-    //所有可以触发的窗口实例，放到缓存中，有缓存线程调度执行触发逻辑，同一个分片的窗口实例按顺序串行触发，各个分片可以并行
-    protected transient MessageCache<WindowInstance> fireInstanceCache = new WindowInstanceCache();
+    //所有可以触发的窗口实例，提交到触发线程池，同一个分片的窗口实例按顺序串行触发，各个分片可以并行
+    protected transient WindowFireExecutor fireExecutor;
     //正在触发中的windowintance
     protected transient ConcurrentHashMap<String, WindowInstance> firingWindowInstances = new ConcurrentHashMap<>();
 
@@ -74,40 +95,30 @@ public class WindowTrigger extends AbstractSupportShuffleSource implements IStre
     protected boolean initConfigurable() {
         fireCheckScheduler = new ScheduledThreadPoolExecutor(2);
         setReceiver(window.getFireReceiver());
-        fireInstanceCache.openAutoFlush();
+        fireExecutor = new WindowFireExecutor(window.getConfigureName(), getIntProperty(ConfigureFileKey.WINDOW_FIRE_THREAD_COUNT, DEFAULT_FIRE_THREAD_COUNT),
+            getIntProperty(ConfigureFileKey.WINDOW_FIRE_MAX_PENDING_COUNT, DEFAULT_MAX_PENDING_FIRE_COUNT));
+        if (window.getEventTimeManager() != null) {
+            window.getEventTimeManager().addWatermarkListener(this::requestFireCheck);
+        }
         return super.initConfigurable();
     }
 
     @Override
     protected boolean startSource() {
-        //检查window instance，如果已经到了触发时间，且符合触发条件，直接触发，如果到了触发时间，还未符合触发条件。则放入触发列表。下次调度时间是下一个最近触发的时间
-
+        //watermark前进时检查window instance，如果已经到了触发时间，且符合触发条件，提交触发。定时任务只负责空闲分片的判断和按处理时间推进的兜底检查
         fireCheckScheduler.scheduleWithFixedDelay(new Runnable() {
             @Override
             public void run() {
                 try {
-                    if (orderWindowInstancs.size() == 0) {
-                        return;
-
+                    EventTimeManager eventTimeManager = window.getEventTimeManager();
+                    if (eventTimeManager != null) {
+                        eventTimeManager.refreshWatermark();
                     }
-                    WindowInstance windowInstance = orderWindowInstancs.peek();
-                    while (windowInstance != null) {
-                        boolean isStartNow = false;
-                        if (SessionOperator.SESSION_WINDOW_BEGIN_TIME.equalsIgnoreCase(windowInstance.getStartTime())) {
-                            isStartNow = true;
-                        }
-                        boolean success = executeFireTask(windowInstance, isStartNow);
-                        if (success) {
-                            windowInstances.remove(windowInstance.createWindowInstanceTriggerId());
-                            orderWindowInstancs.remove(windowInstance);
-                            windowInstance = orderWindowInstancs.peek();
-                        } else {
-                            break;
-                        }
-
+                    if (window.getTimeFieldName() == null || System.currentTimeMillis() - lastFireCheckTime >= IWindow.SYS_DELAY_TIME) {
+                        requestFireCheck();
                     }
                 } catch (Exception e) {
-                    e.printStackTrace();
+                    LOG.error("window fire check error", e);
                 }
             }
         }, 10, 1, TimeUnit.SECONDS);
@@ -115,6 +126,84 @@ public class WindowTrigger extends AbstractSupportShuffleSource implements IStre
         return false;
     }
 
+    /**
+     * 先停止触发检查，再等待已提交的触发执行完成，之后窗口才能释放存储
+     */
+    @Override
+    public void destroy() {
+        super.destroy();
+        if (fireCheckScheduler != null) {
+            fireCheckScheduler.shutdownNow();
+            awaitTermination(fireCheckScheduler);
+        }
+        if (fireExecutor != null) {
+            fireExecutor.shutdown();
+            try {
+                if (!fireExecutor.awaitTermination(DESTROY_WAIT_SECOND, TimeUnit.SECONDS)) {
+                    LOG.warn(window.getConfigureName() + " window fire is not finished in " + DESTROY_WAIT_SECOND + " seconds");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void awaitTermination(ExecutorService executorService) {
+        try {
+            if (!executorService.awaitTermination(DESTROY_WAIT_SECOND, TimeUnit.SECONDS)) {
+                LOG.warn(window.getConfigureName() + " window fire check is not finished in " + DESTROY_WAIT_SECOND + " seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int getIntProperty(String key, int defaultValue) {
+        String value = ComponentCreator.getProperties().getProperty(key);
+        if (StringUtil.isNotEmpty(value)) {
+            return Integer.parseInt(value.trim());
+        }
+        return defaultValue;
+    }
+
+    /**
+     * 请求一次触发检查，已经有待执行的检查时直接返回
+     */
+    protected void requestFireCheck() {
+        if (fireCheckScheduler == null || !fireCheckRequested.compareAndSet(false, true)) {
+            return;
+        }
+        fireCheckScheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                fireCheckRequested.set(false);
+                try {
+                    checkFire();
+                } catch (Exception e) {
+                    LOG.error("window fire check error", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 按触发顺序检查window instance，遇到第一个不能触发的实例停止
+     */
+    protected synchronized void checkFire() {
+        lastFireCheckTime = System.currentTimeMillis();
+        WindowInstance windowInstance = orderWindowInstancs.peek();
+        while (windowInstance != null) {
+            boolean success = executeFireTask(windowInstance);
+            if (success) {
+                windowInstances.remove(windowInstance.createWindowInstanceTriggerId());
+                orderWindowInstancs.remove(windowInstance);
+                windowInstance = orderWindowInstancs.peek();
+            } else {
+                break;
+            }
+        }
+    }
+
     /**
      * 如果没有window instance，则注册，否则放弃
      *
@@ -163,7 +252,7 @@ public class WindowTrigger extends AbstractSupportShuffleSource implements IStre
      *
      * @param windowInstance
      */
-    public boolean executeFireTask(WindowInstance windowInstance, boolean startNow) {
+    public boolean executeFireTask(WindowInstance windowInstance) {
         String windowInstanceTriggerId = windowInstance.createWindowInstanceTriggerId();
         FireResult fireResult = canFire(windowInstance);
         if (fireResult.isCanFire()) {
@@ -174,16 +263,22 @@ public class WindowTrigger extends AbstractSupportShuffleSource implements IStre
             //start firing
             DebugWriter.getDebugWriter(window.getConfigureName()).writeFireWindowInstance(windowInstance, eventTimeLastUpdateTime, this.window.getMaxEventTime(windowInstance.getSplitId()), fireResult.getReason());
             firingWindowInstances.put(windowInstanceTriggerId, windowInstance);
-            if (startNow) {
-                fireWindowInstance(windowInstance);
-            } else {
-                fireInstanceCache.addCache(windowInstance);
-            }
+            submitFire(windowInstance);
             return true;
         }
         return false;
     }
 
+    /**
+     * 提交到触发线程池，按分片串行触发
+     *
+     * @param windowInstance
+     * @return 可以等待触发完成
+     */
+    protected Future<?> submitFire(WindowInstance windowInstance) {
+        return fireExecutor.submit(windowInstance.getSplitId(), () -> fireWindowInstance(windowInstance));
+    }
+
     /**
      * 触发窗口
      *
@@ -219,14 +314,13 @@ public class WindowTrigger extends AbstractSupportShuffleSource implements IStre
             LOG.warn(windowInstanceTriggerId + " can't find window!");
             return new FireResult();
         }
-        Date fireTime = DateUtil.parseTime(windowInstance.getFireTime());
 
         //maxEventTime时间会一点点往前走
         Long maxEventTime = this.window.getMaxEventTime(windowInstance.getSplitId());
         if (window.getTimeFieldName() == null) {
             maxEventTime = System.currentTimeMillis();
         }
-        if (maxEventTime != null && maxEventTime - fireTime.getTime() >= 3000) {
+        if (maxEventTime != null && maxEventTime - windowInstance.getFireTimeMs() >= 3000) {
             return new FireResult(true, 0);
         }
         Long eventTimeLastUpdateTime = this.eventTimeLastUpdateTime;
@@ -242,66 +336,50 @@ public class WindowTrigger extends AbstractSupportShuffleSource implements IStre
         return null;
     }
 
-    public synchronized void fireWindowInstance(String queueId) {
-        List<WindowInstance> windowInstanceList = new ArrayList<>();
-        ConcurrentHashMap<String, WindowInstance> newWindowInstanceMap = new ConcurrentHashMap();
-        for (String key : windowInstances.keySet()) {
-            WindowInstance windowInstance = windowInstances.get(key);
-            if (windowInstance.getSplitId().equals(queueId)) {
-                windowInstanceList.add(windowInstance);
-            } else {
-                newWindowInstanceMap.put(key, windowInstance);
-            }
-
-        }
-        windowInstances = newWindowInstanceMap;
-        Collections.sort(windowInstanceList, new Comparator<WindowInstance>() {
-            @Override
-            public int compare(WindowInstance o1, WindowInstance o2) {
-                int value = o1.getFireTime().compareTo(o2.getFireTime());
-                if (value != 0) {
-                    return value;
+    /**
+     * 触发一个分片的所有窗口实例并等待完成。只在摘取实例和提交时持有锁，等待在锁外进行，触发过程中注册新的窗口实例需要这把锁
+     *
+     * @param queueId
+     */
+    public void fireWindowInstance(String queueId) {
+        Future<?> lastFire = null;
+        synchronized (this) {
+            List<WindowInstance> windowInstanceList = new ArrayList<>();
+            ConcurrentHashMap<String, WindowInstance> newWindowInstanceMap = new ConcurrentHashMap();
+            for (String key : windowInstances.keySet()) {
+                WindowInstance windowInstance = windowInstances.get(key);
+                if (windowInstance.getSplitId().equals(queueId)) {
+                    windowInstanceList.add(windowInstance);
+                } else {
+                    newWindowInstanceMap.put(key, windowInstance);
                 }
-                return o2.getStartTime().compareTo(o1.getStartTime());
+
+            }
+            windowInstances = newWindowInstanceMap;
+            Collections.sort(windowInstanceList, FIRE_ORDER_COMPARATOR);
+            //同一个分片串行触发，等待最后一个完成即可
+            for (WindowInstance windowInstance : windowInstanceList) {
+                lastFire = submitFire(windowInstance);
             }
-        });
-        for (WindowInstance windowInstance : windowInstanceList) {
-            fireWindowInstance(windowInstance);
         }
-    }
-
-    protected class WindowInstanceCache extends AbstractMultiSplitMessageCache<WindowInstance> {
-
-        public WindowInstanceCache() {
-            super(new IMessageFlushCallBack<WindowInstance>() {
-                @Override
-                public boolean flushMessage(List<WindowInstance> windowInstances) {
-
-                    Collections.sort(windowInstances, new Comparator<WindowInstance>() {
-                        @Override
-                        public int compare(WindowInstance o1, WindowInstance o2) {
-                            int value = o1.getFireTime().compareTo(o2.getFireTime());
-                            if (value != 0) {
-                                return value;
-                            }
-                            return o2.getStartTime().compareTo(o1.getStartTime());
-                        }
-                    });
-
-                    for (WindowInstance windowInstance : windowInstances) {
-                        fireWindowInstance(windowInstance);
-                    }
-                    return true;
-                }
-            });
+        if (lastFire == null) {
+            return;
         }
-
-        @Override
-        protected String createSplitId(WindowInstance windowInstance) {
-            return windowInstance.getSplitId();
+        try {
+            lastFire.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (CancellationException e) {
+            LOG.warn("fire window instance of queue " + queueId + " is cancelled, window is destroyed");
+        } catch (ExecutionException e) {
+            LOG.error("fire window instance of queue " + queueId + " error", e);
         }
     }
 
+    public WindowFireExecutor getFireExecutor() {
+        return fireExecutor;
+    }
+
     protected class FireResult {
         protected boolean canFire = false;
         protected int reason = -1;//0:event time;1:timeout;-1:nothign
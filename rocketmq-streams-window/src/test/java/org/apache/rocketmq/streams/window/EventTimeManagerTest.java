@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.window;
+
+import com.alibaba.fastjson.JSONObject;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.rocketmq.streams.common.context.IMessage;
+import org.apache.rocketmq.streams.common.context.Message;
+import org.apache.rocketmq.streams.window.fire.EventTimeManager;
+import org.apache.rocketmq.streams.window.model.WindowCache;
+import org.apache.rocketmq.streams.window.operator.impl.WindowOperator;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class EventTimeManagerTest {
+
+    @Test
+    public void testMinWatermark() {
+        WindowOperator window = createWindow();
+        AtomicInteger advanceCount = new AtomicInteger(0);
+        EventTimeManager eventTimeManager = new EventTimeManager(1000, 60 * 1000L);
+        eventTimeManager.addWatermarkListener(advanceCount::incrementAndGet);
+        assertNull(eventTimeManager.getWatermark());
+
+        eventTimeManager.updateEventTime(createMsg("q1", 10000), window);
+        //新的分片加入，watermark取最小值
+        eventTimeManager.updateEventTime(createMsg("q2", 5000), window);
+        assertEquals(4000L, eventTimeManager.getWatermark().longValue());
+        //q1前进，最小值仍是q2
+        eventTimeManager.updateEventTime(createMsg("q1", 20000), window);
+        assertEquals(4000L, eventTimeManager.getWatermark().longValue());
+        //q2前进，watermark跟着前进
+        eventTimeManager.updateEventTime(createMsg("q2", 15000), window);
+        assertEquals(14000L, eventTimeManager.getWatermark().longValue());
+        //乱序消息不影响
+        eventTimeManager.updateEventTime(createMsg("q2", 1000), window);
+        assertEquals(14000L, eventTimeManager.getWatermark().longValue());
+        assertEquals(2, advanceCount.get());
+    }
+
+    @Test
+    public void testIdleSplit() throws InterruptedException {
+        WindowOperator window = createWindow();
+        EventTimeManager eventTimeManager = new EventTimeManager(0, 100);
+        eventTimeManager.updateEventTime(createMsg("q1", 10000), window);
+        eventTimeManager.updateEventTime(createMsg("q2", 5000), window);
+        assertEquals(5000L, eventTimeManager.getWatermark().longValue());
+        Thread.sleep(150);
+        eventTimeManager.updateEventTime(createMsg("q1", 20000), window);
+        //q2空闲，不再拖住watermark
+        eventTimeManager.refreshWatermark();
+        assertEquals(20000L, eventTimeManager.getWatermark().longValue());
+    }
+
+    private WindowOperator createWindow() {
+        WindowOperator window = new WindowOperator();
+        window.setTimeFieldName("time");
+        return window;
+    }
+
+    private IMessage createMsg(String oriQueueId, long time) {
+        JSONObject msg = new JSONObject();
+        msg.put("time", time);
+        msg.put(WindowCache.ORIGIN_QUEUE_ID, oriQueueId);
+        IMessage message = new Message(msg);
+        message.getHeader().setQueueId("shuffle_1");
+        return message;
+    }
+}
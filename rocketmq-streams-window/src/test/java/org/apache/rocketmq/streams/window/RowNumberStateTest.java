@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.window;
+
+import org.apache.rocketmq.streams.state.kv.rocksdb.RocksDBOperator;
+import org.apache.rocketmq.streams.window.state.impl.RowNumberState;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RowNumberStateTest {
+
+    @Test
+    public void testSpillAndRestore() {
+        RowNumberState state = new RowNumberState(100, -1, 3600, RocksDBOperator::new);
+        long now = System.currentTimeMillis();
+        state.reset(now);
+        for (int round = 1; round <= 3; round++) {
+            for (int i = 0; i < 1000; i++) {
+                Assert.assertEquals(round, state.incrementAndGet("key_" + i, now));
+            }
+        }
+        //内存中的分组数不超过上限，淘汰的分组可以恢复
+        Assert.assertEquals(100, state.size());
+        Assert.assertTrue(state.getSpillCount() > 0);
+        Assert.assertTrue(state.getRestoreCount() > 0);
+
+        //新的窗口实例重新计数
+        state.reset(now + 1);
+        Assert.assertEquals(1, state.incrementAndGet("key_1", now));
+    }
+
+    @Test
+    public void testIdleEviction() {
+        RowNumberState state = new RowNumberState(1000, 1000, 3600, RocksDBOperator::new);
+        long now = System.currentTimeMillis();
+        state.reset(now);
+        for (int i = 0; i < 10; i++) {
+            state.incrementAndGet("idle_" + i, now);
+        }
+        state.incrementAndGet("active", now + 2000);
+        Assert.assertEquals(1, state.size());
+        Assert.assertEquals(2, state.incrementAndGet("idle_1", now + 2000));
+    }
+
+    @Test
+    public void testUnboundedKeys() {
+        RowNumberState state = new RowNumberState(10000, -1, 3600, RocksDBOperator::new);
+        long now = System.currentTimeMillis();
+        state.reset(now);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 200000; i++) {
+            Assert.assertEquals(1, state.incrementAndGet("unbounded_" + i, now));
+        }
+        System.out.println("200000 keys cost " + (System.currentTimeMillis() - start) + " ms, spill " + state.getSpillCount());
+        Assert.assertEquals(10000, state.size());
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.window;
+
+import com.alibaba.fastjson.JSONObject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import org.apache.rocketmq.streams.common.datatype.IntDataType;
+import org.apache.rocketmq.streams.common.datatype.ListDataType;
+import org.apache.rocketmq.streams.common.datatype.MapDataType;
+import org.apache.rocketmq.streams.common.datatype.StringDataType;
+import org.apache.rocketmq.streams.window.operator.impl.OrderBy;
+import org.apache.rocketmq.streams.window.operator.impl.TopNState;
+import org.apache.rocketmq.streams.window.state.impl.WindowValue;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TopNStateTest {
+
+    @Test
+    public void testAddAndSort() {
+        List<OrderBy> orders = createOrders();
+        TopNState topNState = new TopNState(3);
+        assertTrue(topNState.addAndSortMsg(createMsg("chris2", 18), orders));
+        assertTrue(topNState.addAndSortMsg(createMsg("chris2", 19), orders));
+        assertTrue(topNState.addAndSortMsg(createMsg("chris1", 18), orders));
+        assertTrue(topNState.addAndSortMsg(createMsg("chris3", 9), orders));
+        //比第3条差，直接丢弃
+        assertFalse(topNState.addAndSortMsg(createMsg("chris1", 17), orders));
+        assertEquals(3, topNState.size());
+
+        List<JSONObject> msgs = topNState.getOrderMsgs("rn", new HashSet<>());
+        assertEquals("chris3", msgs.get(0).getString("name"));
+        assertEquals(19, msgs.get(1).getIntValue("age"));
+        assertEquals(18, msgs.get(2).getIntValue("age"));
+        assertEquals(3, msgs.get(2).getIntValue("rn"));
+    }
+
+    @Test
+    public void testSerialize() {
+        List<OrderBy> orders = createOrders();
+        TopNState topNState = new TopNState(2);
+        topNState.addAndSortMsg(createMsg("a", 1), orders);
+        topNState.addAndSortMsg(createMsg("b", 2), orders);
+
+        WindowValue windowValue = new WindowValue();
+        windowValue.putAggColumnResult("topN", topNState);
+        WindowValue copy = WindowValue.fromBytes(windowValue.toBytes(), 0, windowValue.toBytes().length);
+        TopNState restored = (TopNState) copy.getAggColumnResultByKey("topN");
+        assertEquals(2, restored.size());
+        assertTrue(restored.addAndSortMsg(createMsg("c", 3), orders));
+        assertEquals("c", restored.getOrderMsgs("rn", new HashSet<>()).get(0).getString("name"));
+
+        TopNState fromJson = new TopNState();
+        fromJson.toObject(restored.toJson());
+        assertEquals("c", fromJson.getOrderMsgs("rn", new HashSet<>()).get(0).getString("name"));
+    }
+
+    @Test
+    public void testLegacyJson() {
+        JSONObject legacy = new JSONObject();
+        legacy.put("topN", 2);
+        legacy.put("changed", 1);
+        List<String> sortValues = new ArrayList<>();
+        sortValues.add("b#@#%@2");
+        sortValues.add("a#@#%@1");
+        Map<String, String> msgs = new HashMap<>();
+        msgs.put("b#@#%@2", createMsg("b", 2).toJSONString());
+        msgs.put("a#@#%@1", createMsg("a", 1).toJSONString());
+        ListDataType listDataType = new ListDataType();
+        listDataType.setParadigmType(new StringDataType());
+        MapDataType mapDataType = new MapDataType();
+        mapDataType.setKeyParadigmType(new StringDataType());
+        mapDataType.setValueParadigmType(new StringDataType());
+        legacy.put("sortValues", listDataType.toDataJson(sortValues));
+        legacy.put("orderByValue2Msgs", mapDataType.toDataJson(msgs));
+
+        TopNState topNState = new TopNState();
+        topNState.toObject(legacy.toJSONString());
+        assertEquals("b", topNState.getOrderMsgs("rn", new HashSet<>()).get(0).getString("name"));
+        assertTrue(topNState.addAndSortMsg(createMsg("c", 0), createOrders()));
+        List<JSONObject> orderMsgs = topNState.getOrderMsgs("rn", new HashSet<>());
+        assertEquals(2, orderMsgs.size());
+        assertEquals("c", orderMsgs.get(0).getString("name"));
+        assertEquals("b", orderMsgs.get(1).getString("name"));
+    }
+
+    private List<OrderBy> createOrders() {
+        List<OrderBy> orders = new ArrayList<>();
+        OrderBy orderBy = new OrderBy("name", false);
+        orderBy.setDataType(new StringDataType());
+        orders.add(orderBy);
+        orderBy = new OrderBy("age", false);
+        orderBy.setDataType(new IntDataType());
+        orders.add(orderBy);
+        return orders;
+    }
+
+    private JSONObject createMsg(String name, int age) {
+        JSONObject msg = new JSONObject();
+        msg.put("name", name);
+        msg.put("age", age);
+        return msg;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.window;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.streams.window.trigger.WindowFireExecutor;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WindowFireExecutorTest {
+
+    @Test
+    public void testSplitOrder() throws Exception {
+        WindowFireExecutor executor = new WindowFireExecutor("test", 4, 1000);
+        List<Integer> split1 = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> split2 = Collections.synchronizedList(new ArrayList<>());
+        Future<?> last1 = null;
+        Future<?> last2 = null;
+        for (int i = 0; i < 100; i++) {
+            int index = i;
+            last1 = executor.submit("split1", () -> split1.add(index));
+            last2 = executor.submit("split2", () -> split2.add(index));
+        }
+        last1.get(10, TimeUnit.SECONDS);
+        last2.get(10, TimeUnit.SECONDS);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, split1.get(i).intValue());
+            assertEquals(i, split2.get(i).intValue());
+        }
+        assertEquals(200, executor.getFireCount());
+        assertEquals(0, executor.getPendingFireCount());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testParallelAndBackPressure() throws Exception {
+        WindowFireExecutor executor = new WindowFireExecutor("test", 2, 2);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable slowFire = () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        executor.submit("split1", slowFire);
+        executor.submit("split2", slowFire);
+        //不同分片并行触发
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertTrue(executor.isBackPressure());
+
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            release.countDown();
+        });
+        releaser.start();
+        long start = System.currentTimeMillis();
+        executor.waitIfBackPressure();
+        assertTrue(System.currentTimeMillis() - start >= 100);
+        assertFalse(executor.isBackPressure());
+        assertEquals(1, executor.getBackPressureCount());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        WindowFireExecutor executor = new WindowFireExecutor("test", 1, 1000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> fired = Collections.synchronizedList(new ArrayList<>());
+        executor.submit("split1", () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        for (int i = 0; i < 40; i++) {
+            int index = i;
+            executor.submit("split1", () -> fired.add(index));
+        }
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        //关闭后不再接收新的触发
+        assertTrue(executor.submit("split1", () -> fired.add(-1)).isCancelled());
+        assertFalse(executor.awaitTermination(100, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        //已经提交的触发全部执行完，超过一次调度的数量也不会丢
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(40, fired.size());
+        for (int i = 0; i < 40; i++) {
+            assertEquals(i, fired.get(i).intValue());
+        }
+        assertEquals(0, executor.getPendingFireCount());
+    }
+}
@@ -22,11 +22,14 @@ import java.util.Date;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import org.apache.rocketmq.streams.common.context.Message;
+import org.apache.rocketmq.streams.common.datatype.JavaBeanDataType;
 import org.apache.rocketmq.streams.common.utils.CollectionUtil;
 import org.apache.rocketmq.streams.common.utils.DateUtil;
+import org.apache.rocketmq.streams.common.utils.SerializeUtil;
 import org.apache.rocketmq.streams.window.model.FireMode;
 import org.apache.rocketmq.streams.window.model.WindowInstance;
 import org.apache.rocketmq.streams.window.operator.AbstractWindow;
+import org.apache.rocketmq.streams.window.operator.impl.SessionOperator;
 import org.apache.rocketmq.streams.window.operator.impl.WindowOperator;
 import org.junit.Assert;
 import org.junit.Test;
@@ -55,6 +58,52 @@ public class WindowInstanceTest {
         assertTrue(windowInstances.size() == 0);
     }
 
+    @Test
+    public void testEpochTimeModel() {
+        long start = DateUtil.parseTime("2021-07-09 11:00:00").getTime();
+        long end = DateUtil.parseTime("2021-07-09 11:05:00").getTime();
+        long fire = DateUtil.parseTime("2021-07-09 11:05:01").getTime();
+
+        WindowInstance instance = new WindowInstance();
+        instance.setSplitId("1");
+        instance.setWindowNameSpace("namespace");
+        instance.setWindowName("name");
+        instance.setWindowInstanceName("name");
+        instance.setStartTimeMs(start);
+        instance.setEndTimeMs(end);
+        instance.setFireTimeMs(fire);
+        Assert.assertEquals("2021-07-09 11:00:00", instance.getStartTime());
+        Assert.assertEquals("2021-07-09 11:05:01", instance.getFireTime());
+
+        WindowInstance stored = SerializeUtil.deserialize(SerializeUtil.serialize(instance));
+        Assert.assertEquals(fire, stored.getFireTimeMs());
+        Assert.assertEquals(instance.createWindowInstanceTriggerId(), stored.createWindowInstanceTriggerId());
+        Assert.assertEquals(instance.getWindowInstanceId(), stored.getWindowInstanceId());
+
+        //原来javaBean格式保存的字符串时间，加载后和毫秒时间一致，windowInstanceId保持原来的值
+        WindowInstance old = new WindowInstance();
+        old.setStartTime("2021-07-09 11:00:00");
+        old.setEndTime("2021-07-09 11:05:00");
+        old.setFireTime("2021-07-09 11:05:01");
+        old.setWindowInstanceId("old_id");
+        JavaBeanDataType javaBeanDataType = new JavaBeanDataType(WindowInstance.class);
+        WindowInstance legacy = (WindowInstance) javaBeanDataType.byteToValue(javaBeanDataType.toBytes(old, false));
+        Assert.assertEquals(start, legacy.getStartTimeMs());
+        Assert.assertEquals(end, legacy.getEndTimeMs());
+        Assert.assertEquals(fire, legacy.getFireTimeMs());
+        Assert.assertEquals("old_id", legacy.getWindowInstanceId());
+
+        WindowInstance copy = instance.copy();
+        copy.setFireTimeMs(fire - 1000);
+        Assert.assertEquals("2021-07-09 11:05:00", copy.getFireTime());
+        Assert.assertEquals(start, copy.getStartTimeMs());
+
+        WindowInstance session = new WindowInstance();
+        session.setStartTime(SessionOperator.SESSION_WINDOW_BEGIN_TIME);
+        Assert.assertEquals(SessionOperator.SESSION_WINDOW_BEGIN_TIME_MS, session.getStartTimeMs());
+        Assert.assertEquals(SessionOperator.SESSION_WINDOW_BEGIN_TIME, session.getStartTime());
+    }
+
     @Test
     public void testWindowInstanceMode1() {
         WindowOperator window = new WindowOperator();
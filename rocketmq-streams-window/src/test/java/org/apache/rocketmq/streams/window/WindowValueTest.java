@@ -16,16 +16,25 @@
  */
 package org.apache.rocketmq.streams.window;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import org.apache.rocketmq.streams.common.utils.ReflectUtil;
 import org.apache.rocketmq.streams.common.utils.SerializeUtil;
+import org.apache.rocketmq.streams.script.function.aggregation.AccumulatorCodecRegistry;
+import org.apache.rocketmq.streams.script.function.aggregation.AverageAccumulator;
 import org.apache.rocketmq.streams.script.function.aggregation.CountAccumulator;
+import org.apache.rocketmq.streams.script.function.aggregation.CountDistinctAccumulator;
+import org.apache.rocketmq.streams.script.function.aggregation.MaxAccumulator;
 import org.apache.rocketmq.streams.script.function.aggregation.SumAccumulator;
+import org.apache.rocketmq.streams.script.service.IAccumulatorCodec;
 import org.apache.rocketmq.streams.window.state.impl.WindowValue;
 import org.junit.Test;
 
 import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertEquals;
 
 public class WindowValueTest {
     /**
@@ -68,4 +77,80 @@ public class WindowValueTest {
         WindowValue windowValue = new WindowValue();
         ReflectUtil.setBeanFieldValue(windowValue, "aggColumnResult", value);
     }
+
+    @Test
+    public void testBinarySerialize() {
+        WindowValue windowValue = new WindowValue();
+        windowValue.setId(1L);
+        windowValue.setGroupBy("group");
+        windowValue.setPartition("queue_1");
+        windowValue.setPartitionNum(10);
+        windowValue.setStartTime("2021-09-15 15:30:00");
+        windowValue.setEndTime("2021-09-15 15:31:00");
+        windowValue.setMaxOffset("{\"queue_1\":\"100\"}");
+        Map<String, Object> computed = new HashMap<>();
+        computed.put("cnt", 3);
+        windowValue.putComputedColumnResult(computed);
+
+        CountAccumulator countAccumulator = new CountAccumulator();
+        CountAccumulator.CountAccum countAccum = countAccumulator.createAccumulator();
+        countAccumulator.accumulate(countAccum, 1);
+        windowValue.putAggColumnResult("count", countAccum);
+        AverageAccumulator averageAccumulator = new AverageAccumulator();
+        AverageAccumulator.AverageAccum averageAccum = averageAccumulator.createAccumulator();
+        averageAccumulator.accumulate(averageAccum, 1);
+        averageAccumulator.accumulate(averageAccum, 2);
+        windowValue.putAggColumnResult("avg", averageAccum);
+        MaxAccumulator.MaxAccum maxAccum = new MaxAccumulator.MaxAccum();
+        maxAccum.max = "12";
+        windowValue.putAggColumnResult("max", maxAccum);
+        CountDistinctAccumulator countDistinctAccumulator = new CountDistinctAccumulator();
+        CountDistinctAccumulator.CountDistinctAccum countDistinctAccum = countDistinctAccumulator.createAccumulator();
+        countDistinctAccumulator.accumulate(countDistinctAccum, "a");
+        countDistinctAccumulator.accumulate(countDistinctAccum, "b");
+        windowValue.putAggColumnResult("count_distinct", countDistinctAccum);
+        //没有注册codec的值按原来的json格式保存
+        windowValue.putAggColumnResult("legacy", 5);
+
+        byte[] bytes = SerializeUtil.serialize(windowValue);
+        WindowValue copy = SerializeUtil.deserialize(bytes);
+        assertEquals("group", copy.getGroupBy());
+        assertEquals("queue_1", copy.getPartition());
+        assertEquals(10, copy.getPartitionNum());
+        assertEquals("2021-09-15 15:31:00", copy.getEndTime());
+        assertEquals(windowValue.getMaxOffset(), copy.getMaxOffset());
+        assertEquals(3, copy.getComputedColumnResultByKey("cnt"));
+        assertEquals(1, ((CountAccumulator.CountAccum) copy.getAggColumnResultByKey("count")).count);
+        assertEquals(1.5, ((AverageAccumulator.AverageAccum) copy.getAggColumnResultByKey("avg")).value);
+        assertEquals(2, ((AverageAccumulator.AverageAccum) copy.getAggColumnResultByKey("avg")).count);
+        assertEquals("12", ((MaxAccumulator.MaxAccum) copy.getAggColumnResultByKey("max")).max);
+        assertEquals(2L, countDistinctAccumulator.getValue((CountDistinctAccumulator.CountDistinctAccum) copy.getAggColumnResultByKey("count_distinct")).longValue());
+        assertEquals(5, copy.getAggColumnResultByKey("legacy"));
+
+        WindowValue cloned = windowValue.clone();
+        assertEquals("12", ((MaxAccumulator.MaxAccum) cloned.getAggColumnResultByKey("max")).max);
+    }
+
+    @Test
+    public void testCustomCodec() {
+        AccumulatorCodecRegistry.register(100, StringBuilder.class, new IAccumulatorCodec<StringBuilder>() {
+            @Override public int getVersion() {
+                return 2;
+            }
+
+            @Override public void encode(StringBuilder accumulator, DataOutput out) throws IOException {
+                out.writeUTF(accumulator.toString());
+            }
+
+            @Override public StringBuilder decode(int version, DataInput in) throws IOException {
+                assertEquals(2, version);
+                return new StringBuilder(in.readUTF());
+            }
+        });
+        WindowValue windowValue = new WindowValue();
+        windowValue.putAggColumnResult("custom", new StringBuilder("abc"));
+        WindowValue copy = new WindowValue();
+        copy.setAggColumnResult(windowValue.getAggColumnResult());
+        assertEquals("abc", copy.getAggColumnResultByKey("custom").toString());
+    }
 }
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.window.operator.impl;
+
+import com.alibaba.fastjson.JSONObject;
+import org.apache.rocketmq.streams.common.context.Context;
+import org.apache.rocketmq.streams.common.context.IMessage;
+import org.apache.rocketmq.streams.common.context.Message;
+import org.apache.rocketmq.streams.common.utils.MapKeyUtil;
+import org.apache.rocketmq.streams.state.kv.rocksdb.RocksDBOperator;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OverWindowTest {
+
+    /**
+     * 分组淘汰到本地rocksdb后，销毁窗口释放任务实例的引用
+     */
+    @Test
+    public void testDestroyReleaseJobOperator() {
+        OverWindow window = new OverWindow();
+        window.setNameSpace("over_window_test");
+        window.setConfigureName("destroy");
+        window.setGroupByFieldName("name");
+        window.setRowNumerName("rowNumber");
+        //开始时间按毫秒对齐，按整分钟对齐避免每条消息都创建新的窗口实例
+        window.setSizeInterval(60000);
+        window.setSlideInterval(60000);
+        window.setMaxPartitionCacheSize(1);
+
+        RocksDBOperator operator = RocksDBOperator.createJobOperator(MapKeyUtil.createKey("over_window_test", "destroy"));
+        try {
+            for (int i = 0; i < 10; i++) {
+                JSONObject msg = new JSONObject();
+                msg.put("name", "name_" + i % 3);
+                IMessage message = new Message(msg);
+                window.doMessage(message, new Context(message));
+            }
+            Assert.assertEquals(2, operator.getRefCount());
+            window.destroy();
+            Assert.assertEquals(1, operator.getRefCount());
+        } finally {
+            operator.drop();
+        }
+    }
+}
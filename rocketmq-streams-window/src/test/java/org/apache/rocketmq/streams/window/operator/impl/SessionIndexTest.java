@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.window.operator.impl;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import org.apache.rocketmq.streams.common.utils.DateUtil;
+import org.apache.rocketmq.streams.window.model.WindowInstance;
+import org.apache.rocketmq.streams.window.state.impl.WindowValue;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class SessionIndexTest {
+
+    private static final long BASE = WindowInstance.parseTime("2021-07-01 00:00:00");
+
+    private static final long TIMEOUT = 10 * 1000L;
+
+    private static final long WATERMARK = 2 * 1000L;
+
+    @Test
+    public void testAssignAndExtend() {
+        List<String> merged = new ArrayList<>();
+        SessionIndex index = new SessionIndex(WATERMARK, (survivor, absorbed) -> merged.add(survivor.getGroupBy() + "<-" + absorbed.getGroupBy()));
+        WindowValue first = assign(index, 0, "a");
+        //落在会话内，延长结束时间
+        assertSame(first, assign(index, 5, "b"));
+        assertEquals(format(BASE + 15 * 1000L), first.getEndTime());
+        assertEquals(format(BASE + 17 * 1000L), first.getFireTime());
+        //超过触发时间，新的会话
+        WindowValue second = assign(index, 40, "c");
+        assertEquals(2, index.size());
+        //早于第二个会话，开始时间前移
+        assertSame(second, assign(index, 35, "d"));
+        assertEquals(format(BASE + 35 * 1000L), second.getStartTime());
+        assertEquals(0, merged.size());
+    }
+
+    @Test
+    public void testMergeNeighbours() {
+        List<String> merged = new ArrayList<>();
+        SessionIndex index = new SessionIndex(WATERMARK, (survivor, absorbed) -> merged.add(survivor.getGroupBy() + "<-" + absorbed.getGroupBy()));
+        WindowValue first = assign(index, 0, "a");
+        assign(index, 20, "b");
+        assign(index, 44, "c");
+        assertEquals(3, index.size());
+        //d和b重叠，b的开始时间前移后不晚于a的触发时间，合并到a
+        assertSame(first, assign(index, 12, "d"));
+        assertEquals(2, index.size());
+        assertEquals("[a<-b]", merged.toString());
+        assertEquals(format(BASE + 30 * 1000L), first.getEndTime());
+        //填补和c之间的空隙
+        assertSame(first, assign(index, 32, "e"));
+        assertEquals(1, index.size());
+        assertEquals("[a<-b, a<-e, a<-c]", merged.toString());
+        assertEquals(format(BASE + 54 * 1000L), first.getEndTime());
+        assertEquals(format(BASE + 56 * 1000L), first.getFireTime());
+    }
+
+    @Test
+    public void testLoadSameStart() {
+        List<String> merged = new ArrayList<>();
+        SessionIndex index = new SessionIndex(WATERMARK, (survivor, absorbed) -> merged.add(survivor.getGroupBy() + "<-" + absorbed.getGroupBy()));
+        index.load(createValue(0, "a"));
+        index.load(createValue(20, "b"));
+        index.load(createValue(0, "c"));
+        assertEquals(2, index.size());
+        assertEquals("a<-c", merged.get(0));
+        List<WindowValue> values = index.values();
+        assertEquals("a", values.get(0).getGroupBy());
+        assertEquals("b", values.get(1).getGroupBy());
+    }
+
+    private WindowValue assign(SessionIndex index, int second, String name) {
+        long start = BASE + second * 1000L;
+        return index.assign(start, start + TIMEOUT, () -> createValue(second, name));
+    }
+
+    private WindowValue createValue(int second, String name) {
+        long start = BASE + second * 1000L;
+        WindowValue value = new WindowValue();
+        value.setGroupBy(name);
+        value.setStartTime(format(start));
+        value.setEndTime(format(start + TIMEOUT));
+        value.setFireTime(format(start + TIMEOUT + WATERMARK));
+        return value;
+    }
+
+    private String format(long time) {
+        return DateUtil.format(new Date(time), "yyyy-MM-dd HH:mm:ss");
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.window.storage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.rocketmq.streams.common.utils.SerializeUtil;
+import org.apache.rocketmq.streams.state.kv.rocksdb.RocksDBOperator;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+
+public class RocksdbIteratorTest {
+
+    private static final int PREFIX_COUNT = 20;
+
+    private static final int KEY_COUNT = 10000;
+
+    private static RocksDBOperator operator;
+
+    private static ColumnFamilyHandle handle;
+
+    @BeforeClass
+    public static void init() throws RocksDBException {
+        operator = RocksDBOperator.createJobOperator("rocksdb_iterator_test");
+        handle = operator.getColumnFamily(DataType.WINDOW_BASE_VALUE.getValue());
+        for (int i = 0; i < PREFIX_COUNT; i++) {
+            try (WriteBatch writeBatch = new WriteBatch()) {
+                for (int j = 0; j < KEY_COUNT; j++) {
+                    List<String> value = new ArrayList<>();
+                    value.add("msg_key_" + j);
+                    value.add("value_" + i + "_" + j);
+                    writeBatch.put(handle, createKey(i, j), SerializeUtil.serialize(value));
+                }
+                operator.getInstance().write(operator.getWriteOptions(), writeBatch);
+            }
+        }
+    }
+
+    @AfterClass
+    public static void destroy() {
+        operator.drop();
+    }
+
+    @Test
+    public void testUpperBound() {
+        Assert.assertArrayEquals(new byte[] {'a', 'c'}, RocksdbIterator.createUpperBound(new byte[] {'a', 'b'}));
+        Assert.assertArrayEquals(new byte[] {'b'}, RocksdbIterator.createUpperBound(new byte[] {'a', (byte) 0xFF}));
+        Assert.assertNull(RocksdbIterator.createUpperBound(new byte[] {(byte) 0xFF, (byte) 0xFF}));
+    }
+
+    @Test
+    public void testPrefixScan() {
+        RocksdbIterator<List<String>> iterator = newIterator(createPrefix(3));
+        int count = 0;
+        while (iterator.hasNext()) {
+            IteratorWrap<List<String>> wrap = iterator.next();
+            Assert.assertTrue(wrap.getKey().startsWith(createPrefix(3)));
+            Assert.assertEquals(2, wrap.getData().size());
+            count++;
+        }
+        Assert.assertEquals(KEY_COUNT, count);
+        Assert.assertFalse(iterator.hasNext());
+
+        //比前缀bloom filter短的前缀，跨越多个分片
+        iterator = newIterator("windowBaseValue;");
+        count = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        Assert.assertEquals(PREFIX_COUNT * KEY_COUNT, count);
+    }
+
+    /**
+     * 本地rocksdb上扫描20万条数据，对比逐条生成字符串key、比较前缀并反序列化值的旧实现。只读取key时不再解码
+     */
+    @Test
+    public void testScanBenchmark() {
+        for (int round = 0; round < 3; round++) {
+            long start = System.currentTimeMillis();
+            int count = 0;
+            for (int i = 0; i < PREFIX_COUNT; i++) {
+                count += legacyScan(createPrefix(i));
+            }
+            Assert.assertEquals(PREFIX_COUNT * KEY_COUNT, count);
+            long legacyCost = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            count = 0;
+            for (int i = 0; i < PREFIX_COUNT; i++) {
+                RocksdbIterator<List<String>> iterator = newIterator(createPrefix(i));
+                while (iterator.hasNext()) {
+                    iterator.next().getKeyBytes();
+                    count++;
+                }
+            }
+            Assert.assertEquals(PREFIX_COUNT * KEY_COUNT, count);
+            long keyScanCost = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            count = 0;
+            for (int i = 0; i < PREFIX_COUNT; i++) {
+                RocksdbIterator<List<String>> iterator = newIterator(createPrefix(i));
+                while (iterator.hasNext()) {
+                    count += iterator.next().getData().size();
+                }
+            }
+            Assert.assertEquals(PREFIX_COUNT * KEY_COUNT * 2, count);
+            long valueScanCost = System.currentTimeMillis() - start;
+            System.out.println("legacy scan cost is " + legacyCost + ", key scan cost is " + keyScanCost + ", value scan cost is " + valueScanCost);
+        }
+    }
+
+    private int legacyScan(String keyPrefix) {
+        int count = 0;
+        try (ReadOptions readOptions = new ReadOptions();
+             RocksIterator iterator = operator.getInstance().newIterator(handle, readOptions)) {
+            iterator.seek(keyPrefix.getBytes(StandardCharsets.UTF_8));
+            while (iterator.isValid() && new String(iterator.key()).startsWith(keyPrefix)) {
+                String key = new String(iterator.key());
+                List<String> data = SerializeUtil.deserialize(iterator.value());
+                if (key != null && data != null) {
+                    count++;
+                }
+                iterator.next();
+            }
+        }
+        return count;
+    }
+
+    private static <T> RocksdbIterator<T> newIterator(String keyPrefix) {
+        byte[] prefix = keyPrefix.getBytes(StandardCharsets.UTF_8);
+        return new RocksdbIterator<>(keyPrefix, operator.getInstance(), handle, operator.createReadOptions(prefix));
+    }
+
+    private static String createPrefix(int index) {
+        return "windowBaseValue;shuffle_queue_" + (100 + index) + ";window_instance;NORMAL_WINDOW";
+    }
+
+    private static byte[] createKey(int index, int keyIndex) {
+        return (createPrefix(index) + ";msg_key_" + keyIndex).getBytes(StandardCharsets.UTF_8);
+    }
+}